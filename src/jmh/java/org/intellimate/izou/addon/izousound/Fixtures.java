@@ -0,0 +1,184 @@
+package org.intellimate.izou.addon.izousound;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The Fixtures generate the sound files the benchmarks run on, so that no sound files have to be checked in. They are
+ * generated by the build (see the benchmark profile of the pom), or the first time a benchmark needs them.
+ * <p>
+ *     The MP3 files consist of MPEG-1 Layer III frames (128 kbit/s, 48 kHz, stereo) whose main data is empty, followed
+ *     by an ID3v1 tag. The frames decode to silence, but they run through the whole synthesis of the decoder, which is
+ *     where most of the decoding time is spent. The WAV files hold a sine tone.
+ * </p>
+ * <p>
+ *     All fixtures are stored in the folder set by the {@value #DIRECTORY_PROPERTY} system property, which defaults to
+ *     {@code target/benchmark-fixtures}.
+ * </p>
+ */
+public final class Fixtures {
+    public static final String DIRECTORY_PROPERTY = "izousound.fixtures";
+
+    private static final int FRAME_SIZE = 384;
+    private static final int SAMPLES_PER_FRAME = 1152;
+    private static final int SAMPLE_RATE = 48000;
+    private static final int TRACKS_PER_ALBUM = 10;
+    private static final int ALBUMS_PER_ARTIST = 5;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Generates the fixtures used by the benchmarks with their default parameters
+     *
+     * @param args unused
+     * @throws IOException thrown if a fixture could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        track(10);
+        track(180);
+        library(1000);
+        System.out.println("Generated benchmark fixtures in " + getDirectory().getAbsolutePath());
+    }
+
+    /**
+     * Gets the folder the fixtures are stored in
+     *
+     * @return the folder of the fixtures
+     */
+    public static File getDirectory() {
+        return new File(System.getProperty(DIRECTORY_PROPERTY, "target/benchmark-fixtures"));
+    }
+
+    /**
+     * Gets an MP3 file that plays for {@code seconds} seconds, it is generated if it does not exist yet
+     *
+     * @param seconds the duration of the track in seconds
+     * @return the MP3 file
+     * @throws IOException thrown if the file could not be written
+     */
+    public static synchronized File track(int seconds) throws IOException {
+        File file = new File(getDirectory(), "tracks/track-" + seconds + "s.mp3");
+        if (!file.exists()) {
+            writeMp3(file, seconds, "Track " + seconds, "IzouSound", "Benchmark");
+        }
+        return file;
+    }
+
+    /**
+     * Gets a library folder with {@code tracks} short MP3 files, sorted into artist and album folders. Every album
+     * also contains a WAV file and a cover image, so that the search has to tell sound files apart from other files.
+     * The library is generated if it does not exist yet.
+     *
+     * @param tracks the amount of MP3 files in the library
+     * @return the root folder of the library
+     * @throws IOException thrown if a file could not be written
+     */
+    public static synchronized File library(int tracks) throws IOException {
+        File root = new File(getDirectory(), "library-" + tracks);
+        File complete = new File(root, ".complete");
+        if (complete.exists()) {
+            return root;
+        }
+
+        for (int track = 0; track < tracks; track++) {
+            int album = track / TRACKS_PER_ALBUM;
+            File folder = new File(root, "artist-" + (album / ALBUMS_PER_ARTIST) + "/album-" + album);
+            writeMp3(new File(folder, "track-" + track + ".mp3"), 1, "Track " + track,
+                    "Artist " + album / ALBUMS_PER_ARTIST, "Album " + album);
+            if (track % TRACKS_PER_ALBUM == 0) {
+                writeWav(new File(folder, "intro.wav"), 1);
+                write(new File(folder, "cover.jpg"), new byte[1024]);
+            }
+        }
+        write(complete, new byte[0]);
+        return root;
+    }
+
+    // Writes an MP3 file of empty frames with an ID3v1 tag
+    private static void writeMp3(File file, int seconds, String title, String artist, String album)
+            throws IOException {
+        int frames = (int) ((long) seconds * SAMPLE_RATE / SAMPLES_PER_FRAME);
+        byte[] frame = new byte[FRAME_SIZE];
+        // MPEG-1 Layer III without CRC, 128 kbit/s, 48 kHz, no padding, stereo
+        frame[0] = (byte) 0xFF;
+        frame[1] = (byte) 0xFB;
+        frame[2] = (byte) 0x94;
+        frame[3] = (byte) 0x00;
+
+        byte[] tag = new byte[128];
+        put(tag, 0, "TAG", 3);
+        put(tag, 3, title, 30);
+        put(tag, 33, artist, 30);
+        put(tag, 63, album, 30);
+        put(tag, 93, "2016", 4);
+        tag[127] = 12;
+
+        ensureParent(file);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int i = 0; i < frames; i++) {
+                out.write(frame);
+            }
+            out.write(tag);
+        }
+    }
+
+    // Writes a 16 bit stereo WAV file with a 440 Hz sine tone
+    private static void writeWav(File file, int seconds) throws IOException {
+        int sampleRate = 44100;
+        int dataSize = seconds * sampleRate * 4;
+        byte[] wav = new byte[44 + dataSize];
+        put(wav, 0, "RIFF", 4);
+        putInt(wav, 4, 36 + dataSize);
+        put(wav, 8, "WAVEfmt ", 8);
+        putInt(wav, 16, 16);
+        putShort(wav, 20, 1);
+        putShort(wav, 22, 2);
+        putInt(wav, 24, sampleRate);
+        putInt(wav, 28, sampleRate * 4);
+        putShort(wav, 32, 4);
+        putShort(wav, 34, 16);
+        put(wav, 36, "data", 4);
+        putInt(wav, 40, dataSize);
+        for (int i = 0; i < seconds * sampleRate; i++) {
+            short sample = (short) (Math.sin(2 * Math.PI * 440 * i / sampleRate) * Short.MAX_VALUE / 2);
+            putShort(wav, 44 + i * 4, sample);
+            putShort(wav, 46 + i * 4, sample);
+        }
+        write(file, wav);
+    }
+
+    private static void write(File file, byte[] content) throws IOException {
+        ensureParent(file);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+    }
+
+    private static void ensureParent(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+    }
+
+    private static void put(byte[] target, int offset, String text, int length) {
+        byte[] bytes = Arrays.copyOf(text.getBytes(StandardCharsets.ISO_8859_1), length);
+        System.arraycopy(bytes, 0, target, offset, length);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        putShort(target, offset, value);
+        putShort(target, offset + 2, value >>> 16);
+    }
+
+    private static void putShort(byte[] target, int offset, int value) {
+        target[offset] = (byte) value;
+        target[offset + 1] = (byte) (value >>> 8);
+    }
+}
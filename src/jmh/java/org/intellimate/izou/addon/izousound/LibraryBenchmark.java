@@ -0,0 +1,91 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks the parts of the library search on their own: scanning a whole library with the {@link LibraryScanner},
+ * checking a library the {@link LibraryIndex} knows for changes, and answering a lookup from the index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBenchmark {
+    @Param({"1000", "10000", "100000"})
+    public int tracks;
+
+    private String root;
+    private LibraryScanner scanner;
+    private LibraryIndex index;
+
+    @Setup
+    public void setUp() throws IOException {
+        root = Fixtures.library(tracks).getPath();
+        File resources = Files.createTempDirectory("izousound-benchmark").toFile();
+        BenchmarkContext context = new BenchmarkContext(resources);
+        scanner = new LibraryScanner(context);
+        // The index is never refreshed in the background, so that the lookups only read the index
+        index = new LibraryIndex(context, new File(resources, "library.index"), Long.MAX_VALUE);
+        index.getSoundFiles(root);
+    }
+
+    @TearDown
+    public void tearDown() {
+        index.close();
+    }
+
+    /**
+     * Scans the whole library, without an index
+     *
+     * @return the amount of sound files found
+     */
+    @Benchmark
+    public int scan() throws InterruptedException {
+        AtomicInteger found = new AtomicInteger();
+        scanner.scan(Collections.singletonList(root), path -> found.incrementAndGet()).await();
+        return found.get();
+    }
+
+    /**
+     * Checks all folders of a library the index knows for changes, none of them changed
+     *
+     * @return the amount of folders in the index
+     */
+    @Benchmark
+    public int refresh() {
+        index.refresh(root);
+        return index.size();
+    }
+
+    /**
+     * Gets the sound files of a library the index knows, they are collected from the index
+     *
+     * @return the sound files of the library
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public List<String> lookup() {
+        return index.getSoundFiles(root);
+    }
+}
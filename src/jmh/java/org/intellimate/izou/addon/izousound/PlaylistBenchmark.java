@@ -0,0 +1,80 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks {@link PlaylistGenerator#createRecursiveSearchFilePlaylist(List)} on a generated library, once with a
+ * library index that already knows the library, and once with a new library index, so that the whole library is
+ * scanned.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+public class PlaylistBenchmark {
+    @Param({"1000", "10000"})
+    public int tracks;
+
+    private List<String> library;
+    private PlaylistGenerator indexedGenerator;
+    private PlaylistGenerator newGenerator;
+
+    @Setup
+    public void setUp() throws IOException {
+        library = Collections.singletonList(Fixtures.library(tracks).getPath());
+        indexedGenerator = new PlaylistGenerator(newContext());
+        indexedGenerator.createRecursiveSearchFilePlaylist(library);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws IOException {
+        newGenerator = new PlaylistGenerator(newContext());
+    }
+
+    private static BenchmarkContext newContext() throws IOException {
+        return new BenchmarkContext(Files.createTempDirectory("izousound-benchmark").toFile());
+    }
+
+    /**
+     * Searches a library the library index already knows, only the folders are checked for changes
+     *
+     * @return the playlist of the library
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public Playlist searchIndexedLibrary() {
+        return indexedGenerator.createRecursiveSearchFilePlaylist(library);
+    }
+
+    /**
+     * Searches a library the library index does not know yet, so that all folders are read
+     *
+     * @return the playlist of the library
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 20)
+    public Playlist searchNewLibrary() {
+        return newGenerator.createRecursiveSearchFilePlaylist(library);
+    }
+}
@@ -0,0 +1,214 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An output line for the benchmarks that drops its samples instead of playing them on a sound card. The samples are
+ * consumed at the rate of the format, so the sound engine plays through a track in real time, just like with a real
+ * line, without needing one.
+ */
+final class BenchmarkLine implements SourceDataLine {
+    private AudioFormat format;
+    private int bufferSize;
+    private boolean open;
+    private boolean running;
+    private long buffered;
+    private long consumed;
+    private double bytesPerNano;
+    private long lastUpdate;
+
+    // Consumes the samples that were played since the last update
+    private void update() {
+        long now = System.nanoTime();
+        if (running && buffered > 0) {
+            long playable = (long) ((now - lastUpdate) * bytesPerNano);
+            playable -= playable % format.getFrameSize();
+            if (playable < buffered) {
+                consumed += playable;
+                buffered -= playable;
+                lastUpdate += (long) (playable / bytesPerNano);
+                return;
+            }
+            consumed += buffered;
+            buffered = 0;
+        }
+        lastUpdate = now;
+    }
+
+    @Override
+    public synchronized void open(AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bytesPerNano = format.getFrameRate() * format.getFrameSize() / TimeUnit.SECONDS.toNanos(1);
+        int size = bufferSize > 0 ? bufferSize : (int) (format.getFrameRate() / 2) * format.getFrameSize();
+        this.bufferSize = size - size % format.getFrameSize();
+        this.open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    @Override
+    public void open() {
+        open(format);
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        int remaining = len;
+        while (remaining > 0) {
+            synchronized (this) {
+                if (!open) {
+                    return len - remaining;
+                }
+                update();
+                int count = (int) Math.min(remaining, bufferSize - buffered);
+                buffered += count;
+                remaining -= count;
+                if (remaining == 0) {
+                    break;
+                }
+            }
+            sleep();
+        }
+        return len;
+    }
+
+    @Override
+    public void drain() {
+        while (true) {
+            synchronized (this) {
+                update();
+                if (buffered == 0 || !running) {
+                    return;
+                }
+            }
+            sleep();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the line", e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        update();
+        buffered = 0;
+    }
+
+    @Override
+    public synchronized void start() {
+        update();
+        running = true;
+        lastUpdate = System.nanoTime();
+    }
+
+    @Override
+    public synchronized void stop() {
+        update();
+        running = false;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        running = false;
+        buffered = 0;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        update();
+        return running && buffered > 0;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int available() {
+        update();
+        return (int) (bufferSize - buffered);
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        update();
+        return format != null ? consumed / format.getFrameSize() : 0;
+    }
+
+    @Override
+    public synchronized long getMicrosecondPosition() {
+        update();
+        return format != null ? (long) (consumed / format.getFrameSize() * 1000000.0 / format.getFrameRate()) : 0;
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized Line.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
@@ -0,0 +1,232 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.BenchmarkContext;
+import org.intellimate.izou.addon.izousound.Fixtures;
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Benchmarks a burst of commands on the {@link PlaybackScheduler}, from the first one being submitted until the last
+ * one has run. Once as transitions, where every transition makes the ones before it obsolete, so that only the last one
+ * does its work, and once as plain commands, which all do their work.
+ * <p>
+ *     Every command stands in for the work of a track change (closing the track player and opening the next one),
+ *     which takes about 100 microseconds. The skips of the sound engine are collapsed the same way, but they are
+ *     additionally held back for {@link SoundEngine#SKIP_WINDOW} milliseconds, which would be all this benchmark
+ *     measures.
+ * </p>
+ * <p>
+ *     {@link #engineSkips(EngineState)} sends a burst of skips to a playing {@link SoundEngine} instead, from the
+ *     first skip until the engine plays the sound skipped to, SKIP_WINDOW included. Its output lines drop the samples
+ *     in real time ({@link BenchmarkLine}), and the tracks it opens per burst are reported as the
+ *     {@code opensPerBurst} counter.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+    private static final long WORK = 25000;
+
+    @Param({"1", "10", "20", "50"})
+    public int burst;
+
+    private PlaybackScheduler scheduler;
+    private AtomicInteger executed;
+
+    @Setup
+    public void setUp() throws IOException {
+        BenchmarkContext context = new BenchmarkContext(Files.createTempDirectory("izousound-benchmark").toFile());
+        scheduler = new PlaybackScheduler(context, "IzouSound-benchmark", () -> -1);
+        executed = new AtomicInteger();
+    }
+
+    @TearDown
+    public void tearDown() {
+        scheduler.shutdown();
+    }
+
+    /**
+     * Submits a burst of transitions, only the last one does its work
+     *
+     * @return the amount of transitions that did their work
+     */
+    @Benchmark
+    public int transitions() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executed.set(0);
+        for (int i = 0; i < burst; i++) {
+            boolean last = i == burst - 1;
+            scheduler.submitTransition(() -> work(last ? done : null));
+        }
+        done.await();
+        return executed.get();
+    }
+
+    /**
+     * Submits a burst of plain commands, every one of them does its work
+     *
+     * @return the amount of commands that did their work
+     */
+    @Benchmark
+    public int commands() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        executed.set(0);
+        for (int i = 0; i < burst; i++) {
+            boolean last = i == burst - 1;
+            scheduler.submit(() -> work(last ? done : null));
+        }
+        done.await();
+        return executed.get();
+    }
+
+    private void work(CountDownLatch done) {
+        Blackhole.consumeCPU(WORK);
+        executed.incrementAndGet();
+        if (done != null) {
+            done.countDown();
+        }
+    }
+
+    /**
+     * Skips burst sounds forward on a playing sound engine, and waits until the sound skipped to is playing
+     *
+     * @param engineState the playing sound engine
+     * @return the sound skipped to
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SoundIdentity engineSkips(EngineState engineState) throws InterruptedException, TimeoutException {
+        return engineState.skip(burst);
+    }
+
+    /**
+     * A sound engine that plays a playlist in a loop, it counts the tracks it opens for the skips
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EngineState {
+        // More tracks than the largest burst, so that every burst ends on another track
+        private static final int TRACKS = 101;
+        private static final long TIMEOUT = 10000;
+
+        private SoundEngine engine;
+        private CurrentSound host;
+        private long opens;
+        private long bursts;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            BenchmarkContext context = new BenchmarkContext(Files.createTempDirectory("izousound-benchmark").toFile());
+            host = new CurrentSound();
+            engine = new SoundEngine(context, host, format -> new BenchmarkLine());
+            engine.setRepeatPlaylist(new AtomicBoolean(true));
+
+            // The same long track over and over, so that no track is over before the burst is
+            String path = Fixtures.track(180).getPath();
+            List<TrackInfo> tracks = new ArrayList<>();
+            for (int i = 0; i < TRACKS; i++) {
+                tracks.add(new TrackInfo("Track " + i, null, null, null, null,
+                        TrackData.encode(PlaylistGenerator.FILE_TYPE, path, -1, -1)));
+            }
+            engine.run(new Playlist(tracks)).get(TIMEOUT, TimeUnit.MILLISECONDS);
+        }
+
+        @Setup(Level.Iteration)
+        public void resetCounters() {
+            opens = 0;
+            bursts = 0;
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            engine.dispose();
+        }
+
+        /**
+         * Gets the average amount of tracks opened per burst of skips in this iteration
+         *
+         * @return the tracks opened per burst
+         */
+        public double opensPerBurst() {
+            return bursts > 0 ? (double) opens / bursts : 0;
+        }
+
+        // Skips count sounds forward, and waits until the sound skipped to is playing
+        private SoundIdentity skip(int count) throws InterruptedException, TimeoutException {
+            long opened = engine.getMetrics().getTrackOpenCount();
+            int target = (host.currentSound.getId() + count) % TRACKS;
+            for (int i = 0; i < count; i++) {
+                engine.nextFile();
+            }
+
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (host.currentSound.getId() != target || engine.getState() != PlaybackState.PLAYING) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw new TimeoutException("The engine did not skip to " + target);
+                }
+                Thread.sleep(1);
+            }
+            opens += engine.getMetrics().getTrackOpenCount() - opened;
+            bursts++;
+            return host.currentSound;
+        }
+    }
+
+    /**
+     * Stands in for the player of the sound engine, it only keeps the current sound
+     */
+    private static class CurrentSound implements SoundEngine.Host {
+        private volatile SoundIdentity currentSound;
+
+        @Override
+        public SoundIdentity getCurrentSound() {
+            return currentSound;
+        }
+
+        @Override
+        public void setCurrentSound(SoundIdentity currentSound) {
+            if (currentSound != null) {
+                this.currentSound = currentSound;
+            }
+        }
+
+        @Override
+        public void setCurrentPlaylist(Playlist playlist) {
+        }
+
+        @Override
+        public void stopMusicPlayback() {
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDeviceBase;
+import org.intellimate.izou.addon.izousound.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks decoding MP3 files into an audio device that drops all samples, so that only the decoding is measured,
+ * and the transition to the next track, that is opening it and decoding its first frames. The files are read with a
+ * {@link MappedFileStream}, and with a {@link FileInputStream} (as the sound engine did before) as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecodeBenchmark {
+    @Param({"mapped", "file"})
+    public String stream;
+
+    private SoundIdentity shortTrack;
+    private SoundIdentity longTrack;
+    private NullAudioDevice audioDevice;
+
+    @Setup
+    public void setUp() throws IOException, JavaLayerException {
+        shortTrack = soundIdentity(Fixtures.track(10));
+        longTrack = soundIdentity(Fixtures.track(180));
+        audioDevice = new NullAudioDevice();
+        audioDevice.open(new Decoder());
+    }
+
+    private static SoundIdentity soundIdentity(File file) {
+        return new SoundIdentity(0, new SoundInfo(null, file.getPath()));
+    }
+
+    // Opens the file of soundIdentity with the stream of the benchmark
+    private InputStream open(SoundIdentity soundIdentity) throws IOException {
+        String path = soundIdentity.getSoundInfo().getPath();
+        return stream.equals("mapped") ? new MappedFileStream(path) : new FileInputStream(path);
+    }
+
+    /**
+     * Decodes a whole track of 10 seconds
+     *
+     * @return the amount of samples decoded
+     */
+    @Benchmark
+    public long decodeTrack() throws IOException, JavaLayerException {
+        TrackPlayer trackPlayer = new TrackPlayer(shortTrack, open(shortTrack));
+        try {
+            while (trackPlayer.playFrame(audioDevice, Integer.MAX_VALUE)) {
+                // Decodes the next frame
+            }
+        } finally {
+            trackPlayer.close();
+        }
+        return audioDevice.samples;
+    }
+
+    /**
+     * Opens a long track and decodes its first frames, which is what the sound engine does at the end of a track if
+     * the next one was not prepared in advance
+     *
+     * @return the frame the track player stopped at
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int openNextTrack() throws IOException, JavaLayerException {
+        TrackPlayer trackPlayer = new TrackPlayer(longTrack, open(longTrack));
+        try {
+            trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+            return trackPlayer.getFrame();
+        } finally {
+            trackPlayer.close();
+        }
+    }
+
+    /**
+     * An audio device that only counts the samples written to it
+     */
+    static class NullAudioDevice extends AudioDeviceBase {
+        private long samples;
+
+        @Override
+        protected void writeImpl(short[] samples, int offset, int length) {
+            this.samples += length;
+        }
+
+        @Override
+        public int getPosition() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the output path a decoded frame takes, without an output line: scaling its samples by the volume, and
+ * handing them through the {@link PcmRingBuffer} from the playback thread to the output thread.
+ * <p>
+ *     A frame is an MPEG-1 Layer III frame of 1152 stereo samples, as the decoder writes them.
+ * </p>
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+    private static final int FRAME_SAMPLES = 1152 * 2;
+    private static final int FREQUENCY = 44100;
+
+    private PcmRingBuffer ringBuffer;
+    private short[] frame;
+    private short[] written;
+    private short[] read;
+    private VolumeControl steadyVolume;
+    private VolumeControl changingVolume;
+    private boolean loud;
+
+    @Setup
+    public void setUp() {
+        ringBuffer = new PcmRingBuffer(FRAME_SAMPLES * 8);
+        frame = new short[FRAME_SAMPLES];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (short) (Math.sin(2 * Math.PI * 440 * (i / 2) / FREQUENCY) * Short.MAX_VALUE / 2);
+        }
+        written = frame.clone();
+        read = new short[FRAME_SAMPLES];
+        steadyVolume = new VolumeControl();
+        steadyVolume.setVolume(50);
+        changingVolume = new VolumeControl();
+    }
+
+    /**
+     * Scales a frame by a volume that does not change
+     *
+     * @return the frame
+     */
+    @Benchmark
+    @Group("volume")
+    public short[] steadyVolume() {
+        System.arraycopy(frame, 0, written, 0, FRAME_SAMPLES);
+        steadyVolume.apply(written, FRAME_SAMPLES, 2, FREQUENCY);
+        return written;
+    }
+
+    /**
+     * Scales a frame by a volume that changes before every frame, so that every frame is ramped
+     *
+     * @return the frame
+     */
+    @Benchmark
+    @Group("rampedVolume")
+    public short[] rampedVolume() {
+        loud = !loud;
+        changingVolume.setVolume(loud ? 80 : 20);
+        System.arraycopy(frame, 0, written, 0, FRAME_SAMPLES);
+        changingVolume.apply(written, FRAME_SAMPLES, 2, FREQUENCY);
+        return written;
+    }
+
+    /**
+     * Writes a frame into the ring buffer and reads it back on the same thread
+     *
+     * @return the amount of samples read
+     */
+    @Benchmark
+    @Group("roundTrip")
+    public int roundTrip() {
+        ringBuffer.write(frame, 0, FRAME_SAMPLES);
+        return ringBuffer.read(read, 0, FRAME_SAMPLES);
+    }
+
+    /**
+     * Writes frames into the ring buffer while {@link #handoffRead()} reads them on another thread, as the playback
+     * thread and the output thread do
+     *
+     * @return the amount of samples written
+     */
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public int handoffWrite() {
+        return ringBuffer.write(frame, 0, FRAME_SAMPLES);
+    }
+
+    /**
+     * Reads the frames {@link #handoffWrite()} writes into the ring buffer
+     *
+     * @return the amount of samples read
+     */
+    @Benchmark
+    @Group("handoff")
+    @GroupThreads(1)
+    public int handoffRead() {
+        return ringBuffer.read(read, 0, FRAME_SAMPLES);
+    }
+}
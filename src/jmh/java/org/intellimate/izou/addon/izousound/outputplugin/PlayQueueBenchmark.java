@@ -0,0 +1,177 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.BenchmarkContext;
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the {@link PlayQueue}: shuffling it, looking up a track in it (as jumping to a track does), and
+ * advancing through it, which converts the following track infos lazily and releases the ones left behind.
+ * <p>
+ *     The tracks are URLs, so that converting them does not depend on the file system.
+ * </p>
+ * <p>
+ *     The benchmarks starting with {@code map} are the baseline: the sound engine used to convert the whole playlist
+ *     into a {@code HashMap<Integer, SoundIdentity>}, and a second one for the shuffled playlist, and looked up tracks
+ *     with {@link List#indexOf(Object)}. Run with {@code -prof gc}, the {@code gc.alloc.rate.norm} of
+ *     {@link #startQueue()} and {@link #mapStart()} is the memory the queue and the maps take for the playlist.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PlayQueueBenchmark {
+    @Param({"1000", "100000"})
+    public int tracks;
+
+    private SoundLoader soundLoader;
+    private List<TrackInfo> trackInfos;
+    private PlayQueue queue;
+    private List<TrackInfo> shuffledTrackInfos;
+    private HashMap<Integer, SoundIdentity> shuffledSoundFileMap;
+    private int position;
+    private int lookup;
+
+    @Setup
+    public void setUp() throws IOException {
+        soundLoader = new SoundLoader(new BenchmarkContext(Files.createTempDirectory("izousound-benchmark").toFile()));
+        trackInfos = new ArrayList<>(tracks);
+        for (int i = 0; i < tracks; i++) {
+            String data = TrackData.encode(PlaylistGenerator.URL_TYPE, "http://localhost/" + i + ".mp3", -1, -1);
+            trackInfos.add(new TrackInfo("Track " + i, null, null, null, null, data));
+        }
+        queue = new PlayQueue(soundLoader, trackInfos);
+        queue.shuffle(-1);
+        // Builds the lookup table, so that only the lookups themselves are measured
+        queue.indexOf(trackInfos.get(0));
+
+        shuffledTrackInfos = new ArrayList<>(trackInfos);
+        Collections.shuffle(shuffledTrackInfos, new Random(0));
+        shuffledSoundFileMap = convertToMap(shuffledTrackInfos);
+    }
+
+    @TearDown
+    public void tearDown() {
+        soundLoader.close();
+    }
+
+    // Converts all track infos into sound identities, as the sound loader did before the play queue
+    private HashMap<Integer, SoundIdentity> convertToMap(List<TrackInfo> trackInfos) {
+        HashMap<Integer, SoundIdentity> soundFileMap = new HashMap<>();
+        for (int i = 0; i < trackInfos.size(); i++) {
+            soundFileMap.put(i, soundLoader.convertTrackInfo(trackInfos.get(i), i));
+        }
+        return soundFileMap;
+    }
+
+    /**
+     * Shuffles the queue, keeping the current sound at the front
+     *
+     * @return the position of the current sound
+     */
+    @Benchmark
+    public int shuffle() {
+        return queue.shuffle(position);
+    }
+
+    /**
+     * Looks up a track in a shuffled queue and gets its position in the play order
+     *
+     * @return the position of the track
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int indexOf() {
+        lookup = (lookup + 7919) % tracks;
+        return queue.getPosition(queue.indexOf(trackInfos.get(lookup)));
+    }
+
+    /**
+     * Advances the current sound by one, converting the next track info and releasing the one left behind
+     *
+     * @return the sound identity of the current sound
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public SoundIdentity advance() {
+        position = (position + 1) % tracks;
+        queue.moveTo(position);
+        return queue.get(position);
+    }
+
+    /**
+     * Creates a queue of the playlist and starts playing it, only the first sounds are converted
+     *
+     * @return the sound identity of the first sound
+     */
+    @Benchmark
+    public SoundIdentity startQueue() {
+        PlayQueue newQueue = new PlayQueue(soundLoader, trackInfos);
+        newQueue.moveTo(0);
+        return newQueue.get(0);
+    }
+
+    /**
+     * Looks up a track in the shuffled playlist and gets its position, as the sound engine did before the play queue
+     * (the baseline of {@link #indexOf()})
+     *
+     * @return the position of the track
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int mapIndexOf() {
+        lookup = (lookup + 7919) % tracks;
+        return shuffledTrackInfos.indexOf(trackInfos.get(lookup));
+    }
+
+    /**
+     * Advances the current sound by one in the map of the shuffled playlist (the baseline of {@link #advance()})
+     *
+     * @return the sound identity of the current sound
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public SoundIdentity mapAdvance() {
+        position = (position + 1) % tracks;
+        return shuffledSoundFileMap.get(position);
+    }
+
+    /**
+     * Converts the playlist and the shuffled playlist into maps and starts playing them, as the sound engine did
+     * before the play queue (the baseline of {@link #startQueue()})
+     *
+     * @return the sound identity of the first sound
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SoundIdentity mapStart() {
+        HashMap<Integer, SoundIdentity> soundFileMap = convertToMap(trackInfos);
+        HashMap<Integer, SoundIdentity> shuffledMap = convertToMap(shuffledTrackInfos);
+        return shuffledMap.isEmpty() ? soundFileMap.get(0) : shuffledMap.get(0);
+    }
+}
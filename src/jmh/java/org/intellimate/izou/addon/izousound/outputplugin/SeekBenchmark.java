@@ -0,0 +1,102 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.JavaLayerException;
+import org.intellimate.izou.addon.izousound.Fixtures;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks jumping two minutes into a track of three minutes, once by seeking to the frame with the
+ * {@link FrameIndex}, and once by skipping all frames before it (as the sound engine does until the index is built),
+ * and building the frame index itself. The track is read with a {@link MappedFileStream}, and with a
+ * {@link FileInputStream} (as the sound engine did before) as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SeekBenchmark {
+    private static final long POSITION = 120000;
+
+    @Param({"mapped", "file"})
+    public String stream;
+
+    private SoundIdentity track;
+    private FrameIndex frameIndex;
+    private int frame;
+
+    @Setup
+    public void setUp() throws IOException {
+        String path = Fixtures.track(180).getPath();
+        track = new SoundIdentity(0, new SoundInfo(null, path));
+        frameIndex = FrameIndex.build(path);
+        frame = frameIndex.getFrame(POSITION);
+    }
+
+    /**
+     * Builds the frame index of the track
+     *
+     * @return the frame index
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public FrameIndex buildIndex() throws IOException {
+        return FrameIndex.build(track.getSoundInfo().getPath());
+    }
+
+    /**
+     * Seeks to the frame at the position with the frame index and decodes it
+     *
+     * @return the frame the track player stopped at
+     */
+    @Benchmark
+    public int seekWithIndex() throws IOException, JavaLayerException {
+        InputStream inputStream = open();
+        long offset = frameIndex.getOffset(frame);
+        if (inputStream.skip(offset) != offset) {
+            throw new IOException("Unable to seek to " + offset);
+        }
+        return decodeFrom(new TrackPlayer(track, inputStream, frame));
+    }
+
+    /**
+     * Skips all frames before the position without a frame index and decodes the frame at the position
+     *
+     * @return the frame the track player stopped at
+     */
+    @Benchmark
+    public int seekWithoutIndex() throws IOException, JavaLayerException {
+        return decodeFrom(new TrackPlayer(track, open()));
+    }
+
+    // Opens the track with the stream of the benchmark
+    private InputStream open() throws IOException {
+        String path = track.getSoundInfo().getPath();
+        return stream.equals("mapped") ? new MappedFileStream(path) : new FileInputStream(path);
+    }
+
+    private int decodeFrom(TrackPlayer trackPlayer) throws JavaLayerException {
+        try {
+            trackPlayer.prepare(frame, Integer.MAX_VALUE, 1);
+            return trackPlayer.getFrame();
+        } finally {
+            trackPlayer.close();
+        }
+    }
+}
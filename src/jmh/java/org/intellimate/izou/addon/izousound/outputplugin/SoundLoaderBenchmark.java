@@ -0,0 +1,184 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.BenchmarkContext;
+import org.intellimate.izou.addon.izousound.Fixtures;
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.Context;
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks converting playlists into play queues with {@link SoundLoader#convertFromPlaylist(Playlist)}, and reading
+ * the meta data of a sound with {@link SoundLoader#loadMetaData(SoundInfo)}, once from the meta data cache
+ * and once from the sound file itself. The data of the tracks is parsed with {@link TrackData#parse(String)}, and with
+ * the {@code String.split} the sound loader used before as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SoundLoaderBenchmark {
+    @Param({"100", "10000"})
+    public int tracks;
+
+    private SoundLoader soundLoader;
+    private Playlist playlist;
+    private String[] data;
+    private TrackInfo trackInfo;
+    private File trackFile;
+    private long lastModified;
+
+    @Setup
+    public void setUp() throws IOException {
+        File resources = Files.createTempDirectory("izousound-benchmark").toFile();
+        Context context = new BenchmarkContext(resources);
+        soundLoader = new SoundLoader(context);
+
+        // The files of the library are repeated until the playlist has the requested size
+        PlaylistGenerator generator = new PlaylistGenerator(context);
+        List<TrackInfo> library = generator.createRecursiveSearchFilePlaylist(
+                Collections.singletonList(Fixtures.library(1000).getPath())).getQueue();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < tracks; i++) {
+            String data = library.get(i % library.size()).getData().orElseThrow(IllegalStateException::new);
+            paths.add(TrackData.parse(data).getLocation());
+        }
+        playlist = generator.createFilePlaylist(paths);
+        data = new String[tracks];
+        for (int i = 0; i < tracks; i++) {
+            data[i] = playlist.getQueue().get(i).getData().orElseThrow(IllegalStateException::new);
+        }
+        trackInfo = playlist.getQueue().get(0);
+        trackFile = new File(paths.get(0));
+        lastModified = trackFile.lastModified();
+    }
+
+    @TearDown
+    public void tearDown() {
+        soundLoader.close();
+    }
+
+    /**
+     * Converts the playlist into a play queue, the tracks themselves are converted once they are needed
+     *
+     * @return the play queue
+     */
+    @Benchmark
+    public PlayQueue convertFromPlaylist() {
+        return soundLoader.convertFromPlaylist(playlist);
+    }
+
+    /**
+     * Converts the playlist into a play queue and converts all of its tracks, as playing the whole playlist does
+     *
+     * @return the amount of playable tracks
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int convertAllTracks() {
+        PlayQueue queue = soundLoader.convertFromPlaylist(playlist);
+        int playable = 0;
+        for (int i = 0; i < queue.size(); i++) {
+            if (queue.get(i) != null) {
+                playable++;
+            }
+        }
+        return playable;
+    }
+
+    /**
+     * Gets the meta data of a sound whose meta data is in the meta data cache
+     *
+     * @return the updated track info
+     */
+    @Benchmark
+    public TrackInfo getMetaDataCached() {
+        SoundIdentity soundIdentity = soundLoader.convertTrackInfo(trackInfo, 0);
+        soundLoader.loadMetaData(soundIdentity.getSoundInfo());
+        return soundIdentity.getSoundInfo().getTrackInfo();
+    }
+
+    /**
+     * Gets the meta data of a sound that changed since it was cached, so that the sound file is parsed again
+     *
+     * @return the updated track info
+     */
+    @Benchmark
+    public TrackInfo getMetaDataParsed() {
+        // A new modification time invalidates the cached meta data
+        lastModified += 1000;
+        if (!trackFile.setLastModified(lastModified)) {
+            throw new IllegalStateException("Unable to touch " + trackFile);
+        }
+        SoundIdentity soundIdentity = soundLoader.convertTrackInfo(trackInfo, 0);
+        soundLoader.loadMetaData(soundIdentity.getSoundInfo());
+        return soundIdentity.getSoundInfo().getTrackInfo();
+    }
+
+    /**
+     * Parses the data of every track of the playlist with {@link TrackData#parse(String)}
+     *
+     * @return a checksum of the parsed data
+     */
+    @Benchmark
+    public int parseTrackData() {
+        int checksum = 0;
+        for (String trackData : data) {
+            TrackData parsed = TrackData.parse(trackData);
+            checksum += parsed.getLocation().length() + parsed.getStartTime() + parsed.getEndTime();
+        }
+        return checksum;
+    }
+
+    /**
+     * Parses the data of every track of the playlist by splitting it at the separator, as the sound loader did before
+     * {@link TrackData} (the baseline of {@link #parseTrackData()})
+     *
+     * @return a checksum of the parsed data
+     */
+    @Benchmark
+    public int splitTrackData() {
+        int checksum = 0;
+        for (String trackData : data) {
+            String[] parts = trackData.split(PlaylistGenerator.DATA_SEPERATOR);
+            int start = -1;
+            int end = -1;
+            try {
+                if (parts.length >= 3) {
+                    start = Integer.parseInt(parts[2]);
+                }
+                if (parts.length >= 4) {
+                    end = Integer.parseInt(parts[3]);
+                }
+            } catch (NumberFormatException e) {
+                start = -1;
+                end = -1;
+            }
+            checksum += parts[1].length() + start + end;
+        }
+        return checksum;
+    }
+}
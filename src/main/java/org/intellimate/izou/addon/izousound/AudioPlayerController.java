@@ -4,22 +4,25 @@ import org.intellimate.izou.addon.izousound.outputplugin.AudioFilePlayer;
 import org.intellimate.izou.sdk.Context;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.intellimate.izou.sdk.frameworks.music.player.template.Player;
 import org.intellimate.izou.sdk.frameworks.music.player.template.PlayerController;
 
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
-
 /**
  * The AudioPlayerController should be used to start a new playing session. If it is not used, the sound playback will
  * be denied. Call {@link #playPlaylist(Playlist)} or {@link #playTrackInfo(TrackInfo)} to play. Playlists and
  * track infos have to be created by the {@link PlaylistGenerator} and by the {@link TrackInfoGenerator}, otherwise
  * the playlists and track infos will have the wrong format.
+ * <p>
+ *     Requests are handed to the activator through a {@link RequestMailbox}: if several requests arrive before the
+ *     activator gets to them (for example a burst of voice commands), only the most recent one is played. How many
+ *     requests were replaced this way is part of the metrics of the player. Callers are never slowed down or blocked
+ *     by a busy activator: instead of applying backpressure, the mailbox coalesces the requests, so it holds at most
+ *     one request however many arrive.
+ * </p>
  */
 public class AudioPlayerController extends PlayerController {
     public static final String ID = AudioPlayerController.class.getCanonicalName();
-    private BlockingQueue<Object> requestBlockingQueue;
-    private static Playlist playlist;
-    private static TrackInfo trackInfo;
+    private final RequestMailbox<Runnable> requestMailbox;
 
     /**
      * Creates a new AudioPlayerController. It can be used to play sound from IzouSound
@@ -28,10 +31,19 @@ public class AudioPlayerController extends PlayerController {
      * @param player the {@link AudioFilePlayer} used to play music
      */
     public AudioPlayerController(Context context, AudioFilePlayer player) {
+        this(context, (Player) player);
+        player.setPlayRequestCounters(requestMailbox::getPostedCount, requestMailbox::getSupersededCount);
+    }
+
+    /**
+     * Creates a new AudioPlayerController for any player, without reporting its requests in the metrics of the player
+     *
+     * @param context the context of the addOn, mostly used for logging
+     * @param player the player used to play music
+     */
+    AudioPlayerController(Context context, Player player) {
         super(context, ID, player);
-        playlist = null;
-        trackInfo = null;
-        requestBlockingQueue = new LinkedBlockingQueue<>();
+        requestMailbox = new RequestMailbox<>();
     }
 
     /**
@@ -40,17 +52,15 @@ public class AudioPlayerController extends PlayerController {
      */
     @Override
     public void activatorStarts() {
+        Runnable request;
         try {
-            requestBlockingQueue.take();
+            request = requestMailbox.take();
         } catch (InterruptedException e) {
             error("IzouSound was interrupted.", e);
+            return;
         }
 
-        if (playlist != null) {
-            startPlaying(playlist);
-        } else if (trackInfo != null) {
-            startPlaying(trackInfo);
-        }
+        request.run();
     }
 
     /**
@@ -59,11 +69,10 @@ public class AudioPlayerController extends PlayerController {
      * @param playlist the playlist to play, it should have been created by the {@link PlaylistGenerator}
      */
     public void playPlaylist(Playlist playlist) {
-        AudioPlayerController.playlist = playlist;
-        trackInfo = null;
-
-        // Signal the activator that a new request has arrived (wake up the thread)
-        requestBlockingQueue.add(new Object());
+        // Wakes up the activator, or replaces the request it has not gotten to yet
+        if (requestMailbox.post(() -> startPlaying(playlist))) {
+            debug("Replaced a pending play request with playlist " + getName(playlist));
+        }
     }
 
     /**
@@ -72,10 +81,19 @@ public class AudioPlayerController extends PlayerController {
      * @param trackInfo the track info to play, it should have been created by the {@link TrackInfoGenerator}
      */
     public void playTrackInfo(TrackInfo trackInfo) {
-        playlist = null;
-        AudioPlayerController.trackInfo = trackInfo;
+        // Wakes up the activator, or replaces the request it has not gotten to yet
+        if (requestMailbox.post(() -> startPlaying(trackInfo))) {
+            debug("Replaced a pending play request with track " + trackInfo.getName().orElse(""));
+        }
+    }
 
-        // Signal the activator that a new request has arrived (wake up the thread)
-        requestBlockingQueue.add(new Object());
+    // Playlist.getName wraps the name with Optional.of, so a playlist without a name (like the ones the player
+    // publishes) throws instead of being empty
+    private static String getName(Playlist playlist) {
+        try {
+            return playlist.getName().orElse("");
+        } catch (NullPointerException e) {
+            return "";
+        }
     }
 }
@@ -3,7 +3,8 @@ package org.intellimate.izou.addon.izousound;
 import org.intellimate.izou.addon.izousound.outputplugin.AudioFilePlayer;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -12,8 +13,9 @@ import java.util.List;
 public class Debug {
     public static void main(String[] args) {
         AudioFilePlayer a = new AudioFilePlayer(null);
-        List<String> list = new ArrayList<>();
-        list.add("/Users/julianbrendl/music");
+        // The folders to play are passed as arguments, the music folder of the user is played otherwise
+        List<String> list = args.length > 0 ? Arrays.asList(args)
+                : Collections.singletonList(System.getProperty("user.home") + "/Music");
         //list.add(URI.create("http://ia902508.us.archive.org/5/items/testmp3testfile/mpthreetest.mp3").toURL());
         PlaylistGenerator playlistGenerator = new PlaylistGenerator(null);
         Playlist playlist = playlistGenerator.createRecursiveSearchFilePlaylist(list);
@@ -0,0 +1,467 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The LibraryIndex remembers the content of every folder that was searched for sound files, and stores it on disk.
+ * When a folder is searched again, only the folders that have changed since (which is detected by their modification
+ * time) are read again, for all other folders the remembered content is used. This way searching a large music folder
+ * only takes one file system call per sub folder, instead of one per file.
+ * <p>
+ *     Adding, removing or renaming a file always changes the modification time of the folder it is in, which is why
+ *     checking the folders is enough to find all new and removed sound files.
+ * </p>
+ * <p>
+ *     The first lookup of a folder in a process always checks it, so folders loaded from a previous run are brought
+ *     up to date before they are used. After that, folders are answered from memory without touching the file system.
+ *     If they were not checked for {@link #REFRESH_INTERVAL} milliseconds, they are checked in the background, so
+ *     changes show up in the following lookups.
+ * </p>
+ */
+class LibraryIndex {
+    private static final String INDEX_NAME = "izousound_library.index";
+    private static final int MAGIC = 0x49534C49;
+    private static final int VERSION = 1;
+    private static final long SAVE_DELAY = 5;
+    // Some file systems only store modification times in steps of 2 seconds
+    private static final long MODIFICATION_TIME_PRECISION = 2000;
+    private static final long UNKNOWN = -1;
+    static final long REFRESH_INTERVAL = 30000;
+    private static final Map<File, LibraryIndex> INSTANCES = new HashMap<>();
+
+    private final Context context;
+    private final File file;
+    private final ConcurrentHashMap<String, Folder> folders;
+    private final AtomicBoolean savePending;
+    private final ScheduledExecutorService saveExecutor;
+    private final long refreshInterval;
+    // The time (System.nanoTime()) every searched path was last checked, and the paths whose check is running
+    private final ConcurrentHashMap<String, Long> refreshed;
+    private final Set<String> refreshing;
+
+    /**
+     * Creates a new LibraryIndex and loads the folders stored in {@code file}
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param file the file the index is stored in
+     */
+    LibraryIndex(Context context, File file) {
+        this(context, file, REFRESH_INTERVAL);
+    }
+
+    /**
+     * Creates a new LibraryIndex and loads the folders stored in {@code file}
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param file the file the index is stored in
+     * @param refreshInterval the milliseconds after which a searched path is checked for changes again
+     */
+    LibraryIndex(Context context, File file, long refreshInterval) {
+        this.context = context;
+        this.refreshInterval = refreshInterval;
+        this.refreshed = new ConcurrentHashMap<>();
+        this.refreshing = ConcurrentHashMap.newKeySet();
+        this.file = file;
+        this.folders = new ConcurrentHashMap<>();
+        this.savePending = new AtomicBoolean(false);
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IzouSound-library");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    /**
+     * Gets the LibraryIndex stored in the resource folder of the addOn, all callers share the same index
+     *
+     * @param context the context of the addOn
+     * @return the LibraryIndex of the addOn
+     */
+    static LibraryIndex getInstance(Context context) {
+        File indexFile = new File(context.getFiles().getResourceLocation(), INDEX_NAME);
+        synchronized (INSTANCES) {
+            return INSTANCES.computeIfAbsent(indexFile, file -> new LibraryIndex(context, file));
+        }
+    }
+
+    /**
+     * Gets the paths of all sound files in {@code root} and its sub folders, sorted by path. If {@code root} was
+     * already checked by this index, the remembered content is returned and the folders are checked for changes in the
+     * background once the refresh interval has passed. Otherwise the folders are checked right away, which only reads
+     * the folders that changed since they were stored in the index. If {@code root} is a sound file itself, only its
+     * path is returned.
+     *
+     * @param root the path to search for sound files
+     * @return the sorted paths of all sound files found
+     */
+    List<String> getSoundFiles(String root) {
+        Path rootPath = Paths.get(root).toAbsolutePath();
+        String key = rootPath.toString();
+        Long lastRefresh = refreshed.get(key);
+        if (lastRefresh != null && folders.containsKey(key)) {
+            long interval = TimeUnit.MILLISECONDS.toNanos(refreshInterval);
+            if (System.nanoTime() - lastRefresh > interval) {
+                refreshLater(rootPath);
+            }
+            return collect(rootPath);
+        }
+
+        BasicFileAttributes attributes = readAttributes(rootPath);
+        if (attributes == null) {
+            context.getLogger().error(root + " does not exists - Unable to play sound");
+            return Collections.emptyList();
+        } else if (!attributes.isDirectory()) {
+            if (attributes.isRegularFile() && LibraryScanner.isSoundFile(root)) {
+                return Collections.singletonList(root);
+            }
+            return Collections.emptyList();
+        }
+
+        refresh(rootPath, attributes);
+        return collect(rootPath);
+    }
+
+    /**
+     * Checks the folders in {@code root} for changes and brings the index up to date, the caller waits until all
+     * folders are checked
+     *
+     * @param root the path of the folder to check
+     */
+    void refresh(String root) {
+        refresh(Paths.get(root).toAbsolutePath(), null);
+    }
+
+    // Checks root in the background, unless a check of root is already running
+    private void refreshLater(Path root) {
+        String key = root.toString();
+        if (!refreshing.add(key)) {
+            return;
+        }
+
+        try {
+            LibraryScanner.POOL.execute(() -> {
+                try {
+                    refresh(root, null);
+                } finally {
+                    refreshing.remove(key);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(key);
+            context.getLogger().warn("Unable to check " + root + " for changes", e);
+        }
+    }
+
+    // Checks root and its sub folders for changes, attributes may be null if they were not read yet
+    private void refresh(Path root, BasicFileAttributes attributes) {
+        AtomicBoolean changed = new AtomicBoolean(false);
+        RefreshTask task = new RefreshTask(this, root, attributes, changed);
+        if (ForkJoinTask.getPool() == LibraryScanner.POOL) {
+            task.invoke();
+        } else {
+            LibraryScanner.POOL.invoke(task);
+        }
+        refreshed.put(root.toString(), System.nanoTime());
+
+        if (changed.get() && savePending.compareAndSet(false, true)) {
+            try {
+                saveExecutor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // The index was closed while root was checked
+                save();
+            }
+        }
+    }
+
+    // Collects the remembered sound files of root and its sub folders
+    private List<String> collect(Path root) {
+        List<String> soundFiles = new ArrayList<>();
+        collect(root, soundFiles);
+        String[] sorted = soundFiles.toArray(new String[soundFiles.size()]);
+        Arrays.sort(sorted);
+        return Arrays.asList(sorted);
+    }
+
+    private void collect(Path path, List<String> soundFiles) {
+        Folder folder = folders.get(path.toString());
+        if (folder == null) {
+            return;
+        }
+
+        for (String soundFile : folder.soundFiles) {
+            soundFiles.add(path.resolve(soundFile).toString());
+        }
+        for (String subFolder : folder.subFolders) {
+            collect(path.resolve(subFolder), soundFiles);
+        }
+    }
+
+    /**
+     * Gets the amount of folders in the index
+     *
+     * @return the amount of folders in the index
+     */
+    int size() {
+        return folders.size();
+    }
+
+    // Reads the attributes of path with a single call, returns null if they could not be read
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Reads the content of the folder at path from the file system
+    private Folder readFolder(Path path, long lastModified) {
+        List<String> soundFiles = new ArrayList<>();
+        List<String> subFolders = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(path)) {
+            for (Path entry : stream) {
+                BasicFileAttributes attributes = readAttributes(entry);
+                if (attributes == null) {
+                    continue;
+                }
+
+                String name = entry.getFileName().toString();
+                if (attributes.isDirectory()) {
+                    subFolders.add(name);
+                } else if (attributes.isRegularFile() && LibraryScanner.isSoundFile(name)) {
+                    soundFiles.add(name);
+                }
+            }
+        } catch (IOException e) {
+            context.getLogger().warn("Unable to scan " + path, e);
+            lastModified = UNKNOWN;
+        }
+
+        // If the folder was changed right before it was read, a following change might not change its modification
+        // time, so it has to be read again next time
+        if (System.currentTimeMillis() - lastModified < MODIFICATION_TIME_PRECISION) {
+            lastModified = UNKNOWN;
+        }
+        return new Folder(lastModified, soundFiles.toArray(new String[soundFiles.size()]),
+                subFolders.toArray(new String[subFolders.size()]));
+    }
+
+    // Removes the folder at path and all of its sub folders from the index
+    private void removeFolder(String path) {
+        Folder folder = folders.remove(path);
+        if (folder != null) {
+            for (String subFolder : folder.subFolders) {
+                removeFolder(Paths.get(path, subFolder).toString());
+            }
+        }
+    }
+
+    // Loads all folders stored in the index file, a missing or broken index file results in an empty index
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                context.getLogger().warn("Ignoring library index with unknown format: " + file);
+                return;
+            }
+
+            int count = in.readInt();
+            Map<String, Folder> loaded = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long lastModified = in.readLong();
+                String[] soundFiles = readNames(in);
+                String[] subFolders = readNames(in);
+                loaded.put(path, new Folder(lastModified, soundFiles, subFolders));
+            }
+            folders.putAll(loaded);
+            context.getLogger().debug("Loaded library index with " + count + " folders");
+        } catch (EOFException e) {
+            context.getLogger().warn("Library index is incomplete, ignoring it: " + file);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to load library index: " + file, e);
+        }
+    }
+
+    /**
+     * Saves all folders to the index file. The index is written to a temporary file first, which then replaces the old
+     * index file, so that the index file is never left half written.
+     */
+    synchronized void save() {
+        savePending.set(false);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            context.getLogger().error("Unable to create directory for library index: " + parent);
+            return;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        Map<String, Folder> snapshot = new HashMap<>(folders);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Folder> entry : snapshot.entrySet()) {
+                Folder folder = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(folder.lastModified);
+                writeNames(out, folder.soundFiles);
+                writeNames(out, folder.subFolders);
+            }
+        } catch (IOException e) {
+            context.getLogger().error("Unable to save library index: " + file, e);
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to replace library index: " + file, e);
+        }
+    }
+
+    /**
+     * Stops the background saving of the index and saves pending changes right away. An index that was closed is no
+     * longer returned by {@link #getInstance(Context)}.
+     */
+    void close() {
+        synchronized (INSTANCES) {
+            INSTANCES.remove(file, this);
+        }
+        saveExecutor.shutdownNow();
+        if (savePending.get()) {
+            save();
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, String[] names) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            out.writeUTF(name);
+        }
+    }
+
+    private static String[] readNames(DataInputStream in) throws IOException {
+        String[] names = new String[in.readInt()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = in.readUTF();
+        }
+        return names;
+    }
+
+    /**
+     * The remembered content of a single folder: the names of its sound files and sub folders, and the modification
+     * time the folder had when it was read
+     */
+    private static class Folder {
+        private final long lastModified;
+        private final String[] soundFiles;
+        private final String[] subFolders;
+
+        Folder(long lastModified, String[] soundFiles, String[] subFolders) {
+            this.lastModified = lastModified;
+            this.soundFiles = soundFiles;
+            this.subFolders = subFolders;
+        }
+    }
+
+    /**
+     * Brings a single folder of the index up to date and forks a new task for each of its sub folders
+     */
+    private static class RefreshTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final LibraryIndex index;
+        private final Path path;
+        private final BasicFileAttributes attributes;
+        private final AtomicBoolean changed;
+
+        RefreshTask(LibraryIndex index, Path path, BasicFileAttributes attributes, AtomicBoolean changed) {
+            this.index = index;
+            this.path = path;
+            this.attributes = attributes;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void compute() {
+            String key = path.toString();
+            BasicFileAttributes attributes = this.attributes != null ? this.attributes : readAttributes(path);
+            if (attributes == null || !attributes.isDirectory()) {
+                if (index.folders.containsKey(key)) {
+                    index.removeFolder(key);
+                    changed.set(true);
+                }
+                return;
+            }
+
+            long lastModified = attributes.lastModifiedTime().toMillis();
+            Folder folder = index.folders.get(key);
+            if (folder == null || folder.lastModified == UNKNOWN || folder.lastModified != lastModified) {
+                Folder updated = index.readFolder(path, lastModified);
+                if (folder != null) {
+                    Set<String> remaining = new HashSet<>(Arrays.asList(updated.subFolders));
+                    for (String subFolder : folder.subFolders) {
+                        if (!remaining.contains(subFolder)) {
+                            index.removeFolder(path.resolve(subFolder).toString());
+                        }
+                    }
+                }
+                index.folders.put(key, updated);
+                folder = updated;
+                changed.set(true);
+            }
+
+            List<RefreshTask> subTasks = new ArrayList<>(folder.subFolders.length);
+            for (String subFolder : folder.subFolders) {
+                Path subPath = path.resolve(subFolder);
+                BasicFileAttributes subAttributes = readAttributes(subPath);
+                if (subAttributes != null && subAttributes.isDirectory()) {
+                    RefreshTask subTask = new RefreshTask(index, subPath, subAttributes, changed);
+                    subTask.fork();
+                    subTasks.add(subTask);
+                }
+            }
+
+            for (RefreshTask subTask : subTasks) {
+                subTask.join();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+/**
+ * The LibraryScanner searches folders for sound files (mp3 and wav files). Sub folders are scanned in parallel, and
+ * every sound file is handed to the consumer as soon as it is found, so that the caller does not have to wait for
+ * the whole scan to finish (for example to start playback with the first hits).
+ * <p>
+ *     All scans share one pool of worker threads. Since scanning is mostly waiting for the file system (especially
+ *     on network drives), the pool has at least {@link #MIN_PARALLELISM} threads.
+ * </p>
+ */
+public class LibraryScanner {
+    public static final int MIN_PARALLELISM = 4;
+    static final ForkJoinPool POOL = new ForkJoinPool(Math.max(MIN_PARALLELISM,
+            Runtime.getRuntime().availableProcessors()));
+
+    private Context context;
+
+    /**
+     * Creates a new LibraryScanner
+     *
+     * @param context the context of the addOn, mainly used for logging
+     */
+    public LibraryScanner(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * Returns true if {@code path} is the path of a sound file that can be played, based on its file extension
+     *
+     * @param path the path to check
+     * @return true if {@code path} is the path of a sound file, else false
+     */
+    public static boolean isSoundFile(String path) {
+        return path.endsWith(".mp3") || path.endsWith(".wav");
+    }
+
+    /**
+     * Starts scanning all paths contained in {@code paths} in the background. Folders are recursively descended, and
+     * the path of every sound file that is found is passed to {@code consumer}. If a path points to a sound file
+     * itself, it is passed to the consumer directly.
+     * <p>
+     *     The consumer is called from several worker threads at the same time, so it has to be thread safe.
+     * </p>
+     *
+     * @param paths the paths to scan
+     * @param consumer called with the path of every sound file found
+     * @return the progress of the scan, which can also be used to wait for the scan to finish
+     */
+    public ScanProgress scan(List<String> paths, Consumer<String> consumer) {
+        ScanProgress progress = new ScanProgress();
+        progress.setTask(POOL.submit(new RootTask(context, paths, consumer, progress)));
+        return progress;
+    }
+
+    // Reads the attributes of path with a single call, returns null if they could not be read
+    private static BasicFileAttributes readAttributes(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Sorts the paths to scan into folders, which are scanned by a task each, and sound files, which are handed to the
+     * consumer directly
+     */
+    private static class RootTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Context context;
+        private final List<String> paths;
+        private final Consumer<String> consumer;
+        private final ScanProgress progress;
+
+        RootTask(Context context, List<String> paths, Consumer<String> consumer, ScanProgress progress) {
+            this.context = context;
+            this.paths = paths;
+            this.consumer = consumer;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> tasks = new ArrayList<>();
+            for (String filePath : paths) {
+                if (filePath == null) {
+                    continue;
+                }
+
+                Path path = Paths.get(filePath);
+                BasicFileAttributes attributes = readAttributes(path);
+                if (attributes == null) {
+                    context.getLogger().error(filePath + " does not exists - Unable to play sound");
+                } else if (attributes.isDirectory()) {
+                    tasks.add(new ScanTask(context, path, consumer, progress));
+                } else if (attributes.isRegularFile() && isSoundFile(filePath)) {
+                    progress.fileFound();
+                    consumer.accept(filePath);
+                }
+            }
+            invokeAll(tasks);
+        }
+    }
+
+    /**
+     * Scans a single folder, and forks a new task for each of its sub folders
+     */
+    private static class ScanTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Context context;
+        private final Path directory;
+        private final Consumer<String> consumer;
+        private final ScanProgress progress;
+
+        ScanTask(Context context, Path directory, Consumer<String> consumer, ScanProgress progress) {
+            this.context = context;
+            this.directory = directory;
+            this.consumer = consumer;
+            this.progress = progress;
+        }
+
+        @Override
+        protected void compute() {
+            List<ScanTask> subTasks = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+                for (Path entry : stream) {
+                    BasicFileAttributes attributes = readAttributes(entry);
+                    if (attributes == null) {
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        ScanTask subTask = new ScanTask(context, entry, consumer, progress);
+                        subTask.fork();
+                        subTasks.add(subTask);
+                    } else if (attributes.isRegularFile() && isSoundFile(entry.toString())) {
+                        progress.fileFound();
+                        consumer.accept(entry.toAbsolutePath().toString());
+                    }
+                }
+            } catch (IOException e) {
+                context.getLogger().warn("Unable to scan " + directory, e);
+            }
+            progress.directoryScanned();
+
+            for (ScanTask subTask : subTasks) {
+                subTask.join();
+            }
+        }
+    }
+}
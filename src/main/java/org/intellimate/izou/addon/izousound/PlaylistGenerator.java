@@ -5,10 +5,13 @@ import org.intellimate.izou.sdk.Context;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
 
-import java.io.File;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -23,6 +26,8 @@ public class PlaylistGenerator {
 
     private Context context;
     private TrackInfoGenerator trackInfoGenerator;
+    private LibraryScanner libraryScanner;
+    private LibraryIndex libraryIndex;
 
     /**
      * Creates a new PlaylistGenerator object
@@ -32,6 +37,8 @@ public class PlaylistGenerator {
     public PlaylistGenerator(Context context) {
         this.context = context;
         this.trackInfoGenerator = new TrackInfoGenerator();
+        this.libraryScanner = new LibraryScanner(context);
+        this.libraryIndex = context != null ? LibraryIndex.getInstance(context) : null;
     }
 
     /**
@@ -76,6 +83,10 @@ public class PlaylistGenerator {
      * through all folders until only files are found. All mp3 and wav files encountered in the process are added to the
      * playlist. That means you can add a single path to your music folder, and all mp3 and wav files in that folder (
      * even if they are contained in sub folders) will be added to the playlist.
+     * <p>
+     *     The content of the searched folders is remembered, so searching the same folders again only reads the
+     *     folders that have changed since.
+     * </p>
      *
      * @param paths the list of paths to sound files that should be turned into a playlist
      */
@@ -85,19 +96,52 @@ public class PlaylistGenerator {
         }
 
         context.getLogger().debug("Doing recursive search for more sound files");
-        List<TrackInfo> trackInfos = new ArrayList<>();
+        List<String> soundFilePaths = new ArrayList<>();
         for (String filePath : paths) {
-            if (filePath != null && !new File(filePath).exists()) {
-                context.getLogger().error(filePath + " does not exists - Unable to play sound");
+            if (filePath == null) {
+                continue;
+            }
+
+            if (libraryIndex != null) {
+                soundFilePaths.addAll(libraryIndex.getSoundFiles(filePath));
             } else {
-                recursiveSoundFileSearch(trackInfos, filePath);
+                soundFilePaths.addAll(scanSoundFiles(filePath));
             }
         }
+
+        List<TrackInfo> trackInfos = soundFilePaths
+                .stream()
+                .map(path -> trackInfoGenerator.generatFileTrackInfo(path, -1, -1))
+                .collect(Collectors.toList());
         context.getLogger().debug("Found " + trackInfos.size() + " files");
 
         return new Playlist(trackInfos);
     }
 
+    /**
+     * Does the same search as {@link #createRecursiveSearchFilePlaylist(List)}, but instead of waiting for the whole
+     * search to finish, every sound file is passed to {@code consumer} as soon as it is found. This way the first
+     * sound files can already be used (for example played) while the search is still running.
+     * <p>
+     *     The search runs in the background, and {@code consumer} is called from several threads at the same time, so
+     *     it has to be thread safe. The returned {@link ScanProgress} can be used to follow the progress of the
+     *     search and to wait for it to finish.
+     * </p>
+     *
+     * @param paths the list of paths to sound files that should be searched
+     * @param consumer called with the track info of every sound file found
+     * @return the progress of the search, or null if {@code paths} is null
+     */
+    public ScanProgress streamRecursiveSearchFilePlaylist(List<String> paths, Consumer<TrackInfo> consumer) {
+        if (paths == null) {
+            return null;
+        }
+
+        context.getLogger().debug("Streaming recursive search for more sound files");
+        return libraryScanner.scan(paths,
+                path -> consumer.accept(trackInfoGenerator.generatFileTrackInfo(path, -1, -1)));
+    }
+
     /**
      * Takes a list of sound URLs and converts them into a playlist. URLs have to be HTTP and NOT HTTPS.
      * This method also has the ability to crop ALL sound urls found in {@code soundURLs} to the desired
@@ -158,24 +202,22 @@ public class PlaylistGenerator {
     }
 
     /**
-     * Recursively goes through the folder in {@code filePath} to find all mp3 and wav files in sub folders and add them
-     * to {@code trackInfos}
+     * Searches {@code filePath} for sound files without using the library index, used if there is no context to
+     * store the index in
      *
      * @param filePath the path to recursively search for sound files (if it is a sound file, add it directly)
+     * @return the sorted paths of all sound files found
      */
-    private void recursiveSoundFileSearch(List<TrackInfo> trackInfos, String filePath) {
-        if (new File(filePath).isFile()
-                && (filePath.endsWith(".mp3")
-                || filePath.endsWith(".wav"))) {
-            trackInfos.add(trackInfoGenerator.generatFileTrackInfo(filePath, -1, -1));
-        } else if (new File(filePath).isDirectory()) {
-            File[] files = new File(filePath).listFiles();
-            if (files == null) {
-                return;
-            }
-            for (File path : files) {
-                recursiveSoundFileSearch(trackInfos, path.getAbsolutePath());
-            }
+    private List<String> scanSoundFiles(String filePath) {
+        Queue<String> soundFilePaths = new ConcurrentLinkedQueue<>();
+        try {
+            libraryScanner.scan(Collections.singletonList(filePath), soundFilePaths::add).await();
+        } catch (InterruptedException e) {
+            context.getLogger().warn("Interrupted while searching for sound files", e);
+            Thread.currentThread().interrupt();
         }
+
+        // The folders are scanned in parallel, so sort the files to always get the same order
+        return soundFilePaths.stream().sorted().collect(Collectors.toList());
     }
 }
@@ -0,0 +1,69 @@
+package org.intellimate.izou.addon.izousound;
+
+import java.util.Objects;
+
+/**
+ * The RequestMailbox hands requests from any amount of threads to a single consumer, holding at most one request at a
+ * time. A request that has not been taken yet is replaced by the next one (latest wins), so the mailbox never grows,
+ * posting never blocks, and the most recent request is never lost. Coalescing takes the place of backpressure: a
+ * consumer that falls behind only ever sees the newest request, posters never have to wait for it.
+ *
+ * @param <T> the type of the requests
+ */
+class RequestMailbox<T> {
+    private T pending;
+    private long postedCount;
+    private long supersededCount;
+
+    /**
+     * Posts a request, it replaces the pending request if that one has not been taken yet
+     *
+     * @param request the request to post
+     * @return true if a pending request was replaced, else false
+     */
+    synchronized boolean post(T request) {
+        Objects.requireNonNull(request, "request");
+        boolean superseded = pending != null;
+        if (superseded) {
+            supersededCount++;
+        }
+        postedCount++;
+        pending = request;
+        notifyAll();
+        return superseded;
+    }
+
+    /**
+     * Waits until a request is pending and takes it out of the mailbox
+     *
+     * @return the most recent request
+     * @throws InterruptedException thrown if the thread was interrupted while waiting
+     */
+    synchronized T take() throws InterruptedException {
+        while (pending == null) {
+            wait();
+        }
+
+        T request = pending;
+        pending = null;
+        return request;
+    }
+
+    /**
+     * Gets the amount of requests that were posted so far
+     *
+     * @return the amount of requests that were posted
+     */
+    synchronized long getPostedCount() {
+        return postedCount;
+    }
+
+    /**
+     * Gets the amount of requests that were replaced by a newer request before they were taken
+     *
+     * @return the amount of requests that were replaced
+     */
+    synchronized long getSupersededCount() {
+        return supersededCount;
+    }
+}
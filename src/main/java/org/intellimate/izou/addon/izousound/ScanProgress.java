@@ -0,0 +1,76 @@
+package org.intellimate.izou.addon.izousound;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ScanProgress reports the progress of a scan started by the {@link LibraryScanner}, that is how many folders
+ * have been scanned and how many sound files have been found so far. It can also be used to wait for the scan to
+ * finish.
+ */
+public class ScanProgress {
+    private final AtomicInteger directoriesScanned;
+    private final AtomicInteger filesFound;
+    private volatile Future<?> task;
+
+    /**
+     * Creates a new ScanProgress object
+     */
+    ScanProgress() {
+        this.directoriesScanned = new AtomicInteger();
+        this.filesFound = new AtomicInteger();
+    }
+
+    /**
+     * Gets the amount of folders that have been scanned so far
+     *
+     * @return the amount of folders that have been scanned so far
+     */
+    public int getDirectoriesScanned() {
+        return directoriesScanned.get();
+    }
+
+    /**
+     * Gets the amount of sound files that have been found so far
+     *
+     * @return the amount of sound files that have been found so far
+     */
+    public int getFilesFound() {
+        return filesFound.get();
+    }
+
+    /**
+     * Returns true if the scan is finished, else false
+     *
+     * @return true if the scan is finished, else false
+     */
+    public boolean isDone() {
+        return task != null && task.isDone();
+    }
+
+    /**
+     * Waits until the scan is finished
+     *
+     * @throws InterruptedException thrown if the current thread was interrupted while waiting
+     */
+    public void await() throws InterruptedException {
+        try {
+            task.get();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Scan failed", e.getCause());
+        }
+    }
+
+    void setTask(Future<?> task) {
+        this.task = task;
+    }
+
+    void directoryScanned() {
+        directoriesScanned.incrementAndGet();
+    }
+
+    void fileFound() {
+        filesFound.incrementAndGet();
+    }
+}
@@ -0,0 +1,184 @@
+package org.intellimate.izou.addon.izousound;
+
+/**
+ * TrackData is the content of the data field of the track infos generated by the {@link TrackInfoGenerator}. It
+ * contains the type of the track ({@link PlaylistGenerator#FILE_TYPE} or {@link PlaylistGenerator#URL_TYPE}), the
+ * location of the track (its path or URL) and its start and end time.
+ * <p>
+ *     The data is encoded as {@code TYPE@@@location@@@start@@@end}. Since the start and end time are always the last
+ *     two fields, the location may contain the separator itself. Data with only a start time or no times at all is
+ *     parsed as well, the missing times are set to -1.
+ * </p>
+ */
+public class TrackData {
+    private final String type;
+    private final String location;
+    private final int startTime;
+    private final int endTime;
+
+    /**
+     * Creates a new TrackData object
+     *
+     * @param type the type of the track, {@link PlaylistGenerator#FILE_TYPE} or {@link PlaylistGenerator#URL_TYPE}
+     * @param location the path or URL of the track
+     * @param startTime the start time of the track in milliseconds (-1 for start from beginning)
+     * @param endTime the end time of the track in milliseconds (-1 for full length)
+     */
+    public TrackData(String type, String location, int startTime, int endTime) {
+        this.type = type;
+        this.location = location;
+        this.startTime = startTime;
+        this.endTime = endTime;
+    }
+
+    /**
+     * Parses the data of a track info
+     *
+     * @param data the data to parse
+     * @return the parsed data, or null if {@code data} is not in the format of IzouSound
+     */
+    public static TrackData parse(String data) {
+        String separator = PlaylistGenerator.DATA_SEPERATOR;
+        int typeEnd = data.indexOf(separator);
+        if (typeEnd <= 0) {
+            return null;
+        }
+
+        String type = data.substring(0, typeEnd);
+        int locationStart = typeEnd + separator.length();
+        int locationEnd = data.length();
+        int startTime = -1;
+        int endTime = -1;
+
+        // The times are read from the back, as long as they are numbers. Everything in front of them is the location.
+        int lastSeparator = data.lastIndexOf(separator);
+        if (lastSeparator >= locationStart) {
+            long last = parseInt(data, lastSeparator + separator.length(), data.length());
+            if (last != Long.MIN_VALUE) {
+                locationEnd = lastSeparator;
+                startTime = (int) last;
+
+                int secondLastSeparator = data.lastIndexOf(separator, lastSeparator - 1);
+                if (secondLastSeparator >= locationStart) {
+                    long secondLast = parseInt(data, secondLastSeparator + separator.length(), lastSeparator);
+                    if (secondLast != Long.MIN_VALUE) {
+                        locationEnd = secondLastSeparator;
+                        startTime = (int) secondLast;
+                        endTime = (int) last;
+                    }
+                }
+            }
+        }
+
+        if (locationEnd <= locationStart) {
+            return null;
+        }
+        return new TrackData(type, data.substring(locationStart, locationEnd), startTime, endTime);
+    }
+
+    /**
+     * Encodes track data into the format used by IzouSound
+     *
+     * @param type the type of the track, {@link PlaylistGenerator#FILE_TYPE} or {@link PlaylistGenerator#URL_TYPE}
+     * @param location the path or URL of the track
+     * @param startTime the start time of the track in milliseconds (-1 for start from beginning)
+     * @param endTime the end time of the track in milliseconds (-1 for full length)
+     * @return the encoded data
+     */
+    public static String encode(String type, String location, int startTime, int endTime) {
+        String separator = PlaylistGenerator.DATA_SEPERATOR;
+        return new StringBuilder(type.length() + location.length() + 3 * separator.length() + 16)
+                .append(type).append(separator)
+                .append(location).append(separator)
+                .append(startTime).append(separator)
+                .append(endTime)
+                .toString();
+    }
+
+    /**
+     * Encodes this track data into the format used by IzouSound
+     *
+     * @return the encoded data
+     */
+    public String encode() {
+        return encode(type, location, startTime, endTime);
+    }
+
+    // Parses the int in data between start and end, returns Long.MIN_VALUE if it is not a valid int
+    private static long parseInt(String data, int start, int end) {
+        boolean negative = start < end && data.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i == end || end - i > 10) {
+            return Long.MIN_VALUE;
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = data.charAt(i);
+            if (c < '0' || c > '9') {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + (c - '0');
+        }
+
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return value;
+    }
+
+    /**
+     * Gets the type of the track, {@link PlaylistGenerator#FILE_TYPE} or {@link PlaylistGenerator#URL_TYPE}
+     *
+     * @return the type of the track
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * Returns true if the track is a sound file, else false
+     *
+     * @return true if the track is a sound file, else false
+     */
+    public boolean isFile() {
+        return PlaylistGenerator.FILE_TYPE.equals(type);
+    }
+
+    /**
+     * Returns true if the track is a URL, else false
+     *
+     * @return true if the track is a URL, else false
+     */
+    public boolean isURL() {
+        return PlaylistGenerator.URL_TYPE.equals(type);
+    }
+
+    /**
+     * Gets the path or URL of the track
+     *
+     * @return the path or URL of the track
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    /**
+     * Gets the start time of the track in milliseconds, -1 if it starts from the beginning
+     *
+     * @return the start time of the track in milliseconds
+     */
+    public int getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Gets the end time of the track in milliseconds, -1 if it is played to the end
+     *
+     * @return the end time of the track in milliseconds
+     */
+    public int getEndTime() {
+        return endTime;
+    }
+}
@@ -31,10 +31,8 @@ public class TrackInfoGenerator {
             return null;
         }
 
-        String data = PlaylistGenerator.FILE_TYPE + PlaylistGenerator.DATA_SEPERATOR + path +
-                PlaylistGenerator.DATA_SEPERATOR + startTime + PlaylistGenerator.DATA_SEPERATOR + endTime;
-        String[] pathParts = path.split(File.separator);
-        String name = pathParts[pathParts.length - 1];
+        String data = TrackData.encode(PlaylistGenerator.FILE_TYPE, path, startTime, endTime);
+        String name = path.substring(path.lastIndexOf(File.separatorChar) + 1);
 
         long duration = -1;
         if (endTime - startTime > 0) {
@@ -57,10 +55,9 @@ public class TrackInfoGenerator {
             return null;
         }
 
-        String data = PlaylistGenerator.URL_TYPE + PlaylistGenerator.DATA_SEPERATOR + url.toExternalForm() +
-                PlaylistGenerator.DATA_SEPERATOR + startTime + PlaylistGenerator.DATA_SEPERATOR + endTime;
-        String[] pathParts = url.toExternalForm().split("/");
-        String name = pathParts[pathParts.length - 1];
+        String location = url.toExternalForm();
+        String data = TrackData.encode(PlaylistGenerator.URL_TYPE, location, startTime, endTime);
+        String name = location.substring(location.lastIndexOf('/') + 1);
 
         long duration = -1;
         if (endTime - startTime > 0) {
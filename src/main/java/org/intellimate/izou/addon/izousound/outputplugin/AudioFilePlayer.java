@@ -1,10 +1,12 @@
 package org.intellimate.izou.addon.izousound.outputplugin;
 
 import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TrackData;
 import org.intellimate.izou.events.EventModel;
 import org.intellimate.izou.sdk.Context;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.intellimate.izou.sdk.frameworks.music.player.Volume;
 import org.intellimate.izou.sdk.frameworks.music.player.template.CommandHandler;
 import org.intellimate.izou.sdk.frameworks.music.player.template.Player;
 import org.intellimate.izou.sdk.frameworks.music.resources.CommandResource;
@@ -14,15 +16,28 @@ import org.intellimate.izou.sdk.frameworks.music.resources.TrackInfoResource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Function;
+import java.util.function.LongSupplier;
 import java.util.stream.Collectors;
 
 /**
  * The {@code AudioFilePlayer} is a wrapper for the {@code SoundEngine}. It controls the sound-engine.
+ * <p>
+ *     The playback health can be read with {@link #getMetrics()}, the same metrics are registered as an MXBean under
+ *     {@value PlaybackMetrics#OBJECT_NAME}.
+ * </p>
  */
 public class AudioFilePlayer extends Player {
     public static final String ID = AudioFilePlayer.class.getCanonicalName();
+    /**
+     * How long {@link #playPlaylist(Playlist)} waits for the sound to start (in milliseconds)
+     */
+    public static final long READY_TIMEOUT = 5000;
     private SoundEngine soundEngine;
     private SoundIdentity currentSound;
     private Context context;
@@ -35,7 +50,8 @@ public class AudioFilePlayer extends Player {
     public AudioFilePlayer(Context context) {
         super(context, ID, false, true, true, true, true, true, true);
         this.context = context;
-        this.soundEngine = new SoundEngine(context, this);
+        this.soundEngine = new SoundEngine(context, new EngineHost());
+        soundEngine.getMetrics().register(context);
 
         CommandHandler commandHandler = getCommandHandler();
         commandHandler.setNextPreviousController(command -> {
@@ -56,9 +72,7 @@ public class AudioFilePlayer extends Player {
         commandHandler.setVolumeChangeableController(volume -> {
             setVolume(volume.getVolume());
         });
-        commandHandler.setJumpProgressController(progress -> {
-
-        });
+        commandHandler.setJumpProgressController(progress -> jumpToPosition(progress.getPosition()));
     }
 
     /**
@@ -67,32 +81,41 @@ public class AudioFilePlayer extends Player {
      * <p>
      *     Playlists can only be played if they have been generated by the {@link PlaylistGenerator}
      * </p>
+     * <p>
+     *     This method returns as soon as the first sound can be heard, or after at most {@link #READY_TIMEOUT}
+     *     milliseconds, in which case the session is stopped.
+     * </p>
      * @param playlist the playlist to play
      */
     public void playPlaylist(Playlist playlist) {
-        if (soundEngine.getState() != null && soundEngine.getState().equals(SoundEngine.PLAYING_STATE)) {
-            soundEngine.stopSession();
-        }
-
-        soundEngine.run(playlist);
-        waitForReady();
+        waitForReady(playPlaylistAsync(playlist));
     }
 
-    private void waitForReady() {
-        int sleepCounter = 0;
-        while ((soundEngine.getState() == null || !soundEngine.getState().equals(SoundEngine.PLAYING_STATE))
-                && sleepCounter < 50) {
-            try {
-                Thread.sleep(100);
-                sleepCounter++;
-            } catch (InterruptedException e) {
-                context.getLogger().error("Error while sleeping", e);
-            }
-        }
+    /**
+     * Starts a new playback session with the given playlist (if a current playlist session is in progress, it is
+     * canceled), without waiting for the playback to start
+     * <p>
+     *     Playlists can only be played if they have been generated by the {@link PlaylistGenerator}
+     * </p>
+     * @param playlist the playlist to play
+     * @return a future that is completed as soon as the first sound can be heard, or completed exceptionally if the
+     *         playback could not be started, or if the session was stopped or replaced by a new one before
+     */
+    public CompletableFuture<Void> playPlaylistAsync(Playlist playlist) {
+        return soundEngine.run(playlist);
+    }
 
-        if (sleepCounter >= 50) {
+    private void waitForReady(CompletableFuture<Void> ready) {
+        try {
+            ready.get(READY_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
             context.getLogger().error("Player timed out");
             stop();
+        } catch (ExecutionException e) {
+            context.getLogger().error("Unable to start playback", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            context.getLogger().error("Interrupted while waiting for the playback to start", e);
         }
     }
 
@@ -114,6 +137,14 @@ public class AudioFilePlayer extends Player {
         soundEngine.stopSession();
     }
 
+    /**
+     * Stops the playback session and releases the threads and the output line of the player, it can not be used
+     * anymore afterwards
+     */
+    public void dispose() {
+        soundEngine.dispose();
+    }
+
     /**
      * Pauses the playback session (Do not confuse with @{code stop}, which entirely stops the playback
      */
@@ -155,6 +186,15 @@ public class AudioFilePlayer extends Player {
         }
     }
 
+    /**
+     * Jumps to {@code milliseconds} in the current sound, if the sound is paused it will be resumed from there
+     *
+     * @param milliseconds the position to jump to (in milliseconds)
+     */
+    public void jumpToPosition(long milliseconds) {
+        soundEngine.jumpToPosition(milliseconds);
+    }
+
     /**
      * Sets the volume from 0 - 100
      * <p>
@@ -169,6 +209,7 @@ public class AudioFilePlayer extends Player {
             volume = 0;
         }
         soundEngine.controlVolume(volume);
+        Volume.createVolume((int) Math.round(volume)).ifPresent(this::updatePlayInfo);
     }
 
     /**
@@ -208,6 +249,26 @@ public class AudioFilePlayer extends Player {
         }
     }
 
+    /**
+     * Gets the metrics of the playback health, the values are read the moment they are asked for
+     *
+     * @return the metrics of the playback health
+     */
+    public PlaybackMetricsMXBean getMetrics() {
+        return soundEngine.getMetrics();
+    }
+
+    /**
+     * Sets where the metrics read the amount of play requests from, the requests are counted by the controller that
+     * hands them to this player
+     *
+     * @param posted gets the amount of play requests that were made
+     * @param superseded gets the amount of play requests that were replaced by a newer one before they were played
+     */
+    public void setPlayRequestCounters(LongSupplier posted, LongSupplier superseded) {
+        soundEngine.getMetrics().setPlayRequestCounters(posted, superseded);
+    }
+
     /**
      * Returns true if an out of bounds error occurred with play indices, else false
      *
@@ -297,13 +358,10 @@ public class AudioFilePlayer extends Player {
         playlist = generator.combinePlaylist(playlist, playlist1);
 
         Function<TrackInfo, TrackInfo> convertToAddonData = trackInfo -> {
-            if (trackInfo.getData().filter(data -> data.contains(PlaylistGenerator.DATA_SEPERATOR))
-                    .isPresent()) {
+            if (trackInfo.getData().filter(data -> TrackData.parse(data) != null).isPresent()) {
                 return trackInfo;
             } else {
-                String data = PlaylistGenerator.FILE_TYPE + PlaylistGenerator.DATA_SEPERATOR +
-                        trackInfo.getData().orElse("null") + PlaylistGenerator.DATA_SEPERATOR + "-1" +
-                        PlaylistGenerator.DATA_SEPERATOR + "-1";
+                String data = TrackData.encode(PlaylistGenerator.FILE_TYPE, trackInfo.getData().orElse("null"), -1, -1);
                 return new TrackInfo(trackInfo.getName().orElse(null), trackInfo.getArtist().orElse(null),
                         trackInfo.getAlbum().orElse(null), trackInfo.getAlbumCover().orElse(null),
                         trackInfo.getAlbumCover().flatMap(unused -> trackInfo.getAlbumCoverFormat())
@@ -322,4 +380,29 @@ public class AudioFilePlayer extends Player {
 
         playPlaylist(playlist);
     }
+
+    /**
+     * Publishes what the sound engine plays through this player
+     */
+    private class EngineHost implements SoundEngine.Host {
+        @Override
+        public SoundIdentity getCurrentSound() {
+            return AudioFilePlayer.this.getCurrentSound();
+        }
+
+        @Override
+        public void setCurrentSound(SoundIdentity currentSound) {
+            AudioFilePlayer.this.setCurrentSound(currentSound);
+        }
+
+        @Override
+        public void setCurrentPlaylist(Playlist playlist) {
+            AudioFilePlayer.this.setCurrentPlaylist(playlist);
+        }
+
+        @Override
+        public void stopMusicPlayback() {
+            AudioFilePlayer.this.stopMusicPlayback();
+        }
+    }
 }
\ No newline at end of file
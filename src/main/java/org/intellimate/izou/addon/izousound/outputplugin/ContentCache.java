@@ -0,0 +1,463 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ContentCache stores downloaded URL tracks on disk, so that playing a URL track again (for example when the
+ * playlist is repeated) does not download it again.
+ * <p>
+ *     Entries are keyed by the URL and the validators the server sent with it (ETag and Last-Modified), resources
+ *     without any validator are not cached. Before a cached track is played, it is revalidated with a conditional
+ *     request, and it is only used if the server answers that it has not changed (or if the server can not be
+ *     reached at all).
+ * </p>
+ * <p>
+ *     The cache is filled while a track is played: every {@link ReadAheadStream} keeps the downloaded bytes in its
+ *     {@link SpillBuffer}, and once the download is complete they are stored in the cache with
+ *     {@link #store(URL, SpillBuffer)}. The cache is bounded by a byte budget, once it is exceeded the least recently
+ *     used tracks are evicted.
+ * </p>
+ * <p>
+ *     The index of the cached tracks is saved in the background a few seconds after it changed, and right away once
+ *     the cache is closed (see {@link #close()}).
+ * </p>
+ */
+class ContentCache {
+    static final String CONTENT_CACHE_NAME = "izousound_content";
+    static final int DEFAULT_BUDGET = 512 * 1024 * 1024;
+
+    private static final String INDEX_NAME = "content.index";
+    private static final int MAGIC = 0x49534343;
+    private static final int VERSION = 1;
+    private static final long SAVE_DELAY = 5;
+    private static final long CLOSE_TIMEOUT = 5;
+    private static final int VALIDATE_TIMEOUT = 5000;
+
+    private final Context context;
+    private final File directory;
+    private final File indexFile;
+    private final long budget;
+    // The entries by URL in LRU order, the least recently used one first. Guarded by this.
+    private final LinkedHashMap<String, Entry> entries;
+    private long size;
+    private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong bytesSaved;
+    private final AtomicBoolean savePending;
+    private final ScheduledExecutorService saveExecutor;
+
+    /**
+     * Creates a new ContentCache and loads the index of the cached tracks in {@code directory}
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param directory the directory the cached tracks are stored in
+     * @param budget the maximum amount of bytes of all cached tracks
+     */
+    ContentCache(Context context, File directory, long budget) {
+        this.context = context;
+        this.directory = directory;
+        this.indexFile = new File(directory, INDEX_NAME);
+        this.budget = budget;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hitCount = new AtomicLong();
+        this.missCount = new AtomicLong();
+        this.bytesSaved = new AtomicLong();
+        this.savePending = new AtomicBoolean(false);
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IzouSound-content");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+    }
+
+    /**
+     * Returns true if {@code url} can be cached, else false
+     *
+     * @param url the URL of the track
+     * @return true if {@code url} can be cached, else false
+     */
+    static boolean isCacheable(URL url) {
+        String protocol = url.getProtocol();
+        return "http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol);
+    }
+
+    /**
+     * Opens the cached copy of the track at {@code url}, if there is one and it is still valid. The cached copy is
+     * revalidated with a conditional request first, an entry the server reports as changed is removed.
+     *
+     * @param url the URL of the track
+     * @return the input stream of the cached copy, or null if the track has to be downloaded
+     */
+    InputStream open(URL url) {
+        if (!isCacheable(url)) {
+            return null;
+        }
+
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(url.toString());
+        }
+        if (entry == null || !isValid(url, entry)) {
+            if (entry != null) {
+                remove(url.toString(), entry);
+            }
+            missCount.incrementAndGet();
+            return null;
+        }
+
+        try {
+            InputStream inputStream = new FileInputStream(new File(directory, entry.fileName));
+            hitCount.incrementAndGet();
+            bytesSaved.addAndGet(entry.size);
+            scheduleSave();
+            context.getLogger().debug("Playing " + url + " from the content cache, hit ratio " + getHitRatio());
+            return inputStream;
+        } catch (IOException e) {
+            context.getLogger().warn("Cached copy of " + url + " is missing", e);
+            remove(url.toString(), entry);
+            missCount.incrementAndGet();
+            return null;
+        }
+    }
+
+    // Revalidates the cached copy with a conditional request, a server that can not be reached counts as valid
+    private boolean isValid(URL url, Entry entry) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) url.openConnection();
+            connection.setConnectTimeout(VALIDATE_TIMEOUT);
+            connection.setReadTimeout(VALIDATE_TIMEOUT);
+            if (entry.etag != null) {
+                connection.setRequestProperty("If-None-Match", entry.etag);
+            }
+            if (entry.lastModified > 0) {
+                connection.setIfModifiedSince(entry.lastModified);
+            }
+
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                return true;
+            } else if (responseCode != HttpURLConnection.HTTP_OK) {
+                return false;
+            }
+            // Servers that ignore conditional requests still send the validators of the current version
+            return entry.matches(connection.getHeaderField("ETag"), connection.getLastModified(),
+                    connection.getContentLengthLong());
+        } catch (IOException | ClassCastException e) {
+            context.getLogger().debug("Unable to revalidate " + url + ", using the cached copy");
+            return true;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Stores a completely downloaded track in the cache. The least recently used tracks are evicted if the budget is
+     * exceeded. Tracks without validators, or that do not fit into the budget at all, are not stored.
+     *
+     * @param url the URL of the track
+     * @param spill the spill buffer holding all bytes of the track
+     */
+    void store(URL url, SpillBuffer spill) {
+        long length = spill.getLength();
+        if (!isCacheable(url) || !spill.isComplete() || length <= 0 || length > budget
+                || length != spill.getContentLength() || (spill.getETag() == null && spill.getLastModified() <= 0)) {
+            return;
+        }
+
+        String fileName = toFileName(url.toString());
+        File tempFile = new File(directory, fileName + ".tmp");
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("Unable to create directory " + directory);
+            }
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                byte[] chunk = new byte[64 * 1024];
+                long position = 0;
+                while (position < length) {
+                    int read = spill.read(position, chunk, 0, chunk.length);
+                    if (read < 0) {
+                        throw new EOFException("Spill buffer ended at " + position + " of " + length + " bytes");
+                    }
+                    out.write(chunk, 0, read);
+                    position += read;
+                }
+            }
+            Files.move(tempFile.toPath(), new File(directory, fileName).toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            context.getLogger().debug("Unable to store " + url + " in the content cache: " + e.getMessage());
+            if (tempFile.exists() && !tempFile.delete()) {
+                tempFile.deleteOnExit();
+            }
+            return;
+        }
+
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Entry old = entries.put(url.toString(),
+                    new Entry(fileName, spill.getETag(), spill.getLastModified(), length));
+            if (old != null) {
+                size -= old.size;
+            }
+            size += length;
+
+            Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+            while (size > budget && iterator.hasNext()) {
+                Map.Entry<String, Entry> eldest = iterator.next();
+                if (!eldest.getKey().equals(url.toString())) {
+                    iterator.remove();
+                    size -= eldest.getValue().size;
+                    evicted.add(eldest.getValue());
+                }
+            }
+        }
+        for (Entry entry : evicted) {
+            deleteFile(entry.fileName);
+        }
+        scheduleSave();
+        context.getLogger().debug("Stored " + url + " in the content cache, evicted " + evicted.size() + " tracks");
+    }
+
+    // Removes entry if it still is the entry of url
+    private void remove(String url, Entry entry) {
+        synchronized (this) {
+            if (!entries.remove(url, entry)) {
+                return;
+            }
+            size -= entry.size;
+        }
+        deleteFile(entry.fileName);
+        scheduleSave();
+    }
+
+    private void deleteFile(String fileName) {
+        File file = new File(directory, fileName);
+        // The file might still be played on systems that do not allow deleting open files
+        if (file.exists() && !file.delete()) {
+            file.deleteOnExit();
+        }
+    }
+
+    // The file names are derived from the URL, so that storing the same URL again replaces its file
+    private static String toFileName(String url) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(digest.length * 2 + 6);
+            for (byte b : digest) {
+                name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return name.append(".track").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(url.hashCode()) + ".track";
+        }
+    }
+
+    /**
+     * Gets how many times a cached track was played instead of downloading it
+     *
+     * @return how many times a cached track was played
+     */
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * Gets how many times a URL track had to be downloaded because it was not cached (or no longer valid)
+     *
+     * @return how many times a URL track had to be downloaded
+     */
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * Gets the share of URL tracks that were played from the cache, from 0 to 1
+     *
+     * @return the share of URL tracks that were played from the cache
+     */
+    double getHitRatio() {
+        long hits = hitCount.get();
+        long total = hits + missCount.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    /**
+     * Gets the amount of bytes that did not have to be downloaded because they were played from the cache
+     *
+     * @return the amount of bytes played from the cache
+     */
+    long getBytesSaved() {
+        return bytesSaved.get();
+    }
+
+    /**
+     * Gets the amount of bytes of all cached tracks
+     *
+     * @return the amount of bytes of all cached tracks
+     */
+    synchronized long getSize() {
+        return size;
+    }
+
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            try {
+                saveExecutor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // The cache was closed already, a download that completed afterwards is still kept
+                save();
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread of the cache and saves the changes to the index that were not saved yet right away
+     */
+    void close() {
+        saveExecutor.shutdownNow();
+        try {
+            // A save that is running already has to finish first, both would write the same temporary file
+            saveExecutor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (savePending.get()) {
+            save();
+        }
+    }
+
+    // Loads the index, entries whose file is missing or has the wrong size are dropped
+    private void load() {
+        if (!indexFile.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                context.getLogger().warn("Ignoring content cache index with unknown format: " + indexFile);
+                return;
+            }
+
+            int count = in.readInt();
+            synchronized (this) {
+                for (int i = 0; i < count; i++) {
+                    String url = in.readUTF();
+                    String fileName = in.readUTF();
+                    String etag = in.readUTF();
+                    long lastModified = in.readLong();
+                    long length = in.readLong();
+                    if (new File(directory, fileName).length() == length) {
+                        entries.put(url, new Entry(fileName, etag.isEmpty() ? null : etag, lastModified, length));
+                        size += length;
+                    }
+                }
+            }
+            context.getLogger().debug("Loaded content cache with " + entries.size() + " tracks");
+        } catch (EOFException e) {
+            context.getLogger().warn("Content cache index is incomplete, ignoring it: " + indexFile);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to load content cache index: " + indexFile, e);
+        }
+    }
+
+    /**
+     * Saves the index of the cached tracks, in LRU order. Like the other caches of IzouSound, the index is written to
+     * a temporary file first, which then replaces the old index.
+     */
+    void save() {
+        savePending.set(false);
+        if (!directory.exists() && !directory.mkdirs()) {
+            context.getLogger().error("Unable to create directory for content cache: " + directory);
+            return;
+        }
+
+        Map<String, Entry> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+        }
+
+        File tempFile = new File(indexFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, Entry> mapEntry : snapshot.entrySet()) {
+                Entry entry = mapEntry.getValue();
+                out.writeUTF(mapEntry.getKey());
+                out.writeUTF(entry.fileName);
+                out.writeUTF(entry.etag != null ? entry.etag : "");
+                out.writeLong(entry.lastModified);
+                out.writeLong(entry.size);
+            }
+        } catch (IOException e) {
+            context.getLogger().error("Unable to save content cache index: " + indexFile, e);
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to replace content cache index: " + indexFile, e);
+        }
+    }
+
+    /**
+     * A single cached track: the name of its file and the validators the server sent with it
+     */
+    private static class Entry {
+        private final String fileName;
+        private final String etag;
+        private final long lastModified;
+        private final long size;
+
+        Entry(String fileName, String etag, long lastModified, long size) {
+            this.fileName = fileName;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+
+        // Returns true if the validators of the current version of the track are the ones of this entry
+        boolean matches(String etag, long lastModified, long size) {
+            if (this.etag != null && etag != null) {
+                return this.etag.equals(etag);
+            }
+            return this.lastModified > 0 && this.lastModified == lastModified && this.size == size;
+        }
+    }
+}
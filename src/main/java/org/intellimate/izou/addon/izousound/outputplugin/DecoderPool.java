@@ -0,0 +1,421 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.BitstreamException;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The DecoderPool keeps the decoders of played sounds, so that the next sounds can be decoded without allocating a new
+ * {@link Decoder} and {@link Bitstream} (and with them several hundred kilobytes of decoder tables and buffers) for
+ * every track.
+ * <p>
+ *     JLayer can neither reset a bitstream nor hand a decoder another bitstream. Instead, the bitstream of a pooled
+ *     decoder reads from a {@link Source} that is switched over to the next sound, so the decoder sees the sounds one
+ *     after another, as if they were one concatenated file. The bitstream only accepts frames of the format it started
+ *     with, so a decoder is only reused for sounds of the same format (MPEG version, sample rate and mono or stereo).
+ *     Only Layer III decoders are reused.
+ * </p>
+ * <p>
+ *     A reused decoder still holds the overlap of the last frame it decoded, which would be mixed into the start of the
+ *     next sound, and the main data of the last frames in its bit reservoir. The Huffman decoder reads past the main
+ *     data of a granule if the frame is damaged, so a new decoder reads zeros there, while a reused one would read the
+ *     last sound. So silent frames of the same format are decoded before the next sound, as many as it takes to fill
+ *     the bit reservoir with zeros, and their output is dropped. Since the first frame of a file never refers to
+ *     earlier frames (its main data starts within the frame), the next sound then decodes exactly as it would with a
+ *     new decoder. This does not hold for a sound that is started in the middle, which is why decoders are only reused
+ *     for sounds played from the start.
+ * </p>
+ * <p>
+ *     A bitstream reads ahead of the frame it returns. If a sound is closed before its end, the bytes of it that were
+ *     already read ahead are skipped frame by frame when the slot is released, so that they do not end up in the next
+ *     sound.
+ * </p>
+ * <p>
+ *     Every slot also keeps the buffers for the frames a {@link TrackPlayer} decodes in advance. The pool may be used by
+ *     several threads, a slot is only used by one thread at a time.
+ * </p>
+ */
+class DecoderPool {
+    static final int DEFAULT_CAPACITY = 2;
+
+    // The header bits the bitstream compares between frames (MPEG version and sample rate), plus the layer
+    private static final int FORMAT_MASK = 0xFFFE0C00;
+    private static final int MONO = 0xC0;
+    private static final int LAYER_III = 1;
+    private static final int ID3V2_HEADER_SIZE = 10;
+    // Bitrate index 14 makes the largest frames, so that the fewest frames fill the bit reservoir, see FLUSH_BITRATES
+    private static final int FLUSH_BITRATE_INDEX = 14;
+    // The bitrate of bitrate index 14 of Layer III in bit/s, indexed by [MPEG1 ? 0 : 1]
+    private static final int[] FLUSH_BITRATES = {320000, 160000};
+    // The size of the side info in bytes, indexed by [MPEG1 ? 0 : 1][mono ? 0 : 1]
+    private static final int[][] SIDE_INFO_SIZES = {{17, 32}, {9, 17}};
+    // The size of the bit reservoir of a JLayer decoder in bytes
+    private static final int BIT_RESERVOIR_SIZE = 4096;
+    // Sample rates indexed by [version][sample rate index], version 1 is reserved
+    private static final int[][] SAMPLE_RATES = {
+            {11025, 12000, 8000},
+            {0, 0, 0},
+            {22050, 24000, 16000},
+            {44100, 48000, 32000}
+    };
+
+    private final Slot[] idle;
+    private int idleCount;
+    private long createdCount;
+    private long reusedCount;
+
+    /**
+     * Creates a new DecoderPool
+     *
+     * @param capacity how many unused decoders the pool keeps at most
+     */
+    DecoderPool(int capacity) {
+        this.idle = new Slot[Math.max(capacity, 1)];
+    }
+
+    /**
+     * Creates a slot that is not pooled, it decodes {@code inputStream} and is dropped once the sound is closed
+     *
+     * @param inputStream the input stream of the sound
+     * @return a new slot that decodes {@code inputStream}
+     */
+    static Slot unpooled(InputStream inputStream) {
+        return new Slot(null, new Source(inputStream, new byte[0], 0), -1);
+    }
+
+    /**
+     * Gets a slot that decodes {@code inputStream}. A pooled decoder of the same format is reused if {@code fromStart}
+     * is true, else a new decoder is created. Either way, the slot goes back to the pool once it is released.
+     *
+     * @param inputStream the input stream of the sound, positioned at the start of the file or of a frame
+     * @param fromStart true if the sound is played from its first frame
+     * @return the slot that decodes {@code inputStream}
+     * @throws IOException thrown if the start of the input stream could not be read
+     */
+    Slot acquire(InputStream inputStream, boolean fromStart) throws IOException {
+        // The ID3v2 tag is skipped here, since a bitstream only skips it when it is created
+        byte[] start = new byte[ID3V2_HEADER_SIZE];
+        int length = readFully(inputStream, start, ID3V2_HEADER_SIZE);
+        if (length == ID3V2_HEADER_SIZE && start[0] == 'I' && start[1] == 'D' && start[2] == '3') {
+            long size = (start[6] & 0x7F) << 21 | (start[7] & 0x7F) << 14 | (start[8] & 0x7F) << 7 | (start[9] & 0x7F);
+            // A footer doubles the header at the end of the tag
+            skipFully(inputStream, (start[5] & 0x10) != 0 ? size + ID3V2_HEADER_SIZE : size);
+            length = readFully(inputStream, start, ID3V2_HEADER_SIZE);
+        }
+
+        int header = length >= 4
+                ? (start[0] & 0xFF) << 24 | (start[1] & 0xFF) << 16 | (start[2] & 0xFF) << 8 | (start[3] & 0xFF) : 0;
+        int format = getFormat(header);
+        Slot slot = fromStart && format != -1 ? takeIdle(format) : null;
+        if (slot != null) {
+            int flushFrames = slot.source.switchTo(inputStream, start, length, header);
+            try {
+                slot.flush(flushFrames);
+                synchronized (this) {
+                    reusedCount++;
+                }
+                return slot;
+            } catch (JavaLayerException | RuntimeException e) {
+                // The slot is dropped, a new decoder gets the start of the sound again
+            }
+        }
+
+        synchronized (this) {
+            createdCount++;
+        }
+        return new Slot(this, new Source(inputStream, start, length), format);
+    }
+
+    // Gets the format of the frame header, or -1 if it is no valid Layer III header
+    private static int getFormat(int header) {
+        int version = (header >>> 19) & 3;
+        int layer = (header >>> 17) & 3;
+        int sampleRate = (header >>> 10) & 3;
+        if ((header & 0xFFE00000) != 0xFFE00000 || version == 1 || layer != LAYER_III || sampleRate == 3) {
+            return -1;
+        }
+        return (header & FORMAT_MASK) | ((header & MONO) == MONO ? MONO : 0);
+    }
+
+    // Takes an unused slot of the format out of the pool, or returns null if there is none
+    private synchronized Slot takeIdle(int format) {
+        for (int i = 0; i < idleCount; i++) {
+            if (idle[i].format == format) {
+                Slot slot = idle[i];
+                System.arraycopy(idle, i + 1, idle, i, idleCount - i - 1);
+                idle[--idleCount] = null;
+                return slot;
+            }
+        }
+        return null;
+    }
+
+    // Puts a released slot back into the pool, the oldest unused slot is dropped if the pool is full
+    private synchronized void putIdle(Slot slot) {
+        if (idleCount == idle.length) {
+            System.arraycopy(idle, 1, idle, 0, idleCount - 1);
+            idleCount--;
+        }
+        idle[idleCount++] = slot;
+    }
+
+    /**
+     * Drops all unused decoders, so that their memory can be freed
+     */
+    synchronized void clear() {
+        for (int i = 0; i < idleCount; i++) {
+            idle[i] = null;
+        }
+        idleCount = 0;
+    }
+
+    /**
+     * Gets how many decoders the pool created
+     *
+     * @return how many decoders were created
+     */
+    synchronized long getCreatedCount() {
+        return createdCount;
+    }
+
+    /**
+     * Gets how many times a decoder was reused for another sound
+     *
+     * @return how many times a decoder was reused
+     */
+    synchronized long getReusedCount() {
+        return reusedCount;
+    }
+
+    private static int readFully(InputStream inputStream, byte[] target, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int read = inputStream.read(target, count, length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    return;
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    /**
+     * A decoder, its bitstream and the buffers for the frames decoded in advance, used by one {@link TrackPlayer} at a
+     * time
+     */
+    static class Slot {
+        private final DecoderPool pool;
+        private final Source source;
+        private final Bitstream bitstream;
+        private final Decoder decoder;
+        private final int format;
+        private short[][] prerollBuffers;
+        private int[] prerollLengths;
+        private boolean healthy;
+
+        private Slot(DecoderPool pool, Source source, int format) {
+            this.pool = pool;
+            this.source = source;
+            this.bitstream = new Bitstream(source);
+            this.decoder = new Decoder();
+            this.format = format;
+            this.healthy = true;
+        }
+
+        // Decodes the silent frames the source starts with, and drops their output
+        private void flush(int frames) throws JavaLayerException {
+            for (int i = 0; i < frames; i++) {
+                Header header = bitstream.readFrame();
+                if (header == null) {
+                    throw new BitstreamException(BitstreamException.UNKNOWN_ERROR, null);
+                }
+                decoder.decodeFrame(header, bitstream);
+                bitstream.closeFrame();
+            }
+        }
+
+        // Skips the frames the bitstream has read ahead of the closed sound, returns false if they could not be skipped
+        private boolean drain() {
+            try {
+                bitstream.closeFrame();
+                while (bitstream.readFrame() != null) {
+                    bitstream.closeFrame();
+                }
+                return true;
+            } catch (BitstreamException | RuntimeException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Gets the bitstream of the sound
+         *
+         * @return the bitstream of the sound
+         */
+        Bitstream getBitstream() {
+            return bitstream;
+        }
+
+        /**
+         * Gets the decoder of the sound
+         *
+         * @return the decoder of the sound
+         */
+        Decoder getDecoder() {
+            return decoder;
+        }
+
+        /**
+         * Gets buffers for {@code frames} decoded frames, they are kept for the next sound decoded by this slot
+         *
+         * @param frames the amount of frames to buffer
+         * @return the buffers, each one large enough for a decoded frame
+         */
+        short[][] getPrerollBuffers(int frames) {
+            if (prerollBuffers == null || prerollBuffers.length < frames) {
+                prerollBuffers = new short[frames][OutputDevice.MAX_FRAME_SAMPLES];
+                prerollLengths = new int[frames];
+            }
+            return prerollBuffers;
+        }
+
+        /**
+         * Gets the lengths of the decoded frames in the buffers of {@link #getPrerollBuffers(int)}
+         *
+         * @return the lengths of the decoded frames
+         */
+        int[] getPrerollLengths() {
+            return prerollLengths;
+        }
+
+        /**
+         * Marks the decoder as broken, for example because decoding a frame failed halfway, so that it is not reused
+         */
+        void invalidate() {
+            healthy = false;
+        }
+
+        /**
+         * Releases the slot once its sound is closed, a healthy slot goes back to its pool. The input stream of the
+         * sound has to be closed by the caller.
+         */
+        void release() {
+            source.detach();
+            if (pool != null && healthy && format != -1 && drain()) {
+                pool.putIdle(this);
+            } else {
+                try {
+                    bitstream.close();
+                } catch (BitstreamException e) {
+                    // Nothing to do here, the bitstream is dropped anyways
+                }
+            }
+        }
+    }
+
+    /**
+     * The input stream a bitstream reads from. It first returns the bytes it was given (the silent frames to flush the
+     * decoder with, and the bytes read ahead to find the format of the sound), then the bytes of the sound. It can be
+     * switched over to the next sound, and it is never closed by the bitstream.
+     * <p>
+     *     Like its slot, the source is only used by one thread at a time. It is handed over to the next thread through
+     *     the pool.
+     * </p>
+     */
+    private static class Source extends InputStream {
+        private byte[] prefix;
+        private int prefixPosition;
+        private int prefixLength;
+        private InputStream inputStream;
+
+        private Source(InputStream inputStream, byte[] start, int length) {
+            this.prefix = new byte[ID3V2_HEADER_SIZE];
+            this.inputStream = inputStream;
+            System.arraycopy(start, 0, prefix, 0, length);
+            this.prefixLength = length;
+        }
+
+        // Switches over to the next sound, which starts with silent frames in the format of header
+        // Returns the amount of silent frames
+        private int switchTo(InputStream inputStream, byte[] start, int length, int header) {
+            int mpeg1 = (header >>> 19) & 1;
+            boolean mono = (header & MONO) == MONO;
+            int sampleRate = SAMPLE_RATES[(header >>> 19) & 3][(header >>> 10) & 3];
+            int frameSize = (mpeg1 == 1 ? 144 : 72) * FLUSH_BITRATES[mpeg1 == 1 ? 0 : 1] / sampleRate;
+            int mainDataSize = frameSize - 4 - SIDE_INFO_SIZES[mpeg1 == 1 ? 0 : 1][mono ? 0 : 1];
+            int frames = (BIT_RESERVOIR_SIZE + mainDataSize - 1) / mainDataSize;
+            if (prefix.length < frames * frameSize + length) {
+                prefix = new byte[frames * frameSize + length];
+            }
+
+            // Without CRC, no padding, all side info and main data is 0, so every granule decodes to silence
+            int flushHeader = (header & FORMAT_MASK) | 0x00010000 | FLUSH_BITRATE_INDEX << 12 | (mono ? MONO : 0);
+            for (int frame = 0; frame < frames; frame++) {
+                int offset = frame * frameSize;
+                prefix[offset] = (byte) (flushHeader >>> 24);
+                prefix[offset + 1] = (byte) (flushHeader >>> 16);
+                prefix[offset + 2] = (byte) (flushHeader >>> 8);
+                prefix[offset + 3] = (byte) flushHeader;
+                for (int i = 4; i < frameSize; i++) {
+                    prefix[offset + i] = 0;
+                }
+            }
+            System.arraycopy(start, 0, prefix, frames * frameSize, length);
+            this.prefixPosition = 0;
+            this.prefixLength = frames * frameSize + length;
+            this.inputStream = inputStream;
+            return frames;
+        }
+
+        // Lets go of the input stream of the sound, from now on the end of the stream is returned
+        private void detach() {
+            inputStream = null;
+            prefixPosition = 0;
+            prefixLength = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (prefixPosition < prefixLength) {
+                return prefix[prefixPosition++] & 0xFF;
+            }
+            return inputStream != null ? inputStream.read() : -1;
+        }
+
+        @Override
+        public int read(byte[] target, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            } else if (prefixPosition < prefixLength) {
+                int count = Math.min(length, prefixLength - prefixPosition);
+                System.arraycopy(prefix, prefixPosition, target, offset, count);
+                prefixPosition += count;
+                return count;
+            }
+            return inputStream != null ? inputStream.read(target, offset, length) : -1;
+        }
+
+        @Override
+        public void close() {
+            // The input stream of the sound is closed by its track player, the source itself stays open for reuse
+        }
+    }
+}
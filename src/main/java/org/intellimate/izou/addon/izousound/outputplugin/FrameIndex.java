@@ -0,0 +1,263 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+
+/**
+ * The FrameIndex maps every frame of an MPEG audio file (mp3) to its byte offset in the file. This way the playback of
+ * a sound can be started at any position by seeking straight to the right byte, instead of reading and discarding all
+ * frames before it.
+ * <p>
+ *     The index is built by only reading the frame headers, the frames themselves are skipped. Frames are counted the
+ *     same way the {@link javazoom.jl.decoder.Bitstream} counts them, so frame numbers can be used interchangeably.
+ * </p>
+ */
+class FrameIndex {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Bitrates in kbit/s, indexed by [MPEG1 ? 0 : 1][layer - 1][bitrate index]
+    private static final int[][][] BITRATES = {
+            {
+                    {0, 32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448},
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384},
+                    {0, 32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320}
+            },
+            {
+                    {0, 32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160},
+                    {0, 8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160}
+            }
+    };
+    private static final int[] SAMPLE_RATES = {44100, 48000, 32000};
+
+    private final long[] offsets;
+    private final int frameCount;
+    private final double millisecondsPerFrame;
+
+    private FrameIndex(long[] offsets, int frameCount, double millisecondsPerFrame) {
+        this.offsets = offsets;
+        this.frameCount = frameCount;
+        this.millisecondsPerFrame = millisecondsPerFrame;
+    }
+
+    /**
+     * Builds the frame index of the mp3 file at {@code path}
+     *
+     * @param path the path to the mp3 file
+     * @return the frame index of the file
+     * @throws IOException thrown if the file could not be read
+     */
+    static FrameIndex build(String path) throws IOException {
+        try (InputStream inputStream = new BufferedInputStream(new FileInputStream(path), BUFFER_SIZE)) {
+            return build(inputStream);
+        }
+    }
+
+    /**
+     * Builds the frame index of the mp3 data in {@code inputStream}, offsets are relative to the start of the stream
+     *
+     * @param inputStream the stream containing the mp3 data, it is not closed
+     * @return the frame index of the stream
+     * @throws IOException thrown if the stream could not be read
+     */
+    static FrameIndex build(InputStream inputStream) throws IOException {
+        PushbackInputStream input = new PushbackInputStream(inputStream, 10);
+        long[] offsets = new long[1024];
+        int frameCount = 0;
+        double millisecondsPerFrame = 0;
+        int firstHeader = 0;
+
+        long position = skipId3v2Tag(input);
+        byte[] header = new byte[4];
+        if (readFully(input, header, 0, 4) < 4) {
+            return new FrameIndex(offsets, 0, 0);
+        }
+        position += 4;
+
+        while (true) {
+            int b1 = header[1] & 0xFF;
+            int b2 = header[2] & 0xFF;
+            int frameLength = getFrameLength(header[0] & 0xFF, b1, b2);
+            boolean sameStream = firstHeader == 0 || (b1 & 0xFE) == (firstHeader >> 8 & 0xFE)
+                    && (b2 & 0x0C) == (firstHeader & 0x0C);
+
+            if (frameLength > 0 && sameStream) {
+                long skipped = skipFully(input, frameLength - 4);
+                if (skipped < frameLength - 4) {
+                    // The last frame is incomplete, so it can not be played
+                    break;
+                }
+
+                if (frameCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[frameCount++] = position - 4;
+                if (firstHeader == 0) {
+                    firstHeader = b1 << 8 | b2;
+                    millisecondsPerFrame = getSamplesPerFrame(b1) * 1000.0 / getSampleRate(b1, b2);
+                }
+
+                position += skipped;
+                if (readFully(input, header, 0, 4) < 4) {
+                    break;
+                }
+                position += 4;
+            } else {
+                // No frame starts at this position, resynchronize one byte further
+                int next = input.read();
+                if (next < 0) {
+                    break;
+                }
+                header[0] = header[1];
+                header[1] = header[2];
+                header[2] = header[3];
+                header[3] = (byte) next;
+                position++;
+            }
+        }
+
+        return new FrameIndex(offsets, frameCount, millisecondsPerFrame);
+    }
+
+    // Skips an ID3v2 tag at the start of the stream and returns its length, or 0 if there is none
+    private static long skipId3v2Tag(PushbackInputStream input) throws IOException {
+        byte[] tagHeader = new byte[10];
+        int read = readFully(input, tagHeader, 0, 10);
+        if (read == 10 && tagHeader[0] == 'I' && tagHeader[1] == 'D' && tagHeader[2] == '3') {
+            int size = (tagHeader[6] & 0x7F) << 21 | (tagHeader[7] & 0x7F) << 14 | (tagHeader[8] & 0x7F) << 7
+                    | (tagHeader[9] & 0x7F);
+            if ((tagHeader[5] & 0x10) != 0) {
+                size += 10;
+            }
+            return 10 + skipFully(input, size);
+        }
+
+        input.unread(tagHeader, 0, read);
+        return 0;
+    }
+
+    // Gets the length in bytes of the frame starting with the header bytes, or -1 if they are no valid frame header
+    private static int getFrameLength(int b0, int b1, int b2) {
+        if (b0 != 0xFF || (b1 & 0xE0) != 0xE0) {
+            return -1;
+        }
+
+        int version = b1 >> 3 & 0x03;
+        int layer = 4 - (b1 >> 1 & 0x03);
+        int bitrateIndex = b2 >> 4 & 0x0F;
+        int sampleRateIndex = b2 >> 2 & 0x03;
+        if (version == 1 || layer == 4 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+
+        int bitrate = BITRATES[version == 3 ? 0 : 1][layer - 1][bitrateIndex] * 1000;
+        int sampleRate = getSampleRate(b1, b2);
+        int padding = b2 >> 1 & 0x01;
+        if (layer == 1) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        } else if (layer == 3 && version != 3) {
+            return 72 * bitrate / sampleRate + padding;
+        } else {
+            return 144 * bitrate / sampleRate + padding;
+        }
+    }
+
+    private static int getSampleRate(int b1, int b2) {
+        int version = b1 >> 3 & 0x03;
+        int sampleRate = SAMPLE_RATES[b2 >> 2 & 0x03];
+        if (version == 2) {
+            return sampleRate / 2;
+        } else if (version == 0) {
+            return sampleRate / 4;
+        }
+        return sampleRate;
+    }
+
+    private static int getSamplesPerFrame(int b1) {
+        int version = b1 >> 3 & 0x03;
+        int layer = 4 - (b1 >> 1 & 0x03);
+        if (layer == 1) {
+            return 384;
+        } else if (layer == 3 && version != 3) {
+            return 576;
+        }
+        return 1152;
+    }
+
+    private static int readFully(InputStream inputStream, byte[] buffer, int offset, int length) throws IOException {
+        int total = 0;
+        while (total < length) {
+            int read = inputStream.read(buffer, offset + total, length - total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static long skipFully(InputStream inputStream, long length) throws IOException {
+        long total = 0;
+        while (total < length) {
+            long skipped = inputStream.skip(length - total);
+            if (skipped <= 0) {
+                // skip might return 0 before the end of the stream, so check with a read
+                if (inputStream.read() < 0) {
+                    break;
+                }
+                skipped = 1;
+            }
+            total += skipped;
+        }
+        return total;
+    }
+
+    /**
+     * Gets the amount of frames in the index
+     *
+     * @return the amount of frames in the index
+     */
+    int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Gets the duration of a single frame in milliseconds, or 0 if the index contains no frames
+     *
+     * @return the duration of a single frame in milliseconds
+     */
+    double getMillisecondsPerFrame() {
+        return millisecondsPerFrame;
+    }
+
+    /**
+     * Gets the frame that is played at {@code milliseconds}, clamped to the frames in the index
+     *
+     * @param milliseconds the position in the sound in milliseconds
+     * @return the frame that is played at {@code milliseconds}
+     */
+    int getFrame(long milliseconds) {
+        if (frameCount == 0 || milliseconds <= 0) {
+            return 0;
+        }
+        long frame = (long) (milliseconds / millisecondsPerFrame);
+        return (int) Math.min(frame, frameCount - 1);
+    }
+
+    /**
+     * Gets the byte offset of {@code frame} in the file, or -1 if the frame is not in the index
+     *
+     * @param frame the frame for which to get the offset
+     * @return the byte offset of {@code frame}, or -1 if the frame is not in the index
+     */
+    long getOffset(int frame) {
+        if (frame < 0 || frame >= frameCount) {
+            return -1;
+        }
+        return offsets[frame];
+    }
+}
@@ -0,0 +1,404 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.lang.invoke.MethodType.methodType;
+
+/**
+ * The JfrEvents define the Java Flight Recorder events of the playback lifecycle. This class may only be used by
+ * {@link PlaybackEvents}, which makes sure it is only loaded if the JVM has the {@code jdk.jfr} API.
+ * <p>
+ *     The {@code jdk.jfr} API is not part of Java 8, so IzouSound does not link against it. The event types are
+ *     defined at runtime with {@code jdk.jfr.EventFactory}, and the events are used through method handles. If any
+ *     part of the API is missing, initializing this class fails and no events are emitted.
+ * </p>
+ * <p>
+ *     Whether an event is recorded is checked with its event type first, so that no event is allocated unless a
+ *     recording has it enabled.
+ * </p>
+ */
+final class JfrEvents {
+    static final String PREFIX = "org.intellimate.izou.addon.izousound.";
+
+    // The fields every event about a single sound starts with
+    private static final int TRACK = 0;
+    private static final int LOCATION = 1;
+    private static final int INDEX = 2;
+    private static final int FIRST_FIELD = 3;
+
+    private static final MethodHandle BEGIN;
+    private static final MethodHandle END;
+    private static final MethodHandle SHOULD_COMMIT;
+    private static final MethodHandle COMMIT;
+    private static final MethodHandle SET;
+
+    private static final EventKind SESSION_START;
+    private static final EventKind SESSION_STOP;
+    private static final EventKind TRACK_OPEN;
+    private static final EventKind META_DATA_PROBE;
+    private static final EventKind DECODE_BATCH;
+    private static final EventKind PAUSE;
+    private static final EventKind RESUME;
+    private static final EventKind SKIP;
+    private static final EventKind UNDERRUN;
+
+    static {
+        try {
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            BEGIN = lookup.findVirtual(event, "begin", methodType(void.class))
+                    .asType(methodType(void.class, Object.class));
+            END = lookup.findVirtual(event, "end", methodType(void.class))
+                    .asType(methodType(void.class, Object.class));
+            SHOULD_COMMIT = lookup.findVirtual(event, "shouldCommit", methodType(boolean.class))
+                    .asType(methodType(boolean.class, Object.class));
+            COMMIT = lookup.findVirtual(event, "commit", methodType(void.class))
+                    .asType(methodType(void.class, Object.class));
+            SET = lookup.findVirtual(event, "set", methodType(void.class, int.class, Object.class))
+                    .asType(methodType(void.class, Object.class, int.class, Object.class));
+
+            Definitions definitions = new Definitions();
+            SESSION_START = definitions.event("SessionStart", "Session Start", null, false)
+                    .field(int.class, "tracks", "Tracks", null, null)
+                    .create();
+            SESSION_STOP = definitions.event("SessionStop", "Session Stop", null, false)
+                    .create();
+            TRACK_OPEN = definitions.event("TrackOpen", "Track Open",
+                    "A sound was opened and its first frames were decoded", true)
+                    .field(String.class, "source", "Source", null, null)
+                    .field(int.class, "startFrame", "Start Frame", null, null)
+                    .field(long.class, "bytes", "Bytes Read", null, null)
+                    .field(boolean.class, "opened", "Opened", null, null)
+                    .create();
+            META_DATA_PROBE = definitions.event("MetaDataProbe", "Meta Data Probe",
+                    "The meta data of a sound was read from the meta data cache or the sound file", true)
+                    .field(boolean.class, "found", "Found", null, null)
+                    .create();
+            DECODE_BATCH = definitions.event("DecodeBatch", "Decode Batch",
+                    "A batch of frames was decoded into the output buffer", true)
+                    .field(int.class, "frames", "Frames", null, null)
+                    .field(long.class, "decodeTime", "Decode Time",
+                            "The time spent decoding, without the time waiting for room in the output buffer",
+                            "NANOSECONDS")
+                    .create();
+            PAUSE = definitions.event("Pause", "Pause", null, true)
+                    .field(long.class, "position", "Position", null, "MILLISECONDS")
+                    .create();
+            RESUME = definitions.event("Resume", "Resume", null, true)
+                    .field(long.class, "position", "Position", null, "MILLISECONDS")
+                    .create();
+            SKIP = definitions.event("Skip", "Skip", "Sounds were skipped, the event carries the sound skipped to", true)
+                    .field(int.class, "skips", "Skips", null, null)
+                    .field(int.class, "fromIndex", "From Index", null, null)
+                    .create();
+            UNDERRUN = definitions.event("Underrun", "Underrun",
+                    "The output line ran out of samples while playing, so that a gap could be heard", true)
+                    .field(long.class, "underruns", "Underruns", null, null)
+                    .create();
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private JfrEvents() {
+    }
+
+    /**
+     * Registers the event types, this happens once this class is initialized
+     *
+     * @return true once the event types are registered
+     */
+    static boolean register() {
+        return SESSION_START != null;
+    }
+
+    static void sessionStarted(int tracks) {
+        if (SESSION_START.isEnabled()) {
+            Object event = SESSION_START.newEvent();
+            set(event, 0, tracks);
+            commit(event);
+        }
+    }
+
+    static void sessionStopped() {
+        if (SESSION_STOP.isEnabled()) {
+            commit(SESSION_STOP.newEvent());
+        }
+    }
+
+    static Object beginTrackOpen() {
+        return TRACK_OPEN.isEnabled() ? begin(TRACK_OPEN.newEvent()) : null;
+    }
+
+    static void endTrackOpen(Object event, SoundIdentity soundId, PlaybackMetrics.Source source, int startFrame,
+                             long bytes, boolean opened) {
+        if (end(event)) {
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, source.name());
+            set(event, FIRST_FIELD + 1, startFrame);
+            set(event, FIRST_FIELD + 2, bytes);
+            set(event, FIRST_FIELD + 3, opened);
+            commit(event);
+        }
+    }
+
+    static Object beginMetaDataProbe() {
+        return META_DATA_PROBE.isEnabled() ? begin(META_DATA_PROBE.newEvent()) : null;
+    }
+
+    static void endMetaDataProbe(Object event, SoundInfo soundInfo, boolean found) {
+        if (end(event)) {
+            setSound(event, soundInfo, -1);
+            set(event, FIRST_FIELD, found);
+            commit(event);
+        }
+    }
+
+    static Object beginDecodeBatch() {
+        return DECODE_BATCH.isEnabled() ? begin(DECODE_BATCH.newEvent()) : null;
+    }
+
+    static void endDecodeBatch(Object event, SoundIdentity soundId, int frames, long decodeNanos) {
+        if (end(event)) {
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, frames);
+            set(event, FIRST_FIELD + 1, decodeNanos);
+            commit(event);
+        }
+    }
+
+    static void paused(SoundIdentity soundId, long position) {
+        if (PAUSE.isEnabled()) {
+            Object event = PAUSE.newEvent();
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, position);
+            commit(event);
+        }
+    }
+
+    static void resumed(SoundIdentity soundId, long position) {
+        if (RESUME.isEnabled()) {
+            Object event = RESUME.newEvent();
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, position);
+            commit(event);
+        }
+    }
+
+    static void skipped(SoundIdentity soundId, int skips, int fromIndex) {
+        if (SKIP.isEnabled()) {
+            Object event = SKIP.newEvent();
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, skips);
+            set(event, FIRST_FIELD + 1, fromIndex);
+            commit(event);
+        }
+    }
+
+    static void underrun(SoundIdentity soundId, long underruns) {
+        if (UNDERRUN.isEnabled()) {
+            Object event = UNDERRUN.newEvent();
+            setSound(event, soundId);
+            set(event, FIRST_FIELD, underruns);
+            commit(event);
+        }
+    }
+
+    private static void setSound(Object event, SoundIdentity soundId) {
+        if (soundId != null) {
+            setSound(event, soundId.getSoundInfo(), soundId.getId());
+        } else {
+            set(event, INDEX, -1);
+        }
+    }
+
+    private static void setSound(Object event, SoundInfo soundInfo, int index) {
+        set(event, TRACK, soundInfo.getName());
+        set(event, LOCATION, soundInfo.getPath() != null ? soundInfo.getPath() : String.valueOf(soundInfo.getURL()));
+        set(event, INDEX, index);
+    }
+
+    private static Object begin(Object event) {
+        try {
+            BEGIN.invokeExact(event);
+            return event;
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // Ends the event, returns true if it should be committed
+    private static boolean end(Object event) {
+        try {
+            END.invokeExact(event);
+            return (boolean) SHOULD_COMMIT.invokeExact(event);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    private static void set(Object event, int field, Object value) {
+        try {
+            SET.invokeExact(event, field, value);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    private static void commit(Object event) {
+        try {
+            COMMIT.invokeExact(event);
+        } catch (Throwable e) {
+            throw propagate(e);
+        }
+    }
+
+    // The methods of the events do not throw checked exceptions, anything else is passed on as it is
+    private static RuntimeException propagate(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+        return e instanceof RuntimeException ? (RuntimeException) e : new IllegalStateException(e);
+    }
+
+    /**
+     * An event type defined with an event factory
+     */
+    private static final class EventKind {
+        // Bound to the event type and the event factory, which keeps the event type registered
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+
+        EventKind(MethodHandle isEnabled, MethodHandle newEvent) {
+            this.isEnabled = isEnabled;
+            this.newEvent = newEvent;
+        }
+
+        boolean isEnabled() {
+            try {
+                return (boolean) isEnabled.invokeExact();
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+
+        Object newEvent() {
+            try {
+                return (Object) newEvent.invokeExact();
+            } catch (Throwable e) {
+                throw propagate(e);
+            }
+        }
+    }
+
+    /**
+     * Defines event types with {@code jdk.jfr.EventFactory}, in place of annotated event classes
+     */
+    private static final class Definitions {
+        private final Class<? extends Annotation> name;
+        private final Class<? extends Annotation> label;
+        private final Class<? extends Annotation> description;
+        private final Class<? extends Annotation> category;
+        private final Class<? extends Annotation> timespan;
+        private final Constructor<?> annotationElement;
+        private final Constructor<?> valueDescriptor;
+        private final MethodHandle createFactory;
+        private final MethodHandle getEventType;
+        private final MethodHandle isEnabled;
+        private final MethodHandle newEvent;
+
+        Definitions() throws ReflectiveOperationException {
+            name = annotation("jdk.jfr.Name");
+            label = annotation("jdk.jfr.Label");
+            description = annotation("jdk.jfr.Description");
+            category = annotation("jdk.jfr.Category");
+            timespan = annotation("jdk.jfr.Timespan");
+            annotationElement = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+            valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+                    .getConstructor(Class.class, String.class, List.class);
+
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> eventType = Class.forName("jdk.jfr.EventType");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            createFactory = lookup.findStatic(eventFactory, "create",
+                    methodType(eventFactory, List.class, List.class));
+            getEventType = lookup.findVirtual(eventFactory, "getEventType", methodType(eventType));
+            isEnabled = lookup.findVirtual(eventType, "isEnabled", methodType(boolean.class));
+            newEvent = lookup.findVirtual(eventFactory, "newEvent", methodType(Class.forName("jdk.jfr.Event")));
+        }
+
+        private static Class<? extends Annotation> annotation(String className) throws ClassNotFoundException {
+            return Class.forName(className).asSubclass(Annotation.class);
+        }
+
+        /**
+         * Starts the definition of an event type
+         *
+         * @param eventName the name of the event, it is prefixed with {@link #PREFIX}
+         * @param eventLabel the label of the event
+         * @param eventDescription the description of the event, or null
+         * @param track true if the event is about a single sound, it then starts with the fields of the sound
+         * @return the definition, the fields are added to it in the order they are set
+         * @throws ReflectiveOperationException thrown if the definition could not be created
+         */
+        Definition event(String eventName, String eventLabel, String eventDescription, boolean track)
+                throws ReflectiveOperationException {
+            Definition definition = new Definition();
+            definition.annotations.add(annotationElement.newInstance(name, PREFIX + eventName));
+            definition.annotations.add(annotationElement.newInstance(label, eventLabel));
+            definition.annotations.add(annotationElement.newInstance(category,
+                    new String[]{"IzouSound", "Playback"}));
+            if (eventDescription != null) {
+                definition.annotations.add(annotationElement.newInstance(description, eventDescription));
+            }
+            if (track) {
+                definition.field(String.class, "track", "Track", null, null)
+                        .field(String.class, "location", "Location", "The path or URL of the sound", null)
+                        .field(int.class, "index", "Index",
+                                "The index of the sound in its playlist, -1 if it is not known", null);
+            }
+            return definition;
+        }
+
+        /**
+         * The annotations and fields of an event type that is being defined
+         */
+        private final class Definition {
+            private final List<Object> annotations = new ArrayList<>();
+            private final List<Object> fields = new ArrayList<>();
+
+            Definition field(Class<?> type, String fieldName, String fieldLabel, String fieldDescription,
+                             String fieldTimespan) throws ReflectiveOperationException {
+                List<Object> fieldAnnotations = new ArrayList<>();
+                fieldAnnotations.add(annotationElement.newInstance(label, fieldLabel));
+                if (fieldDescription != null) {
+                    fieldAnnotations.add(annotationElement.newInstance(description, fieldDescription));
+                }
+                if (fieldTimespan != null) {
+                    fieldAnnotations.add(annotationElement.newInstance(timespan, fieldTimespan));
+                }
+                fields.add(valueDescriptor.newInstance(type, fieldName, fieldAnnotations));
+                return this;
+            }
+
+            // Creates the event factory, which registers the event type
+            EventKind create() throws ReflectiveOperationException {
+                try {
+                    Object factory = createFactory.invoke(annotations, fields);
+                    Object eventType = getEventType.invoke(factory);
+                    return new EventKind(isEnabled.bindTo(eventType),
+                            newEvent.bindTo(factory).asType(methodType(Object.class)));
+                } catch (ReflectiveOperationException | RuntimeException | Error e) {
+                    throw e;
+                } catch (Throwable e) {
+                    throw new ReflectiveOperationException(e);
+                }
+            }
+        }
+    }
+}
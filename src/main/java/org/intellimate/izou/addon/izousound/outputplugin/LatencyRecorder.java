@@ -0,0 +1,93 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyRecorder keeps statistics of a latency (count, last, average and maximum) and a histogram of it, without
+ * locking and without allocating anything while recording. This way it can be recorded on the playback thread for
+ * every frame.
+ * <p>
+ *     The histogram has {@link #BUCKETS} buckets of powers of two microseconds: bucket 0 counts the latencies below
+ *     1 microsecond, bucket {@code i} the latencies from 2<sup>i - 1</sup> up to 2<sup>i</sup> microseconds, and the
+ *     last bucket all latencies above that.
+ * </p>
+ */
+class LatencyRecorder {
+    static final int BUCKETS = 32;
+
+    private final AtomicLong count;
+    private final AtomicLong total;
+    private final AtomicLong last;
+    private final AtomicLong max;
+    private final AtomicLongArray histogram;
+
+    /**
+     * Creates a new, empty LatencyRecorder
+     */
+    LatencyRecorder() {
+        this.count = new AtomicLong();
+        this.total = new AtomicLong();
+        this.last = new AtomicLong();
+        this.max = new AtomicLong();
+        this.histogram = new AtomicLongArray(BUCKETS);
+    }
+
+    /**
+     * Records a latency
+     *
+     * @param nanos the latency in nanoseconds, negative values are recorded as 0
+     */
+    void record(long nanos) {
+        nanos = Math.max(nanos, 0);
+        count.incrementAndGet();
+        total.addAndGet(nanos);
+        last.lazySet(nanos);
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+
+        int bucket = 64 - Long.numberOfLeadingZeros(nanos / 1000);
+        histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Records the latency from {@code startNanos} (a value of {@link System#nanoTime()}) until now
+     *
+     * @param startNanos the value of {@link System#nanoTime()} when the latency started
+     */
+    void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Gets how many latencies were recorded
+     *
+     * @return how many latencies were recorded
+     */
+    long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Takes a snapshot of the statistics recorded so far. Latencies recorded while the snapshot is taken may only be
+     * part of some of its values.
+     *
+     * @return the statistics recorded so far
+     */
+    LatencyStatistics getStatistics() {
+        long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        long recorded = count.get();
+        return new LatencyStatistics(recorded, toMillis(last.get()),
+                recorded > 0 ? toMillis(total.get()) / recorded : 0, toMillis(max.get()), buckets);
+    }
+
+    private static double toMillis(long nanos) {
+        return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,85 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.util.Arrays;
+
+/**
+ * The LatencyStatistics are a snapshot of a latency measured by the player (see {@link PlaybackMetricsMXBean}). All
+ * times are in milliseconds.
+ */
+public final class LatencyStatistics {
+    private final long count;
+    private final double last;
+    private final double average;
+    private final double max;
+    private final long[] histogram;
+
+    /**
+     * Creates new LatencyStatistics
+     *
+     * @param count how many latencies were recorded
+     * @param last the latency recorded last (in milliseconds)
+     * @param average the average latency (in milliseconds)
+     * @param max the highest latency (in milliseconds)
+     * @param histogram the histogram of the latencies, in buckets of powers of two microseconds
+     */
+    LatencyStatistics(long count, double last, double average, double max, long[] histogram) {
+        this.count = count;
+        this.last = last;
+        this.average = average;
+        this.max = max;
+        this.histogram = histogram;
+    }
+
+    /**
+     * Gets how many latencies were recorded
+     *
+     * @return how many latencies were recorded
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the latency recorded last, or 0 if none was recorded yet
+     *
+     * @return the latency recorded last in milliseconds
+     */
+    public double getLast() {
+        return last;
+    }
+
+    /**
+     * Gets the average of all recorded latencies, or 0 if none was recorded yet
+     *
+     * @return the average latency in milliseconds
+     */
+    public double getAverage() {
+        return average;
+    }
+
+    /**
+     * Gets the highest recorded latency, or 0 if none was recorded yet
+     *
+     * @return the highest latency in milliseconds
+     */
+    public double getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the histogram of the recorded latencies. Bucket 0 counts the latencies below 1 microsecond, bucket
+     * {@code i} the latencies from 2<sup>i - 1</sup> up to 2<sup>i</sup> microseconds, and the last bucket all
+     * latencies above that.
+     *
+     * @return the amount of latencies in each bucket
+     */
+    public long[] getHistogram() {
+        return histogram.clone();
+    }
+
+    @Override
+    public String toString() {
+        return "LatencyStatistics{count=" + count + ", last=" + last + ", average=" + average + ", max=" + max
+                + ", histogram=" + Arrays.toString(histogram) + "}";
+    }
+}
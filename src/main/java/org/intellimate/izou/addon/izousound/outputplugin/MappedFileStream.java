@@ -0,0 +1,151 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The MappedFileStream reads a sound file that is mapped into memory with {@link FileChannel#map}, so reading a frame
+ * is a plain memory copy instead of a system call, and skipping to another position (to resume or jump with a
+ * {@link FrameIndex}) only moves the position of the buffer.
+ * <p>
+ *     The mapping is released as soon as the stream is closed, and not whenever the garbage collector gets to it, so
+ *     that the sound file is not held open after playback. Reading and closing are synchronized, the mapping is never
+ *     released while it is read.
+ * </p>
+ */
+class MappedFileStream extends InputStream {
+    private static final AtomicInteger OPEN_MAPPINGS = new AtomicInteger();
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Maps the file at {@code path} into memory
+     *
+     * @param path the path to the sound file
+     * @throws IOException thrown if the file could not be opened or mapped, or if it is too large to be mapped at once
+     */
+    MappedFileStream(String path) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is too large to be mapped");
+            }
+            // The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        OPEN_MAPPINGS.incrementAndGet();
+    }
+
+    /**
+     * Gets the amount of files that are mapped right now
+     *
+     * @return the amount of files that are mapped
+     */
+    static int getOpenMappings() {
+        return OPEN_MAPPINGS.get();
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        ensureOpen();
+        return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+    }
+
+    @Override
+    public synchronized int read(byte[] target, int offset, int length) throws IOException {
+        ensureOpen();
+        if (length == 0) {
+            return 0;
+        } else if (!buffer.hasRemaining()) {
+            return -1;
+        }
+
+        int read = Math.min(length, buffer.remaining());
+        buffer.get(target, offset, read);
+        return read;
+    }
+
+    @Override
+    public synchronized long skip(long count) throws IOException {
+        ensureOpen();
+        int skipped = (int) Math.max(Math.min(count, buffer.remaining()), 0);
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() throws IOException {
+        ensureOpen();
+        return buffer.remaining();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (buffer == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Closes the stream and releases the mapping right away
+     */
+    @Override
+    public synchronized void close() {
+        if (buffer != null) {
+            Unmapper.unmap(buffer);
+            buffer = null;
+            OPEN_MAPPINGS.decrementAndGet();
+        }
+    }
+
+    /**
+     * Releases mappings without waiting for the garbage collector. There is no public API for this (before Java 14),
+     * so the cleaner of the buffer is invoked directly: through {@code Unsafe.invokeCleaner} on Java 9 and newer, or
+     * through the {@code cleaner()} of the buffer on Java 8. If neither is available, the mapping is left to the
+     * garbage collector.
+     */
+    private static class Unmapper {
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+                invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+                Field field = unsafeClass.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                invokeCleaner = null;
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void unmap(MappedByteBuffer buffer) {
+            try {
+                if (INVOKE_CLEANER != null) {
+                    INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                    return;
+                }
+                Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+                cleanerMethod.setAccessible(true);
+                Object cleaner = cleanerMethod.invoke(buffer);
+                if (cleaner != null) {
+                    cleaner.getClass().getMethod("clean").invoke(cleaner);
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // The mapping is released by the garbage collector instead
+            }
+        }
+    }
+}
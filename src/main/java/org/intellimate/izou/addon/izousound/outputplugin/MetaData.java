@@ -0,0 +1,176 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * MetaData holds everything that is read from a sound file by the {@link SoundLoader} (its tags, duration and frame
+ * information), together with the size and modification time the file had when it was read. This way the meta data
+ * can be stored in the {@link MetaDataCache} and reused as long as the file has not changed.
+ */
+class MetaData {
+    private final long fileSize;
+    private final long lastModified;
+    private final String name;
+    private final String artist;
+    private final String album;
+    private final String year;
+    private final String genre;
+    private final long duration;
+    private final long framesPerSecond;
+    private final long frameCount;
+
+    /**
+     * Creates a new MetaData object
+     *
+     * @param fileSize the size of the sound file in bytes
+     * @param lastModified the time the sound file was last modified
+     * @param name the name of the song, may be null
+     * @param artist the artist of the song, may be null
+     * @param album the album of the song, may be null
+     * @param year the year of the song, may be null
+     * @param genre the genre of the song, may be null
+     * @param duration the duration of the song in milliseconds
+     * @param framesPerSecond the frames per second of the song
+     * @param frameCount the amount of frames of the song
+     */
+    MetaData(long fileSize, long lastModified, String name, String artist, String album, String year, String genre,
+             long duration, long framesPerSecond, long frameCount) {
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.name = name;
+        this.artist = artist;
+        this.album = album;
+        this.year = year;
+        this.genre = genre;
+        this.duration = duration;
+        this.framesPerSecond = framesPerSecond;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Returns true if the meta data was read from a file with the given size and modification time, else false
+     *
+     * @param fileSize the current size of the sound file in bytes
+     * @param lastModified the current modification time of the sound file
+     * @return true if the meta data is still valid for the file, else false
+     */
+    boolean matches(long fileSize, long lastModified) {
+        return this.fileSize == fileSize && this.lastModified == lastModified;
+    }
+
+    /**
+     * Writes the meta data to {@code out}
+     *
+     * @param out the stream to write to
+     * @throws IOException thrown if the meta data could not be written
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeLong(fileSize);
+        out.writeLong(lastModified);
+        writeString(out, name);
+        writeString(out, artist);
+        writeString(out, album);
+        writeString(out, year);
+        writeString(out, genre);
+        out.writeLong(duration);
+        out.writeLong(framesPerSecond);
+        out.writeLong(frameCount);
+    }
+
+    /**
+     * Reads meta data that was written by {@link #write(DataOutputStream)} from {@code in}
+     *
+     * @param in the stream to read from
+     * @return the meta data
+     * @throws IOException thrown if the meta data could not be read
+     */
+    static MetaData read(DataInputStream in) throws IOException {
+        return new MetaData(in.readLong(), in.readLong(), readString(in), readString(in), readString(in),
+                readString(in), readString(in), in.readLong(), in.readLong(), in.readLong());
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Gets the name of the song, null if it is unknown
+     *
+     * @return the name of the song, null if it is unknown
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the artist of the song, null if it is unknown
+     *
+     * @return the artist of the song, null if it is unknown
+     */
+    String getArtist() {
+        return artist;
+    }
+
+    /**
+     * Gets the album of the song, null if it is unknown
+     *
+     * @return the album of the song, null if it is unknown
+     */
+    String getAlbum() {
+        return album;
+    }
+
+    /**
+     * Gets the year of the song, null if it is unknown
+     *
+     * @return the year of the song, null if it is unknown
+     */
+    String getYear() {
+        return year;
+    }
+
+    /**
+     * Gets the genre of the song, null if it is unknown
+     *
+     * @return the genre of the song, null if it is unknown
+     */
+    String getGenre() {
+        return genre;
+    }
+
+    /**
+     * Gets the duration of the song in milliseconds
+     *
+     * @return the duration of the song in milliseconds
+     */
+    long getDuration() {
+        return duration;
+    }
+
+    /**
+     * Gets the frames per second of the song
+     *
+     * @return the frames per second of the song
+     */
+    long getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    /**
+     * Gets the amount of frames of the song
+     *
+     * @return the amount of frames of the song
+     */
+    long getFrameCount() {
+        return frameCount;
+    }
+}
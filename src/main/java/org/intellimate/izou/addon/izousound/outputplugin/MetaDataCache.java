@@ -0,0 +1,220 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The MetaDataCache stores the {@link MetaData} of sound files on disk, so that a sound file only has to be parsed
+ * once, and not in every session. Entries are keyed by the path of the sound file and are only used as long as the
+ * size and modification time of the file are unchanged.
+ * <p>
+ *     The cache is loaded once when it is created. New entries are written back to disk in the background, a few
+ *     seconds after they were added, and right away once the cache is closed (see {@link #close()}).
+ * </p>
+ * <p>
+ *     Once the cache is loaded, the entries of sound files that were deleted, moved or changed since they were cached
+ *     are dropped in the background (see {@link #prune()}), so that the cache only grows with the library itself.
+ * </p>
+ */
+class MetaDataCache {
+    private static final int MAGIC = 0x49534D44;
+    private static final int VERSION = 1;
+    private static final long SAVE_DELAY = 5;
+    private static final long CLOSE_TIMEOUT = 5;
+
+    private final Context context;
+    private final File file;
+    private final ConcurrentHashMap<String, MetaData> entries;
+    private final AtomicBoolean savePending;
+    private final ScheduledExecutorService saveExecutor;
+
+    /**
+     * Creates a new MetaDataCache and loads the entries stored in {@code file}
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param file the file the cache is stored in
+     */
+    MetaDataCache(Context context, File file) {
+        this.context = context;
+        this.file = file;
+        this.entries = new ConcurrentHashMap<>();
+        this.savePending = new AtomicBoolean(false);
+        this.saveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IzouSound-metadata");
+            thread.setDaemon(true);
+            return thread;
+        });
+        load();
+        saveExecutor.execute(this::prune);
+    }
+
+    /**
+     * Gets the cached meta data of the sound file at {@code path}, if it is still valid
+     *
+     * @param path the path to the sound file
+     * @param fileSize the current size of the sound file in bytes
+     * @param lastModified the current modification time of the sound file
+     * @return the meta data, or null if there is none or if the file has changed since it was cached
+     */
+    MetaData get(String path, long fileSize, long lastModified) {
+        MetaData metaData = entries.get(path);
+        if (metaData != null && metaData.matches(fileSize, lastModified)) {
+            return metaData;
+        }
+        return null;
+    }
+
+    /**
+     * Adds the meta data of the sound file at {@code path} to the cache, it is saved to disk shortly afterwards
+     *
+     * @param path the path to the sound file
+     * @param metaData the meta data of the sound file
+     */
+    void put(String path, MetaData metaData) {
+        entries.put(path, metaData);
+        scheduleSave();
+    }
+
+    /**
+     * Drops all entries whose sound file no longer exists or has changed since it was cached, and saves the cache if
+     * any entry was dropped
+     *
+     * @return the amount of entries dropped
+     */
+    int prune() {
+        int dropped = 0;
+        for (Map.Entry<String, MetaData> entry : entries.entrySet()) {
+            File soundFile = new File(entry.getKey());
+            boolean stale = !soundFile.isFile()
+                    || !entry.getValue().matches(soundFile.length(), soundFile.lastModified());
+            // An entry put again in the meantime is kept
+            if (stale && entries.remove(entry.getKey(), entry.getValue())) {
+                dropped++;
+            }
+        }
+
+        if (dropped > 0) {
+            context.getLogger().debug("Dropped " + dropped + " stale meta data cache entries");
+            scheduleSave();
+        }
+        return dropped;
+    }
+
+    // Saves the cache a few seconds from now, unless a save is pending already
+    private void scheduleSave() {
+        if (savePending.compareAndSet(false, true)) {
+            try {
+                saveExecutor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+            } catch (RejectedExecutionException e) {
+                // The cache was closed already
+                save();
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread of the cache and saves the entries that were not saved yet right away
+     */
+    void close() {
+        saveExecutor.shutdownNow();
+        try {
+            // A save that is running already has to finish first, both would write the same temporary file
+            saveExecutor.awaitTermination(CLOSE_TIMEOUT, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (savePending.get()) {
+            save();
+        }
+    }
+
+    /**
+     * Gets the amount of entries in the cache
+     *
+     * @return the amount of entries in the cache
+     */
+    int size() {
+        return entries.size();
+    }
+
+    // Loads all entries stored in the cache file, a missing or broken cache file results in an empty cache
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                context.getLogger().warn("Ignoring meta data cache with unknown format: " + file);
+                return;
+            }
+
+            int count = in.readInt();
+            Map<String, MetaData> loaded = new HashMap<>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                loaded.put(path, MetaData.read(in));
+            }
+            entries.putAll(loaded);
+            context.getLogger().debug("Loaded " + count + " meta data cache entries");
+        } catch (EOFException e) {
+            context.getLogger().warn("Meta data cache is incomplete, ignoring it: " + file);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to load meta data cache: " + file, e);
+        }
+    }
+
+    /**
+     * Saves all entries to the cache file. The cache is written to a temporary file first, which then replaces the old
+     * cache file, so that the cache file is never left half written.
+     */
+    void save() {
+        savePending.set(false);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            context.getLogger().error("Unable to create directory for meta data cache: " + parent);
+            return;
+        }
+
+        File tempFile = new File(file.getPath() + ".tmp");
+        Map<String, MetaData> snapshot = new HashMap<>(entries);
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshot.size());
+            for (Map.Entry<String, MetaData> entry : snapshot.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        } catch (IOException e) {
+            context.getLogger().error("Unable to save meta data cache: " + file, e);
+            return;
+        }
+
+        try {
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to replace meta data cache: " + file, e);
+        }
+    }
+}
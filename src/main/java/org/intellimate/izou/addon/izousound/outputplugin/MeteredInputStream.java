@@ -0,0 +1,69 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The MeteredInputStream counts the bytes read from the input stream of a sound in the {@link PlaybackMetrics}, by the
+ * kind of source the sound is read from. Skipped bytes are not counted.
+ * <p>
+ *     Like the decoder reading it, the stream may only be read by one thread at a time.
+ * </p>
+ */
+class MeteredInputStream extends FilterInputStream {
+    private final PlaybackMetrics metrics;
+    private final PlaybackMetrics.Source source;
+    private long bytesRead;
+
+    /**
+     * Creates a new MeteredInputStream
+     *
+     * @param inputStream the input stream of the sound
+     * @param metrics the metrics to count the bytes in
+     * @param source the kind of source {@code inputStream} reads from
+     */
+    MeteredInputStream(InputStream inputStream, PlaybackMetrics metrics, PlaybackMetrics.Source source) {
+        super(inputStream);
+        this.metrics = metrics;
+        this.source = source;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = in.read();
+        if (read >= 0) {
+            bytesRead++;
+            metrics.addBytesRead(source, 1);
+        }
+        return read;
+    }
+
+    @Override
+    public int read(byte[] target, int offset, int length) throws IOException {
+        int read = in.read(target, offset, length);
+        if (read > 0) {
+            bytesRead += read;
+            metrics.addBytesRead(source, read);
+        }
+        return read;
+    }
+
+    /**
+     * Gets the amount of bytes read from this stream so far
+     *
+     * @return the amount of bytes read
+     */
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * Gets the input stream whose bytes are counted
+     *
+     * @return the input stream of the sound
+     */
+    InputStream getSource() {
+        return in;
+    }
+}
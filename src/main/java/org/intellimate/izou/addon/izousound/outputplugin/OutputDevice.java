@@ -0,0 +1,448 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDeviceBase;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The OutputDevice writes decoded samples to a JavaSound output line. Unlike the
+ * {@link javazoom.jl.player.JavaSoundAudioDevice}, it is meant to stay open for a whole playback session: the line is
+ * only reopened if the output format changes, and buffered samples can be dropped with {@link #discard()} (when
+ * jumping or pausing) without closing the line.
+ * <p>
+ *     The size of the line buffer is set by a latency target in milliseconds, or directly in bytes. A smaller buffer
+ *     makes pausing and jumping more responsive, while a larger buffer is more forgiving if the output thread is held
+ *     up.
+ * </p>
+ * <p>
+ *     Decoding and output run on different threads. Samples written to the device are only stored in a
+ *     {@link PcmRingBuffer}, an output thread moves them from there to the line. This way the line keeps playing while
+ *     the decoding thread is held up (for example by a slow input stream), as long as there are samples left in the
+ *     ring buffer. The decoding thread should check {@link #isFull()} before it decodes the next frame, a write to a
+ *     full ring buffer waits until the output thread made room. The volume is applied by the output thread, right
+ *     before the samples are written to the line, so volume changes are not delayed by the ring buffer.
+ * </p>
+ * <p>
+ *     A listener set with {@link #onStart(Runnable)} is told as soon as samples reach the line, this is when the sound
+ *     can actually be heard. A listener set with {@link #onUnderrun(Runnable)} is told every time the line runs out of
+ *     samples while playing.
+ * </p>
+ * <p>
+ *     The lines are opened by a {@link LineProvider}, which gets them from the {@link AudioSystem} by default.
+ * </p>
+ */
+class OutputDevice extends AudioDeviceBase {
+    static final int DEFAULT_LATENCY = 250;
+    static final int DEFAULT_DEPTH = 500;
+    // The most samples a single MPEG audio frame decodes to (1152 samples for each of 2 channels)
+    static final int MAX_FRAME_SAMPLES = 2304;
+
+    private static final long MAX_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final int latency;
+    private final int bufferSize;
+    private final int depth;
+    private final VolumeControl volumeControl;
+    private final LineProvider lineProvider;
+    // Guards the line, the output thread holds it while it moves samples to the line
+    private final ReentrantLock lineLock;
+    private final AtomicLong underrunCount;
+    private final AtomicLong overrunCount;
+    private final AtomicReference<Runnable> startListener;
+    private volatile Runnable underrunListener;
+    private volatile SourceDataLine line;
+    private volatile PcmRingBuffer ringBuffer;
+    private volatile Thread outputThread;
+    private AudioFormat format;
+    private boolean started;
+    private long idleNanos;
+    private int openCount;
+    private int closeCount;
+    // Only used by the output thread
+    private short[] chunk;
+    private byte[] bytes;
+    private boolean starved;
+    // Only used by the decoding thread
+    private boolean full;
+
+    /**
+     * Creates a new OutputDevice, the line is opened by {@link #open(Decoder)}
+     *
+     * @param latency the latency target in milliseconds, it determines the size of the line buffer
+     * @param bufferSize the size of the line buffer in bytes, overrides {@code latency} if greater than 0
+     * @param depth how many milliseconds of decoded samples the ring buffer holds ahead of the line
+     * @param volumeControl the volume control that is applied to the samples before they are written to the line
+     */
+    OutputDevice(int latency, int bufferSize, int depth, VolumeControl volumeControl) {
+        this(latency, bufferSize, depth, volumeControl, AudioSystem::getSourceDataLine);
+    }
+
+    /**
+     * Creates a new OutputDevice whose lines are opened by {@code lineProvider}, the line is opened by
+     * {@link #open(Decoder)}
+     *
+     * @param latency the latency target in milliseconds, it determines the size of the line buffer
+     * @param bufferSize the size of the line buffer in bytes, overrides {@code latency} if greater than 0
+     * @param depth how many milliseconds of decoded samples the ring buffer holds ahead of the line
+     * @param volumeControl the volume control that is applied to the samples before they are written to the line
+     * @param lineProvider gets a line for an output format
+     */
+    OutputDevice(int latency, int bufferSize, int depth, VolumeControl volumeControl, LineProvider lineProvider) {
+        this.lineProvider = lineProvider;
+        this.latency = latency > 0 ? latency : DEFAULT_LATENCY;
+        this.bufferSize = bufferSize;
+        this.depth = depth > 0 ? depth : DEFAULT_DEPTH;
+        this.volumeControl = volumeControl;
+        this.lineLock = new ReentrantLock();
+        this.underrunCount = new AtomicLong();
+        this.overrunCount = new AtomicLong();
+        this.startListener = new AtomicReference<>();
+        this.chunk = new short[MAX_FRAME_SAMPLES];
+        this.bytes = new byte[MAX_FRAME_SAMPLES * 2];
+        this.started = false;
+    }
+
+    @Override
+    protected void openImpl() throws JavaLayerException {
+        Decoder decoder = getDecoder();
+        lineLock.lock();
+        try {
+            openLine(decoder.getOutputFrequency(), decoder.getOutputChannels());
+        } finally {
+            lineLock.unlock();
+        }
+
+        Thread thread = new Thread(this::output, "IzouSound-output");
+        thread.setDaemon(true);
+        outputThread = thread;
+        thread.start();
+    }
+
+    /**
+     * Makes sure the line has the output format of {@code decoder}. If the format changes, the buffered samples are
+     * played first and then the line is reopened with the new format.
+     *
+     * @param decoder the decoder of the sound that is about to be played
+     * @throws JavaLayerException thrown if the line could not be reopened
+     */
+    void setFormat(Decoder decoder) throws JavaLayerException {
+        if (!isOpen()) {
+            open(decoder);
+        } else if (format.getSampleRate() != decoder.getOutputFrequency()
+                || format.getChannels() != decoder.getOutputChannels()) {
+            awaitEmpty();
+            lineLock.lock();
+            try {
+                if (line != null) {
+                    line.drain();
+                }
+                closeLine();
+                openLine(decoder.getOutputFrequency(), decoder.getOutputChannels());
+            } finally {
+                lineLock.unlock();
+            }
+        }
+    }
+
+    // Opens the line and a ring buffer for the format, has to be called with the line lock held
+    private void openLine(int frequency, int channels) throws JavaLayerException {
+        format = new AudioFormat(frequency, 16, channels, true, false);
+        int size = bufferSize > 0 ? bufferSize : (int) (format.getFrameRate() * latency / 1000) * format.getFrameSize();
+        SourceDataLine opened;
+        try {
+            opened = lineProvider.getLine(format);
+            opened.open(format, size);
+        } catch (LineUnavailableException | IllegalArgumentException | SecurityException e) {
+            line = null;
+            throw new JavaLayerException("Unable to open output line", e);
+        }
+
+        // The ring buffer always has room for a few frames, whatever the depth is
+        int capacity = (int) ((long) frequency * channels * depth / 1000);
+        ringBuffer = new PcmRingBuffer(Math.max(capacity, 4 * MAX_FRAME_SAMPLES));
+
+        // The output thread checks the line a few times per line buffer
+        long lineNanos = TimeUnit.SECONDS.toNanos(opened.getBufferSize()) / ((long) frequency * format.getFrameSize());
+        idleNanos = Math.max(Math.min(lineNanos / 8, MAX_IDLE_NANOS), 1);
+        started = false;
+        line = opened;
+        openCount++;
+    }
+
+    // Has to be called with the line lock held
+    private void closeLine() {
+        if (line != null) {
+            line.close();
+            line = null;
+            closeCount++;
+        }
+    }
+
+    @Override
+    protected void writeImpl(short[] samples, int offset, int length) throws JavaLayerException {
+        PcmRingBuffer buffer = ringBuffer;
+        if (line == null || buffer == null) {
+            return;
+        }
+
+        boolean wasEmpty = buffer.isEmpty();
+        int written = buffer.write(samples, offset, length);
+        while (written < length && line != null && outputThread != null) {
+            LockSupport.parkNanos(idleNanos);
+            written += buffer.write(samples, offset + written, length - written);
+        }
+        if (wasEmpty) {
+            LockSupport.unpark(outputThread);
+        }
+    }
+
+    /**
+     * Returns true if the ring buffer has no room for another frame, so that the decoding thread should wait before it
+     * decodes the next one. Every time the ring buffer runs full, this is counted as an overrun.
+     *
+     * @return true if the ring buffer is full, else false
+     */
+    boolean isFull() {
+        PcmRingBuffer buffer = ringBuffer;
+        boolean isFull = buffer != null && buffer.getFree() < MAX_FRAME_SAMPLES;
+        if (isFull && !full) {
+            overrunCount.incrementAndGet();
+        }
+        full = isFull;
+        return isFull;
+    }
+
+    // Waits until the output thread has moved all samples of the ring buffer to the line
+    private void awaitEmpty() {
+        PcmRingBuffer buffer = ringBuffer;
+        while (buffer != null && !buffer.isEmpty() && line != null && outputThread != null) {
+            LockSupport.parkNanos(idleNanos);
+        }
+    }
+
+    // The loop of the output thread, moves samples from the ring buffer to the line until the device is closed
+    private void output() {
+        Thread thread = Thread.currentThread();
+        while (outputThread == thread) {
+            int moved;
+            long underruns = underrunCount.get();
+            lineLock.lock();
+            try {
+                moved = moveSamples();
+            } finally {
+                lineLock.unlock();
+            }
+
+            if (moved == 0) {
+                Runnable listener = underrunListener;
+                if (listener != null && underrunCount.get() != underruns) {
+                    listener.run();
+                }
+                LockSupport.parkNanos(idleNanos);
+            } else if (startListener.get() != null) {
+                // Called without the line lock held, so that the listener can not hold up the line
+                Runnable listener = startListener.getAndSet(null);
+                if (listener != null) {
+                    listener.run();
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets a listener that is called once, by the output thread, the next time samples are written to the line. It
+     * replaces the listener that was set before, if that one was not called yet.
+     *
+     * @param listener the listener to call once samples reach the line, or null to remove the listener
+     */
+    void onStart(Runnable listener) {
+        startListener.set(listener);
+    }
+
+    /**
+     * Sets a listener that is called by the output thread every time the line runs out of samples while playing
+     *
+     * @param listener the listener to call on every underrun, or null to remove the listener
+     */
+    void onUnderrun(Runnable listener) {
+        underrunListener = listener;
+    }
+
+    // Moves as many samples to the line as it can take without blocking, has to be called with the line lock held
+    private int moveSamples() {
+        SourceDataLine line = this.line;
+        PcmRingBuffer buffer = ringBuffer;
+        if (line == null || buffer == null) {
+            return 0;
+        }
+
+        int channels = format.getChannels();
+        int count = Math.min(Math.min(buffer.getAvailable(), line.available() / 2), chunk.length);
+        count -= count % channels;
+        if (count == 0) {
+            // The line ran out of samples while it is playing, so a gap can be heard
+            boolean isStarved = started && buffer.isEmpty() && line.available() >= line.getBufferSize();
+            if (isStarved && !starved) {
+                underrunCount.incrementAndGet();
+            }
+            starved = isStarved;
+            return 0;
+        }
+
+        buffer.read(chunk, 0, count);
+        volumeControl.apply(chunk, count, channels, (int) format.getSampleRate());
+        for (int i = 0, j = 0; i < count; i++) {
+            short sample = chunk[i];
+            bytes[j++] = (byte) sample;
+            bytes[j++] = (byte) (sample >>> 8);
+        }
+
+        if (!started) {
+            line.start();
+            started = true;
+        }
+        line.write(bytes, 0, count * 2);
+        starved = false;
+        return count;
+    }
+
+    /**
+     * Drops all buffered samples right away, and stops the line until samples are written again
+     */
+    void discard() {
+        lineLock.lock();
+        try {
+            if (ringBuffer != null) {
+                ringBuffer.clear();
+            }
+            if (line != null) {
+                line.stop();
+                line.flush();
+            }
+            started = false;
+            starved = false;
+        } finally {
+            lineLock.unlock();
+        }
+    }
+
+    @Override
+    protected void flushImpl() {
+        awaitEmpty();
+        lineLock.lock();
+        try {
+            if (line != null) {
+                line.drain();
+                line.stop();
+            }
+            started = false;
+            starved = false;
+        } finally {
+            lineLock.unlock();
+        }
+    }
+
+    @Override
+    protected void closeImpl() {
+        Thread thread = outputThread;
+        outputThread = null;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+
+        lineLock.lock();
+        try {
+            closeLine();
+            ringBuffer = null;
+        } finally {
+            lineLock.unlock();
+        }
+    }
+
+    @Override
+    public int getPosition() {
+        SourceDataLine line = this.line;
+        return line != null ? (int) (line.getMicrosecondPosition() / 1000) : 0;
+    }
+
+    /**
+     * Gets the size of the line buffer in bytes, or 0 if the line is not open
+     *
+     * @return the size of the line buffer in bytes
+     */
+    int getBufferSize() {
+        SourceDataLine line = this.line;
+        return line != null ? line.getBufferSize() : 0;
+    }
+
+    /**
+     * Gets the amount of samples the ring buffer can hold, or 0 if the line is not open
+     *
+     * @return the amount of samples the ring buffer can hold
+     */
+    int getRingBufferCapacity() {
+        PcmRingBuffer buffer = ringBuffer;
+        return buffer != null ? buffer.getCapacity() : 0;
+    }
+
+    /**
+     * Gets how many times a line was opened by this device
+     *
+     * @return how many times a line was opened
+     */
+    int getOpenCount() {
+        return openCount;
+    }
+
+    /**
+     * Gets how many times a line was closed by this device
+     *
+     * @return how many times a line was closed
+     */
+    int getCloseCount() {
+        return closeCount;
+    }
+
+    /**
+     * Gets how many times the line ran out of samples while playing, because decoding could not keep up
+     *
+     * @return how many times the line ran out of samples
+     */
+    long getUnderrunCount() {
+        return underrunCount.get();
+    }
+
+    /**
+     * Gets how many times the ring buffer ran full, so that decoding had to wait for the output thread
+     *
+     * @return how many times the ring buffer ran full
+     */
+    long getOverrunCount() {
+        return overrunCount.get();
+    }
+
+    /**
+     * Gets the (not yet opened) output line for an output format
+     */
+    @FunctionalInterface
+    interface LineProvider {
+        /**
+         * Gets a line that can play {@code format}, it is opened by the output device
+         *
+         * @param format the format of the samples written to the line
+         * @return a line for {@code format}
+         * @throws LineUnavailableException thrown if there is no line for {@code format}
+         */
+        SourceDataLine getLine(AudioFormat format) throws LineUnavailableException;
+    }
+}
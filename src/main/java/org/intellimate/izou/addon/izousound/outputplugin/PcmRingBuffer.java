@@ -0,0 +1,124 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The PcmRingBuffer passes decoded samples from the playback thread (the producer) to the output thread (the
+ * consumer) of the {@link OutputDevice} without any locking.
+ * <p>
+ *     The buffer may only be written by one thread and read by one other thread. Both threads only ever advance their
+ *     own position: the producer publishes the samples it wrote by moving the write position, and the consumer frees
+ *     the samples it read by moving the read position. The positions count all samples ever written or read, so they
+ *     never wrap around, only the index into the array does.
+ * </p>
+ */
+class PcmRingBuffer {
+    private final short[] samples;
+    private final int mask;
+    private final AtomicLong writePosition;
+    private final AtomicLong readPosition;
+
+    /**
+     * Creates a new PcmRingBuffer
+     *
+     * @param capacity the minimum amount of samples the buffer can hold, it is rounded up to the next power of two
+     */
+    PcmRingBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        this.samples = new short[size];
+        this.mask = size - 1;
+        this.writePosition = new AtomicLong();
+        this.readPosition = new AtomicLong();
+    }
+
+    /**
+     * Gets the amount of samples the buffer can hold
+     *
+     * @return the amount of samples the buffer can hold
+     */
+    int getCapacity() {
+        return samples.length;
+    }
+
+    /**
+     * Gets the amount of samples that can be read right now
+     *
+     * @return the amount of samples that can be read
+     */
+    int getAvailable() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Gets the amount of samples that can be written right now
+     *
+     * @return the amount of samples that can be written
+     */
+    int getFree() {
+        return samples.length - getAvailable();
+    }
+
+    /**
+     * Returns true if there are no samples to read, else false
+     *
+     * @return true if there are no samples to read, else false
+     */
+    boolean isEmpty() {
+        return writePosition.get() == readPosition.get();
+    }
+
+    /**
+     * Writes as many samples of {@code source} as there is room for. May only be called by the producer.
+     *
+     * @param source the samples to write
+     * @param offset the index of the first sample in {@code source}
+     * @param length the amount of samples to write
+     * @return the amount of samples written
+     */
+    int write(short[] source, int offset, int length) {
+        long write = writePosition.get();
+        int count = Math.min(length, samples.length - (int) (write - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+
+        int start = (int) write & mask;
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(source, offset, samples, start, first);
+        System.arraycopy(source, offset + first, samples, 0, count - first);
+        // The ordered store makes the copied samples visible to the consumer before the new position
+        writePosition.lazySet(write + count);
+        return count;
+    }
+
+    /**
+     * Reads up to {@code length} samples into {@code target}. May only be called by the consumer.
+     *
+     * @param target the array to read the samples into
+     * @param offset the index in {@code target} to read the first sample into
+     * @param length the maximum amount of samples to read
+     * @return the amount of samples read
+     */
+    int read(short[] target, int offset, int length) {
+        long read = readPosition.get();
+        int count = Math.min(length, (int) (writePosition.get() - read));
+        if (count <= 0) {
+            return 0;
+        }
+
+        int start = (int) read & mask;
+        int first = Math.min(count, samples.length - start);
+        System.arraycopy(samples, start, target, offset, first);
+        System.arraycopy(samples, 0, target, offset + first, count - first);
+        readPosition.lazySet(read + count);
+        return count;
+    }
+
+    /**
+     * Drops all samples that have not been read yet. Like {@link #read(short[], int, int)}, this may only be called by
+     * the consumer, or while the consumer is known not to read.
+     */
+    void clear() {
+        readPosition.set(writePosition.get());
+    }
+}
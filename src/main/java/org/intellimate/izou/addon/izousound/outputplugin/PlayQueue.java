@@ -0,0 +1,294 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The PlayQueue holds the sounds of a playlist for the {@link SoundEngine}, and the order in which they are played.
+ * <p>
+ *     Sounds are addressed by their position in the play order. The play order is a permutation of the track
+ *     indices of the playlist, if the queue is not shuffled there is no permutation and the position is the track
+ *     index itself. Shuffling therefore only shuffles an {@code int[]}, the playlist itself is left as it is.
+ * </p>
+ * <p>
+ *     The track infos of the playlist are not all converted into sound identities up front, instead every track info
+ *     is converted by the {@link SoundLoader} the first time it is needed. Only the sound that is currently played,
+ *     and the few sounds before and after it, are kept. Moving to another sound with {@link #moveTo(int)} converts the
+ *     sounds following it in advance and releases all sounds that are further away.
+ * </p>
+ * <p>
+ *     The track infos are kept in an array, so that the meta data of a single track can be updated in constant time
+ *     with {@link #setTrackInfo(int, TrackInfo)}. {@link #getTracks()} hands out the array itself for a playlist that
+ *     is published; the array is only copied if a track is updated after that, so published lists never change.
+ * </p>
+ * <p>
+ *     Apart from {@link #indexOf(TrackInfo)}, which can be called from any thread, a PlayQueue is only used by the
+ *     playback thread of the sound engine.
+ * </p>
+ */
+class PlayQueue {
+    static final int LOOK_AHEAD = 4;
+    static final int KEEP_BEHIND = 1;
+
+    // Marks a track that was converted, but can not be played
+    private static final SoundIdentity UNPLAYABLE = new SoundIdentity(-1, null);
+
+    private final SoundLoader soundLoader;
+    // Replaced by a copy when a track is updated after the array was handed out by getTracks()
+    private volatile TrackInfo[] tracks;
+    private boolean tracksShared;
+    // Converted sounds by track index, null if the track has not been converted (or has been released)
+    private final SoundIdentity[] sounds;
+    // Track indices of the converted sounds, so that they can be released without going through all sounds
+    private int[] converted;
+    private int convertedCount;
+    private int[] order;
+    // The inverse of order, the position in the play order by track index
+    private int[] positions;
+    // The track index by data of the track infos, built the first time a track is looked up
+    private Map<String, Integer> trackIndices;
+
+    /**
+     * Creates a new PlayQueue in playlist order, none of the track infos are converted yet
+     *
+     * @param soundLoader the sound loader used to convert track infos into sound identities
+     * @param tracks the track infos of the playlist
+     */
+    PlayQueue(SoundLoader soundLoader, List<TrackInfo> tracks) {
+        this.soundLoader = soundLoader;
+        this.tracks = tracks.toArray(new TrackInfo[tracks.size()]);
+        this.tracksShared = false;
+        this.sounds = new SoundIdentity[tracks.size()];
+        this.converted = new int[LOOK_AHEAD + KEEP_BEHIND + 2];
+        this.convertedCount = 0;
+        this.order = null;
+        this.positions = null;
+    }
+
+    /**
+     * Gets the amount of sounds in the queue, including the ones that can not be played
+     *
+     * @return the amount of sounds in the queue
+     */
+    int size() {
+        return sounds.length;
+    }
+
+    /**
+     * Gets the index in the playlist of the track at {@code position} in the play order
+     *
+     * @param position the position in the play order
+     * @return the index of the track in the playlist
+     */
+    int getTrackIndex(int position) {
+        return order == null ? position : order[position];
+    }
+
+    /**
+     * Gets the index in the playlist of {@code trackInfo}. Tracks are identified by their data, which stays the same
+     * when their meta data is updated, so both the original track info and its updated versions are found. If the
+     * same track is contained more than once, the index of the first one is returned.
+     * <p>
+     *     The lookup table is built the first time this method is called, after that the lookup takes constant time.
+     * </p>
+     *
+     * @param trackInfo the track info to look up
+     * @return the index of the track in the playlist, or -1 if it is not contained
+     */
+    synchronized int indexOf(TrackInfo trackInfo) {
+        Optional<String> data = trackInfo.getData();
+        if (!data.isPresent()) {
+            return -1;
+        }
+
+        if (trackIndices == null) {
+            TrackInfo[] tracks = this.tracks;
+            trackIndices = new HashMap<>(tracks.length * 4 / 3 + 1);
+            int index = 0;
+            for (TrackInfo track : tracks) {
+                Optional<String> trackData = track.getData();
+                if (trackData.isPresent()) {
+                    trackIndices.putIfAbsent(trackData.get(), index);
+                }
+                index++;
+            }
+        }
+        return trackIndices.getOrDefault(data.get(), -1);
+    }
+
+    /**
+     * Replaces the track info of the track at {@code trackIndex} in the playlist, for example once its meta data was
+     * read. The data of the track info has to stay the same, as tracks are looked up by it.
+     *
+     * @param trackIndex the index of the track in the playlist
+     * @param trackInfo the new track info
+     */
+    void setTrackInfo(int trackIndex, TrackInfo trackInfo) {
+        if (tracksShared) {
+            TrackInfo[] copy = tracks.clone();
+            copy[trackIndex] = trackInfo;
+            tracks = copy;
+            tracksShared = false;
+        } else {
+            tracks[trackIndex] = trackInfo;
+        }
+    }
+
+    /**
+     * Gets the track infos of the playlist in playlist order, including the updates made by
+     * {@link #setTrackInfo(int, TrackInfo)}. The returned list never changes.
+     *
+     * @return the track infos of the playlist
+     */
+    List<TrackInfo> getTracks() {
+        tracksShared = true;
+        return Collections.unmodifiableList(Arrays.asList(tracks));
+    }
+
+    /**
+     * Gets the sound identity at {@code position} in the play order, converting its track info if that has not been
+     * done yet
+     *
+     * @param position the position in the play order
+     * @return the sound identity, or null if there is none at {@code position} or if it can not be played
+     */
+    SoundIdentity get(int position) {
+        if (position < 0 || position >= sounds.length) {
+            return null;
+        }
+
+        int trackIndex = getTrackIndex(position);
+        SoundIdentity soundIdentity = sounds[trackIndex];
+        if (soundIdentity == null) {
+            soundIdentity = soundLoader.convertTrackInfo(tracks[trackIndex], trackIndex);
+            if (soundIdentity == null) {
+                soundIdentity = UNPLAYABLE;
+            }
+            sounds[trackIndex] = soundIdentity;
+            if (convertedCount == converted.length) {
+                converted = Arrays.copyOf(converted, converted.length * 2);
+            }
+            converted[convertedCount++] = trackIndex;
+        }
+        return soundIdentity == UNPLAYABLE ? null : soundIdentity;
+    }
+
+    /**
+     * Returns true if the sound at {@code position} in the play order can be played, else false
+     *
+     * @param position the position in the play order
+     * @return true if the sound at {@code position} can be played, else false
+     */
+    boolean isPlayable(int position) {
+        return get(position) != null;
+    }
+
+    /**
+     * Marks {@code position} as the position of the sound that is currently played. The sounds following it are
+     * converted, and all sounds that are not close to it anymore are released.
+     *
+     * @param position the position in the play order of the sound that is currently played
+     */
+    void moveTo(int position) {
+        int size = sounds.length;
+        if (size == 0 || position < 0) {
+            return;
+        }
+
+        int kept = 0;
+        for (int i = 0; i < convertedCount; i++) {
+            int trackIndex = converted[i];
+            // The distance wraps around, as the start of the queue follows its end if the playlist is repeated
+            int distance = Math.floorMod(getPosition(trackIndex) - position, size);
+            if (distance > LOOK_AHEAD && distance < size - KEEP_BEHIND) {
+                sounds[trackIndex] = null;
+            } else {
+                converted[kept++] = trackIndex;
+            }
+        }
+        convertedCount = kept;
+
+        for (int i = 0; i <= LOOK_AHEAD && i < size; i++) {
+            get((position + i) % size);
+        }
+    }
+
+    /**
+     * Returns true if the play order is shuffled, else false
+     *
+     * @return true if the play order is shuffled, else false
+     */
+    boolean isShuffled() {
+        return order != null;
+    }
+
+    /**
+     * Shuffles the play order. The sound at {@code position} (if there is one) is moved to the start of the new play
+     * order, so that the sound that is currently played is followed by all other sounds.
+     *
+     * @param position the position in the current play order of the sound that is currently played, or -1
+     * @return the position of that sound in the new play order, or -1 if {@code position} was -1
+     */
+    int shuffle(int position) {
+        int size = sounds.length;
+        int[] shuffled = new int[size];
+        for (int i = 0; i < size; i++) {
+            shuffled[i] = i;
+        }
+
+        int first = 0;
+        if (position >= 0 && position < size) {
+            int current = getTrackIndex(position);
+            shuffled[current] = 0;
+            shuffled[0] = current;
+            first = 1;
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = size - 1; i > first; i--) {
+            int j = first + random.nextInt(i - first + 1);
+            int swap = shuffled[i];
+            shuffled[i] = shuffled[j];
+            shuffled[j] = swap;
+        }
+
+        int[] inverse = new int[size];
+        for (int i = 0; i < size; i++) {
+            inverse[shuffled[i]] = i;
+        }
+
+        order = shuffled;
+        positions = inverse;
+        return first == 1 ? 0 : -1;
+    }
+
+    /**
+     * Restores the playlist order
+     *
+     * @param position the position in the current play order of the sound that is currently played, or -1
+     * @return the position of that sound in the playlist order, or -1 if {@code position} was -1
+     */
+    int unshuffle(int position) {
+        int trackIndex = position >= 0 && position < sounds.length ? getTrackIndex(position) : -1;
+        order = null;
+        positions = null;
+        return trackIndex;
+    }
+
+    /**
+     * Gets the position in the play order of the track at {@code trackIndex} in the playlist
+     *
+     * @param trackIndex the index of the track in the playlist
+     * @return the position of the track in the play order
+     */
+    int getPosition(int trackIndex) {
+        return positions == null ? trackIndex : positions[trackIndex];
+    }
+}
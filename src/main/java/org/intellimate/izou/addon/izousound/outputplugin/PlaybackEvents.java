@@ -0,0 +1,173 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+/**
+ * The PlaybackEvents emit the events of the playback lifecycle (sessions, opened tracks, decoding, pauses, skips and
+ * underruns) to Java Flight Recorder, so that stutters can be correlated with garbage collections and I/O in a
+ * recording.
+ * <p>
+ *     The events themselves are defined in {@link JfrEvents}, which is only loaded if the JVM has the
+ *     {@code jdk.jfr} API (Java 11, or Java 8 from update 262 on). On any other JVM all methods do nothing.
+ * </p>
+ * <p>
+ *     Nothing is allocated unless a recording has the event enabled. Events with a duration are started with a
+ *     {@code begin} method, which returns null if the event is not recorded, and committed by the matching {@code end}
+ *     method, which ignores null.
+ * </p>
+ */
+final class PlaybackEvents {
+    private static final boolean AVAILABLE = isAvailable();
+
+    private PlaybackEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            // Registers the event types, so that they can be enabled in recordings
+            return JfrEvents.register();
+        } catch (ClassNotFoundException | LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Emits that a playback session was started
+     *
+     * @param tracks the amount of tracks in the playlist of the session
+     */
+    static void sessionStarted(int tracks) {
+        if (AVAILABLE) {
+            JfrEvents.sessionStarted(tracks);
+        }
+    }
+
+    /**
+     * Emits that a playback session was stopped
+     */
+    static void sessionStopped() {
+        if (AVAILABLE) {
+            JfrEvents.sessionStopped();
+        }
+    }
+
+    /**
+     * Starts the event of a sound being opened
+     *
+     * @return the event, or null if it is not recorded
+     */
+    static Object beginTrackOpen() {
+        return AVAILABLE ? JfrEvents.beginTrackOpen() : null;
+    }
+
+    /**
+     * Commits the event of a sound being opened and its first frames being decoded
+     *
+     * @param event the event returned by {@link #beginTrackOpen()}, or null
+     * @param soundId the sound that was opened
+     * @param source the kind of source the sound is read from
+     * @param startFrame the frame the playback starts at
+     * @param bytes the amount of bytes read while opening the sound
+     * @param opened true if the sound can be played, false if it could not be opened or decoded
+     */
+    static void endTrackOpen(Object event, SoundIdentity soundId, PlaybackMetrics.Source source, int startFrame,
+                             long bytes, boolean opened) {
+        if (event != null) {
+            JfrEvents.endTrackOpen(event, soundId, source, startFrame, bytes, opened);
+        }
+    }
+
+    /**
+     * Starts the event of the meta data of a sound being read
+     *
+     * @return the event, or null if it is not recorded
+     */
+    static Object beginMetaDataProbe() {
+        return AVAILABLE ? JfrEvents.beginMetaDataProbe() : null;
+    }
+
+    /**
+     * Commits the event of the meta data of a sound being read. The meta data is read before the sound is put into the
+     * play order, so the event carries the location of the sound, but no index.
+     *
+     * @param event the event returned by {@link #beginMetaDataProbe()}, or null
+     * @param soundInfo the sound whose meta data was read
+     * @param found true if the meta data was found, else false
+     */
+    static void endMetaDataProbe(Object event, SoundInfo soundInfo, boolean found) {
+        if (event != null) {
+            JfrEvents.endMetaDataProbe(event, soundInfo, found);
+        }
+    }
+
+    /**
+     * Starts the event of a batch of frames being decoded
+     *
+     * @return the event, or null if it is not recorded
+     */
+    static Object beginDecodeBatch() {
+        return AVAILABLE ? JfrEvents.beginDecodeBatch() : null;
+    }
+
+    /**
+     * Commits the event of a batch of frames being decoded
+     *
+     * @param event the event returned by {@link #beginDecodeBatch()}, or null
+     * @param soundId the sound that was decoded
+     * @param frames the amount of frames decoded
+     * @param decodeNanos the time spent decoding the frames (in nanoseconds), without the time waiting for the output
+     */
+    static void endDecodeBatch(Object event, SoundIdentity soundId, int frames, long decodeNanos) {
+        if (event != null) {
+            JfrEvents.endDecodeBatch(event, soundId, frames, decodeNanos);
+        }
+    }
+
+    /**
+     * Emits that the playback was paused
+     *
+     * @param soundId the sound that was paused
+     * @param position the position the sound was paused at (in milliseconds)
+     */
+    static void paused(SoundIdentity soundId, long position) {
+        if (AVAILABLE) {
+            JfrEvents.paused(soundId, position);
+        }
+    }
+
+    /**
+     * Emits that the playback was resumed
+     *
+     * @param soundId the sound that was resumed
+     * @param position the position the sound is resumed at (in milliseconds)
+     */
+    static void resumed(SoundIdentity soundId, long position) {
+        if (AVAILABLE) {
+            JfrEvents.resumed(soundId, position);
+        }
+    }
+
+    /**
+     * Emits that sounds were skipped
+     *
+     * @param soundId the sound skipped to, or null if the session ended
+     * @param skips the net amount of sounds skipped, negative if skipped backward
+     * @param fromIndex the index of the sound skipped from
+     */
+    static void skipped(SoundIdentity soundId, int skips, int fromIndex) {
+        if (AVAILABLE) {
+            JfrEvents.skipped(soundId, skips, fromIndex);
+        }
+    }
+
+    /**
+     * Emits that the output line ran out of samples
+     *
+     * @param soundId the sound that was playing, or null if it is not known
+     * @param underruns how many times the output line ran out of samples so far
+     */
+    static void underrun(SoundIdentity soundId, long underruns) {
+        if (AVAILABLE) {
+            JfrEvents.underrun(soundId, underruns);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.Context;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.LongSupplier;
+
+/**
+ * The PlaybackMetrics record the playback health of a {@link SoundEngine}, see {@link PlaybackMetricsMXBean} for the
+ * metrics themselves.
+ * <p>
+ *     Recording is cheap enough to always stay on: it only updates atomic counters (see {@link LatencyRecorder}), so
+ *     the playback thread neither locks nor allocates anything for it. All work of turning the counters into
+ *     statistics is done when the metrics are read.
+ * </p>
+ */
+class PlaybackMetrics implements PlaybackMetricsMXBean {
+    static final String OBJECT_NAME = "org.intellimate.izou.addon.izousound:type=PlaybackMetrics";
+    static final String THREAD_PREFIX = "IzouSound-";
+
+    private final OutputDevice audioDevice;
+    private final ContentCache contentCache;
+    private final LatencyRecorder timeToFirstAudio;
+    private final LatencyRecorder transitionGap;
+    private final LatencyRecorder decodeTime;
+    private final LatencyRecorder metaDataProbeTime;
+    private final AtomicLongArray bytesRead;
+    private final AtomicLong trackOpens;
+    private volatile LongSupplier postedRequests;
+    private volatile LongSupplier supersededRequests;
+
+    /**
+     * Creates new PlaybackMetrics
+     *
+     * @param audioDevice the audio device of the sound engine, it counts the underruns and overruns itself
+     * @param contentCache the content cache of the sound engine, it counts its hits and misses itself, or null
+     */
+    PlaybackMetrics(OutputDevice audioDevice, ContentCache contentCache) {
+        this.audioDevice = audioDevice;
+        this.contentCache = contentCache;
+        this.timeToFirstAudio = new LatencyRecorder();
+        this.transitionGap = new LatencyRecorder();
+        this.decodeTime = new LatencyRecorder();
+        this.metaDataProbeTime = new LatencyRecorder();
+        this.bytesRead = new AtomicLongArray(Source.values().length);
+        this.trackOpens = new AtomicLong();
+        this.postedRequests = () -> 0;
+        this.supersededRequests = () -> 0;
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under {@value #OBJECT_NAME}. Metrics registered before (by
+     * a previous player) are replaced.
+     *
+     * @param context the context of the addOn, used for logging here
+     */
+    void register(Context context) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+        } catch (JMException | SecurityException e) {
+            context.getLogger().warn("Unable to register the playback metrics", e);
+        }
+    }
+
+    /**
+     * Gets the recorder of the time to first audio
+     *
+     * @return the recorder of the time to first audio
+     */
+    LatencyRecorder getTimeToFirstAudioRecorder() {
+        return timeToFirstAudio;
+    }
+
+    /**
+     * Gets the recorder of the track transition gap
+     *
+     * @return the recorder of the track transition gap
+     */
+    LatencyRecorder getTransitionGapRecorder() {
+        return transitionGap;
+    }
+
+    /**
+     * Gets the recorder of the decode time per frame
+     *
+     * @return the recorder of the decode time per frame
+     */
+    LatencyRecorder getDecodeTimeRecorder() {
+        return decodeTime;
+    }
+
+    /**
+     * Gets the recorder of the meta data probe time
+     *
+     * @return the recorder of the meta data probe time
+     */
+    LatencyRecorder getMetaDataProbeTimeRecorder() {
+        return metaDataProbeTime;
+    }
+
+    /**
+     * Counts bytes read from a source
+     *
+     * @param source the kind of source the bytes were read from
+     * @param bytes the amount of bytes read
+     */
+    void addBytesRead(Source source, long bytes) {
+        bytesRead.addAndGet(source.ordinal(), bytes);
+    }
+
+    /**
+     * Counts a track that is opened
+     */
+    void countTrackOpen() {
+        trackOpens.incrementAndGet();
+    }
+
+    /**
+     * Sets where the amount of play requests is read from
+     *
+     * @param posted gets the amount of play requests that were made
+     * @param superseded gets the amount of play requests that were replaced by a newer one before they were played
+     */
+    void setPlayRequestCounters(LongSupplier posted, LongSupplier superseded) {
+        this.postedRequests = posted;
+        this.supersededRequests = superseded;
+    }
+
+    @Override
+    public LatencyStatistics getTimeToFirstAudio() {
+        return timeToFirstAudio.getStatistics();
+    }
+
+    @Override
+    public LatencyStatistics getTransitionGap() {
+        return transitionGap.getStatistics();
+    }
+
+    @Override
+    public LatencyStatistics getDecodeTime() {
+        return decodeTime.getStatistics();
+    }
+
+    @Override
+    public LatencyStatistics getMetaDataProbeTime() {
+        return metaDataProbeTime.getStatistics();
+    }
+
+    @Override
+    public long getUnderrunCount() {
+        return audioDevice.getUnderrunCount();
+    }
+
+    @Override
+    public long getOverrunCount() {
+        return audioDevice.getOverrunCount();
+    }
+
+    @Override
+    public long getFileBytesRead() {
+        return bytesRead.get(Source.FILE.ordinal());
+    }
+
+    @Override
+    public long getUrlBytesRead() {
+        return bytesRead.get(Source.URL.ordinal());
+    }
+
+    @Override
+    public long getCacheBytesRead() {
+        return bytesRead.get(Source.CACHE.ordinal());
+    }
+
+    @Override
+    public long getContentCacheHitCount() {
+        return contentCache != null ? contentCache.getHitCount() : 0;
+    }
+
+    @Override
+    public long getContentCacheMissCount() {
+        return contentCache != null ? contentCache.getMissCount() : 0;
+    }
+
+    @Override
+    public double getContentCacheHitRatio() {
+        return contentCache != null ? contentCache.getHitRatio() : 0;
+    }
+
+    @Override
+    public long getContentCacheBytesSaved() {
+        return contentCache != null ? contentCache.getBytesSaved() : 0;
+    }
+
+    @Override
+    public long getTrackOpenCount() {
+        return trackOpens.get();
+    }
+
+    @Override
+    public long getPlayRequestCount() {
+        return postedRequests.getAsLong();
+    }
+
+    @Override
+    public long getSupersededPlayRequestCount() {
+        return supersededRequests.getAsLong();
+    }
+
+    @Override
+    public int getActiveThreadCount() {
+        // The threads are counted in the root thread group, so that the threads of all groups are found
+        ThreadGroup group = Thread.currentThread().getThreadGroup();
+        while (group.getParent() != null) {
+            group = group.getParent();
+        }
+
+        Thread[] threads = new Thread[group.activeCount() * 2 + 16];
+        int count = group.enumerate(threads);
+        int active = 0;
+        for (int i = 0; i < count; i++) {
+            if (threads[i].getName().startsWith(THREAD_PREFIX)) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    /**
+     * The kinds of sources sounds are read from
+     */
+    enum Source {
+        FILE,
+        URL,
+        CACHE
+    }
+}
@@ -0,0 +1,135 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+/**
+ * The metrics of the playback health of an {@link AudioFilePlayer}. They are registered as an MXBean under
+ * {@value PlaybackMetrics#OBJECT_NAME}, and can also be pulled with {@link AudioFilePlayer#getMetrics()}.
+ * <p>
+ *     All values are counted since the player was created.
+ * </p>
+ */
+public interface PlaybackMetricsMXBean {
+    /**
+     * Gets the time from a playlist being requested until its first sound could be heard
+     *
+     * @return the statistics of the time to first audio
+     */
+    LatencyStatistics getTimeToFirstAudio();
+
+    /**
+     * Gets the time from the last frame of a sound being decoded until the first frame of the following sound was
+     * decoded. The transition can only be heard if it takes longer than the samples buffered by the output, which is
+     * then counted as an underrun.
+     *
+     * @return the statistics of the track transition gap
+     */
+    LatencyStatistics getTransitionGap();
+
+    /**
+     * Gets the time it takes to decode a frame and pass it to the output
+     *
+     * @return the statistics of the decode time per frame
+     */
+    LatencyStatistics getDecodeTime();
+
+    /**
+     * Gets the time it takes to read the meta data of a sound, from the meta data cache or from the sound file
+     *
+     * @return the statistics of the meta data probe time
+     */
+    LatencyStatistics getMetaDataProbeTime();
+
+    /**
+     * Gets how many times the output line ran out of samples while playing, so that a gap could be heard
+     *
+     * @return how many times the output line ran out of samples
+     */
+    long getUnderrunCount();
+
+    /**
+     * Gets how many times the output buffer ran full, so that decoding had to wait for the output
+     *
+     * @return how many times the output buffer ran full
+     */
+    long getOverrunCount();
+
+    /**
+     * Gets the amount of bytes decoded from sound files
+     *
+     * @return the amount of bytes read from sound files
+     */
+    long getFileBytesRead();
+
+    /**
+     * Gets the amount of bytes decoded from URLs that were downloaded
+     *
+     * @return the amount of bytes read from URLs
+     */
+    long getUrlBytesRead();
+
+    /**
+     * Gets the amount of bytes decoded from URLs that were played from the content cache
+     *
+     * @return the amount of bytes read from the content cache
+     */
+    long getCacheBytesRead();
+
+    /**
+     * Gets how many times a URL track was played from the content cache instead of downloading it, 0 if the content
+     * cache is disabled
+     *
+     * @return how many times a URL track was played from the content cache
+     */
+    long getContentCacheHitCount();
+
+    /**
+     * Gets how many times a URL track had to be downloaded because it was not in the content cache (or no longer
+     * valid), 0 if the content cache is disabled
+     *
+     * @return how many times a URL track had to be downloaded
+     */
+    long getContentCacheMissCount();
+
+    /**
+     * Gets the share of URL tracks that were played from the content cache, from 0 to 1
+     *
+     * @return the share of URL tracks that were played from the content cache
+     */
+    double getContentCacheHitRatio();
+
+    /**
+     * Gets the amount of bytes that did not have to be downloaded because they were played from the content cache
+     *
+     * @return the amount of bytes saved by the content cache
+     */
+    long getContentCacheBytesSaved();
+
+    /**
+     * Gets how many tracks were opened, including the ones opened in advance so that they follow the current track
+     * without a gap
+     *
+     * @return how many tracks were opened
+     */
+    long getTrackOpenCount();
+
+    /**
+     * Gets how many play requests were made through the controller of the player
+     *
+     * @return how many play requests were made
+     */
+    long getPlayRequestCount();
+
+    /**
+     * Gets how many play requests were replaced by a newer request before they were played (for example in a burst of
+     * voice commands), only the most recent request of such a burst is played
+     *
+     * @return how many play requests were replaced
+     */
+    long getSupersededPlayRequestCount();
+
+    /**
+     * Gets the amount of threads of IzouSound that are alive right now
+     *
+     * @return the amount of threads of IzouSound
+     */
+    int getActiveThreadCount();
+}
@@ -0,0 +1,204 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The PlaybackScheduler runs all commands of a {@link SoundEngine} (play, pause, next etc.) on one dedicated thread, in
+ * the order they were submitted. Whenever there is no command to run, it calls the pump of the sound engine, which
+ * plays the next frame of the current sound. This way only a single thread ever touches the playback state of the
+ * engine, and no thread has to be created for a transition.
+ * <p>
+ *     The pump can also ask the scheduler to wait for a while before it is called again (for example when the audio
+ *     device has no room for another frame). Commands that arrive in the meantime are still run right away.
+ * </p>
+ * <p>
+ *     Commands are stored in a bounded mailbox. If the mailbox is full, submitting a command blocks for at most
+ *     {@link #SUBMIT_TIMEOUT} milliseconds before the command is rejected.
+ * </p>
+ * <p>
+ *     Commands can also be submitted with a delay, they are run on the playback thread once the delay has passed.
+ * </p>
+ */
+class PlaybackScheduler {
+    static final int MAILBOX_CAPACITY = 64;
+    static final long SUBMIT_TIMEOUT = 1000;
+
+    private final BlockingQueue<Runnable> mailbox;
+    private final DelayQueue<DelayedCommand> delayedCommands;
+    private final LongSupplier pump;
+    private final AtomicLong transitionCounter;
+    private final Context context;
+    private final Thread thread;
+    private volatile boolean running;
+
+    /**
+     * Creates and starts a new PlaybackScheduler
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param name the name of the playback thread
+     * @param pump called whenever there is no command to run, returns how many milliseconds the scheduler should wait
+     *             for a command before calling it again (0 to call it again right away), or -1 if it has no more work
+     *             to do, so that the scheduler waits for the next command
+     */
+    PlaybackScheduler(Context context, String name, LongSupplier pump) {
+        this.context = context;
+        this.pump = pump;
+        this.mailbox = new ArrayBlockingQueue<>(MAILBOX_CAPACITY);
+        this.delayedCommands = new DelayQueue<>();
+        this.transitionCounter = new AtomicLong();
+        this.running = true;
+        this.thread = new Thread(this::loop, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Submits a command to run on the playback thread after all previously submitted commands
+     *
+     * @param command the command to run
+     * @return true if the command was accepted, false if the mailbox stayed full or the scheduler was shut down
+     */
+    boolean submit(Runnable command) {
+        if (!running) {
+            return false;
+        }
+
+        try {
+            if (mailbox.offer(command, SUBMIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                return true;
+            }
+            context.getLogger().warn("Playback mailbox is full, dropping command");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            context.getLogger().error("Interrupted while submitting a playback command", e);
+        }
+        return false;
+    }
+
+    /**
+     * Submits a command to run on the playback thread once {@code delay} milliseconds have passed
+     *
+     * @param command the command to run
+     * @param delay the delay in milliseconds
+     * @return true if the command was accepted, false if the scheduler was shut down
+     */
+    boolean submitDelayed(Runnable command, long delay) {
+        if (!running) {
+            return false;
+        }
+
+        delayedCommands.add(new DelayedCommand(command, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay)));
+        // Wakes up the playback thread, so that it waits for the delayed command from now on
+        mailbox.offer(() -> { });
+        return true;
+    }
+
+    /**
+     * Submits a transition (a command that replaces what is currently played, regardless of what is played right now,
+     * like starting a new playlist or stopping the session). Once a newer transition is submitted, all transitions that
+     * have not run yet are obsolete and are skipped.
+     *
+     * @param transition the transition to run
+     * @return true if the transition was accepted, false if the mailbox stayed full or the scheduler was shut down
+     */
+    boolean submitTransition(Runnable transition) {
+        long transitionNumber = transitionCounter.incrementAndGet();
+        return submit(() -> {
+            if (transitionNumber == transitionCounter.get()) {
+                transition.run();
+            }
+        });
+    }
+
+    /**
+     * Stops the playback thread, commands that have not run yet are discarded. May also be called by a command, in
+     * which case the playback thread stops once the command is done.
+     */
+    void shutdown() {
+        running = false;
+        thread.interrupt();
+    }
+
+    // Runs commands as they arrive, and pumps the engine in between as long as it has work to do
+    private void loop() {
+        long wait = -1;
+        while (running) {
+            Runnable command = delayedCommands.poll();
+            try {
+                if (command == null) {
+                    command = nextCommand(wait);
+                }
+            } catch (InterruptedException e) {
+                if (running) {
+                    context.getLogger().error("Playback thread was interrupted", e);
+                }
+                continue;
+            }
+
+            try {
+                if (command != null) {
+                    command.run();
+                    wait = 0;
+                } else {
+                    wait = pump.getAsLong();
+                }
+            } catch (RuntimeException e) {
+                context.getLogger().error("Error in playback thread", e);
+                wait = command != null ? 0 : -1;
+            }
+        }
+        mailbox.clear();
+        delayedCommands.clear();
+    }
+
+    // Waits for the next command for at most wait milliseconds (forever if wait is -1), or until a delayed command is due
+    private Runnable nextCommand(long wait) throws InterruptedException {
+        DelayedCommand next = delayedCommands.peek();
+        if (next != null) {
+            long delay = Math.max(next.getDelay(TimeUnit.MILLISECONDS), 1);
+            wait = wait < 0 ? delay : Math.min(wait, delay);
+        }
+
+        if (wait < 0) {
+            return mailbox.take();
+        } else if (wait == 0) {
+            return mailbox.poll();
+        } else {
+            return mailbox.poll(wait, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // A command that is run once its time has come
+    private static class DelayedCommand implements Delayed, Runnable {
+        private final Runnable command;
+        private final long dueTime;
+
+        DelayedCommand(Runnable command, long dueTime) {
+            this.command = command;
+            this.dueTime = dueTime;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+        }
+
+        @Override
+        public void run() {
+            command.run();
+        }
+    }
+}
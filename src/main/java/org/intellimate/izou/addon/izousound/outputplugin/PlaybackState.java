@@ -0,0 +1,59 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+/**
+ * The states of the playback of a {@link SoundEngine}, and the transitions that are allowed between them.
+ * <p>
+ *     A session starts in {@link #IDLE}. Every sound that is started moves the playback to {@link #READY} until the
+ *     audio device is prepared, and then to {@link #PLAYING}. A playing sound can be {@link #PAUSED}, and resuming it
+ *     starts the sound again at the paused position. Stopping the session moves the playback back to {@link #IDLE}
+ *     from any other state.
+ * </p>
+ * <p>
+ *     Only these transitions are allowed, a transition to the current state is always rejected:
+ * </p>
+ * <ul>
+ *     <li>{@link #IDLE} to {@link #READY}</li>
+ *     <li>{@link #READY} to {@link #PLAYING} or {@link #IDLE}</li>
+ *     <li>{@link #PLAYING} to {@link #PAUSED}, {@link #READY} (the next sound is started) or {@link #IDLE}</li>
+ *     <li>{@link #PAUSED} to {@link #PLAYING}, {@link #READY} (the sound is resumed) or {@link #IDLE}</li>
+ * </ul>
+ */
+enum PlaybackState {
+    /**
+     * No playback session is in progress
+     */
+    IDLE,
+    /**
+     * A sound was opened, and the audio device is prepared for it
+     */
+    READY,
+    /**
+     * A sound is playing
+     */
+    PLAYING,
+    /**
+     * The sound is paused, it can be resumed at the position where it was paused
+     */
+    PAUSED;
+
+    /**
+     * Returns true if the playback may move from this state to {@code next}, else false
+     *
+     * @param next the state the playback should move to
+     * @return true if the transition is allowed, else false
+     */
+    boolean canTransitionTo(PlaybackState next) {
+        switch (this) {
+            case IDLE:
+                return next == READY;
+            case READY:
+                return next == PLAYING || next == IDLE;
+            case PLAYING:
+                return next == PAUSED || next == READY || next == IDLE;
+            case PAUSED:
+                return next == PLAYING || next == READY || next == IDLE;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,536 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.sdk.Context;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * The ReadAheadStream reads a URL on a background thread into a buffer, so that the decoder reads from memory instead
+ * of the network, and short stalls of the connection can not be heard.
+ * <p>
+ *     The buffer is filled until it holds {@code highWatermark} bytes. The background thread then stops reading until
+ *     the buffer has been drained to {@code lowWatermark} bytes, so the connection is read in larger bursts instead
+ *     of a few bytes at a time. Reading from the stream blocks until {@code startThreshold} bytes are buffered, both
+ *     when the stream is started and whenever the buffer ran empty, so playback does not start on a nearly empty
+ *     buffer.
+ * </p>
+ * <p>
+ *     The connection is opened by the background thread as well, so creating the stream never waits for the network.
+ *     If the URL can not be opened, reading from the stream throws the error. Since reading waits until enough bytes
+ *     are buffered, the playback thread should check {@link #isReady()} before it decodes the next frame.
+ * </p>
+ * <p>
+ *     If the connection drops, it is opened again with an HTTP Range request starting at the first byte that has not
+ *     been read yet. Servers that do not support Range requests send the whole resource again, in which case the bytes
+ *     that were already read are skipped. Live streams (without a content length) are simply continued.
+ * </p>
+ * <p>
+ *     Range requests carry an If-Range header with the ETag (or else the modification time) of the resource, so that a
+ *     server whose resource changed in the meantime sends the new version as a whole. If the response belongs to
+ *     another version of the resource (a full response with other validators, or a partial response of another size),
+ *     the stream restarts from the first byte of the new version and drops the spill buffer, since the bytes read so
+ *     far do not belong to it.
+ * </p>
+ * <p>
+ *     All downloaded bytes of a resource (not of a live stream) are kept in a {@link SpillBuffer}. When the track is
+ *     paused or repositioned, the spill buffer can be taken from the stream with {@link #detachSpill()} and handed to
+ *     the next stream of the same URL. That stream replays the spilled bytes first and continues the download with a
+ *     Range request after the last spilled byte, so nothing is downloaded twice. Once the whole resource is downloaded,
+ *     the spill buffer is stored in the {@link ContentCache} (if there is one), so that the next time the track is
+ *     played it does not have to be downloaded at all.
+ * </p>
+ */
+class ReadAheadStream extends InputStream {
+    static final int DEFAULT_HIGH_WATERMARK = 512 * 1024;
+    static final int DEFAULT_LOW_WATERMARK = 256 * 1024;
+    static final int DEFAULT_START_THRESHOLD = 64 * 1024;
+    static final int MAX_RECONNECTS = 5;
+    static final int CONNECT_TIMEOUT = 5000;
+    static final int READ_TIMEOUT = 10000;
+
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // The size of the largest MPEG audio frame, a frame can be decoded without waiting once this much is buffered
+    private static final int READY_SIZE = 2881;
+    private static final long RECONNECT_DELAY = 500;
+
+    private final Context context;
+    private final URL url;
+    private final byte[] buffer;
+    private final int lowWatermark;
+    private final int startThreshold;
+    private final SpillBuffer spill;
+    private final ContentCache contentCache;
+    private final byte[] singleByte;
+    private final Thread reader;
+
+    // All fields below are guarded by this
+    private int readIndex;
+    private int count;
+    private boolean buffering;
+    private boolean throttled;
+    private boolean endOfStream;
+    private IOException error;
+    private boolean closed;
+    private boolean detached;
+    private long replayPosition;
+    private long replayEnd;
+
+    // Only used by the reader thread
+    private volatile InputStream connection;
+    private long position;
+    private long contentLength;
+    private String etag;
+    private long lastModified;
+
+    /**
+     * Creates a new ReadAheadStream for {@code url}. The background thread is started right away, it connects to the
+     * URL and starts reading.
+     * <p>
+     *     If {@code spill} already holds the beginning of the resource (because it was detached from a previous stream
+     *     of the same URL), its bytes are replayed first and the download continues after them. Else the downloaded
+     *     bytes are spilled into it. Either way the stream owns the spill buffer, and releases it once it is closed,
+     *     unless it was detached before.
+     * </p>
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param url the URL to read
+     * @param highWatermark the size of the buffer, the background thread stops reading once it is full
+     * @param lowWatermark the amount of buffered bytes at which the background thread starts reading again
+     * @param startThreshold the amount of bytes that have to be buffered before reading from the stream returns
+     * @param spill the spill buffer for the downloaded bytes
+     * @param contentCache the cache to store the resource in once it is downloaded completely, or null
+     */
+    ReadAheadStream(Context context, URL url, int highWatermark, int lowWatermark, int startThreshold,
+                    SpillBuffer spill, ContentCache contentCache) {
+        this.context = context;
+        this.url = url;
+        this.buffer = new byte[Math.max(highWatermark, CHUNK_SIZE)];
+        this.lowWatermark = Math.min(Math.max(lowWatermark, 0), buffer.length - 1);
+        this.startThreshold = Math.min(Math.max(startThreshold, 1), buffer.length);
+        this.singleByte = new byte[1];
+        this.buffering = true;
+        this.contentLength = -1;
+        this.spill = spill;
+        this.contentCache = contentCache;
+
+        if (spill.isComplete() && spill.getLength() > 0) {
+            replayEnd = spill.getLength();
+            position = replayEnd;
+            contentLength = spill.getContentLength();
+            etag = spill.getETag();
+            lastModified = spill.getLastModified();
+        }
+
+        this.reader = new Thread(this::readAhead, "IzouSound-stream");
+        this.reader.setDaemon(true);
+        this.reader.start();
+    }
+
+    /**
+     * Opens the first connection and hands the spill buffer the details of the resource, called by the background
+     * thread before it starts reading
+     *
+     * @return true if the connection was opened, false if it failed or the stream was closed in the meantime
+     */
+    private boolean open() {
+        try {
+            connection = connect();
+        } catch (IOException e) {
+            finish(e);
+            return false;
+        }
+
+        synchronized (this) {
+            if (closed) {
+                return false;
+            } else if (!detached) {
+                if (replayEnd == 0 && contentLength < 0) {
+                    // Live streams can not be resumed, so there is no use in keeping their bytes
+                    spill.release();
+                } else if (replayEnd == 0) {
+                    spill.setValidators(etag, lastModified);
+                }
+                spill.setContentLength(contentLength);
+                spill.setWriter(this);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Opens a connection to the URL that starts at {@link #position}
+     *
+     * @return the input stream of the connection
+     * @throws IOException thrown if the URL could not be opened
+     */
+    private InputStream connect() throws IOException {
+        URLConnection urlConnection = url.openConnection();
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT);
+        urlConnection.setReadTimeout(READ_TIMEOUT);
+        if (!(urlConnection instanceof HttpURLConnection)) {
+            return skipTo(urlConnection.getInputStream(), position);
+        }
+
+        HttpURLConnection httpConnection = (HttpURLConnection) urlConnection;
+        if (position > 0) {
+            httpConnection.setRequestProperty("Range", "bytes=" + position + "-");
+            String validator = getIfRange();
+            if (validator != null) {
+                httpConnection.setRequestProperty("If-Range", validator);
+            }
+        }
+        int responseCode = httpConnection.getResponseCode();
+        if (responseCode == HttpURLConnection.HTTP_PARTIAL) {
+            if (contentLength >= 0 && !isSameVersion(httpConnection, getTotalLength(httpConnection))) {
+                httpConnection.disconnect();
+                restart(null);
+                return connect();
+            }
+            return httpConnection.getInputStream();
+        } else if (responseCode == 416 && position > 0) {
+            // The range starts at the end of the resource, so there is nothing left to read
+            httpConnection.disconnect();
+            return null;
+        } else if (responseCode >= 400) {
+            httpConnection.disconnect();
+            throw new IOException("Server returned " + responseCode + " for " + url);
+        }
+
+        InputStream inputStream = httpConnection.getInputStream();
+        if (position == 0) {
+            contentLength = httpConnection.getContentLengthLong();
+            etag = httpConnection.getHeaderField("ETag");
+            lastModified = httpConnection.getLastModified();
+            return inputStream;
+        } else if (contentLength >= 0 && isSameVersion(httpConnection, httpConnection.getContentLengthLong())) {
+            // The server ignored the range and sends the whole resource again
+            return skipTo(inputStream, position);
+        } else if (contentLength >= 0) {
+            restart(httpConnection);
+        }
+        return inputStream;
+    }
+
+    // Gets the If-Range validator of the resource, a strong ETag or else the modification time, null if there is none
+    private String getIfRange() {
+        if (etag != null && !etag.startsWith("W/")) {
+            return etag;
+        } else if (lastModified > 0) {
+            return DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(lastModified), ZoneOffset.UTC));
+        }
+        return null;
+    }
+
+    // Gets the size of the whole resource from the Content-Range of a partial response, -1 if it is unknown
+    private static long getTotalLength(HttpURLConnection httpConnection) {
+        String contentRange = httpConnection.getHeaderField("Content-Range");
+        int slash = contentRange != null ? contentRange.lastIndexOf('/') : -1;
+        try {
+            return slash >= 0 ? Long.parseLong(contentRange.substring(slash + 1).trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Returns true if the response belongs to the version of the resource that was read so far
+    private boolean isSameVersion(HttpURLConnection httpConnection, long totalLength) {
+        String responseEtag = httpConnection.getHeaderField("ETag");
+        long responseLastModified = httpConnection.getLastModified();
+        if (etag != null && responseEtag != null) {
+            if (!etag.equals(responseEtag)) {
+                return false;
+            }
+        } else if (lastModified > 0 && responseLastModified > 0 && lastModified != responseLastModified) {
+            return false;
+        }
+        return totalLength < 0 || totalLength == contentLength;
+    }
+
+    /**
+     * Restarts the stream at the first byte of a new version of the resource. The bytes of the old version that are
+     * still replayed from the spill buffer are skipped, and the spill buffer is dropped.
+     *
+     * @param httpConnection the full response with the new version, or null if it still has to be requested
+     */
+    private void restart(HttpURLConnection httpConnection) {
+        context.getLogger().warn(url + " changed while it was read, restarting it from the beginning");
+        position = 0;
+        contentLength = httpConnection != null ? httpConnection.getContentLengthLong() : -1;
+        etag = httpConnection != null ? httpConnection.getHeaderField("ETag") : null;
+        lastModified = httpConnection != null ? httpConnection.getLastModified() : 0;
+        synchronized (this) {
+            replayEnd = replayPosition;
+            if (!detached) {
+                spill.release();
+            }
+        }
+    }
+
+    // Skips the first bytes of inputStream, which have been read before
+    private InputStream skipTo(InputStream inputStream, long offset) throws IOException {
+        long remaining = offset;
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    inputStream.close();
+                    throw new IOException("Stream ended before the resume position " + offset + " of " + url);
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return inputStream;
+    }
+
+    // The loop of the background thread, reads the connection into the buffer until the end of the stream
+    private void readAhead() {
+        if (!open()) {
+            closeConnection();
+            return;
+        }
+
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int reconnects = 0;
+        long failedAt = -1;
+        while (true) {
+            int space;
+            synchronized (this) {
+                while (!closed && (throttled || count == buffer.length)) {
+                    throttled = count > lowWatermark;
+                    if (throttled) {
+                        waitForChange();
+                    }
+                }
+                if (closed) {
+                    break;
+                }
+                space = buffer.length - count;
+            }
+
+            InputStream inputStream = connection;
+            int read;
+            try {
+                read = inputStream != null ? inputStream.read(chunk, 0, Math.min(chunk.length, space)) : -1;
+                if (read < 0 && contentLength >= 0 && position < contentLength) {
+                    throw new IOException("Connection closed after " + position + " of " + contentLength + " bytes");
+                }
+            } catch (IOException e) {
+                // Only failures at the same position count as repeated failures, else the connection made progress
+                if (position > failedAt) {
+                    failedAt = position;
+                    reconnects = 0;
+                }
+                if (isClosed()) {
+                    break;
+                } else if (reconnects++ >= MAX_RECONNECTS) {
+                    finish(e);
+                    break;
+                }
+                context.getLogger().warn("Lost connection to " + url + ", reconnecting at byte " + position, e);
+                closeConnection();
+                try {
+                    Thread.sleep(RECONNECT_DELAY * reconnects);
+                    connection = connect();
+                } catch (IOException e1) {
+                    context.getLogger().warn("Unable to reconnect to " + url, e1);
+                } catch (InterruptedException e1) {
+                    break;
+                }
+                continue;
+            }
+
+            if (read < 0) {
+                // The bytes still buffered keep the playback going while the resource is stored
+                if (contentCache != null) {
+                    contentCache.store(url, spill);
+                }
+                finish(null);
+                break;
+            }
+
+            spill.append(this, chunk, 0, read);
+            position += read;
+            synchronized (this) {
+                int writeIndex = (readIndex + count) % buffer.length;
+                int first = Math.min(read, buffer.length - writeIndex);
+                System.arraycopy(chunk, 0, buffer, writeIndex, first);
+                System.arraycopy(chunk, first, buffer, 0, read - first);
+                count += read;
+                throttled = count == buffer.length;
+                notifyAll();
+            }
+        }
+        closeConnection();
+    }
+
+    // Marks the end of the stream, error is null if the stream ended normally
+    private synchronized void finish(IOException error) {
+        this.endOfStream = true;
+        this.error = error;
+        notifyAll();
+    }
+
+    private synchronized boolean isClosed() {
+        return closed;
+    }
+
+    // Has to be called while holding the lock on this
+    private void waitForChange() {
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            closed = true;
+        }
+    }
+
+    // Waits until there are bytes to read, returns false if there are none left
+    private boolean awaitData() throws IOException {
+        while (!closed && !endOfStream && (count == 0 || (buffering && count < startThreshold))) {
+            buffering = true;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while buffering " + url);
+            }
+        }
+        buffering = false;
+
+        if (closed) {
+            throw new IOException("Stream closed");
+        } else if (count == 0 && error != null) {
+            throw error;
+        }
+        return count > 0;
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        return read(singleByte, 0, 1) < 0 ? -1 : singleByte[0] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] target, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        } else if (closed) {
+            throw new IOException("Stream closed");
+        } else if (replayPosition < replayEnd) {
+            int read = spill.read(replayPosition, target, offset, (int) Math.min(length, replayEnd - replayPosition));
+            if (read > 0) {
+                replayPosition += read;
+                return read;
+            }
+            replayPosition = replayEnd;
+        }
+
+        if (!awaitData()) {
+            return -1;
+        }
+
+        int read = Math.min(length, count);
+        int first = Math.min(read, buffer.length - readIndex);
+        System.arraycopy(buffer, readIndex, target, offset, first);
+        System.arraycopy(buffer, 0, target, offset + first, read - first);
+        consume(read);
+        return read;
+    }
+
+    // Has to be called while holding the lock on this
+    private void consume(int length) {
+        readIndex = (readIndex + length) % buffer.length;
+        count -= length;
+        if (throttled && count <= lowWatermark) {
+            throttled = false;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public synchronized int available() {
+        return (int) Math.min(count + replayEnd - replayPosition, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if the next frame can be read without waiting for the connection: either enough bytes are buffered
+     * for a frame (or, after the buffer ran empty, the start threshold is reached again), or the stream is over
+     *
+     * @return true if reading the next frame does not wait, else false
+     */
+    synchronized boolean isReady() {
+        if (closed || endOfStream || replayPosition < replayEnd) {
+            return true;
+        } else if (count == 0) {
+            buffering = true;
+        }
+        return count >= (buffering ? startThreshold : Math.min(READY_SIZE, startThreshold));
+    }
+
+    /**
+     * Gets the amount of bytes that are buffered right now
+     *
+     * @return the amount of bytes that are buffered
+     */
+    synchronized int getBuffered() {
+        return count;
+    }
+
+    /**
+     * Takes the spill buffer from the stream, so that it is not released once the stream is closed. No more bytes are
+     * spilled into it by this stream.
+     *
+     * @return the spill buffer, or null if it can not be used to resume the track
+     */
+    synchronized SpillBuffer detachSpill() {
+        if (detached) {
+            return null;
+        }
+
+        detached = true;
+        spill.setWriter(null);
+        if (!spill.isComplete()) {
+            spill.release();
+            return null;
+        }
+        return spill;
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!detached) {
+                spill.release();
+            }
+            notifyAll();
+        }
+        // Unblocks the background thread if it is waiting for the connection
+        closeConnection();
+    }
+
+    private void closeConnection() {
+        InputStream inputStream = connection;
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // Nothing to do here, the connection is closed anyways
+            }
+        }
+    }
+}
@@ -1,46 +1,166 @@
 package org.intellimate.izou.addon.izousound.outputplugin;
 
+import javazoom.jl.decoder.Decoder;
 import javazoom.jl.decoder.JavaLayerException;
-import javazoom.jl.player.advanced.AdvancedPlayer;
-import javazoom.jl.player.advanced.PlaybackEvent;
-import javazoom.jl.player.advanced.PlaybackListener;
 import org.intellimate.izou.sdk.Context;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
 
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
 
 /**
- * This class plays songs by chaining threads, it is controlled by the AudioFilePlayer.There should be
- * no reason for using this class; it is the "engine" that is running behind the AudioFilePlayer and should therefore
- * not be touched.
+ * This class plays songs, it is controlled by the AudioFilePlayer.There should be no reason for using this class; it
+ * is the "engine" that is running behind the AudioFilePlayer and should therefore not be touched.
+ * <p>
+ *     All commands are run in order by a single {@link PlaybackScheduler}, which also plays the current sound frame by
+ *     frame in between commands. All playback state of the engine is therefore only touched by the playback thread.
+ * </p>
+ * <p>
+ *     Playback is gapless: while a sound is playing, the next sound is opened and its first frames are decoded in the
+ *     background. Once the current sound is over, the audio device is handed over to the next sound without being
+ *     drained or closed.
+ * </p>
+ * <p>
+ *     The audio device stays open for the whole playback session, also while the sound is paused. Its latency (and
+ *     with that the size of its buffer) can be set with the {@value #OUTPUT_LATENCY_PROPERTY} property (in
+ *     milliseconds), or the buffer size can be set directly with the {@value #OUTPUT_BUFFER_SIZE_PROPERTY} property
+ *     (in bytes).
+ * </p>
+ * <p>
+ *     Decoding and output are decoupled: the playback thread only decodes frames into the ring buffer of the
+ *     {@link OutputDevice}, and its output thread writes them to the line. The playback thread decodes ahead as far as
+ *     the ring buffer allows, which is set with the {@value #OUTPUT_BUFFER_DEPTH_PROPERTY} property (in milliseconds).
+ *     A deeper ring buffer bridges longer stalls of the input stream, since its samples are played while the
+ *     playback thread is held up.
+ * </p>
+ * <p>
+ *     URLs are read ahead by a {@link ReadAheadStream}. The size of its buffer is set with the
+ *     {@value #STREAM_BUFFER_SIZE_PROPERTY} property, the amount of buffered bytes at which it starts reading again
+ *     with the {@value #STREAM_LOW_WATERMARK_PROPERTY} property, and the amount of bytes that have to be buffered
+ *     before playback starts with the {@value #STREAM_START_THRESHOLD_PROPERTY} property (all in bytes). URL tracks
+ *     are opened in the background, and the playback thread never waits for the network: while the stream of the
+ *     current sound is buffering, it keeps checking back instead of decoding the next frame. The bytes
+ *     downloaded for a URL track are kept in a {@link SpillBuffer} of at most {@value #STREAM_SPILL_SIZE_PROPERTY}
+ *     bytes, so that pausing and jumping within the track do not download it again.
+ * </p>
+ * <p>
+ *     Completely downloaded URL tracks are stored in a {@link ContentCache}, so that they are not downloaded again
+ *     when they are played again. The size of the cache is set with the {@value #STREAM_CACHE_SIZE_PROPERTY} property
+ *     (in bytes, 0 disables the cache).
+ * </p>
+ * <p>
+ *     Rapid next and previous commands are collapsed: skips that arrive within {@link #SKIP_WINDOW} milliseconds of
+ *     each other are added up, and only the sound they end up at is opened.
+ * </p>
+ * <p>
+ *     The state of the playback is a {@link PlaybackState}. It is only changed with compare-and-set transitions, so
+ *     that a transition that is not allowed from the current state is rejected instead of overwriting it.
+ * </p>
+ * <p>
+ *     Starting a session with {@link #run(Playlist)} returns a future that is completed as soon as the first samples
+ *     of the session reach the output line, or completed exceptionally if the session could not be started or was
+ *     stopped before that.
+ * </p>
+ * <p>
+ *     The playback health (time to first audio, transition gaps, decode times, underruns and more) is recorded in
+ *     {@link PlaybackMetrics}. The playback lifecycle is also emitted to Java Flight Recorder by {@link PlaybackEvents},
+ *     decoding is reported in batches of {@link #DECODE_BATCH_FRAMES} frames.
+ * </p>
+ * <p>
+ *     Decoders are reused across sounds by a {@link DecoderPool}, so that a track transition does not allocate a new
+ *     decoder and new preroll buffers for every sound.
+ * </p>
  */
 class SoundEngine {
-    public static final String READY_STATE = "READY";
-    public static final String PLAYING_STATE = "PLAYING";
-    public static final String PAUSED_STATE = "PAUSED";
+    public static final String OUTPUT_LATENCY_PROPERTY = "output_latency";
+    public static final String OUTPUT_BUFFER_SIZE_PROPERTY = "output_buffer_size";
+    public static final String OUTPUT_BUFFER_DEPTH_PROPERTY = "output_buffer_depth";
+    public static final String STREAM_BUFFER_SIZE_PROPERTY = "stream_buffer_size";
+    public static final String STREAM_LOW_WATERMARK_PROPERTY = "stream_low_watermark";
+    public static final String STREAM_START_THRESHOLD_PROPERTY = "stream_start_threshold";
+    public static final String STREAM_SPILL_SIZE_PROPERTY = "stream_spill_size";
+    public static final String STREAM_CACHE_SIZE_PROPERTY = "stream_cache_size";
 
-    private AdvancedPlayer player;
-    private InputStream inputStream;
+    /**
+     * Skips that arrive within this many milliseconds of each other are collapsed into one jump
+     */
+    static final long SKIP_WINDOW = 300;
+
+    /**
+     * The amount of frames of a sound that are decoded before it is played
+     */
+    static final int PREROLL_FRAMES = 16;
+
+    /**
+     * The amount of frames reported as one decode batch to Java Flight Recorder
+     */
+    static final int DECODE_BATCH_FRAMES = 64;
+
+    private final PlaybackScheduler scheduler;
+    private final ExecutorService prepareExecutor;
+    private final VolumeControl volumeControl;
+    private TrackPlayer player;
+    private TrackPlayer preparedPlayer;
+    // The URL sound that is opened in the background, and the number of the open, which is increased to drop it
+    private SoundIdentity openingSound;
+    private int openRequest;
+    private final OutputDevice audioDevice;
+    private final PlaybackMetrics metrics;
+    private final DecoderPool decoderPool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+    // When the last sound of a transition was over, 0 if no transition is in progress
+    private long transitionStart;
+    // The decode batch of the current sound, the event is null if it is not recorded
+    private Object decodeBatchEvent;
+    private int decodeBatchFrames;
+    private long decodeBatchNanos;
+    private final int streamBufferSize;
+    private final int streamLowWatermark;
+    private final int streamStartThreshold;
+    private final int streamSpillSize;
+    private final ContentCache contentCache;
+    private SpillBuffer pausedSpill;
+    // The readiness of the session that was requested last, and of the session that is played right now
+    private final AtomicReference<CompletableFuture<Void>> requestedReady;
+    private CompletableFuture<Void> ready;
+    private double deviceWrittenMillis;
+    private int endFrame;
+    // The sounds in a row that had nothing to play, the session is stopped once every sound of the queue was empty
+    private int emptySounds;
     private SoundLoader soundLoader;
-    private HashMap<Integer, SoundIdentity> soundFileMap;
-    private HashMap<Integer, SoundIdentity> shuffeledSoundFileMap;
-    private Playlist playlist;
-    private Playlist shuffeledPlaylist;
+    private volatile PlayQueue queue;
+    // The playlist the session was started with, the tracks that are published come from the queue
+    private volatile Playlist playlist;
     private AtomicInteger playIndex;
-    private AudioFilePlayer audioFilePlayer;
+    private Host audioFilePlayer;
     private Context context;
-    private boolean outOfBoundsError;
-    private boolean paused;
+    private volatile boolean outOfBoundsError;
+    private final AtomicReference<PlaybackState> state;
+    private volatile BiConsumer<PlaybackState, PlaybackState> transitionListener;
+    // The net amount of sounds to skip that has not been applied yet
+    private final AtomicInteger pendingSkips;
+    private final AtomicBoolean skipScheduled;
+    private volatile long lastSkipTime;
+    // The position the sound was paused at, only valid while the playback is paused
     private int pausedOnFrame;
-    private volatile String state;
-    private long startSecond;
+    private float pausedMillisPerFrame;
 
     private AtomicBoolean shuffle;
     private AtomicBoolean repeatPlaylist;
@@ -51,19 +171,84 @@ class SoundEngine {
      *
      * @param context the Context of the output-plugin
      */
-    public SoundEngine(Context context, AudioFilePlayer audioFilePlayer) {
+    public SoundEngine(Context context, Host audioFilePlayer) {
+        this(context, audioFilePlayer, AudioSystem::getSourceDataLine);
+    }
+
+    /**
+     * Creates a new sound-object in order to play sound files, whose output lines are opened by {@code lineProvider}
+     *
+     * @param context the Context of the output-plugin
+     * @param audioFilePlayer the player that controls the engine
+     * @param lineProvider gets the output line for an output format
+     */
+    SoundEngine(Context context, Host audioFilePlayer, OutputDevice.LineProvider lineProvider) {
         this.playIndex = new AtomicInteger();
         this.context = context;
-        this.soundLoader = new SoundLoader(context);
+        this.volumeControl = new VolumeControl();
+        this.audioDevice = new OutputDevice(readIntProperty(OUTPUT_LATENCY_PROPERTY, OutputDevice.DEFAULT_LATENCY),
+                readIntProperty(OUTPUT_BUFFER_SIZE_PROPERTY, 0),
+                readIntProperty(OUTPUT_BUFFER_DEPTH_PROPERTY, OutputDevice.DEFAULT_DEPTH), volumeControl,
+                lineProvider);
+        int cacheSize = readIntProperty(STREAM_CACHE_SIZE_PROPERTY, ContentCache.DEFAULT_BUDGET);
+        this.contentCache = cacheSize > 0 ? new ContentCache(context,
+                new File(context.getFiles().getResourceLocation(), ContentCache.CONTENT_CACHE_NAME), cacheSize) : null;
+        this.metrics = new PlaybackMetrics(audioDevice, contentCache);
+        this.soundLoader = new SoundLoader(context, metrics.getMetaDataProbeTimeRecorder());
         this.audioFilePlayer = audioFilePlayer;
         this.playIndex.set(-1);
-        this.state = null;
-        this.soundFileMap = new HashMap<>();
+        this.state = new AtomicReference<>(PlaybackState.IDLE);
+        this.pendingSkips = new AtomicInteger();
+        this.skipScheduled = new AtomicBoolean(false);
+        this.lastSkipTime = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(SKIP_WINDOW) - 1;
+        this.requestedReady = new AtomicReference<>();
+        this.queue = new PlayQueue(soundLoader, Collections.emptyList());
         audioFilePlayer.setCurrentSound(null);
 
         this.shuffle = new AtomicBoolean(false);
         this.repeatPlaylist = new AtomicBoolean(true);
         this.repeatSong = new AtomicBoolean(false);
+        this.streamBufferSize = readIntProperty(STREAM_BUFFER_SIZE_PROPERTY, ReadAheadStream.DEFAULT_HIGH_WATERMARK);
+        this.streamLowWatermark = readIntProperty(STREAM_LOW_WATERMARK_PROPERTY,
+                ReadAheadStream.DEFAULT_LOW_WATERMARK);
+        this.streamStartThreshold = readIntProperty(STREAM_START_THRESHOLD_PROPERTY,
+                ReadAheadStream.DEFAULT_START_THRESHOLD);
+        this.streamSpillSize = readIntProperty(STREAM_SPILL_SIZE_PROPERTY, SpillBuffer.DEFAULT_MAX_SIZE);
+
+        this.prepareExecutor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "IzouSound-prepare");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = new PlaybackScheduler(context, "IzouSound-playback", this::playFrame);
+        audioDevice.onUnderrun(() -> PlaybackEvents.underrun(audioFilePlayer.getCurrentSound(),
+                audioDevice.getUnderrunCount()));
+    }
+
+    /**
+     * Reads an int property of the addOn
+     *
+     * @param key the key of the property
+     * @param defaultValue the value to use if the property is not set or invalid
+     * @return the value of the property, or {@code defaultValue}
+     */
+    private int readIntProperty(String key, int defaultValue) {
+        String value;
+        try {
+            value = context.getPropertiesAssistant().getProperty(key);
+        } catch (RuntimeException e) {
+            return defaultValue;
+        }
+
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            context.getLogger().warn("Property " + key + " is not a number: " + value);
+            return defaultValue;
+        }
     }
 
     /**
@@ -71,56 +256,149 @@ class SoundEngine {
      *
      * @return state of player
      */
-    synchronized String getState() {
-        return state;
+    PlaybackState getState() {
+        return state.get();
+    }
+
+    /**
+     * Gets the metrics of the playback health
+     *
+     * @return the metrics of the playback health
+     */
+    PlaybackMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Moves the playback to {@code next}, if that transition is allowed from the current state
+     *
+     * @param next the state to move to
+     * @return true if the playback was moved to {@code next}, false if the transition was rejected
+     */
+    private boolean transitionTo(PlaybackState next) {
+        while (true) {
+            PlaybackState current = state.get();
+            if (!current.canTransitionTo(next)) {
+                context.getLogger().debug("Rejected transition from " + current + " to " + next);
+                return false;
+            } else if (state.compareAndSet(current, next)) {
+                BiConsumer<PlaybackState, PlaybackState> listener = transitionListener;
+                if (listener != null) {
+                    listener.accept(current, next);
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Sets a listener that is called with the previous and the new state every time the playback state changes
+     *
+     * @param listener the listener to call on every transition, or null to remove the listener
+     */
+    void onTransition(BiConsumer<PlaybackState, PlaybackState> listener) {
+        transitionListener = listener;
     }
 
     /**
      * Resume the sound if there is sound to resume and if it is paused
      */
     void resumeSound() throws IllegalStateException {
-        if (getState() == null) {
-            context.getLogger().warn("State is null, quitting");
+        PlaybackState current = getState();
+        if (current == PlaybackState.IDLE) {
+            context.getLogger().warn("State is idle, quitting");
             return;
+        } else if (current != PlaybackState.PAUSED) {
+            throw new IllegalStateException("Sound is not paused, so it cannot be resumed");
         }
 
-        if (state.equals(PAUSED_STATE)) {
-            if (pausedOnFrame >= 0) {
-                Thread t = new Thread(() ->
-                        playSoundFile(audioFilePlayer.getCurrentSound(), pausedOnFrame, Integer.MAX_VALUE));
-                paused = false;
-                t.start();
+        scheduler.submit(() -> {
+            if (getState() == PlaybackState.PAUSED && pausedOnFrame >= 0) {
+                PlaybackEvents.resumed(audioFilePlayer.getCurrentSound(),
+                        (long) (pausedOnFrame * (double) pausedMillisPerFrame));
+                SpillBuffer spill = pausedSpill;
+                pausedSpill = null;
+                playSoundFile(audioFilePlayer.getCurrentSound(), pausedOnFrame, Integer.MAX_VALUE, spill);
                 context.getLogger().debug("Resumed sound");
             }
-        } else {
-            throw new IllegalStateException("Sound is not paused, so it cannot be resumed");
-        }
+        });
     }
 
     /**
      * Stops the current playback entirely
      */
     private void stopSound() {
-        if (player != null) {
-            PlaybackListener r = player.getPlayBackListener();
-            closeAll();
-            r.playbackFinished(null);
+        releasePausedSpill();
+        if (player != null || openingSound != null) {
+            stopPlayers();
+            playNextFile();
         }
     }
 
-    // Closes all resources used in the playback (input stream and the advanced player)
-    private void closeAll() {
+    // Closes the track players and drops the samples buffered by the audio device, which stays open
+    private void stopPlayers() {
+        endDecodeBatch();
+        openRequest++;
+        openingSound = null;
         if (player != null) {
             player.close();
             player = null;
         }
-        if (inputStream != null) {
-            try {
-                inputStream.close();
-            } catch (IOException e) {
-                context.getLogger().error("Unable to close input stream", e);
-            }
-            inputStream = null;
+        if (preparedPlayer != null) {
+            preparedPlayer.close();
+            preparedPlayer = null;
+        }
+        transitionStart = 0;
+        if (audioDevice.isOpen()) {
+            audioDevice.discard();
+            deviceWrittenMillis = audioDevice.getPosition();
+        }
+    }
+
+    /**
+     * Takes the spill buffer from the stream of {@code trackPlayer}, so that the sound can be opened again without
+     * downloading it again
+     *
+     * @param trackPlayer the track player whose sound is opened again
+     * @return the spill buffer, or null if the sound is no URL or its download can not be resumed
+     */
+    private SpillBuffer detachSpill(TrackPlayer trackPlayer) {
+        InputStream inputStream = trackPlayer.getInputStream();
+        if (inputStream instanceof MeteredInputStream) {
+            inputStream = ((MeteredInputStream) inputStream).getSource();
+        }
+        if (inputStream instanceof ReadAheadStream) {
+            return ((ReadAheadStream) inputStream).detachSpill();
+        }
+        return null;
+    }
+
+    // Releases the spill buffer kept while the sound is paused
+    private void releasePausedSpill() {
+        if (pausedSpill != null) {
+            pausedSpill.release();
+            pausedSpill = null;
+        }
+    }
+
+    // Closes all resources used in the playback (track players and the audio device), this also releases the memory
+    // mappings of the sound files
+    private void closeAll() {
+        stopPlayers();
+        closeAudioDevice();
+        decoderPool.clear();
+        context.getLogger().debug("Closed all players, " + MappedFileStream.getOpenMappings() + " files still mapped, "
+                + decoderPool.getReusedCount() + " of " + (decoderPool.getCreatedCount() + decoderPool.getReusedCount())
+                + " decoders reused so far");
+    }
+
+    // Closes the audio device right away, without playing the samples that are still buffered
+    private void closeAudioDevice() {
+        if (audioDevice.isOpen()) {
+            audioDevice.close();
+            context.getLogger().debug("Closed audio device, the output line was opened " + audioDevice.getOpenCount()
+                    + " times so far, " + audioDevice.getUnderrunCount() + " underruns and "
+                    + audioDevice.getOverrunCount() + " overruns");
         }
     }
 
@@ -128,14 +406,54 @@ class SoundEngine {
      * Stops playback for entire session
      */
     void stopSession() {
-        if (getState() != null) {
+        scheduler.submitTransition(this::endSession);
+    }
+
+    /**
+     * Stops the playback session, closes the audio device and the caches, and shuts down the playback thread and the
+     * thread that opens sounds in the background. The engine can not be used anymore afterwards.
+     */
+    void dispose() {
+        boolean submitted = scheduler.submitTransition(() -> {
+            if (getState() != PlaybackState.IDLE) {
+                endSession();
+            }
+            closeAudioDevice();
+            prepareExecutor.shutdownNow();
+            scheduler.shutdown();
+            closeCaches();
+        });
+        if (!submitted) {
+            prepareExecutor.shutdownNow();
+            scheduler.shutdown();
+            closeAudioDevice();
+            closeCaches();
+        }
+    }
+
+    // Saves what the caches have not saved yet, and stops their background threads
+    private void closeCaches() {
+        soundLoader.close();
+        if (contentCache != null) {
+            contentCache.close();
+        }
+    }
+
+    // Stops playback for entire session, has to be called on the playback thread
+    private void endSession() {
+        openRequest++;
+        openingSound = null;
+        if (getState() != PlaybackState.IDLE) {
             closeAll();
             resetSession();
+            PlaybackEvents.sessionStopped();
             context.getLogger().debug("Stopped sound");
-            state = null;
+            transitionTo(PlaybackState.IDLE);
         } else {
-            context.getLogger().warn("State is null, quitting");
+            context.getLogger().warn("State is idle, quitting");
         }
+        audioDevice.onStart(null);
+        failReady(new IllegalStateException("Playback session stopped before any sound was played"));
         audioFilePlayer.setCurrentSound(null);
         audioFilePlayer.setCurrentPlaylist(null);
         audioFilePlayer.stopMusicPlayback();
@@ -145,12 +463,84 @@ class SoundEngine {
      * Pauses sound
      */
     void pauseSound() {
-        if (getState() != null) {
-            paused = true;
-            player.stop();
-            state = PAUSED_STATE;
+        scheduler.submit(() -> {
+            if (player == null || !getState().canTransitionTo(PlaybackState.PAUSED)) {
+                return;
+            }
+
+            pausedMillisPerFrame = player.getMillisecondsPerFrame();
+            if (pausedMillisPerFrame > 0) {
+                pausedOnFrame = (int) (getPlaybackPosition() / pausedMillisPerFrame);
+            } else {
+                pausedOnFrame = player.getFrame();
+            }
+
+            // Builds the frame index (if there is none yet) while the sound is paused, so that resuming is instant
+            buildFrameIndex(player.getSoundIdentity().getSoundInfo());
+            // Keeps the downloaded bytes of a URL, so that resuming does not download them again
+            releasePausedSpill();
+            pausedSpill = detachSpill(player);
+            PlaybackEvents.paused(player.getSoundIdentity(),
+                    (long) (pausedOnFrame * (double) Math.max(pausedMillisPerFrame, 0)));
+            stopPlayers();
+            transitionTo(PlaybackState.PAUSED);
             context.getLogger().debug("Paused sound");
+        });
+    }
+
+    /**
+     * Builds the frame index of {@code soundInfo} in the background if it is a sound file that has none yet. The
+     * playback thread never builds a frame index itself, until it is built, seeking skips the frames before the
+     * position instead.
+     *
+     * @param soundInfo the sound info for which to build the frame index
+     */
+    private void buildFrameIndex(SoundInfo soundInfo) {
+        if (soundInfo.getPath() == null || soundInfo.getFrameIndex() != null) {
+            return;
         }
+        try {
+            prepareExecutor.execute(() -> soundLoader.getFrameIndex(soundInfo));
+        } catch (RejectedExecutionException e) {
+            context.getLogger().warn("Unable to build the frame index of " + soundInfo.getPath(), e);
+        }
+    }
+
+    /**
+     * Jumps to {@code milliseconds} in the current sound. If the sound is paused, it will be resumed from there.
+     * <p>
+     *     The jump uses the frame index of the sound if it is built already, else the position is estimated from the
+     *     duration of a frame and the index is built in the background for the next jump.
+     * </p>
+     *
+     * @param milliseconds the position to jump to (in milliseconds)
+     */
+    void jumpToPosition(long milliseconds) {
+        scheduler.submit(() -> {
+            if (getState() == PlaybackState.PAUSED && pausedMillisPerFrame > 0) {
+                pausedOnFrame = (int) (Math.max(milliseconds, 0) / pausedMillisPerFrame);
+                context.getLogger().debug("Moved paused position to " + milliseconds + "ms");
+                return;
+            } else if (player == null) {
+                return;
+            }
+
+            SoundIdentity id = player.getSoundIdentity();
+            int frame = 0;
+            FrameIndex frameIndex = id.getSoundInfo().getFrameIndex();
+            buildFrameIndex(id.getSoundInfo());
+            if (frameIndex != null) {
+                frame = frameIndex.getFrame(milliseconds);
+            } else if (player.getMillisecondsPerFrame() > 0) {
+                frame = (int) (Math.max(milliseconds, 0) / player.getMillisecondsPerFrame());
+            }
+
+            // The buffered samples of the old position are dropped, the downloaded bytes of a URL are kept
+            SpillBuffer spill = detachSpill(player);
+            stopPlayers();
+            openAndStart(id, frame, endFrame, spill);
+            context.getLogger().debug("Jumped to " + milliseconds + "ms");
+        });
     }
 
     /**
@@ -160,12 +550,19 @@ class SoundEngine {
      * @throws IllegalArgumentException thrown if index is not in bounds of playlist
      */
     void jumpToFile(TrackInfo trackInfo) throws IllegalArgumentException {
-        if (playlist.getQueue().contains(trackInfo)) {
-            playIndex.set(playlist.getQueue().indexOf(trackInfo) - 1);
-            stopSound();
-        } else {
+        PlayQueue current = queue;
+        int trackIndex = current.indexOf(trackInfo);
+        if (trackIndex < 0) {
             throw new IllegalArgumentException("TrackInfo:" + trackInfo.getName() + " is not in the current playlist.");
         }
+
+        scheduler.submitTransition(() -> {
+            // The playlist might have been replaced in the meantime
+            if (queue == current) {
+                playIndex.set(queue.getPosition(trackIndex) - 1);
+                stopSound();
+            }
+        });
     }
 
     /**
@@ -173,86 +570,112 @@ class SoundEngine {
      * the current playback session. If shuffle is set to true, a random song is chosen next
      */
     void nextFile() {
-        if (getState() == null) {
-            context.getLogger().warn("State is null, quitting");
-            return;
-        }
-
-        context.getLogger().debug("Started playing next sound");
-        if (repeatSong.get()) {
-            // Decrement index by 1 so that the loop will increase it back to the current song
-            playIndex.decrementAndGet();
-            stopSound();
-        } else if (playIndex.get() < soundFileMap.size() - 1) {
-            stopSound();
-        } else if (repeatPlaylist.get()) {
-            // The index is set to -1 and not 0 because the loop will increment the index to 0 on its own
-            playIndex.set(-1);
-            stopSound();
-        } else {
-            stopSession();
-        }
+        skip(1);
     }
 
     /**
      * Jumps back to beginning of current sound file if one is playing
      */
     void restartFile() {
-        if (getState() == null) {
-            context.getLogger().warn("State is null, quitting");
-            return;
-        }
+        scheduler.submit(() -> {
+            if (getState() == PlaybackState.IDLE) {
+                context.getLogger().warn("State is idle, quitting");
+                return;
+            }
 
-        // Index is decremented by one, yet the loop will bring it back up to the same number, causing the sound to
-        // start over
-        playIndex.decrementAndGet();
-        context.getLogger().debug("Restarted current sound playback");
-        stopSound();
+            // Index is decremented by one, yet the loop will bring it back up to the same number, causing the sound to
+            // start over
+            playIndex.decrementAndGet();
+            context.getLogger().debug("Restarted current sound playback");
+            stopSound();
+        });
     }
 
     /**
      * Jumps to previous sound-file if there is one, else jump to last sound-file
      */
     void previousFile() {
-        if (getState() == null) {
-            context.getLogger().warn("State is null, quitting");
+        skip(-1);
+    }
+
+    /**
+     * Skips {@code step} sounds forward or backward. The first skip after a quiet period is applied right away, all
+     * skips that follow within {@link #SKIP_WINDOW} milliseconds are added up and applied at once, when no skip arrived
+     * for that long.
+     *
+     * @param step 1 to skip to the next sound, -1 to skip to the previous sound
+     */
+    private void skip(int step) {
+        long now = System.nanoTime();
+        boolean quiet = now - lastSkipTime > TimeUnit.MILLISECONDS.toNanos(SKIP_WINDOW);
+        lastSkipTime = now;
+        pendingSkips.addAndGet(step);
+        if (skipScheduled.compareAndSet(false, true)) {
+            boolean submitted = quiet ? scheduler.submit(() -> applySkips(false))
+                    : scheduler.submitDelayed(() -> applySkips(true), SKIP_WINDOW);
+            if (!submitted) {
+                skipScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Applies the skips collected so far, has to be called on the playback thread
+     *
+     * @param settle true to wait until no skip arrived for {@link #SKIP_WINDOW} milliseconds, false to apply them now
+     */
+    private void applySkips(boolean settle) {
+        long remaining = SKIP_WINDOW - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastSkipTime);
+        if (settle && remaining > 0 && scheduler.submitDelayed(() -> applySkips(true), remaining)) {
             return;
         }
-        context.getLogger().debug("Started playing previous sound");
 
+        skipScheduled.set(false);
+        int skips = pendingSkips.getAndSet(0);
+        if (skips == 0) {
+            return;
+        } else if (getState() == PlaybackState.IDLE) {
+            context.getLogger().warn("State is idle, quitting");
+            return;
+        }
+
+        context.getLogger().debug("Skipping " + skips + " sounds");
         if (repeatSong.get()) {
             // Decrement index by 1 so that the loop will increase it back to the current song
             playIndex.decrementAndGet();
             stopSound();
-        } else if (playIndex.get() > 0) {
-            playIndex.decrementAndGet();
-            playIndex.decrementAndGet();
-            stopSound();
-        } else if (repeatPlaylist.get()) {
-            playIndex.set(soundFileMap.size() - 2);
+            return;
+        }
+
+        int step = skips > 0 ? 1 : -1;
+        int index = playIndex.get();
+        for (int i = 0; i < Math.abs(skips) && index >= 0; i++) {
+            index = findPlayable(index + step, step);
+        }
+        PlaybackEvents.skipped(index >= 0 ? getSoundIdentity(index) : null, skips, playIndex.get());
+        if (index >= 0) {
+            // Decrement index by 1 so that the loop will increase it back to the sound skipped to
+            playIndex.set(index - 1);
             stopSound();
         } else {
-            stopSession();
+            endSession();
         }
     }
 
     /**
-     * Sets the volume from 0 - 100
+     * Sets the volume from 0 - 100. The new volume is applied to the next samples that are played, and is kept for all
+     * following sounds and sessions.
      *
      * @param volume volume level (from 0 - 100)
      */
     void controlVolume(double volume) {
-        if (getState() == null) {
-            context.getLogger().warn("State is null, quitting");
-            return;
-        }
-        //TODO: implement volume control
-        //player.setVolume(volume / 100);
+        volumeControl.setVolume(volume);
         context.getLogger().debug("Set volume to " + volume + "%");
     }
 
     /**
-     * Plays the sound at {@code path}
+     * Plays the sound at {@code path}. Once it is over, all following sounds in the playlist are played by
+     * {@link #playFrame()}.
      *
      * @param soundId The id of the sound to be played
      * @param startFrame The frame where the playback should start at
@@ -260,109 +683,511 @@ class SoundEngine {
      * @throws java.lang.IndexOutOfBoundsException thrown if start or end time are out of bounds (-1 not included)
      */
     private void playSoundFile(SoundIdentity soundId, int startFrame, int endFrame) {
-        inputStream = null;
+        playSoundFile(soundId, startFrame, endFrame, null);
+    }
+
+    /**
+     * Plays the sound at {@code path}, a URL is replayed from {@code spill} as far as it was downloaded before
+     *
+     * @param soundId The id of the sound to be played
+     * @param startFrame The frame where the playback should start at
+     * @param endFrame The frame where the playback should stop at
+     * @param spill the spill buffer of a previous download of the sound, or null
+     */
+    private void playSoundFile(SoundIdentity soundId, int startFrame, int endFrame, SpillBuffer spill) {
         if (soundId == null) {
+            if (spill != null) {
+                spill.release();
+            }
             audioFilePlayer.setCurrentSound(null);
             context.getLogger().debug("Stopped playback");
             return;
-        } else if (soundId.getSoundInfo().getPath() != null) {
+        }
+
+        updatePlaylist(soundId);
+        openAndStart(soundId, startFrame, endFrame, spill);
+    }
+
+    /**
+     * Opens the sound of {@code soundId} and starts its playback. Sound files are opened right away, URLs are opened
+     * by the prepare executor, since connecting and buffering can take a while. The track player of a URL is handed
+     * back to the playback thread with a command, unless the players were stopped in the meantime.
+     *
+     * @param soundId The id of the sound to play
+     * @param startFrame The frame where the playback should start at
+     * @param endFrame The frame where the playback should stop at
+     * @param spill the spill buffer of a previous download of the sound, or null
+     */
+    private void openAndStart(SoundIdentity soundId, int startFrame, int endFrame, SpillBuffer spill) {
+        if (soundId.getSoundInfo().getURL() == null) {
+            startTrackPlayer(openTrackPlayer(soundId, startFrame, endFrame, spill), endFrame);
+            return;
+        }
+
+        int request = ++openRequest;
+        openingSound = soundId;
+        try {
+            prepareExecutor.execute(() -> {
+                TrackPlayer trackPlayer = openTrackPlayer(soundId, startFrame, endFrame, spill);
+                boolean submitted = scheduler.submit(() -> {
+                    if (request != openRequest) {
+                        if (trackPlayer != null) {
+                            trackPlayer.close();
+                        }
+                        return;
+                    }
+
+                    openingSound = null;
+                    startTrackPlayer(trackPlayer, endFrame);
+                    if (!isStarted()) {
+                        // The first sound of the session could not be opened, so nothing is going to be played
+                        failReady(new IllegalStateException("Unable to start playback of "
+                                + soundId.getSoundInfo().getName()));
+                        endSession();
+                    }
+                });
+                if (!submitted && trackPlayer != null) {
+                    trackPlayer.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            openingSound = null;
+            if (spill != null) {
+                spill.release();
+            }
+            context.getLogger().warn("Unable to open " + soundId.getSoundInfo().getName(), e);
+        }
+    }
+
+    /**
+     * Starts the playback of {@code trackPlayer}, the frames themselves are played by {@link #playFrame()}
+     *
+     * @param trackPlayer the track player to start, may be null if the sound could not be opened
+     * @param endFrame The frame where the playback should stop at
+     */
+    private void startTrackPlayer(TrackPlayer trackPlayer, int endFrame) {
+        context.getLogger().debug("Preparing for playback");
+        if (trackPlayer == null) {
+            context.getLogger().debug("An input stream was null, quiting");
+            return;
+        }
+
+        player = trackPlayer;
+        this.endFrame = endFrame;
+        // A sound whose audio device could not be opened leaves the playback in READY
+        if (getState() != PlaybackState.READY) {
+            transitionTo(PlaybackState.READY);
+        }
+        if (!trackPlayer.isPrerolled()) {
+            // Not a single frame was decoded (the sound starts at or after its end), so there is nothing to play and
+            // no format to open the audio device with
+            context.getLogger().debug("Nothing to play in " + trackPlayer.getSoundIdentity().getSoundInfo().getName());
+            if (++emptySounds > queue.size()) {
+                context.getLogger().warn("No sound of the playlist has anything to play");
+                endSession();
+            } else {
+                finishSound();
+            }
+            return;
+        }
+        emptySounds = 0;
+        if (!openAudioDevice(trackPlayer)) {
+            return;
+        }
+
+        if (ready != null && !ready.isDone()) {
+            CompletableFuture<Void> sessionReady = ready;
+            audioDevice.onStart(() -> sessionReady.complete(null));
+        }
+
+        // Opens the next sound while this one is playing
+        prepareNextFile(trackPlayer);
+
+        if (!transitionTo(PlaybackState.PLAYING)) {
+            return;
+        }
+        context.getLogger().debug("Started playback of " + trackPlayer.getSoundIdentity().getSoundInfo().getName());
+    }
+
+    /**
+     * Decodes the next frame of the current sound into the audio device, this is the pump of the
+     * {@link PlaybackScheduler}. Once the current sound is over, the audio device is handed over to the next sound.
+     *
+     * @return 0 if there is more to play right away, the milliseconds to wait if the audio device is full, or -1 if
+     *         nothing is playing
+     */
+    private long playFrame() {
+        if (player == null || getState() == PlaybackState.PAUSED || !audioDevice.isOpen()) {
+            return -1;
+        } else if (audioDevice.isFull()) {
+            // Waits until the output thread has played about one frame
+            return Math.max((long) player.getMillisecondsPerFrame(), 1);
+        } else if (!player.isReady()) {
+            // The stream of a URL is buffering, the output thread keeps playing the samples it has in the meantime
+            return Math.max((long) player.getMillisecondsPerFrame(), 1);
+        }
+
+        boolean played;
+        try {
+            // Frames decoded in advance are only copied, so they are not counted as decoded
+            boolean decoding = !player.isPrerolled();
+            long start = System.nanoTime();
+            played = player.playFrame(audioDevice, endFrame);
+            if (played) {
+                if (decoding) {
+                    long elapsed = System.nanoTime() - start;
+                    metrics.getDecodeTimeRecorder().record(elapsed);
+                    countDecodeBatch(elapsed);
+                }
+                if (transitionStart != 0) {
+                    metrics.getTransitionGapRecorder().recordSince(transitionStart);
+                    transitionStart = 0;
+                }
+                deviceWrittenMillis += player.getMillisecondsPerFrame();
+            }
+        } catch (JavaLayerException e) {
+            context.getLogger().error("Error playing sound file", e);
+            played = false;
+        }
+
+        if (!played) {
+            finishSound();
+        }
+        return player != null ? 0 : -1;
+    }
+
+    // Counts a decoded frame into the decode batch, a full batch is reported to Java Flight Recorder
+    private void countDecodeBatch(long decodeNanos) {
+        if (decodeBatchFrames == 0) {
+            decodeBatchEvent = PlaybackEvents.beginDecodeBatch();
+        }
+        decodeBatchFrames++;
+        decodeBatchNanos += decodeNanos;
+        if (decodeBatchFrames >= DECODE_BATCH_FRAMES) {
+            endDecodeBatch();
+        }
+    }
+
+    // Reports the decode batch of the current sound to Java Flight Recorder, even if it is not full yet
+    private void endDecodeBatch() {
+        if (decodeBatchFrames > 0 && player != null) {
+            PlaybackEvents.endDecodeBatch(decodeBatchEvent, player.getSoundIdentity(), decodeBatchFrames,
+                    decodeBatchNanos);
+        }
+        decodeBatchEvent = null;
+        decodeBatchFrames = 0;
+        decodeBatchNanos = 0;
+    }
+
+    // Called once the current sound is over, hands the audio device over to the next sound
+    private void finishSound() {
+        endDecodeBatch();
+        transitionStart = System.nanoTime();
+        SoundIdentity soundId = player.getSoundIdentity();
+        context.getLogger().debug("Finished sound playback of: " + soundId.getSoundInfo().getName());
+        player.close();
+        player = null;
+
+        int nextIndex = getNextIndex();
+        soundId = getSoundIdentity(nextIndex);
+        if (soundId == null) {
+            audioDevice.flush();
+            endSession();
+            return;
+        }
+
+        playIndex.set(nextIndex);
+        TrackPlayer trackPlayer = takePreparedPlayer(soundId);
+        updatePlaylist(soundId);
+        if (trackPlayer != null) {
+            startTrackPlayer(trackPlayer, Integer.MAX_VALUE);
+        } else {
+            openAndStart(soundId, 0, Integer.MAX_VALUE, null);
+        }
+    }
+
+    /**
+     * Gets the position of the current sound that is audible right now (in milliseconds), that is the frames played by
+     * the track player minus the samples still buffered by the audio device
+     *
+     * @return the position of the current sound in milliseconds
+     */
+    private double getPlaybackPosition() {
+        double position = player.getFrame() * (double) player.getMillisecondsPerFrame();
+        if (audioDevice.isOpen()) {
+            double buffered = Math.max(deviceWrittenMillis - audioDevice.getPosition(), 0);
+            position -= Math.min(buffered, position);
+        }
+        return position;
+    }
+
+    /**
+     * Opens the sound of {@code soundId} and decodes its first frames, starting at {@code startFrame}. Sound files are
+     * positioned at {@code startFrame} with their {@link FrameIndex} once it is built, URLs (and sound files without
+     * a frame index yet) have to skip all frames before it.
+     *
+     * @param soundId The id of the sound to open
+     * @param startFrame The frame where the playback should start at
+     * @param endFrame The frame where the playback should stop at, no frame after it is decoded in advance
+     * @return the track player of the sound, or null if it could not be opened
+     */
+    private TrackPlayer openTrackPlayer(SoundIdentity soundId, int startFrame, int endFrame) {
+        return openTrackPlayer(soundId, startFrame, endFrame, null);
+    }
+
+    /**
+     * Opens the sound of {@code soundId} and decodes its first frames, starting at {@code startFrame}. A URL is
+     * replayed from {@code spill} as far as it was downloaded before, so that the frames up to {@code startFrame} are
+     * skipped without downloading them again.
+     *
+     * @param soundId The id of the sound to open
+     * @param startFrame The frame where the playback should start at
+     * @param endFrame The frame where the playback should stop at, no frame after it is decoded in advance
+     * @param spill the spill buffer of a previous download of the sound, or null
+     * @return the track player of the sound, or null if it could not be opened
+     */
+    private TrackPlayer openTrackPlayer(SoundIdentity soundId, int startFrame, int endFrame, SpillBuffer spill) {
+        metrics.countTrackOpen();
+        Object event = PlaybackEvents.beginTrackOpen();
+        InputStream inputStream = null;
+        PlaybackMetrics.Source source = PlaybackMetrics.Source.FILE;
+        int firstFrame = 0;
+        if (soundId.getSoundInfo().getPath() != null) {
             String path = soundId.getSoundInfo().getPath();
             try {
-                inputStream = new FileInputStream(path);
+                inputStream = openFile(path);
+                // Without a frame index (it is built in the background), the frames up to startFrame are skipped
+                FrameIndex frameIndex = startFrame > 0 ? soundId.getSoundInfo().getFrameIndex() : null;
+                long offset = frameIndex != null ? frameIndex.getOffset(startFrame) : -1;
+                if (offset > 0 && inputStream.skip(offset) == offset) {
+                    firstFrame = startFrame;
+                } else if (offset > 0) {
+                    inputStream.close();
+                    inputStream = openFile(path);
+                }
             } catch (FileNotFoundException e) {
                 context.getLogger().error("Was not able to find " + path, e);
+            } catch (IOException e) {
+                context.getLogger().error("Was not able to seek in " + path, e);
+                try {
+                    inputStream.close();
+                } catch (IOException e1) {
+                    context.getLogger().error("Unable to close input stream", e1);
+                }
+                inputStream = null;
             }
         } else if (soundId.getSoundInfo().getURL() != null) {
+            URL url = soundId.getSoundInfo().getURL();
+            inputStream = spill == null && contentCache != null ? contentCache.open(url) : null;
+            source = PlaybackMetrics.Source.CACHE;
+            if (inputStream == null) {
+                // The URL is connected to by the stream itself, a failure is thrown once the stream is read
+                source = PlaybackMetrics.Source.URL;
+                inputStream = new ReadAheadStream(context, url, streamBufferSize, streamLowWatermark,
+                        streamStartThreshold, spill != null ? spill : new SpillBuffer(streamSpillSize), contentCache);
+                spill = null;
+            }
+        }
+
+        if (spill != null) {
+            spill.release();
+        }
+        if (inputStream == null) {
+            PlaybackEvents.endTrackOpen(event, soundId, source, startFrame, 0, false);
+            return null;
+        }
+
+        MeteredInputStream meteredStream = new MeteredInputStream(inputStream, metrics, source);
+        DecoderPool.Slot slot;
+        try {
+            slot = decoderPool.acquire(meteredStream, startFrame == 0 && firstFrame == 0);
+        } catch (IOException e) {
+            context.getLogger().error("Unable to read " + soundId.getSoundInfo().getName(), e);
             try {
-                inputStream = soundId.getSoundInfo().getURL().openStream();
-            } catch (IOException e) {
-                context.getLogger().error("Was not able to find to find " +
-                        soundId.getSoundInfo().getURL().toString(), e);
+                meteredStream.close();
+            } catch (IOException e1) {
+                context.getLogger().error("Unable to close input stream", e1);
             }
+            PlaybackEvents.endTrackOpen(event, soundId, source, startFrame, meteredStream.getBytesRead(), false);
+            return null;
+        }
+        TrackPlayer trackPlayer = new TrackPlayer(soundId, meteredStream, slot, firstFrame);
+        try {
+            trackPlayer.prepare(startFrame, endFrame, PREROLL_FRAMES);
+        } catch (JavaLayerException e) {
+            context.getLogger().error("Unable to decode " + soundId.getSoundInfo().getName(), e);
+            trackPlayer.close();
+            PlaybackEvents.endTrackOpen(event, soundId, source, startFrame, meteredStream.getBytesRead(), false);
+            return null;
         }
+        PlaybackEvents.endTrackOpen(event, soundId, source, startFrame, meteredStream.getBytesRead(), true);
+        return trackPlayer;
+    }
 
-        updatePlaylist(soundId);
+    /**
+     * Opens the sound file at {@code path}. The file is mapped into memory, only files that can not be mapped are read
+     * with a {@link FileInputStream}.
+     *
+     * @param path the path to the sound file
+     * @return the input stream of the sound file
+     * @throws FileNotFoundException thrown if there is no file at {@code path}
+     */
+    private InputStream openFile(String path) throws FileNotFoundException {
+        try {
+            return new MappedFileStream(path);
+        } catch (IOException e) {
+            context.getLogger().debug("Unable to map " + path + " into memory: " + e.getMessage());
+            return new FileInputStream(path);
+        }
+    }
 
-        context.getLogger().debug("Preparing for playback");
-        if (inputStream == null) {
-            context.getLogger().debug("An input stream was null, quiting");
+    /**
+     * Opens the sound that follows {@code current} in the background, so that it is ready once {@code current} is over.
+     * The opened track player is handed back to the playback thread with a command.
+     *
+     * @param current the track player that is currently playing
+     */
+    private void prepareNextFile(TrackPlayer current) {
+        SoundIdentity next = getSoundIdentity(getNextIndex());
+        if (next == null) {
             return;
         }
 
         try {
-            player = new AdvancedPlayer(inputStream);
-        } catch (JavaLayerException e) {
-            context.getLogger().error("Unable to create AdvancedPlayer object", e);
+            prepareExecutor.execute(() -> {
+                soundLoader.probeMetaData(next.getSoundInfo());
+                TrackPlayer nextPlayer = openTrackPlayer(next, 0, Integer.MAX_VALUE);
+                if (nextPlayer == null) {
+                    return;
+                }
+
+                boolean submitted = scheduler.submit(() -> {
+                    if (player == current && preparedPlayer == null) {
+                        preparedPlayer = nextPlayer;
+                    } else {
+                        nextPlayer.close();
+                    }
+                });
+                if (!submitted) {
+                    nextPlayer.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            context.getLogger().warn("Unable to prepare the next sound", e);
         }
-        state = READY_STATE;
+    }
 
-        // Sets behavior at end of playback
-        setOnEnd(soundId);
+    /**
+     * Takes the track player prepared by {@link #prepareNextFile(TrackPlayer)} if it belongs to {@code soundId}
+     *
+     * @param soundId The id of the sound that is to be played next
+     * @return the prepared track player, or null if there is none for {@code soundId}
+     */
+    private TrackPlayer takePreparedPlayer(SoundIdentity soundId) {
+        TrackPlayer prepared = preparedPlayer;
+        preparedPlayer = null;
+        if (prepared != null && prepared.getSoundIdentity() != soundId) {
+            prepared.close();
+            prepared = null;
+        }
+        return prepared;
+    }
 
-        startSecond = System.currentTimeMillis() / 1000;
+    /**
+     * Makes sure the audio device is open and has the output format of {@code trackPlayer}. An open audio device is only
+     * reopened if the format changes, in which case it is drained first.
+     *
+     * @param trackPlayer the track player that is about to be played
+     * @return true if the audio device is ready, else false
+     */
+    private boolean openAudioDevice(TrackPlayer trackPlayer) {
+        int openCount = audioDevice.getOpenCount();
         try {
-            state = PLAYING_STATE;
-            context.getLogger().debug("Started playback of " + soundId.getSoundInfo().getTrackInfo().getName());
-            player.play(startFrame, endFrame);
+            audioDevice.setFormat(trackPlayer.getDecoder());
         } catch (JavaLayerException e) {
-            context.getLogger().error("Error playing sound file", e);
+            context.getLogger().error("Unable to open audio device", e);
+            return false;
         }
 
+        if (audioDevice.getOpenCount() != openCount) {
+            deviceWrittenMillis = 0;
+        }
+        return true;
     }
 
     /**
-     * Sets the behavior of the SoundIdentity {@code id} at the end of its playback (so that the next song will be
-     * started)
-     * @param id the SoundIdentity for which to set an end behaviour
+     * Plays the sound that follows the play index once the current sound was stopped by a command
      */
-    private void setOnEnd(SoundIdentity id) {
-        player.setPlayBackListener(new PlaybackListener() {
-            @Override
-            public void playbackFinished(PlaybackEvent event) {
-                Thread t = new Thread(() -> {
-                    if (paused) {
-                        pausedOnFrame = event.getFrame();
-                        if (id.getSoundInfo().getFramesPerSecond() != -1) {
-                            // Calculating current frame
-                            pausedOnFrame = (int) ((System.currentTimeMillis() / 1000 - startSecond)
-                                    * id.getSoundInfo().getFramesPerSecond());
-                        } else {
-                            // Not ideal value as it is a bit off, but for websites and other likes, there is no choice
-                            pausedOnFrame = event.getFrame();
-                        }
-                        closeAll();
-                        return;
-                    }
+    private void playNextFile() {
+        if (playIndex.get() > queue.size()) {
+            audioFilePlayer.setCurrentSound(null);
+            context.getLogger().debug("Stopped playback");
+            endSession();
+            return;
+        }
 
-                    context.getLogger().debug("Finished sound playback of: " + id.getSoundInfo().getName());
-                    if (playIndex.get() > soundFileMap.size()) {
-                        audioFilePlayer.setCurrentSound(null);
-                        context.getLogger().debug("Stopped playback");
-                        stopSession();
-                        return;
-                    }
+        // Increment sound index by 1 (this is where the loop "increments itself")
+        playIndex.incrementAndGet();
+        SoundIdentity id = getSoundIdentity(playIndex.get());
+        stopPlayers();
 
-                    // Increment sound index by 1 (this is where the loop "increments itself")
-                    playIndex.incrementAndGet();
+        if (id != null) {
+            playSoundFile(id, 0, Integer.MAX_VALUE);
+        } else {
+            endSession();
+            context.getLogger().debug("a null sound file found, stopping");
+        }
+    }
 
-                    SoundIdentity id;
-                    if (shuffle.get()) {
-                        id = shuffeledSoundFileMap.get(playIndex.intValue());
-                    } else {
-                        id = soundFileMap.get(playIndex.intValue());
-                    }
-                    closeAll();
+    /**
+     * Gets the index of the sound that is played once the current sound is over, respecting repeat song and repeat
+     * playlist
+     *
+     * @return the index of the next sound, or -1 if the playback session is over
+     */
+    private int getNextIndex() {
+        if (repeatSong.get()) {
+            return playIndex.get();
+        } else {
+            return findPlayable(playIndex.get() + 1, 1);
+        }
+    }
 
-                    if (id != null) {
-                        playSoundFile(id, 0, Integer.MAX_VALUE);
-                    } else {
-                        stopSession();
-                        context.getLogger().debug("a null sound file found, stopping");
-                    }
-                });
-                t.start();
+    /**
+     * Finds the first sound that can be played, starting at {@code index} and moving in the direction of {@code step}.
+     * Once the start or end of the playlist is reached, the search continues at the other end if repeat playlist is
+     * set to true.
+     *
+     * @param index the index to start the search at
+     * @param step 1 to search forward, -1 to search backward
+     * @return the index of the sound found, or -1 if there is none
+     */
+    private int findPlayable(int index, int step) {
+        int size = queue.size();
+        for (int i = 0; i < size; i++) {
+            if (index < 0 || index >= size) {
+                if (!repeatPlaylist.get()) {
+                    return -1;
+                }
+                index = index < 0 ? size - 1 : 0;
             }
-        });
+
+            if (queue.isPlayable(index)) {
+                return index;
+            }
+            index += step;
+        }
+        return -1;
+    }
+
+    /**
+     * Gets the sound identity at {@code index} of the current play order (shuffled or not)
+     *
+     * @param index the index of the sound identity
+     * @return the sound identity, or null if there is none at {@code index}
+     */
+    private SoundIdentity getSoundIdentity(int index) {
+        return queue.get(index);
     }
 
     /**
@@ -371,19 +1196,46 @@ class SoundEngine {
      * @param soundId the sound id to update
      */
     private void updatePlaylist(SoundIdentity soundId) {
-        if (shuffle.get()) {
-            shuffeledPlaylist = soundLoader.getMetaData(shuffeledPlaylist, soundId.getSoundInfo());
-            shuffeledPlaylist.setNewPosition(playIndex.get());
-            audioFilePlayer.setCurrentPlaylist(shuffeledPlaylist);
-        } else {
-            playlist = soundLoader.getMetaData(playlist, soundId.getSoundInfo());
-            playlist.setNewPosition(playIndex.get());
-            audioFilePlayer.setCurrentPlaylist(playlist);
-        }
+        queue.moveTo(playIndex.get());
+        loadMetaData(soundId);
+        publishPlaylist(soundId.getId());
 
         audioFilePlayer.setCurrentSound(soundId);
     }
 
+    /**
+     * Gets the meta data of {@code soundId}, and updates its track info in the play queue if it changed. Only the single
+     * track is updated, the playlist is built once it is published.
+     *
+     * @param soundId the sound id whose meta data to get
+     */
+    private void loadMetaData(SoundIdentity soundId) {
+        if (soundLoader.loadMetaData(soundId.getSoundInfo())) {
+            queue.setTrackInfo(soundId.getId(), soundId.getSoundInfo().getTrackInfo());
+        }
+    }
+
+    /**
+     * Publishes the tracks of the play queue as the current playlist, with the name, playback modes and data of the
+     * playlist the session was started with
+     *
+     * @param position the index of the track that is currently played
+     */
+    private void publishPlaylist(int position) {
+        audioFilePlayer.setCurrentPlaylist(new Playlist(queue.getTracks(), getOptional(playlist::getName),
+                playlist.getPlaybackModes(), position, getOptional(playlist::getData)));
+    }
+
+    // The optional getters of Playlist wrap their field with Optional.of, so a missing value throws instead of being
+    // empty
+    private static String getOptional(Supplier<Optional<String>> getter) {
+        try {
+            return getter.get().orElse(null);
+        } catch (NullPointerException e) {
+            return null;
+        }
+    }
+
     private int[] setPlayDuration(SoundIdentity soundId) throws IndexOutOfBoundsException {
         outOfBoundsError = false;
         int[] startEndFrames = new int[2];
@@ -440,45 +1292,109 @@ class SoundEngine {
     }
 
     private void resetSession() {
-        soundFileMap.clear();
+        queue = new PlayQueue(soundLoader, Collections.emptyList());
         playlist = null;
-        if (player != null) {
-            player.close();
-        }
-        closeAll();
+        emptySounds = 0;
+        stopPlayers();
+        releasePausedSpill();
         context.getLogger().debug("Resetting playback session");
     }
 
     /**
-     * Run method for sound object, gets started on instantiation and waits for paths to process
+     * Starts a new playback session with {@code playlist}, the session is started by the playback thread. If a session
+     * is in progress, it is stopped and its end is reported to the player right away.
+     *
+     * @param playlist the playlist to play
+     * @return a future that is completed once the first samples of the session reach the output line, or completed
+     *         exceptionally if the session could not be started, was stopped before, or was replaced by a newer session
      */
-    void run(Playlist playlist) {
+    CompletableFuture<Void> run(Playlist playlist) {
+        if (getState() != PlaybackState.IDLE) {
+            // The new session supersedes the stop before it runs, so the end of the old session is reported here
+            stopSession();
+            audioFilePlayer.stopMusicPlayback();
+        }
+
+        long requested = System.nanoTime();
+        CompletableFuture<Void> sessionReady = new CompletableFuture<>();
+        sessionReady.thenRun(() -> metrics.getTimeToFirstAudioRecorder().recordSince(requested));
+        // A session that was requested before, but did not start yet, is skipped by the scheduler
+        CompletableFuture<Void> previous = requestedReady.getAndSet(sessionReady);
+        if (previous != null) {
+            previous.completeExceptionally(new CancellationException("Replaced by a newer playback session"));
+        }
+
+        if (!scheduler.submitTransition(() -> startSession(playlist, sessionReady))) {
+            sessionReady.completeExceptionally(new RejectedExecutionException("Playback session was not accepted"));
+        }
+
+        // The future is completed by the playback or the output thread, the actions depending on it must not hold
+        // them up, so they are run by another thread
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        sessionReady.whenCompleteAsync((unused, failure) -> {
+            if (failure == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        });
+        return result;
+    }
+
+    // Starts a new playback session, has to be called on the playback thread
+    private void startSession(Playlist playlist, CompletableFuture<Void> sessionReady) {
+        failReady(new CancellationException("Replaced by a newer playback session"));
+        ready = sessionReady;
+        // Skips meant for the previous session are dropped
+        pendingSkips.set(0);
         resetSession();
-        playIndex.set(0);
-        soundFileMap = soundLoader.convertFromPlaylist(playlist);
+        queue = soundLoader.convertFromPlaylist(playlist);
         this.playlist = playlist;
-        SoundIdentity id;
         if (shuffle.get()) {
-            shuffeledPlaylist = playlist.shuffle();
-            shuffeledSoundFileMap = soundLoader.convertFromPlaylist(shuffeledPlaylist);
+            queue.shuffle(-1);
+        }
+        PlaybackEvents.sessionStarted(queue.size());
 
-            id = shuffeledSoundFileMap.get(playIndex.intValue());
-            shuffeledPlaylist = soundLoader.getMetaData(shuffeledPlaylist, id.getSoundInfo());
-            audioFilePlayer.setCurrentPlaylist(shuffeledPlaylist);
-        } else {
-            id = soundFileMap.get(playIndex.intValue());
-            this.playlist = soundLoader.getMetaData(this.playlist, id.getSoundInfo());
-            audioFilePlayer.setCurrentPlaylist(this.playlist);
+        playIndex.set(findPlayable(0, 1));
+        SoundIdentity id = getSoundIdentity(playIndex.get());
+        if (id == null) {
+            context.getLogger().warn("The playlist contains no sound that can be played");
+            failReady(new IllegalArgumentException("The playlist contains no sound that can be played"));
+            endSession();
+            return;
         }
 
+        loadMetaData(id);
+        publishPlaylist(playlist.getPosition());
+
         try {
             context.getLogger().debug("Setting play duration");
             int[] duration = setPlayDuration(id);
-            Thread t = new Thread(() -> playSoundFile(id, duration[0], duration[1]));
-            t.start();
+            playSoundFile(id, duration[0], duration[1]);
         } catch (IndexOutOfBoundsException e) {
             context.getLogger().warn("Start or end times were probably out of bounds", e);
         }
+
+        if (!isStarted()) {
+            // The first sound could not be opened, so nothing is going to be played
+            failReady(new IllegalStateException("Unable to start playback of " + id.getSoundInfo().getName()));
+            endSession();
+        }
+    }
+
+    // Returns false if the session is waiting for its first sound, but that sound could not be started and no other
+    // sound is being opened instead
+    private boolean isStarted() {
+        return ready == null || ready.isDone() || openingSound != null
+                || (player != null && getState() == PlaybackState.PLAYING);
+    }
+
+    // Completes the readiness of the current session exceptionally, unless sound was played already
+    private void failReady(Throwable failure) {
+        if (ready != null) {
+            ready.completeExceptionally(failure);
+            ready = null;
+        }
     }
 
     /**
@@ -486,7 +1402,7 @@ class SoundEngine {
      *
      * @return true if an out of bounds error occurred with play indices, else false
      */
-    synchronized boolean isOutOfBoundsError() {
+    boolean isOutOfBoundsError() {
         return outOfBoundsError;
     }
 
@@ -506,11 +1422,30 @@ class SoundEngine {
      */
     synchronized void setShuffle(AtomicBoolean shuffle) {
         this.shuffle = shuffle;
+        scheduler.submit(() -> {
+            // The current sound keeps playing, only the sounds following it change
+            SoundIdentity current = audioFilePlayer.getCurrentSound();
+            int position = current != null ? queue.getPosition(current.getId()) : -1;
+            if (shuffle.get() && !queue.isShuffled()) {
+                position = queue.shuffle(position);
+            } else if (!shuffle.get() && queue.isShuffled()) {
+                position = queue.unshuffle(position);
+            } else {
+                return;
+            }
 
-        if (shuffle.get() && playlist != null) {
-            shuffeledPlaylist = playlist.shuffle();
-            shuffeledSoundFileMap = soundLoader.convertFromPlaylist(shuffeledPlaylist);
-        }
+            if (position >= 0) {
+                playIndex.set(position);
+                queue.moveTo(position);
+            }
+            if (preparedPlayer != null) {
+                preparedPlayer.close();
+                preparedPlayer = null;
+            }
+            if (player != null) {
+                prepareNextFile(player);
+            }
+        });
     }
 
     /**
@@ -548,4 +1483,35 @@ class SoundEngine {
     synchronized void setRepeatSong(AtomicBoolean repeatSong) {
         this.repeatSong = repeatSong;
     }
+
+    /**
+     * The player the engine plays for (the {@link AudioFilePlayer}), it publishes what the engine is playing
+     */
+    interface Host {
+        /**
+         * Gets the current sound, null if none is playing
+         *
+         * @return the current sound, null if none is playing
+         */
+        SoundIdentity getCurrentSound();
+
+        /**
+         * Sets the current sound, null if none is playing
+         *
+         * @param currentSound the current sound to set, null if none is playing
+         */
+        void setCurrentSound(SoundIdentity currentSound);
+
+        /**
+         * Sets the current playlist, null if none is playing
+         *
+         * @param playlist the current playlist to set, null if none is playing
+         */
+        void setCurrentPlaylist(Playlist playlist);
+
+        /**
+         * Reports that the playback session is over
+         */
+        void stopMusicPlayback();
+    }
 }
\ No newline at end of file
@@ -23,7 +23,7 @@ class SoundIdentity {
     /**
      * Gets the id of the sound identity
      *
-     * The id is determined by the order of which the sound file was found and added to the list
+     * The id is the position of the sound in its playlist
      *
      * @return the id of the sound identity
      */
@@ -19,6 +19,9 @@ class SoundInfo {
     private int durationTime;
     private long framesPerSecond;
     private TrackInfo trackInfo;
+    // Both are set by the thread that prepares the next sound and read by the playback thread
+    private volatile TrackInfo probedTrackInfo;
+    private volatile FrameIndex frameIndex;
     private boolean hasMetaData;
 
     /**
@@ -56,6 +59,7 @@ class SoundInfo {
         this.url = null;
         this.path = path;
         this.framesPerSecond = -1;
+        this.probedTrackInfo = null;
         this.hasMetaData = false;
     }
 
@@ -74,6 +78,7 @@ class SoundInfo {
         this.url = url;
         this.path = null;
         this.framesPerSecond = -1;
+        this.probedTrackInfo = null;
         this.hasMetaData = false;
     }
 
@@ -158,6 +163,24 @@ class SoundInfo {
         return durationTime;
     }
 
+    /**
+     * Gets the track info containing the meta data of the sound if it has already been read, else null
+     *
+     * @return the track info containing the meta data of the sound if it has already been read, else null
+     */
+    public TrackInfo getProbedTrackInfo() {
+        return probedTrackInfo;
+    }
+
+    /**
+     * Gets the frame index of the sound file if it has already been built, else null
+     *
+     * @return the frame index of the sound file if it has already been built, else null
+     */
+    public FrameIndex getFrameIndex() {
+        return frameIndex;
+    }
+
     /**
      * Returns true if the meta data has already been added, else false
      *
@@ -176,6 +199,24 @@ class SoundInfo {
         this.trackInfo = trackInfo;
     }
 
+    /**
+     * Sets the track info containing the meta data of the sound, once it has been read
+     *
+     * @param probedTrackInfo the track info containing the meta data of the sound
+     */
+    public void setProbedTrackInfo(TrackInfo probedTrackInfo) {
+        this.probedTrackInfo = probedTrackInfo;
+    }
+
+    /**
+     * Sets the frame index of the sound file
+     *
+     * @param frameIndex the frame index of the sound file
+     */
+    public void setFrameIndex(FrameIndex frameIndex) {
+        this.frameIndex = frameIndex;
+    }
+
     /**
      * Sets the start time of the sound (in milliseconds)
      *
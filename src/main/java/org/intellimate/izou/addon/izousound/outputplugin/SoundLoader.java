@@ -4,7 +4,7 @@ import com.mpatric.mp3agic.ID3v1;
 import com.mpatric.mp3agic.InvalidDataException;
 import com.mpatric.mp3agic.Mp3File;
 import com.mpatric.mp3agic.UnsupportedTagException;
-import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TrackData;
 import org.intellimate.izou.sdk.Context;
 import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
 import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
@@ -14,7 +14,6 @@ import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.HashMap;
 import java.util.Optional;
 
 /**
@@ -23,12 +22,16 @@ import java.util.Optional;
  * the music framework.
  * <p>
  *     Secondly, the sound loader updates soundInfos (and trackInfos) with their meta data (name, artist, etc.) once
- *     it is about to be played and if the meta data is found.
+ *     it is about to be played and if the meta data is found. Meta data is stored in a {@link MetaDataCache}, so that
+ *     every sound file only has to be parsed once.
  * </p>
  */
 class SoundLoader {
+    static final String META_DATA_CACHE_NAME = "izousound_metadata.cache";
+
     private Context context;
-    private SoundIdentityFactory soundIdentityFactory;
+    private MetaDataCache metaDataCache;
+    private LatencyRecorder probeTime;
 
     /**
      * Creates a new SoundLoader object
@@ -36,98 +39,203 @@ class SoundLoader {
      * @param context the context of the addOn, mostly used for logging here
      */
     SoundLoader(Context context) {
+        this(context, new LatencyRecorder());
+    }
+
+    /**
+     * Creates a new SoundLoader object
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param probeTime the recorder of the time it takes to read the meta data of a sound
+     */
+    SoundLoader(Context context, LatencyRecorder probeTime) {
+        this(context, new File(context.getFiles().getResourceLocation(), META_DATA_CACHE_NAME), probeTime);
+    }
+
+    /**
+     * Creates a new SoundLoader object
+     *
+     * @param context the context of the addOn, mostly used for logging here
+     * @param metaDataCacheFile the file in which the meta data cache is stored
+     * @param probeTime the recorder of the time it takes to read the meta data of a sound
+     */
+    SoundLoader(Context context, File metaDataCacheFile, LatencyRecorder probeTime) {
         this.context = context;
-        this.soundIdentityFactory = new SoundIdentityFactory();
+        this.metaDataCache = new MetaDataCache(context, metaDataCacheFile);
+        this.probeTime = probeTime;
+    }
+
+    /**
+     * Closes the meta data cache, the meta data that was not saved yet is saved right away
+     */
+    void close() {
+        metaDataCache.close();
     }
 
     /**
      * Converts a {@link Playlist} object from the music framework to the internal data structure used by the
      * SoundEngine to playback music.
      * <p>
-     *     In the process, it is determined if the trackInfo is a URL or a sound file, and if it should be cropped or
-     *     not
+     *     The track infos are not converted right away, but by the returned {@link PlayQueue} once they are needed
+     *     (see {@link #convertTrackInfo(TrackInfo, int)}).
      * </p>
      *
      * @param playlist the playlist to convert to the internal data structure
      * @return the internal data structure used by the SoundEngine
      */
-    HashMap<Integer, SoundIdentity> convertFromPlaylist(Playlist playlist) {
-        soundIdentityFactory.startNewSession();
-
-        HashMap<Integer, SoundIdentity> soundFileMap = new HashMap<>();
-
-        for (TrackInfo trackInfo : playlist.getQueue()) {
-            Optional<String> dataOpt = trackInfo.getData();
-
-            if (dataOpt.isPresent()) {
-                SoundInfo soundInfo = null;
-                String[] parts;
-                String data = dataOpt.get();
-
-                // See if the track info contains a file or a url, and transform it into a sound info
-                parts = data.split(PlaylistGenerator.DATA_SEPERATOR);
-
-                if (parts[0].equals(PlaylistGenerator.FILE_TYPE) && new File(parts[1]).exists()) {
-                    soundInfo = new SoundInfo(trackInfo, parts[1]);
-                } else if (parts[0].equals(PlaylistGenerator.URL_TYPE)) {
-                    try {
-                        URL url = URI.create(parts[1]).toURL();
-                        soundInfo = new SoundInfo(trackInfo, url);
-                    } catch (MalformedURLException e) {
-                        context.getLogger().error("Unable to turn given url into a URL object, skipping");
-                    }
-                }
+    PlayQueue convertFromPlaylist(Playlist playlist) {
+        return new PlayQueue(this, playlist.getQueue());
+    }
 
-                if (soundInfo != null) {
-                    addSoundInfoToMap(soundFileMap, soundInfo, parts);
-                }
-            }
+    /**
+     * Converts a single {@link TrackInfo} object from the music framework to the internal data structure used by the
+     * SoundEngine to playback music.
+     * <p>
+     *     In the process, it is determined if the trackInfo is a URL or a sound file, and if it should be cropped or
+     *     not
+     * </p>
+     *
+     * @param trackInfo the track info to convert
+     * @param index the position of the track info in its playlist, used as the id of the sound identity
+     * @return the sound identity of the track info, or null if it can not be played
+     */
+    SoundIdentity convertTrackInfo(TrackInfo trackInfo, int index) {
+        Optional<String> dataOpt = trackInfo.getData();
+        if (!dataOpt.isPresent()) {
+            return null;
         }
 
-        return soundFileMap;
-    }
-
-    private void addSoundInfoToMap(HashMap<Integer, SoundIdentity> soundFileMap, SoundInfo soundInfo, String[] parts) {
-        int start = -1;
-        int duration = -1;
-        try {
-            if (parts.length >= 3) {
-                start = Integer.parseInt(parts[2]);
-            }
+        TrackData data = TrackData.parse(dataOpt.get());
+        if (data == null) {
+            return null;
+        }
 
-            if (parts.length >= 4) {
-                duration = Integer.parseInt(parts[3]);
+        // See if the track info contains a file or a url, and transform it into a sound info
+        SoundInfo soundInfo = null;
+        if (data.isFile() && new File(data.getLocation()).exists()) {
+            soundInfo = new SoundInfo(trackInfo, data.getLocation());
+        } else if (data.isURL()) {
+            try {
+                URL url = URI.create(data.getLocation()).toURL();
+                soundInfo = new SoundInfo(trackInfo, url);
+            } catch (MalformedURLException | IllegalArgumentException e) {
+                context.getLogger().error("Unable to turn given url into a URL object, skipping");
             }
-        } catch (NumberFormatException e) {
-            context.getLogger().error("Start or end value for track info is not an integer, setting length of track to " +
-                    "full length");
         }
 
-        soundInfo.setStartTime(start);
-        soundInfo.setDurationTime(duration);
+        if (soundInfo == null) {
+            return null;
+        }
 
-        SoundIdentity soundIdentity = soundIdentityFactory.make(soundInfo);
-        soundFileMap.put(soundIdentity.getId(), soundIdentity);
+        soundInfo.setStartTime(data.getStartTime());
+        soundInfo.setDurationTime(data.getEndTime());
+        return new SoundIdentity(index, soundInfo);
     }
 
     /**
-     * Gets the metadata of the soundInfo, that is song name, artist, album etc. if the data is found and then updates
-     * the track info (inside the soundInfo) in its playlist as well.
+     * Gets the metadata of the soundInfo, that is song name, artist, album etc. if the data is found and then replaces
+     * the track info inside the soundInfo. The caller is responsible for updating the track info in its play queue as
+     * well.
+     * <p>
+     *     If the meta data was already read by {@link #probeMetaData(SoundInfo)}, it is not read again.
+     * </p>
      *
-     * @param playlist The playlist that contains the track info (inside the soundInfo)
      * @param soundInfo The soundInfo for which to get its meta data
+     * @return true if the track info of the soundInfo was replaced, else false
      */
-    Playlist getMetaData(Playlist playlist, SoundInfo soundInfo) {
+    boolean loadMetaData(SoundInfo soundInfo) {
+        if (soundInfo.getPath() == null) {
+            soundInfo.setFramesPerSecond(1);
+            return false;
+        } else if (soundInfo.getHasMetaData()) {
+            return false;
+        }
+
+        TrackInfo trackInfo = soundInfo.getProbedTrackInfo();
+        if (trackInfo == null) {
+            trackInfo = probeMetaData(soundInfo);
+        }
+        if (trackInfo == null) {
+            return false;
+        }
+
+        soundInfo.setTrackInfo(trackInfo);
+        soundInfo.setHasMetaData(true);
+        return true;
+    }
+
+    /**
+     * Reads the metadata of the soundInfo, that is song name, artist, album etc. if the data is found, without updating
+     * the sound info. This way the meta data of a sound can be read before it is played, the sound info is then updated
+     * by {@link #loadMetaData(SoundInfo)}.
+     * <p>
+     *     The sound file is only parsed if its meta data is not in the {@link MetaDataCache} yet.
+     * </p>
+     *
+     * @param soundInfo The soundInfo for which to read its meta data
+     * @return the track info containing the meta data, or null if the meta data could not be read
+     */
+    TrackInfo probeMetaData(SoundInfo soundInfo) {
+        if (soundInfo.getProbedTrackInfo() != null) {
+            return soundInfo.getProbedTrackInfo();
+        }
+
         soundInfo.setFramesPerSecond(1);
+        if (soundInfo.getPath() == null) {
+            return null;
+        }
+
+        Object event = PlaybackEvents.beginMetaDataProbe();
+        long start = System.nanoTime();
+        MetaData metaData = readMetaData(soundInfo.getPath());
+        probeTime.recordSince(start);
+        PlaybackEvents.endMetaDataProbe(event, soundInfo, metaData != null);
+        if (metaData == null) {
+            return null;
+        }
+
+        TrackInfo trackInfo = soundInfo.getTrackInfo();
 
-        if (soundInfo.getPath() == null || soundInfo.getHasMetaData()) {
-            return playlist;
+        // In case the name is not found using the id3v1 tag, use the previously extracted name instead, if it is
+        // also not null
+        String name = metaData.getName();
+        if (trackInfo.getName().isPresent() && trackInfo.getName().get() != null && name == null) {
+            name = trackInfo.getName().get();
+        }
+
+        final TrackInfo finalTrackInfo = trackInfo;
+        trackInfo = new TrackInfo(name, metaData.getArtist(), metaData.getAlbum(),
+                trackInfo.getAlbumCover().orElse(null), trackInfo.getAlbumCover()
+                        .flatMap(unused -> finalTrackInfo.getAlbumCoverFormat()).orElse(null),
+                trackInfo.getData().orElse(null), metaData.getYear(), metaData.getGenre(),
+                trackInfo.getBmp().orElse(null), metaData.getDuration());
+
+        soundInfo.setFramesPerSecond(metaData.getFramesPerSecond());
+        soundInfo.setProbedTrackInfo(trackInfo);
+        return trackInfo;
+    }
+
+    /**
+     * Gets the meta data of the sound file at {@code path} from the meta data cache, or parses the file if it is not
+     * cached yet (or if it has changed since)
+     *
+     * @param path the path to the sound file
+     * @return the meta data of the sound file, or null if it could not be read
+     */
+    private MetaData readMetaData(String path) {
+        File file = new File(path);
+        long fileSize = file.length();
+        long lastModified = file.lastModified();
+
+        MetaData metaData = metaDataCache.get(path, fileSize, lastModified);
+        if (metaData != null) {
+            return metaData;
         }
 
         try {
-            Mp3File mp3file = new Mp3File(soundInfo.getPath());
-            long framesPerSecond = mp3file.getFrameCount() / mp3file.getLengthInSeconds();
-            long duration = mp3file.getLengthInMilliseconds();
+            Mp3File mp3file = new Mp3File(path);
+            long framesPerSecond = mp3file.getLengthInSeconds() > 0
+                    ? mp3file.getFrameCount() / mp3file.getLengthInSeconds() : mp3file.getFrameCount();
 
             String name = null;
             String artist = null;
@@ -143,31 +251,38 @@ class SoundLoader {
                 genre = id3v1Tag.getGenre() + " " + id3v1Tag.getGenreDescription();
             }
 
-            TrackInfo trackInfo = soundInfo.getTrackInfo();
-
-            // In case the name is not found using the id3v1 tag, use the previously extracted name instead, if it is
-            // also not null
-            if (trackInfo.getName().isPresent() && trackInfo.getName().get() != null && name == null) {
-                name = trackInfo.getName().get();
-            }
-
-            final TrackInfo finalTrackInfo = trackInfo;
-            trackInfo = new TrackInfo(name, artist, album,
-                    trackInfo.getAlbumCover().orElse(null), trackInfo.getAlbumCover()
-                            .flatMap(unused -> finalTrackInfo.getAlbumCoverFormat()).orElse(null),
-                    trackInfo.getData().orElse(null), year, genre, trackInfo.getBmp().orElse(null), duration);
-
-            Playlist newPlaylist = playlist.update(soundInfo.getTrackInfo(), trackInfo);
+            metaData = new MetaData(fileSize, lastModified, name, artist, album, year, genre,
+                    mp3file.getLengthInMilliseconds(), framesPerSecond, mp3file.getFrameCount());
+            metaDataCache.put(path, metaData);
+            return metaData;
+        } catch (IOException | UnsupportedTagException | InvalidDataException e) {
+            context.getLogger().error("Error getting meta data for sound file: " + path, e);
+        }
 
-            soundInfo.setTrackInfo(trackInfo);
-            soundInfo.setFramesPerSecond(framesPerSecond);
-            soundInfo.setHasMetaData(true);
+        return null;
+    }
 
-            return newPlaylist;
-        } catch (IOException | UnsupportedTagException | InvalidDataException e) {
-            context.getLogger().error("Error getting meta data for sound file: " + soundInfo.getPath(), e);
+    /**
+     * Gets the frame index of the soundInfo, it is built the first time it is needed. Only sound files have a frame
+     * index, for URLs null is returned.
+     *
+     * @param soundInfo The soundInfo for which to get the frame index
+     * @return the frame index of the sound file, or null if there is none
+     */
+    FrameIndex getFrameIndex(SoundInfo soundInfo) {
+        if (soundInfo.getPath() == null) {
+            return null;
         }
 
-        return playlist;
+        synchronized (soundInfo) {
+            if (soundInfo.getFrameIndex() == null) {
+                try {
+                    soundInfo.setFrameIndex(FrameIndex.build(soundInfo.getPath()));
+                } catch (IOException e) {
+                    context.getLogger().error("Unable to build the frame index of " + soundInfo.getPath(), e);
+                }
+            }
+            return soundInfo.getFrameIndex();
+        }
     }
 }
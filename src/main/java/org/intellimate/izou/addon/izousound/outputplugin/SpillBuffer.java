@@ -0,0 +1,222 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+/**
+ * The SpillBuffer keeps all bytes that were downloaded for a URL track, so that the track can be played again from any
+ * position that was already downloaded (after pausing or jumping back) without downloading it again.
+ * <p>
+ *     The first {@link #MEMORY_LIMIT} bytes are kept in memory, all following bytes are spilled into a temporary file.
+ *     The buffer is bounded by a maximum size: once it is exceeded (or the temporary file can not be written), no more
+ *     bytes are appended and the buffer is marked as incomplete. The bytes it holds can still be read by the stream
+ *     that is replaying them, but it can not be used to resume the track anymore.
+ * </p>
+ * <p>
+ *     Only one {@link ReadAheadStream} at a time may append to the buffer, it becomes the writer of the buffer with
+ *     {@link #setWriter(Object)}. Appends from any other stream (for example the one that was just closed, but whose
+ *     background thread is still finishing a read) are ignored.
+ * </p>
+ */
+class SpillBuffer {
+    static final int MEMORY_LIMIT = 4 * 1024 * 1024;
+    static final int DEFAULT_MAX_SIZE = 128 * 1024 * 1024;
+
+    private final long maxSize;
+    private byte[] memory;
+    private RandomAccessFile spillFile;
+    private File file;
+    private long length;
+    private long contentLength;
+    private String etag;
+    private long lastModified;
+    private boolean complete;
+    private boolean released;
+    private Object writer;
+
+    /**
+     * Creates a new empty SpillBuffer
+     *
+     * @param maxSize the maximum amount of bytes the buffer holds
+     */
+    SpillBuffer(long maxSize) {
+        this.maxSize = maxSize;
+        this.memory = new byte[64 * 1024];
+        this.length = 0;
+        this.contentLength = -1;
+        this.complete = true;
+        this.released = false;
+    }
+
+    /**
+     * Makes {@code writer} the only stream that may append to the buffer
+     *
+     * @param writer the stream that appends to the buffer from now on, or null to stop all appends
+     */
+    synchronized void setWriter(Object writer) {
+        this.writer = writer;
+    }
+
+    /**
+     * Appends downloaded bytes to the buffer. If the buffer is full or the bytes can not be spilled, the buffer is
+     * marked as incomplete.
+     *
+     * @param writer the stream that downloaded the bytes
+     * @param source the downloaded bytes
+     * @param offset the index of the first byte in {@code source}
+     * @param count the amount of bytes to append
+     */
+    synchronized void append(Object writer, byte[] source, int offset, int count) {
+        if (writer != this.writer || !complete) {
+            return;
+        } else if (length + count > maxSize) {
+            complete = false;
+            return;
+        }
+
+        int toMemory = (int) Math.max(Math.min(count, MEMORY_LIMIT - length), 0);
+        if (toMemory > 0) {
+            int needed = (int) length + toMemory;
+            if (needed > memory.length) {
+                memory = Arrays.copyOf(memory, Math.min(Math.max(memory.length * 2, needed), MEMORY_LIMIT));
+            }
+            System.arraycopy(source, offset, memory, (int) length, toMemory);
+        }
+
+        if (toMemory < count) {
+            try {
+                if (spillFile == null) {
+                    file = File.createTempFile("izousound", ".spill");
+                    file.deleteOnExit();
+                    spillFile = new RandomAccessFile(file, "rw");
+                }
+                spillFile.seek(length + toMemory - MEMORY_LIMIT);
+                spillFile.write(source, offset + toMemory, count - toMemory);
+            } catch (IOException e) {
+                complete = false;
+                return;
+            }
+        }
+        length += count;
+    }
+
+    /**
+     * Reads bytes that were appended before
+     *
+     * @param position the position of the first byte to read
+     * @param target the array to read the bytes into
+     * @param offset the index in {@code target} to read the first byte into
+     * @param count the maximum amount of bytes to read
+     * @return the amount of bytes read, or -1 if {@code position} is at or after the end of the buffer
+     * @throws IOException thrown if the buffer was released or the temporary file could not be read
+     */
+    synchronized int read(long position, byte[] target, int offset, int count) throws IOException {
+        if (released) {
+            throw new IOException("Spill buffer was released");
+        } else if (position >= length) {
+            return -1;
+        }
+
+        count = (int) Math.min(count, length - position);
+        if (position < MEMORY_LIMIT) {
+            count = (int) Math.min(count, MEMORY_LIMIT - position);
+            System.arraycopy(memory, (int) position, target, offset, count);
+            return count;
+        }
+        spillFile.seek(position - MEMORY_LIMIT);
+        return spillFile.read(target, offset, count);
+    }
+
+    /**
+     * Gets the amount of bytes in the buffer
+     *
+     * @return the amount of bytes in the buffer
+     */
+    synchronized long getLength() {
+        return length;
+    }
+
+    /**
+     * Gets the size of the whole resource that is downloaded, -1 if it is unknown
+     *
+     * @return the size of the whole resource
+     */
+    synchronized long getContentLength() {
+        return contentLength;
+    }
+
+    /**
+     * Sets the size of the whole resource that is downloaded
+     *
+     * @param contentLength the size of the whole resource, -1 if it is unknown
+     */
+    synchronized void setContentLength(long contentLength) {
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Gets the ETag the server sent with the resource, null if there is none
+     *
+     * @return the ETag of the resource
+     */
+    synchronized String getETag() {
+        return etag;
+    }
+
+    /**
+     * Gets the modification time the server sent with the resource, 0 if there is none
+     *
+     * @return the modification time of the resource
+     */
+    synchronized long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Sets the validators the server sent with the resource, they identify the version of the resource that is
+     * downloaded
+     *
+     * @param etag the ETag of the resource, null if there is none
+     * @param lastModified the modification time of the resource, 0 if there is none
+     */
+    synchronized void setValidators(String etag, long lastModified) {
+        this.etag = etag;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns true if the buffer holds all bytes that were appended, so that it can be used to resume the track, else
+     * false
+     *
+     * @return true if the buffer holds all bytes that were appended, else false
+     */
+    synchronized boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Releases the memory and deletes the temporary file of the buffer, it can not be read from now on
+     */
+    synchronized void release() {
+        complete = false;
+        released = true;
+        writer = null;
+        memory = new byte[0];
+        if (spillFile != null) {
+            try {
+                spillFile.close();
+            } catch (IOException e) {
+                // Nothing to do here, the file is deleted anyways
+            }
+            spillFile = null;
+        }
+        if (file != null) {
+            if (!file.delete()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+}
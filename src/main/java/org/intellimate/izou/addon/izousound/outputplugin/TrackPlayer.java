@@ -0,0 +1,283 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.decoder.SampleBuffer;
+import javazoom.jl.player.AudioDevice;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The TrackPlayer decodes a single sound file frame by frame and writes the decoded samples to an {@link AudioDevice}.
+ * <p>
+ *     Unlike the {@link javazoom.jl.player.advanced.AdvancedPlayer}, the track player neither opens nor closes the
+ *     audio device, it is owned by the {@link SoundEngine}. This way the engine can hand the device over to the next
+ *     track without draining it. Furthermore, the first frames of a track can be decoded with
+ *     {@link #prepare(int, int, int)} while the previous track is still playing, so that there is no gap between the
+ *     two tracks.
+ * </p>
+ * <p>
+ *     The decoder, the bitstream and the buffers for the frames decoded in advance are taken from a
+ *     {@link DecoderPool.Slot}, which is released once the track player is closed.
+ * </p>
+ */
+class TrackPlayer {
+    private final SoundIdentity soundIdentity;
+    private final InputStream inputStream;
+    private final DecoderPool.Slot slot;
+    private final Bitstream bitstream;
+    private final Decoder decoder;
+
+    private short[][] prerollBuffers;
+    private int[] prerollLengths;
+    private int prerollCount;
+    private int prerollPosition;
+    private int frame;
+    private float millisecondsPerFrame;
+    private boolean endOfStream;
+    private volatile boolean closed;
+
+    /**
+     * Creates a new TrackPlayer that decodes the sound in {@code inputStream}
+     *
+     * @param soundIdentity the sound identity of the sound that is played
+     * @param inputStream the input stream of the sound file or URL
+     */
+    TrackPlayer(SoundIdentity soundIdentity, InputStream inputStream) {
+        this(soundIdentity, inputStream, 0);
+    }
+
+    /**
+     * Creates a new TrackPlayer that decodes the sound in {@code inputStream}, which has already been positioned at the
+     * start of {@code firstFrame} (for example with a {@link FrameIndex})
+     *
+     * @param soundIdentity the sound identity of the sound that is played
+     * @param inputStream the input stream of the sound file or URL
+     * @param firstFrame the index of the frame the input stream starts with
+     */
+    TrackPlayer(SoundIdentity soundIdentity, InputStream inputStream, int firstFrame) {
+        this(soundIdentity, inputStream, DecoderPool.unpooled(inputStream), firstFrame);
+    }
+
+    /**
+     * Creates a new TrackPlayer that decodes the sound in {@code inputStream} with the decoder of {@code slot}
+     *
+     * @param soundIdentity the sound identity of the sound that is played
+     * @param inputStream the input stream of the sound file or URL
+     * @param slot the slot of the decoder pool that decodes {@code inputStream}
+     * @param firstFrame the index of the frame the input stream starts with
+     */
+    TrackPlayer(SoundIdentity soundIdentity, InputStream inputStream, DecoderPool.Slot slot, int firstFrame) {
+        this.soundIdentity = soundIdentity;
+        this.inputStream = inputStream;
+        this.slot = slot;
+        this.bitstream = slot.getBitstream();
+        this.decoder = slot.getDecoder();
+        this.prerollCount = 0;
+        this.prerollPosition = 0;
+        this.frame = firstFrame;
+        this.millisecondsPerFrame = 0;
+        this.endOfStream = false;
+        this.closed = false;
+    }
+
+    /**
+     * Skips all frames up to {@code startFrame} and then decodes the next {@code prerollFrames} frames into memory, so
+     * that they can be written to the audio device right away once {@link #playFrame(AudioDevice, int)} is called.
+     * No frame at or after {@code endFrame} is decoded.
+     *
+     * @param startFrame the frame where the playback should start at
+     * @param endFrame the frame where the playback should stop at
+     * @param prerollFrames the amount of frames to decode in advance
+     * @throws JavaLayerException thrown if the sound could not be read or decoded
+     */
+    void prepare(int startFrame, int endFrame, int prerollFrames) throws JavaLayerException {
+        while (frame < startFrame && !endOfStream && !closed) {
+            Header header = readFrame();
+            if (header == null) {
+                endOfStream = true;
+            } else {
+                millisecondsPerFrame = header.ms_per_frame();
+                bitstream.closeFrame();
+                frame++;
+            }
+        }
+
+        prerollBuffers = slot.getPrerollBuffers(prerollFrames);
+        prerollLengths = slot.getPrerollLengths();
+        while (prerollCount < prerollFrames && frame < endFrame && !endOfStream && !closed) {
+            SampleBuffer output = decodeFrame();
+            if (output != null) {
+                prerollLengths[prerollCount] = output.getBufferLength();
+                System.arraycopy(output.getBuffer(), 0, prerollBuffers[prerollCount], 0, output.getBufferLength());
+                prerollCount++;
+            }
+        }
+    }
+
+    /**
+     * Plays the next frame of the sound on {@code audioDevice}, the frames decoded by
+     * {@link #prepare(int, int, int)} are played first. The audio device is neither flushed nor closed at the end of
+     * the playback.
+     *
+     * @param audioDevice the (already opened) audio device to write the decoded samples to
+     * @param endFrame the frame where the playback should stop at
+     * @return true if a frame was played, false if {@code endFrame} or the end of the sound was reached, or if the
+     *         track player was closed
+     * @throws JavaLayerException thrown if the sound could not be read, decoded or played
+     */
+    boolean playFrame(AudioDevice audioDevice, int endFrame) throws JavaLayerException {
+        if (closed) {
+            return false;
+        }
+
+        if (prerollPosition < prerollCount) {
+            audioDevice.write(prerollBuffers[prerollPosition], 0, prerollLengths[prerollPosition]);
+            prerollPosition++;
+            return true;
+        }
+
+        if (frame >= endFrame || endOfStream) {
+            return false;
+        }
+
+        SampleBuffer output = decodeFrame();
+        if (output == null) {
+            return false;
+        }
+        audioDevice.write(output.getBuffer(), 0, output.getBufferLength());
+        return true;
+    }
+
+    // Decodes the next frame, returns null if the end of the stream was reached
+    private SampleBuffer decodeFrame() throws JavaLayerException {
+        Header header = readFrame();
+        if (header == null) {
+            endOfStream = true;
+            return null;
+        }
+
+        millisecondsPerFrame = header.ms_per_frame();
+        SampleBuffer output;
+        try {
+            output = (SampleBuffer) decoder.decodeFrame(header, bitstream);
+        } catch (JavaLayerException | RuntimeException e) {
+            slot.invalidate();
+            throw e;
+        }
+        bitstream.closeFrame();
+        frame++;
+        return output;
+    }
+
+    // Reads the header of the next frame, a decoder whose bitstream failed is not reused
+    private Header readFrame() throws JavaLayerException {
+        try {
+            return bitstream.readFrame();
+        } catch (JavaLayerException | RuntimeException e) {
+            slot.invalidate();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes the track player and the input stream of the sound, the decoder is released to its pool. Has to be
+     * called by the thread that decodes the sound, or once it stopped decoding.
+     */
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+            // Nothing to do here, the input stream is closed anyways
+        }
+        slot.release();
+    }
+
+    /**
+     * Gets the sound identity of the sound that is played
+     *
+     * @return the sound identity of the sound that is played
+     */
+    SoundIdentity getSoundIdentity() {
+        return soundIdentity;
+    }
+
+    /**
+     * Gets the input stream the track player decodes
+     *
+     * @return the input stream of the sound file or URL
+     */
+    InputStream getInputStream() {
+        return inputStream;
+    }
+
+    /**
+     * Gets the decoder of the track player, it determines the output format of the audio device
+     *
+     * @return the decoder of the track player
+     */
+    Decoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * Gets the index of the next frame that is going to be played
+     *
+     * @return the index of the next frame that is going to be played
+     */
+    int getFrame() {
+        return frame - (prerollCount - prerollPosition);
+    }
+
+    /**
+     * Gets the duration of a frame in milliseconds, or 0 if no frame has been read yet
+     *
+     * @return the duration of a frame in milliseconds
+     */
+    float getMillisecondsPerFrame() {
+        return millisecondsPerFrame;
+    }
+
+    /**
+     * Returns true if the next frame played was already decoded by {@link #prepare(int, int, int)}, else false
+     *
+     * @return true if the next frame played is already decoded, else false
+     */
+    boolean isPrerolled() {
+        return prerollPosition < prerollCount;
+    }
+
+    /**
+     * Returns true if the next frame can be played without waiting for the input stream, else false. Only a URL that
+     * is still being downloaded can hold up the track player, see {@link ReadAheadStream#isReady()}.
+     *
+     * @return true if the next frame can be played right away, else false
+     */
+    boolean isReady() {
+        if (closed || endOfStream || isPrerolled()) {
+            return true;
+        }
+
+        InputStream source = inputStream;
+        if (source instanceof MeteredInputStream) {
+            source = ((MeteredInputStream) source).getSource();
+        }
+        return !(source instanceof ReadAheadStream) || ((ReadAheadStream) source).isReady();
+    }
+
+    /**
+     * Returns true if the track player was closed, else false
+     *
+     * @return true if the track player was closed, else false
+     */
+    boolean isClosed() {
+        return closed;
+    }
+}
@@ -0,0 +1,80 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+/**
+ * The VolumeControl applies the volume to decoded samples right before they are written to the output line. The
+ * samples are scaled in place with a fixed point gain, so no memory is allocated while playing.
+ * <p>
+ *     Volume changes are not applied at once but ramped over {@link #RAMP_MILLISECONDS}, since jumping from one gain
+ *     to another in the middle of a sound can be heard as a click. The volume can be set from any thread, the samples
+ *     are only scaled by the output thread of the {@link OutputDevice}.
+ * </p>
+ */
+class VolumeControl {
+    static final int RAMP_MILLISECONDS = 20;
+
+    private static final int GAIN_BITS = 16;
+    private static final int UNITY_GAIN = 1 << GAIN_BITS;
+
+    private volatile int targetGain;
+    // Only used by the output thread
+    private int gain;
+
+    /**
+     * Creates a new VolumeControl at full volume
+     */
+    VolumeControl() {
+        this.targetGain = UNITY_GAIN;
+        this.gain = UNITY_GAIN;
+    }
+
+    /**
+     * Sets the volume from 0 - 100. The volume is mapped to the gain on a square curve, which is closer to how loudness
+     * is perceived than a linear one.
+     *
+     * @param volume volume level (from 0 - 100)
+     */
+    void setVolume(double volume) {
+        double level = Math.min(Math.max(volume, 0), 100) / 100;
+        this.targetGain = (int) Math.round(level * level * UNITY_GAIN);
+    }
+
+    /**
+     * Applies the volume to {@code samples} in place
+     *
+     * @param samples the interleaved samples to scale
+     * @param length the amount of samples in {@code samples} to scale
+     * @param channels the amount of channels of the samples
+     * @param frequency the sample frequency of the samples, used to determine the length of the ramp
+     */
+    void apply(short[] samples, int length, int channels, int frequency) {
+        int target = targetGain;
+        int current = gain;
+        if (current == target) {
+            if (current == UNITY_GAIN) {
+                return;
+            }
+            for (int i = 0; i < length; i++) {
+                samples[i] = (short) (samples[i] * current >> GAIN_BITS);
+            }
+            return;
+        }
+
+        // The gain changes by the same step every sample frame, so that a full ramp takes RAMP_MILLISECONDS
+        int rampFrames = Math.max(frequency * RAMP_MILLISECONDS / 1000, 1);
+        int step = Math.max(UNITY_GAIN / rampFrames, 1);
+        channels = Math.max(channels, 1);
+        for (int i = 0; i < length; i += channels) {
+            if (current < target) {
+                current = Math.min(current + step, target);
+            } else if (current > target) {
+                current = Math.max(current - step, target);
+            }
+
+            int end = Math.min(i + channels, length);
+            for (int j = i; j < end; j++) {
+                samples[j] = (short) (samples[j] * current >> GAIN_BITS);
+            }
+        }
+        gain = current;
+    }
+}
@@ -0,0 +1,116 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.intellimate.izou.sdk.frameworks.music.player.template.Player;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AudioPlayerControllerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void concurrentPlayRequests() throws IOException, InterruptedException {
+        RecordingController controller = new RecordingController(new TestContext(folder.newFolder("resources")));
+        int posters = 4;
+        int requests = 2500;
+        String last = "last";
+        Thread activator = new Thread(() -> {
+            while (!controller.played.contains(last)) {
+                controller.activatorStarts();
+            }
+        });
+        activator.setDaemon(true);
+        activator.start();
+
+        Queue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < posters; p++) {
+            int poster = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < requests; i++) {
+                        String name = poster + ":" + i;
+                        // Playlists without a name (like the ones the player publishes) are posted as well
+                        if (i % 3 == 0) {
+                            controller.playPlaylist(new Playlist(Collections.singletonList(track(name))));
+                        } else if (i % 3 == 1) {
+                            controller.playPlaylist(new Playlist(Collections.singletonList(track(name)), null,
+                                    new ArrayList<>(), 0));
+                        } else {
+                            controller.playTrackInfo(track(name));
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        // The request posted after all others is the one the activator ends with
+        controller.playTrackInfo(track(last));
+        activator.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(activator.isAlive());
+
+        assertTrue("Posting failed: " + errors, errors.isEmpty());
+        List<String> played = new ArrayList<>(controller.played);
+        assertEquals(last, played.get(played.size() - 1));
+        assertTrue(played.size() <= posters * requests + 1);
+        // The requests of a poster are played in the order they were posted, a replaced request never comes back
+        int[] previous = new int[posters];
+        Arrays.fill(previous, -1);
+        for (String name : played.subList(0, played.size() - 1)) {
+            String[] parts = name.split(":");
+            int poster = Integer.parseInt(parts[0]);
+            int request = Integer.parseInt(parts[1]);
+            assertTrue(name + " after " + previous[poster], request > previous[poster]);
+            previous[poster] = request;
+        }
+    }
+
+    private static TrackInfo track(String name) {
+        return new TrackInfo(name);
+    }
+
+    // Remembers the requests it was asked to play, instead of asking Izou to start the player
+    private static class RecordingController extends AudioPlayerController {
+        private final Queue<String> played = new ConcurrentLinkedQueue<>();
+
+        RecordingController(TestContext context) {
+            super(context, (Player) null);
+        }
+
+        @Override
+        public void startPlaying(Playlist playlist) {
+            played.add(playlist.getQueue().get(0).getName().orElse(""));
+        }
+
+        @Override
+        public void startPlaying(TrackInfo trackInfo) {
+            played.add(trackInfo.getName().orElse(""));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryIndexTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private File indexFile;
+    private File music;
+
+    @Before
+    public void setUp() throws IOException {
+        context = new TestContext(folder.newFolder("resources"));
+        indexFile = new File(folder.getRoot(), "library.index");
+        music = folder.newFolder("music");
+    }
+
+    @Test
+    public void searchesUnknownFolders() throws IOException {
+        File a = createSound("artist/album/a.mp3");
+        File b = createSound("b.wav");
+        assertTrue(new File(music, "cover.jpg").createNewFile());
+
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        assertEquals(Arrays.asList(a.getPath(), b.getPath()), index.getSoundFiles(music.getPath()));
+        assertEquals(3, index.size());
+        assertEquals(Collections.singletonList(b.getPath()), index.getSoundFiles(b.getPath()));
+    }
+
+    @Test
+    public void answersKnownFoldersFromMemory() throws IOException {
+        File a = createSound("artist/album/a.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        assertEquals(Collections.singletonList(a.getPath()), index.getSoundFiles(music.getPath()));
+
+        // Within the refresh interval the file system is not looked at
+        File b = createSound("artist/album/b.mp3");
+        assertEquals(Collections.singletonList(a.getPath()), index.getSoundFiles(music.getPath()));
+
+        index.refresh(music.getPath());
+        assertEquals(Arrays.asList(a.getPath(), b.getPath()), index.getSoundFiles(music.getPath()));
+    }
+
+    @Test
+    public void refreshRemovesDeletedFolders() throws IOException {
+        File a = createSound("artist/album/a.mp3");
+        File b = createSound("other/b.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        assertEquals(Arrays.asList(a.getPath(), b.getPath()), index.getSoundFiles(music.getPath()));
+
+        assertTrue(b.delete());
+        assertTrue(b.getParentFile().delete());
+        index.refresh(music.getPath());
+        assertEquals(Collections.singletonList(a.getPath()), index.getSoundFiles(music.getPath()));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void refreshesStaleFoldersInBackground() throws IOException, InterruptedException {
+        File a = createSound("a.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, 0);
+        assertEquals(Collections.singletonList(a.getPath()), index.getSoundFiles(music.getPath()));
+
+        File b = createSound("b.mp3");
+        long deadline = System.currentTimeMillis() + 10000;
+        while (index.getSoundFiles(music.getPath()).size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(Arrays.asList(a.getPath(), b.getPath()), index.getSoundFiles(music.getPath()));
+    }
+
+    @Test
+    public void savedIndexIsLoaded() throws IOException {
+        File a = createSound("artist/a.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        index.getSoundFiles(music.getPath());
+        index.save();
+
+        LibraryIndex loaded = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        assertEquals(2, loaded.size());
+        assertEquals(Collections.singletonList(a.getPath()), loaded.getSoundFiles(music.getPath()));
+    }
+
+    @Test
+    public void firstLookupAfterLoadSeesChanges() throws IOException {
+        File a = createSound("artist/a.mp3");
+        File b = createSound("other/b.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        index.getSoundFiles(music.getPath());
+        index.close();
+
+        // Changes made while the addOn was not running have to show up in the first lookup
+        assertTrue(b.delete());
+        assertTrue(b.getParentFile().delete());
+        File c = createSound("artist/c.mp3");
+        LibraryIndex loaded = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        assertEquals(Arrays.asList(a.getPath(), c.getPath()), loaded.getSoundFiles(music.getPath()));
+        loaded.close();
+    }
+
+    @Test
+    public void concurrentSavesKeepIndexReadable() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            createSound("folder" + i + "/a.mp3");
+        }
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        index.getSoundFiles(music.getPath());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> saves = new ArrayList<>();
+            for (int i = 0; i < 40; i++) {
+                saves.add(executor.submit(index::save));
+            }
+            for (Future<?> save : saves) {
+                save.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        index.close();
+
+        assertFalse(new File(indexFile.getPath() + ".tmp").exists());
+        assertEquals(21, new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL).size());
+    }
+
+    @Test
+    public void closeSavesPendingChanges() throws IOException {
+        File a = createSound("a.mp3");
+        LibraryIndex index = new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL);
+        index.getSoundFiles(music.getPath());
+        assertFalse(indexFile.exists());
+
+        index.close();
+        assertTrue(indexFile.exists());
+        assertEquals(Collections.singletonList(a.getPath()),
+                new LibraryIndex(context, indexFile, LibraryIndex.REFRESH_INTERVAL).getSoundFiles(music.getPath()));
+    }
+
+    private File createSound(String path) throws IOException {
+        File sound = new File(music, path);
+        assertTrue(sound.getParentFile().isDirectory() || sound.getParentFile().mkdirs());
+        assertTrue(sound.createNewFile());
+        return sound;
+    }
+}
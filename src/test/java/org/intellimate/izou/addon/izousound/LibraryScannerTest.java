@@ -0,0 +1,63 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LibraryScannerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private LibraryScanner scanner;
+
+    @Before
+    public void setUp() throws IOException {
+        scanner = new LibraryScanner(new TestContext(folder.newFolder("resources")));
+    }
+
+    @Test
+    public void findsSoundFilesInAllSubFolders() throws IOException, InterruptedException {
+        File music = folder.newFolder("music");
+        List<String> expected = new ArrayList<>();
+        for (int artist = 0; artist < 5; artist++) {
+            for (int album = 0; album < 4; album++) {
+                File albumFolder = new File(music, "artist" + artist + File.separator + "album" + album);
+                assertTrue(albumFolder.mkdirs());
+                for (int track = 0; track < 3; track++) {
+                    File sound = new File(albumFolder, track + (track == 2 ? ".wav" : ".mp3"));
+                    assertTrue(sound.createNewFile());
+                    expected.add(sound.getAbsolutePath());
+                }
+                assertTrue(new File(albumFolder, "cover.jpg").createNewFile());
+            }
+        }
+        File single = folder.newFile("single.mp3");
+        expected.add(single.getPath());
+
+        Queue<String> found = new ConcurrentLinkedQueue<>();
+        ScanProgress progress = scanner.scan(Arrays.asList(music.getPath(), single.getPath(), null,
+                new File(folder.getRoot(), "missing").getPath()), found::add);
+        progress.await();
+
+        assertTrue(progress.isDone());
+        assertEquals(expected.size(), progress.getFilesFound());
+        assertEquals(1 + 5 + 5 * 4, progress.getDirectoriesScanned());
+        List<String> sorted = new ArrayList<>(found);
+        Collections.sort(sorted);
+        Collections.sort(expected);
+        assertEquals(expected, sorted);
+    }
+}
@@ -0,0 +1,122 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RequestMailboxTest {
+    @Test
+    public void latestWins() throws InterruptedException {
+        RequestMailbox<String> mailbox = new RequestMailbox<>();
+        assertFalse(mailbox.post("first"));
+        assertTrue(mailbox.post("second"));
+        assertTrue(mailbox.post("third"));
+        assertEquals("third", mailbox.take());
+
+        // Once the request was taken, the next one does not replace anything
+        assertFalse(mailbox.post("fourth"));
+        assertEquals("fourth", mailbox.take());
+        assertEquals(4, mailbox.getPostedCount());
+        assertEquals(2, mailbox.getSupersededCount());
+    }
+
+    @Test
+    public void takeWaitsForRequest() throws InterruptedException {
+        RequestMailbox<String> mailbox = new RequestMailbox<>();
+        AtomicReference<String> taken = new AtomicReference<>();
+        CountDownLatch done = new CountDownLatch(1);
+        Thread consumer = new Thread(() -> {
+            try {
+                taken.set(mailbox.take());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        });
+        consumer.setDaemon(true);
+        consumer.start();
+
+        assertFalse(done.await(50, TimeUnit.MILLISECONDS));
+        mailbox.post("request");
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals("request", taken.get());
+    }
+
+    @Test
+    public void concurrentPostersAndTaker() throws InterruptedException {
+        RequestMailbox<Integer> mailbox = new RequestMailbox<>();
+        int posters = 4;
+        int requests = 10000;
+        int last = -1;
+        List<Integer> taken = new ArrayList<>();
+        Thread taker = new Thread(() -> {
+            try {
+                while (true) {
+                    Integer request = mailbox.take();
+                    taken.add(request);
+                    if (request == last) {
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        taker.setDaemon(true);
+        taker.start();
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < posters; p++) {
+            int poster = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int i = 0; i < requests; i++) {
+                    mailbox.post(poster * requests + i);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        }
+        // The request posted after all others is the one the taker ends with
+        mailbox.post(last);
+        taker.join(TimeUnit.SECONDS.toMillis(10));
+        assertFalse(taker.isAlive());
+
+        assertEquals(Integer.valueOf(last), taken.get(taken.size() - 1));
+        assertEquals(posters * requests + 1, mailbox.getPostedCount());
+        // Every request was either taken or replaced, none was lost or taken twice
+        assertEquals(mailbox.getPostedCount(), taken.size() + mailbox.getSupersededCount());
+        // The requests of a poster are taken in the order they were posted, a replaced request never comes back
+        int[] previous = new int[posters];
+        Arrays.fill(previous, -1);
+        for (int request : taken.subList(0, taken.size() - 1)) {
+            int poster = request / requests;
+            assertTrue(request + " after " + previous[poster], request > previous[poster]);
+            previous[poster] = request;
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNull() {
+        new RequestMailbox<String>().post(null);
+    }
+}
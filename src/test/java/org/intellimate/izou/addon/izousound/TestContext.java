@@ -0,0 +1,85 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.spi.ExtendedLogger;
+import org.intellimate.izou.addon.AddOnModel;
+import org.intellimate.izou.sdk.Context;
+import org.intellimate.izou.system.context.Files;
+
+import java.io.File;
+import java.lang.reflect.Proxy;
+
+/**
+ * The TestContext is a stand-in for the context Izou hands to the addOn, so that the tests can run parts of the addOn
+ * without Izou. It only provides a logger and a resource folder, everything else is missing. The property files the
+ * context creates are put into a temporary folder.
+ */
+public class TestContext extends Context {
+    private static final String ID = "org.intellimate.izou.addon.izousound.test";
+    private static final ExtendedLogger LOGGER = (ExtendedLogger) LogManager.getLogger(ID);
+    // The property files of the context can not be created without Izou, the errors about them are logged here
+    private static final ExtendedLogger CONTEXT_LOGGER = (ExtendedLogger) LogManager.getLogger(ID + ".context");
+    // The constructor of the context already asks for the addOn and the files, before the fields are set
+    private static final AddOnModel ADD_ON = proxy(AddOnModel.class, method -> "getID".equals(method) ? ID : null);
+    private static final File DEFAULT_LOCATION = createDefaultLocation();
+    private static final Files DEFAULT_FILES = proxy(Files.class,
+            method -> method.endsWith("Location") ? DEFAULT_LOCATION : null);
+
+    private final Files files;
+
+    /**
+     * Creates a new TestContext whose resource folder is {@code resourceLocation}
+     *
+     * @param resourceLocation the folder the addOn stores its caches and indexes in
+     */
+    public TestContext(File resourceLocation) {
+        super(proxy(org.intellimate.izou.system.Context.class, method -> null));
+        this.files = proxy(Files.class, method -> "getResourceLocation".equals(method) ? resourceLocation
+                : DEFAULT_FILES.getPropertiesLocation());
+    }
+
+    private static File createDefaultLocation() {
+        File location = new File(System.getProperty("java.io.tmpdir"), "izousound-test");
+        if (!location.isDirectory() && !location.mkdirs()) {
+            LOGGER.warn("Unable to create " + location);
+        }
+        return location;
+    }
+
+    @Override
+    public ExtendedLogger getLogger() {
+        return files != null ? LOGGER : CONTEXT_LOGGER;
+    }
+
+    @Override
+    public Files getFiles() {
+        return files != null ? files : DEFAULT_FILES;
+    }
+
+    @Override
+    public AddOnModel getAddOn() {
+        return ADD_ON;
+    }
+
+    // Creates a proxy that answers every call with the result of handler (false for methods returning a boolean)
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        Object proxy = Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (self, method, args) -> {
+            switch (method.getName()) {
+                case "equals":
+                    return self == args[0];
+                case "hashCode":
+                    return System.identityHashCode(self);
+                case "toString":
+                    return type.getSimpleName() + "@" + ID;
+                default:
+                    Object result = handler.handle(method.getName());
+                    return result == null && method.getReturnType() == boolean.class ? false : result;
+            }
+        });
+        return type.cast(proxy);
+    }
+
+    private interface Handler {
+        Object handle(String method);
+    }
+}
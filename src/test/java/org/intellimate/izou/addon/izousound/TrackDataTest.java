@@ -0,0 +1,57 @@
+package org.intellimate.izou.addon.izousound;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TrackDataTest {
+    @Test
+    public void roundTrip() {
+        String[] locations = {"/music/a.mp3", "http://example.com/stream?a=1&b=2", "/music/@@@/b.mp3",
+                "/music/a@@@12", "/music/a@@@-1@@@7", "C:\\Music\\\u00e4 \u00f6 \u00fc.wav"};
+        int[][] times = {{-1, -1}, {0, 1000}, {1500, -1}, {Integer.MAX_VALUE, Integer.MIN_VALUE}};
+        for (String location : locations) {
+            for (int[] time : times) {
+                String data = TrackData.encode(PlaylistGenerator.FILE_TYPE, location, time[0], time[1]);
+                TrackData trackData = TrackData.parse(data);
+                assertEquals(data, PlaylistGenerator.FILE_TYPE, trackData.getType());
+                assertEquals(data, location, trackData.getLocation());
+                assertEquals(data, time[0], trackData.getStartTime());
+                assertEquals(data, time[1], trackData.getEndTime());
+                assertEquals(data, trackData.encode());
+            }
+        }
+    }
+
+    @Test
+    public void parsesMissingTimes() {
+        TrackData trackData = TrackData.parse("URL@@@http://example.com/a.mp3");
+        assertTrue(trackData.isURL());
+        assertFalse(trackData.isFile());
+        assertEquals("http://example.com/a.mp3", trackData.getLocation());
+        assertEquals(-1, trackData.getStartTime());
+        assertEquals(-1, trackData.getEndTime());
+
+        trackData = TrackData.parse("FILE@@@/music/a.mp3@@@2000");
+        assertTrue(trackData.isFile());
+        assertEquals("/music/a.mp3", trackData.getLocation());
+        assertEquals(2000, trackData.getStartTime());
+        assertEquals(-1, trackData.getEndTime());
+
+        // Numbers that do not fit into an int belong to the location
+        trackData = TrackData.parse("FILE@@@/music/a.mp3@@@99999999999");
+        assertEquals("/music/a.mp3@@@99999999999", trackData.getLocation());
+        assertEquals(-1, trackData.getStartTime());
+    }
+
+    @Test
+    public void rejectsOtherFormats() {
+        assertNull(TrackData.parse("/music/a.mp3"));
+        assertNull(TrackData.parse("@@@/music/a.mp3"));
+        assertNull(TrackData.parse("FILE@@@"));
+        assertNull(TrackData.parse("FILE@@@@@@1@@@2"));
+    }
+}
@@ -0,0 +1,151 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class ContentCacheTest {
+    private static final int SIZE = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private File directory;
+    private byte[] content;
+    private TestServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        context = new TestContext(folder.newFolder("resources"));
+        directory = new File(folder.getRoot(), "content");
+        content = new byte[SIZE];
+        new Random(1).nextBytes(content);
+        server = new TestServer(content);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void notModifiedIsHit() throws IOException {
+        ContentCache cache = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        URL url = server.getURL();
+        assertNull(cache.open(url));
+        cache.store(url, spill(content, "\"1\""));
+
+        try (InputStream inputStream = cache.open(url)) {
+            assertNotNull(inputStream);
+            assertArrayEquals(content, ReadAheadStreamTest.readAll(inputStream));
+        }
+        assertEquals("\"1\"", server.getRequests().get(0).getFirst("If-None-Match"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRatio(), 0);
+        assertEquals(SIZE, cache.getBytesSaved());
+    }
+
+    @Test
+    public void changedIsMissAndRemoved() {
+        ContentCache cache = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        URL url = server.getURL();
+        cache.store(url, spill(content, "\"1\""));
+        assertEquals(SIZE, cache.getSize());
+
+        // The server answers the conditional request with the new version
+        server.setContent(new byte[SIZE], "\"2\"");
+        assertNull(cache.open(url));
+        assertEquals(0, cache.getSize());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getBytesSaved());
+    }
+
+    @Test
+    public void unreachableServerIsHit() throws IOException {
+        ContentCache cache = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        URL url = server.getURL();
+        cache.store(url, spill(content, "\"1\""));
+        server.close();
+
+        try (InputStream inputStream = cache.open(url)) {
+            assertNotNull(inputStream);
+        }
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        ContentCache cache = new ContentCache(context, directory, SIZE * 5 / 2);
+        URL first = new URL(server.getURL(), "/first.mp3");
+        URL second = new URL(server.getURL(), "/second.mp3");
+        URL third = new URL(server.getURL(), "/third.mp3");
+        cache.store(first, spill(content, "\"1\""));
+        cache.store(second, spill(content, "\"1\""));
+        // Playing the first track makes the second one the least recently used
+        cache.open(first).close();
+        cache.store(third, spill(content, "\"1\""));
+        assertEquals(2 * SIZE, cache.getSize());
+
+        // The index keeps the entries across restarts
+        cache.save();
+        ContentCache loaded = new ContentCache(context, directory, SIZE * 5 / 2);
+        assertEquals(2 * SIZE, loaded.getSize());
+        assertNull(loaded.open(second));
+        loaded.open(first).close();
+        loaded.open(third).close();
+        assertEquals(2, loaded.getHitCount());
+    }
+
+    @Test
+    public void closeSavesIndex() throws IOException {
+        ContentCache cache = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        URL url = server.getURL();
+        cache.store(url, spill(content, "\"1\""));
+        cache.close();
+
+        // The stored track is still known once the addOn is started again
+        ContentCache loaded = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        assertEquals(SIZE, loaded.getSize());
+        try (InputStream inputStream = loaded.open(url)) {
+            assertNotNull(inputStream);
+            assertArrayEquals(content, ReadAheadStreamTest.readAll(inputStream));
+        }
+        loaded.close();
+    }
+
+    @Test
+    public void incompleteIsNotStored() {
+        ContentCache cache = new ContentCache(context, directory, ContentCache.DEFAULT_BUDGET);
+        SpillBuffer spill = spill(content, "\"1\"");
+        spill.setContentLength(SIZE + 1);
+        cache.store(server.getURL(), spill);
+        cache.store(server.getURL(), spill(content, null));
+        assertEquals(0, cache.getSize());
+    }
+
+    // Creates a spill buffer holding the whole content, as a stream leaves it once the download is complete
+    private SpillBuffer spill(byte[] content, String etag) {
+        SpillBuffer spill = new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE);
+        spill.setWriter(this);
+        spill.append(this, content, 0, content.length);
+        spill.setContentLength(content.length);
+        spill.setValidators(etag, 0);
+        return spill;
+    }
+}
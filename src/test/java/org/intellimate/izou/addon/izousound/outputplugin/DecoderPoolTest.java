@@ -0,0 +1,183 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDevice;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that a reused decoder decodes every sound to exactly the samples a new decoder decodes it to, since the reuse
+ * depends on how JLayer keeps its state between frames.
+ */
+public class DecoderPoolTest {
+    @Test
+    public void reusedDecoderMatchesNewDecoder() throws IOException, JavaLayerException {
+        DecoderPool pool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+        // Changes the sample rate, the channel mode and the stereo mode between the sounds
+        byte[][] sounds = {
+                Mp3Frames.generate(30, 44100, Mp3Frames.STEREO, 1),
+                Mp3Frames.generate(30, 48000, Mp3Frames.MONO, 2),
+                Mp3Frames.generate(30, 44100, Mp3Frames.JOINT_STEREO, 3),
+                Mp3Frames.generate(30, 48000, Mp3Frames.MONO, 4),
+                Mp3Frames.generate(30, 44100, Mp3Frames.STEREO, 5),
+                Mp3Frames.generate(30, 32000, Mp3Frames.STEREO, 6),
+                Mp3Frames.generate(30, 48000, Mp3Frames.STEREO, 7),
+                Mp3Frames.generate(30, 44100, Mp3Frames.MONO, 8),
+                Mp3Frames.generate(30, 44100, Mp3Frames.JOINT_STEREO, 9)
+        };
+        for (int i = 0; i < sounds.length; i++) {
+            assertArrayEquals("sound " + i, decode(sounds[i], null), decode(sounds[i], pool));
+        }
+        // 44.1 kHz stereo and joint stereo, and 48 kHz mono share their decoders
+        assertEquals(3, pool.getReusedCount());
+        assertEquals(6, pool.getCreatedCount());
+    }
+
+    @Test
+    public void reusedDecoderMatchesNewDecoderAfterSoundClosedEarly() throws IOException, JavaLayerException {
+        DecoderPool pool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+        byte[] closed = Mp3Frames.generate(40, 44100, Mp3Frames.JOINT_STEREO, 10);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(closed);
+        TrackPlayer trackPlayer = new TrackPlayer(null, inputStream, pool.acquire(inputStream, true), 0);
+        trackPlayer.prepare(0, 7, SoundEngine.PREROLL_FRAMES);
+        trackPlayer.close();
+
+        byte[] next = Mp3Frames.generate(30, 44100, Mp3Frames.STEREO, 11);
+        assertArrayEquals(decode(next, null), decode(next, pool));
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void reusedDecoderMatchesNewDecoderWithTag() throws IOException, JavaLayerException {
+        DecoderPool pool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+        decode(Mp3Frames.generate(20, 44100, Mp3Frames.STEREO, 12), pool);
+
+        ByteArrayOutputStream tagged = new ByteArrayOutputStream();
+        tagged.write(new byte[]{'I', 'D', '3', 3, 0, 0, 0, 0, 1, 0});
+        tagged.write(new byte[128]);
+        tagged.write(Mp3Frames.generate(20, 44100, Mp3Frames.STEREO, 13));
+        assertArrayEquals(decode(tagged.toByteArray(), null), decode(tagged.toByteArray(), pool));
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    @Test
+    public void soundStartedInTheMiddleGetsNewDecoder() throws IOException, JavaLayerException {
+        DecoderPool pool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+        decode(Mp3Frames.generate(20, 44100, Mp3Frames.STEREO, 14), pool);
+
+        byte[] sound = Mp3Frames.generate(20, 44100, Mp3Frames.STEREO, 15);
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(sound);
+        pool.acquire(inputStream, false).release();
+        assertEquals(0, pool.getReusedCount());
+        assertEquals(2, pool.getCreatedCount());
+    }
+
+    @Test
+    public void pooledTransitionsAllocateLess() throws IOException, JavaLayerException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        if (!threadBean.isThreadAllocatedMemoryEnabled()) {
+            threadBean.setThreadAllocatedMemoryEnabled(true);
+        }
+
+        byte[] sound = Mp3Frames.generate(4, 44100, Mp3Frames.STEREO, 16);
+        DecoderPool pool = new DecoderPool(DecoderPool.DEFAULT_CAPACITY);
+        // Warms up both paths, so that loading classes is not measured
+        transitions(sound, null, 10);
+        transitions(sound, pool, 10);
+
+        long thread = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(thread);
+        transitions(sound, null, 100);
+        long unpooled = threadBean.getThreadAllocatedBytes(thread) - start;
+
+        start = threadBean.getThreadAllocatedBytes(thread);
+        transitions(sound, pool, 100);
+        long pooled = threadBean.getThreadAllocatedBytes(thread) - start;
+
+        assertTrue(unpooled >= 0 && pooled >= 0);
+        // A new decoder allocates about 270 KB, a reused one only what its frames need
+        assertTrue("pooled " + pooled + " bytes, unpooled " + unpooled + " bytes", pooled * 10 < unpooled);
+        assertEquals(110, pool.getReusedCount() + pool.getCreatedCount());
+    }
+
+    // Opens, prepares and closes the sound count times, with new decoders, or with decoders of the pool if not null
+    private static void transitions(byte[] sound, DecoderPool pool, int count) throws IOException, JavaLayerException {
+        for (int i = 0; i < count; i++) {
+            ByteArrayInputStream inputStream = new ByteArrayInputStream(sound);
+            TrackPlayer trackPlayer = pool == null
+                    ? new TrackPlayer(null, inputStream, 0)
+                    : new TrackPlayer(null, inputStream, pool.acquire(inputStream, true), 0);
+            trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+            trackPlayer.close();
+        }
+    }
+
+    // Decodes the whole sound with a new decoder, or with one of the pool if it is not null
+    private static short[] decode(byte[] sound, DecoderPool pool) throws IOException, JavaLayerException {
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(sound);
+        TrackPlayer trackPlayer = pool == null
+                ? new TrackPlayer(null, inputStream, 0)
+                : new TrackPlayer(null, inputStream, pool.acquire(inputStream, true), 0);
+        RecordingDevice device = new RecordingDevice();
+        try {
+            trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+            while (trackPlayer.playFrame(device, Integer.MAX_VALUE)) {
+                // The device keeps the samples of every frame
+            }
+        } finally {
+            trackPlayer.close();
+        }
+        return Arrays.copyOf(device.samples, device.length);
+    }
+
+    // Keeps the samples written to it
+    private static class RecordingDevice implements AudioDevice {
+        private short[] samples = new short[OutputDevice.MAX_FRAME_SAMPLES];
+        private int length;
+
+        @Override
+        public void open(Decoder decoder) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void write(short[] samples, int offset, int length) {
+            if (this.length + length > this.samples.length) {
+                this.samples = Arrays.copyOf(this.samples, Math.max(this.samples.length * 2, this.length + length));
+            }
+            System.arraycopy(samples, offset, this.samples, this.length, length);
+            this.length += length;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public int getPosition() {
+            return 0;
+        }
+    }
+}
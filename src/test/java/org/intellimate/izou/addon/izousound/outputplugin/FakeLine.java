@@ -0,0 +1,281 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Control;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.Line;
+import javax.sound.sampled.LineListener;
+import javax.sound.sampled.SourceDataLine;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An output line for the tests that plays into memory instead of a sound card. The samples written to it are consumed
+ * at the rate of its format (multiplied by a speed factor), so it drains, runs empty and reports its position like a
+ * real line.
+ * <p>
+ *     The line remembers how many bytes were written to it, and the longest gap it had: the longest time it was
+ *     running without any samples to play before new samples were written. Gaps caused by stopping, flushing or
+ *     draining the line are not counted.
+ * </p>
+ */
+final class FakeLine implements SourceDataLine {
+    private final double speed;
+    private AudioFormat format;
+    private int bufferSize;
+    private boolean open;
+    private boolean running;
+    private long buffered;
+    private long consumed;
+    private long written;
+    private double bytesPerNano;
+    private long lastUpdate;
+    // When the running line ran out of samples, -1 if it has samples or was stopped
+    private long emptySince;
+    private long longestGap;
+
+    /**
+     * Creates a new FakeLine that plays in real time
+     */
+    FakeLine() {
+        this(1);
+    }
+
+    /**
+     * Creates a new FakeLine that plays {@code speed} times faster than real time
+     *
+     * @param speed the factor of the playback speed
+     */
+    FakeLine(double speed) {
+        this.speed = speed;
+        this.emptySince = -1;
+    }
+
+    /**
+     * Gets the amount of bytes written to the line
+     *
+     * @return the amount of bytes written to the line
+     */
+    synchronized long getWrittenBytes() {
+        return written;
+    }
+
+    /**
+     * Gets the longest time the running line had no samples to play before new samples were written
+     *
+     * @param unit the unit of the returned time
+     * @return the longest gap in {@code unit}
+     */
+    synchronized long getLongestGap(TimeUnit unit) {
+        return unit.convert(longestGap, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Forgets the gaps the line had so far
+     */
+    synchronized void resetLongestGap() {
+        longestGap = 0;
+    }
+
+    // Consumes the samples that were played since the last update
+    private void update() {
+        long now = System.nanoTime();
+        if (running && buffered > 0) {
+            long playable = (long) ((now - lastUpdate) * bytesPerNano);
+            playable -= playable % format.getFrameSize();
+            if (playable >= buffered) {
+                emptySince = lastUpdate + (long) (buffered / bytesPerNano);
+                consumed += buffered;
+                buffered = 0;
+            } else {
+                consumed += playable;
+                buffered -= playable;
+                lastUpdate += (long) (playable / bytesPerNano);
+                return;
+            }
+        }
+        lastUpdate = now;
+    }
+
+    @Override
+    public synchronized void open(AudioFormat format, int bufferSize) {
+        this.format = format;
+        this.bytesPerNano = format.getFrameRate() * format.getFrameSize() * speed / TimeUnit.SECONDS.toNanos(1);
+        int size = bufferSize > 0 ? bufferSize : (int) (format.getFrameRate() / 2) * format.getFrameSize();
+        this.bufferSize = size - size % format.getFrameSize();
+        this.open = true;
+    }
+
+    @Override
+    public void open(AudioFormat format) {
+        open(format, AudioSystem.NOT_SPECIFIED);
+    }
+
+    @Override
+    public void open() {
+        if (format == null) {
+            throw new IllegalStateException("The line has no format yet");
+        }
+        open(format);
+    }
+
+    @Override
+    public int write(byte[] b, int off, int len) {
+        int remaining = len;
+        while (remaining > 0) {
+            synchronized (this) {
+                if (!open) {
+                    return len - remaining;
+                }
+                update();
+                int count = (int) Math.min(remaining, bufferSize - buffered);
+                if (count > 0) {
+                    if (running && emptySince >= 0) {
+                        longestGap = Math.max(longestGap, System.nanoTime() - emptySince);
+                    }
+                    emptySince = -1;
+                    buffered += count;
+                    written += count;
+                    remaining -= count;
+                    continue;
+                }
+            }
+            sleep();
+        }
+        return len;
+    }
+
+    @Override
+    public void drain() {
+        while (true) {
+            synchronized (this) {
+                update();
+                if (buffered == 0 || !running) {
+                    emptySince = -1;
+                    return;
+                }
+            }
+            sleep();
+        }
+    }
+
+    private static void sleep() {
+        try {
+            Thread.sleep(1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the line", e);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        update();
+        buffered = 0;
+        emptySince = -1;
+    }
+
+    @Override
+    public synchronized void start() {
+        update();
+        running = true;
+        lastUpdate = System.nanoTime();
+        emptySince = -1;
+    }
+
+    @Override
+    public synchronized void stop() {
+        update();
+        running = false;
+        emptySince = -1;
+    }
+
+    @Override
+    public synchronized void close() {
+        open = false;
+        running = false;
+        buffered = 0;
+    }
+
+    @Override
+    public synchronized boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public synchronized boolean isActive() {
+        update();
+        return running && buffered > 0;
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized AudioFormat getFormat() {
+        return format;
+    }
+
+    @Override
+    public synchronized int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Override
+    public synchronized int available() {
+        update();
+        return (int) (bufferSize - buffered);
+    }
+
+    @Override
+    public int getFramePosition() {
+        return (int) getLongFramePosition();
+    }
+
+    @Override
+    public synchronized long getLongFramePosition() {
+        update();
+        return format != null ? consumed / format.getFrameSize() : 0;
+    }
+
+    @Override
+    public synchronized long getMicrosecondPosition() {
+        update();
+        return format != null ? (long) (consumed / format.getFrameSize() * 1000000.0 / format.getFrameRate()) : 0;
+    }
+
+    @Override
+    public float getLevel() {
+        return AudioSystem.NOT_SPECIFIED;
+    }
+
+    @Override
+    public synchronized Line.Info getLineInfo() {
+        return new DataLine.Info(SourceDataLine.class, format);
+    }
+
+    @Override
+    public Control[] getControls() {
+        return new Control[0];
+    }
+
+    @Override
+    public boolean isControlSupported(Control.Type control) {
+        return false;
+    }
+
+    @Override
+    public Control getControl(Control.Type control) {
+        throw new IllegalArgumentException("Unsupported control: " + control);
+    }
+
+    @Override
+    public void addLineListener(LineListener listener) {
+    }
+
+    @Override
+    public void removeLineListener(LineListener listener) {
+    }
+}
@@ -0,0 +1,69 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class FrameIndexTest {
+    private static final int FRAME_SIZE = Mp3Frames.getFrameSize(44100);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void offsetsOfFramesAfterTag() throws IOException {
+        File file = folder.newFile("track.mp3");
+        Mp3Frames.write(file, 100, 1000);
+
+        FrameIndex frameIndex = FrameIndex.build(file.getPath());
+        assertEquals(100, frameIndex.getFrameCount());
+        for (int frame = 0; frame < 100; frame++) {
+            assertEquals(10 + 1000 + (long) frame * FRAME_SIZE, frameIndex.getOffset(frame));
+        }
+        assertEquals(-1, frameIndex.getOffset(-1));
+        assertEquals(-1, frameIndex.getOffset(100));
+    }
+
+    @Test
+    public void framesOfPositions() throws IOException {
+        File file = folder.newFile("track.mp3");
+        Mp3Frames.write(file, 100, 0);
+
+        FrameIndex frameIndex = FrameIndex.build(file.getPath());
+        assertEquals(1152 * 1000.0 / 44100, frameIndex.getMillisecondsPerFrame(), 1e-9);
+        assertEquals(0, frameIndex.getFrame(-5));
+        assertEquals(0, frameIndex.getFrame(26));
+        assertEquals(1, frameIndex.getFrame(27));
+        assertEquals(38, frameIndex.getFrame(1000));
+        assertEquals(99, frameIndex.getFrame(60000));
+    }
+
+    @Test
+    public void resynchronizesAfterGarbage() throws IOException {
+        byte[] frames = Mp3Frames.generate(10, 44100, Mp3Frames.STEREO, 1);
+        byte[] data = new byte[frames.length + 7];
+        System.arraycopy(frames, 0, data, 0, 5 * FRAME_SIZE);
+        System.arraycopy(frames, 5 * FRAME_SIZE, data, 5 * FRAME_SIZE + 7, 5 * FRAME_SIZE);
+
+        FrameIndex frameIndex = FrameIndex.build(new ByteArrayInputStream(data));
+        assertEquals(10, frameIndex.getFrameCount());
+        assertEquals(4L * FRAME_SIZE, frameIndex.getOffset(4));
+        assertEquals(5L * FRAME_SIZE + 7, frameIndex.getOffset(5));
+    }
+
+    @Test
+    public void incompleteLastFrameIsNotIndexed() throws IOException {
+        byte[] frames = Mp3Frames.generate(10, 44100, Mp3Frames.STEREO, 1);
+        byte[] data = Arrays.copyOf(frames, frames.length - 100);
+
+        FrameIndex frameIndex = FrameIndex.build(new ByteArrayInputStream(data));
+        assertEquals(9, frameIndex.getFrameCount());
+    }
+}
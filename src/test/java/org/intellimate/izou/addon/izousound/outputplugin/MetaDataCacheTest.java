@@ -0,0 +1,87 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class MetaDataCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private File cacheFile;
+
+    @Before
+    public void setUp() throws IOException {
+        context = new TestContext(folder.newFolder("resources"));
+        cacheFile = new File(folder.getRoot(), "metadata.cache");
+    }
+
+    @Test
+    public void roundTrip() throws IOException {
+        File sound = folder.newFile("a.mp3");
+        MetaDataCache cache = new MetaDataCache(context, cacheFile);
+        cache.put(sound.getPath(), metaData(sound, "A"));
+        cache.save();
+
+        MetaDataCache loaded = new MetaDataCache(context, cacheFile);
+        MetaData metaData = loaded.get(sound.getPath(), sound.length(), sound.lastModified());
+        assertNotNull(metaData);
+        assertEquals("A", metaData.getName());
+        assertNull(loaded.get(sound.getPath(), sound.length() + 1, sound.lastModified()));
+    }
+
+    @Test
+    public void pruneDropsDeletedAndChangedFiles() throws IOException {
+        File kept = folder.newFile("kept.mp3");
+        File deleted = folder.newFile("deleted.mp3");
+        File changed = folder.newFile("changed.mp3");
+        MetaDataCache cache = new MetaDataCache(context, cacheFile);
+        cache.put(kept.getPath(), metaData(kept, "kept"));
+        cache.put(deleted.getPath(), metaData(deleted, "deleted"));
+        cache.put(changed.getPath(), metaData(changed, "changed"));
+        cache.save();
+
+        assertTrue(deleted.delete());
+        Files.write(changed.toPath(), new byte[]{1, 2, 3});
+
+        // The cache is pruned in the background once it is loaded, pruning again finds the same state
+        MetaDataCache loaded = new MetaDataCache(context, cacheFile);
+        loaded.prune();
+        assertEquals(1, loaded.size());
+        assertNotNull(loaded.get(kept.getPath(), kept.length(), kept.lastModified()));
+
+        loaded.save();
+        assertEquals(1, new MetaDataCache(context, cacheFile).size());
+    }
+
+    @Test
+    public void closeSavesPendingEntries() throws IOException {
+        File sound = folder.newFile("a.mp3");
+        MetaDataCache cache = new MetaDataCache(context, cacheFile);
+        cache.put(sound.getPath(), metaData(sound, "A"));
+        assertFalse(cacheFile.exists());
+
+        cache.close();
+        assertTrue(cacheFile.exists());
+        assertNotNull(new MetaDataCache(context, cacheFile).get(sound.getPath(), sound.length(),
+                sound.lastModified()));
+    }
+
+    private static MetaData metaData(File sound, String name) {
+        return new MetaData(sound.length(), sound.lastModified(), name, "artist", "album", "2015", "genre", 1000, 38,
+                38);
+    }
+}
@@ -0,0 +1,138 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Generates MPEG 1 Layer III data for the tests. The frames have valid side info and random main data, so that they
+ * decode to noise instead of silence, which makes any state carried over by a decoder audible in the output.
+ */
+final class Mp3Frames {
+    static final int STEREO = 0;
+    static final int JOINT_STEREO = 1;
+    static final int MONO = 3;
+
+    private static final int BITRATE = 128000;
+    // The Huffman tables that exist, table 4 and 14 are not used
+    private static final int[] TABLES = {0, 1, 2, 3, 5, 6, 7, 8, 9, 10, 11, 12, 13, 15, 16, 24};
+
+    private Mp3Frames() {
+    }
+
+    /**
+     * Generates {@code frames} frames of 128 kbit/s
+     *
+     * @param frames the amount of frames
+     * @param sampleRate 32000, 44100 or 48000
+     * @param mode {@link #STEREO}, {@link #JOINT_STEREO} or {@link #MONO}
+     * @param seed the seed of the random main data
+     * @return the frames
+     */
+    static byte[] generate(int frames, int sampleRate, int mode, long seed) {
+        Random random = new Random(seed);
+        int channels = mode == MONO ? 1 : 2;
+        int sideInfoSize = channels == 1 ? 17 : 32;
+        int frameSize = 144 * BITRATE / sampleRate;
+        int sampleRateIndex = sampleRate == 44100 ? 0 : sampleRate == 48000 ? 1 : 2;
+        // The main data of every granule fits into its own frame, so that no frame refers to an earlier one
+        int mainDataBits = (frameSize - 4 - sideInfoSize) * 8 / (2 * channels);
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int frame = 0; frame < frames; frame++) {
+            BitWriter writer = new BitWriter(frameSize);
+            random.nextBytes(writer.bytes);
+            writer.clear(4 + sideInfoSize);
+
+            // Sync word, MPEG 1, Layer III, no CRC, 128 kbit/s, no padding
+            writer.write(0xFFFB, 16);
+            writer.write(9, 4);
+            writer.write(sampleRateIndex, 2);
+            writer.write(0, 2);
+            writer.write(mode, 2);
+            writer.write(mode == JOINT_STEREO ? random.nextInt(4) : 0, 2);
+            writer.write(0, 4);
+
+            // main_data_begin, private bits and scfsi
+            writer.write(0, 9);
+            writer.write(0, channels == 1 ? 5 : 3);
+            writer.write(0, 4 * channels);
+            for (int granule = 0; granule < 2 * channels; granule++) {
+                writer.write(mainDataBits - random.nextInt(mainDataBits / 4), 12);
+                writer.write(random.nextInt(200), 9);
+                writer.write(150 + random.nextInt(40), 8);
+                writer.write(random.nextInt(16), 4);
+                writer.write(0, 1);
+                for (int region = 0; region < 3; region++) {
+                    writer.write(TABLES[random.nextInt(TABLES.length)], 5);
+                }
+                writer.write(random.nextInt(16), 4);
+                writer.write(random.nextInt(8), 3);
+                writer.write(random.nextInt(2), 1);
+                writer.write(random.nextInt(2), 1);
+                writer.write(random.nextInt(2), 1);
+            }
+            output.write(writer.bytes, 0, frameSize);
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Writes {@code frames} frames of 44.1 kHz stereo to {@code file}, after an ID3v2 tag of {@code tagSize} bytes
+     *
+     * @param file the file to write
+     * @param frames the amount of frames
+     * @param tagSize the size of the ID3v2 tag, 0 for none
+     * @return the frames written
+     * @throws IOException thrown if the file could not be written
+     */
+    static byte[] write(File file, int frames, int tagSize) throws IOException {
+        byte[] data = generate(frames, 44100, STEREO, frames);
+        try (OutputStream output = new FileOutputStream(file)) {
+            if (tagSize > 0) {
+                output.write(new byte[]{'I', 'D', '3', 3, 0, 0, (byte) (tagSize >> 21 & 0x7F),
+                        (byte) (tagSize >> 14 & 0x7F), (byte) (tagSize >> 7 & 0x7F), (byte) (tagSize & 0x7F)});
+                output.write(new byte[tagSize]);
+            }
+            output.write(data);
+        }
+        return data;
+    }
+
+    /**
+     * Gets the size of a frame of 128 kbit/s
+     *
+     * @param sampleRate 32000, 44100 or 48000
+     * @return the size of a frame in bytes
+     */
+    static int getFrameSize(int sampleRate) {
+        return 144 * BITRATE / sampleRate;
+    }
+
+    private static class BitWriter {
+        private final byte[] bytes;
+        private int position;
+
+        private BitWriter(int size) {
+            this.bytes = new byte[size];
+        }
+
+        private void clear(int length) {
+            for (int i = 0; i < length; i++) {
+                bytes[i] = 0;
+            }
+        }
+
+        private void write(int value, int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                if ((value >>> i & 1) != 0) {
+                    bytes[position >> 3] |= (byte) (0x80 >>> (position & 7));
+                }
+                position++;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Bitstream;
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.Header;
+import javazoom.jl.decoder.JavaLayerException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The tests play into {@link FakeLine}s, so they run without a sound card
+ */
+public class OutputDeviceTest {
+    @Test
+    public void nothingIsOpenBeforeOpen() {
+        OutputDevice device = new OutputDevice(0, 0, 0, new VolumeControl());
+        assertFalse(device.isOpen());
+        assertFalse(device.isFull());
+        assertEquals(0, device.getBufferSize());
+        assertEquals(0, device.getRingBufferCapacity());
+        assertEquals(0, device.getOpenCount());
+        assertEquals(0, device.getPosition());
+    }
+
+    @Test
+    public void lineIsOnlyReopenedForNewFormat() throws JavaLayerException {
+        List<FakeLine> lines = new ArrayList<>();
+        OutputDevice device = new OutputDevice(OutputDevice.DEFAULT_LATENCY, 0, 200, new VolumeControl(),
+                format -> add(lines, new FakeLine()));
+        Decoder stereo = decoder(44100, Mp3Frames.STEREO);
+        try {
+            device.setFormat(stereo);
+            device.setFormat(stereo);
+            device.discard();
+            device.setFormat(decoder(44100, Mp3Frames.JOINT_STEREO));
+            assertEquals(1, device.getOpenCount());
+            assertEquals(0, device.getCloseCount());
+            // The ring buffer is rounded up to the next power of two
+            assertEquals(32768, device.getRingBufferCapacity());
+
+            device.setFormat(decoder(48000, Mp3Frames.MONO));
+            assertEquals(2, device.getOpenCount());
+            assertEquals(1, device.getCloseCount());
+            assertEquals(16384, device.getRingBufferCapacity());
+            assertEquals(2, lines.size());
+            assertFalse(lines.get(0).isOpen());
+        } finally {
+            device.close();
+        }
+        assertEquals(2, device.getCloseCount());
+    }
+
+    @Test
+    public void lineIsOpenedOnceForSessionOfSameFormat() throws JavaLayerException {
+        int tracks = 50;
+        int frames = 4;
+        List<FakeLine> lines = new ArrayList<>();
+        OutputDevice device = new OutputDevice(OutputDevice.DEFAULT_LATENCY, 0, 200, new VolumeControl(),
+                format -> add(lines, new FakeLine(20)));
+        try {
+            // Every track is handed the device the way the sound engine does it, without flushing it in between
+            for (int track = 0; track < tracks; track++) {
+                byte[] data = Mp3Frames.generate(frames, 44100, track % 2 == 0 ? Mp3Frames.STEREO
+                        : Mp3Frames.JOINT_STEREO, track);
+                TrackPlayer trackPlayer = new TrackPlayer(null, new ByteArrayInputStream(data));
+                trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+                device.setFormat(trackPlayer.getDecoder());
+                while (trackPlayer.playFrame(device, Integer.MAX_VALUE)) {
+                    assertTrue(device.isOpen());
+                }
+                trackPlayer.close();
+            }
+            device.flush();
+
+            assertEquals(1, lines.size());
+            assertEquals(1, device.getOpenCount());
+            assertEquals(0, device.getCloseCount());
+            assertEquals((long) tracks * frames * OutputDevice.MAX_FRAME_SAMPLES * 2, lines.get(0).getWrittenBytes());
+        } finally {
+            device.close();
+        }
+        assertEquals(1, device.getCloseCount());
+    }
+
+    @Test
+    public void lineBufferFollowsLatency() throws JavaLayerException {
+        OutputDevice shortDevice = new OutputDevice(50, 0, 0, new VolumeControl(), format -> new FakeLine());
+        OutputDevice longDevice = new OutputDevice(500, 0, 0, new VolumeControl(), format -> new FakeLine());
+        try {
+            shortDevice.open(decoder(44100, Mp3Frames.STEREO));
+            longDevice.open(decoder(44100, Mp3Frames.STEREO));
+            assertTrue(shortDevice.getBufferSize() > 0);
+            assertTrue(shortDevice.getBufferSize() < longDevice.getBufferSize());
+        } finally {
+            shortDevice.close();
+            longDevice.close();
+        }
+    }
+
+    private static FakeLine add(List<FakeLine> lines, FakeLine line) {
+        synchronized (lines) {
+            lines.add(line);
+        }
+        return line;
+    }
+
+    // Gets a decoder that decoded a frame of the format, so that it knows its output format
+    private static Decoder decoder(int sampleRate, int mode) throws JavaLayerException {
+        Bitstream bitstream = new Bitstream(new ByteArrayInputStream(Mp3Frames.generate(1, sampleRate, mode, 1)));
+        Header header = bitstream.readFrame();
+        Decoder decoder = new Decoder();
+        decoder.decodeFrame(header, bitstream);
+        bitstream.closeFrame();
+        return decoder;
+    }
+}
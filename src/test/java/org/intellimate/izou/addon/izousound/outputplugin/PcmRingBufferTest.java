@@ -0,0 +1,211 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.JavaLayerException;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PcmRingBufferTest {
+    @Test
+    public void capacityIsRoundedUp() {
+        assertEquals(16, new PcmRingBuffer(16).getCapacity());
+        assertEquals(32, new PcmRingBuffer(17).getCapacity());
+        assertEquals(2, new PcmRingBuffer(0).getCapacity());
+    }
+
+    @Test
+    public void wrapsAround() {
+        PcmRingBuffer buffer = new PcmRingBuffer(16);
+        short[] written = new short[11];
+        short[] read = new short[11];
+        short next = 0;
+        short expected = 0;
+        // 11 does not divide 16, so reads and writes are split at every possible point of the array
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < written.length; i++) {
+                written[i] = next++;
+            }
+            assertEquals(11, buffer.write(written, 0, 11));
+            assertEquals(11, buffer.getAvailable());
+            assertEquals(5, buffer.getFree());
+
+            assertEquals(11, buffer.read(read, 0, 11));
+            for (short sample : read) {
+                assertEquals(expected++, sample);
+            }
+            assertTrue(buffer.isEmpty());
+        }
+    }
+
+    @Test
+    public void writesOnlyWhatFits() {
+        PcmRingBuffer buffer = new PcmRingBuffer(8);
+        short[] samples = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(6, buffer.write(samples, 0, 6));
+        assertEquals(2, buffer.write(samples, 6, 4));
+        assertEquals(0, buffer.write(samples, 8, 2));
+        assertEquals(0, buffer.getFree());
+
+        short[] read = new short[10];
+        assertEquals(3, buffer.read(read, 1, 3));
+        assertEquals(1, read[1]);
+        assertEquals(3, read[3]);
+        assertEquals(2, buffer.write(samples, 8, 2));
+
+        assertEquals(7, buffer.read(read, 0, 10));
+        assertEquals(4, read[0]);
+        assertEquals(10, read[6]);
+        assertEquals(0, buffer.read(read, 0, 10));
+    }
+
+    @Test
+    public void clearDropsUnreadSamples() {
+        PcmRingBuffer buffer = new PcmRingBuffer(8);
+        buffer.write(new short[]{1, 2, 3, 4, 5}, 0, 5);
+        buffer.clear();
+        assertTrue(buffer.isEmpty());
+        assertEquals(8, buffer.getFree());
+
+        buffer.write(new short[]{6, 7}, 0, 2);
+        short[] read = new short[2];
+        assertEquals(2, buffer.read(read, 0, 2));
+        assertEquals(6, read[0]);
+        assertEquals(7, read[1]);
+    }
+
+    @Test
+    public void producerAndConsumerOnDifferentThreads() throws InterruptedException {
+        PcmRingBuffer buffer = new PcmRingBuffer(64);
+        int total = 100000;
+        Thread producer = new Thread(() -> {
+            short[] chunk = new short[37];
+            int next = 0;
+            while (next < total) {
+                int length = Math.min(chunk.length, total - next);
+                for (int i = 0; i < length; i++) {
+                    chunk[i] = (short) (next + i);
+                }
+                int written = 0;
+                while (written < length) {
+                    int count = buffer.write(chunk, written, length - written);
+                    if (count == 0) {
+                        Thread.yield();
+                    }
+                    written += count;
+                }
+                next += length;
+            }
+        });
+        producer.start();
+
+        short[] chunk = new short[23];
+        int expected = 0;
+        while (expected < total) {
+            int count = buffer.read(chunk, 0, chunk.length);
+            if (count == 0) {
+                Thread.yield();
+            }
+            for (int i = 0; i < count; i++) {
+                assertEquals((short) expected++, chunk[i]);
+            }
+        }
+        producer.join();
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void readStallsWithinBudgetCauseNoUnderruns() throws JavaLayerException, InterruptedException {
+        int frames = 240;
+        byte[] data = Mp3Frames.generate(frames, 44100, Mp3Frames.STEREO, 0);
+        // The line plays 4 times faster than real time, so 500 ms of samples in the ring buffer last 125 ms
+        OutputDevice device = new OutputDevice(100, 0, 500, new VolumeControl(), format -> new FakeLine(4));
+        // Every 10 frames the input stalls for 50 ms, which is 200 ms of samples
+        StallingInputStream input = new StallingInputStream(new ByteArrayInputStream(data),
+                data.length / frames * 10, 50);
+        TrackPlayer trackPlayer = new TrackPlayer(null, input);
+        try {
+            trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+            device.setFormat(trackPlayer.getDecoder());
+            long underruns = -1;
+            while (true) {
+                // Decodes like the sound engine does, only when the ring buffer has room
+                if (device.isFull()) {
+                    if (underruns < 0) {
+                        // The buffer budget is filled once before the stalls begin, a cold decoder may not keep up
+                        underruns = device.getUnderrunCount();
+                        input.stalling = true;
+                    }
+                    Thread.sleep(1);
+                } else if (!trackPlayer.playFrame(device, Integer.MAX_VALUE)) {
+                    break;
+                }
+            }
+            device.flush();
+
+            assertTrue(underruns >= 0);
+            assertTrue(input.stalls >= 5);
+            assertEquals(underruns, device.getUnderrunCount());
+        } finally {
+            trackPlayer.close();
+            device.close();
+        }
+    }
+
+    // Stalls the thread reading it every time another interval of bytes was read, once stalling is enabled
+    private static class StallingInputStream extends FilterInputStream {
+        private final int interval;
+        private final long stallMillis;
+        private volatile boolean stalling;
+        private long read;
+        private long nextStall;
+        private int stalls;
+
+        StallingInputStream(InputStream in, int interval, long stallMillis) {
+            super(in);
+            this.interval = interval;
+            this.stallMillis = stallMillis;
+        }
+
+        @Override
+        public int read() throws IOException {
+            stall();
+            int b = super.read();
+            if (b >= 0) {
+                read++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            stall();
+            int count = super.read(b, off, len);
+            if (count > 0) {
+                read += count;
+            }
+            return count;
+        }
+
+        private void stall() throws IOException {
+            if (!stalling) {
+                nextStall = read + interval;
+            } else if (read >= nextStall) {
+                nextStall = read + interval;
+                stalls++;
+                try {
+                    TimeUnit.MILLISECONDS.sleep(stallMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while stalling", e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PlayQueueTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private CountingSoundLoader soundLoader;
+
+    @Before
+    public void setUp() throws IOException {
+        soundLoader = new CountingSoundLoader(new TestContext(folder.newFolder("resources")));
+    }
+
+    @Test
+    public void tracksAreConvertedWhenNeeded() {
+        PlayQueue queue = new PlayQueue(soundLoader, tracks(100));
+        assertEquals(100, queue.size());
+        assertEquals(0, soundLoader.conversions);
+
+        queue.moveTo(0);
+        assertEquals(PlayQueue.LOOK_AHEAD + 1, soundLoader.conversions);
+        SoundIdentity sound = queue.get(2);
+        assertNotNull(sound);
+        assertEquals(2, sound.getId());
+        assertSame(sound, queue.get(2));
+        assertEquals(PlayQueue.LOOK_AHEAD + 1, soundLoader.conversions);
+
+        // Moving on releases the sounds that are not close anymore, they are converted again when needed
+        queue.moveTo(50);
+        assertEquals(2 * (PlayQueue.LOOK_AHEAD + 1), soundLoader.conversions);
+        queue.get(2);
+        assertEquals(2 * (PlayQueue.LOOK_AHEAD + 1) + 1, soundLoader.conversions);
+    }
+
+    @Test
+    public void publishedTracksDoNotChange() {
+        List<TrackInfo> tracks = tracks(10);
+        PlayQueue queue = new PlayQueue(soundLoader, tracks);
+        TrackInfo updated = new TrackInfo("updated", "artist", "album", null, null, tracks.get(3).getData().get());
+
+        queue.setTrackInfo(3, updated);
+        List<TrackInfo> published = queue.getTracks();
+        assertSame(updated, published.get(3));
+
+        TrackInfo updatedAgain = new TrackInfo("again", "artist", "album", null, null, tracks.get(4).getData().get());
+        queue.setTrackInfo(4, updatedAgain);
+        assertSame(tracks.get(4), published.get(4));
+        assertSame(updatedAgain, queue.getTracks().get(4));
+        assertSame(updated, queue.getTracks().get(3));
+
+        // Updated tracks are still found by their data, as are the original ones
+        assertEquals(4, queue.indexOf(updatedAgain));
+        assertEquals(4, queue.indexOf(tracks.get(4)));
+    }
+
+    @Test
+    public void shuffleIsPermutation() {
+        PlayQueue queue = new PlayQueue(soundLoader, tracks(50));
+        assertFalse(queue.isShuffled());
+        assertEquals(0, queue.shuffle(17));
+        assertTrue(queue.isShuffled());
+        assertEquals(17, queue.getTrackIndex(0));
+
+        boolean[] seen = new boolean[50];
+        for (int position = 0; position < 50; position++) {
+            int trackIndex = queue.getTrackIndex(position);
+            assertFalse(seen[trackIndex]);
+            seen[trackIndex] = true;
+            assertEquals(position, queue.getPosition(trackIndex));
+        }
+
+        assertEquals(-1, queue.shuffle(-1));
+        assertEquals(17, queue.unshuffle(queue.getPosition(17)));
+        assertFalse(queue.isShuffled());
+        assertEquals(5, queue.getTrackIndex(5));
+        assertEquals(5, queue.getPosition(5));
+    }
+
+    @Test
+    public void indexOfAfterShuffleAndRelease() {
+        List<TrackInfo> tracks = tracks(30);
+        tracks.add(tracks.get(7));
+        PlayQueue queue = new PlayQueue(soundLoader, tracks);
+        assertEquals(12, queue.indexOf(tracks.get(12)));
+
+        queue.moveTo(0);
+        queue.shuffle(0);
+        // Sounds that were converted before the shuffle are released by moving far away from them
+        queue.moveTo(15);
+        for (int trackIndex = 0; trackIndex < 30; trackIndex++) {
+            assertEquals(trackIndex, queue.indexOf(tracks.get(trackIndex)));
+            SoundIdentity sound = queue.get(queue.getPosition(trackIndex));
+            assertEquals(trackIndex, sound.getId());
+        }
+        // Duplicates are found at their first index
+        assertEquals(7, queue.indexOf(tracks.get(30)));
+        assertEquals(-1, queue.indexOf(tracks(31).get(30)));
+        assertEquals(-1, queue.indexOf(new TrackInfo("no data")));
+    }
+
+    static List<TrackInfo> tracks(int count) {
+        List<TrackInfo> tracks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            String data = TrackData.encode(PlaylistGenerator.URL_TYPE, "http://localhost/" + i + ".mp3", -1, -1);
+            tracks.add(new TrackInfo("track" + i, null, null, null, null, data));
+        }
+        return tracks;
+    }
+
+    // Counts the track infos converted
+    static class CountingSoundLoader extends SoundLoader {
+        private int conversions;
+
+        CountingSoundLoader(TestContext context) {
+            super(context);
+        }
+
+        @Override
+        SoundIdentity convertTrackInfo(TrackInfo trackInfo, int index) {
+            conversions++;
+            return super.convertTrackInfo(trackInfo, index);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Records the playback events with Java Flight Recorder and reads them back from the recording. The {@code jdk.jfr}
+ * API is used reflectively, as IzouSound does not link against it, and the tests are skipped on a JVM without it.
+ */
+public class PlaybackEventsTest {
+    private static final String[] EVENTS = {"SessionStart", "SessionStop", "TrackOpen", "MetaDataProbe",
+            "DecodeBatch", "Pause", "Resume", "Skip", "Underrun"};
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Before
+    public void setUp() {
+        boolean available;
+        try {
+            Class.forName("jdk.jfr.consumer.RecordingFile");
+            available = true;
+        } catch (ClassNotFoundException e) {
+            available = false;
+        }
+        assumeTrue(available);
+    }
+
+    @Test
+    public void commitsEvents() throws Exception {
+        SoundIdentity sound = new SoundIdentity(2, new SoundInfo(new TrackInfo("track"), "/music/track.mp3"));
+
+        Object recording = startRecording();
+        Path file = File.createTempFile("izousound", ".jfr").toPath();
+        try {
+            PlaybackEvents.sessionStarted(3);
+            Object trackOpen = PlaybackEvents.beginTrackOpen();
+            PlaybackEvents.endTrackOpen(trackOpen, sound, PlaybackMetrics.Source.FILE, 0, 4096, true);
+            Object probe = PlaybackEvents.beginMetaDataProbe();
+            PlaybackEvents.endMetaDataProbe(probe, sound.getSoundInfo(), true);
+            Object decodeBatch = PlaybackEvents.beginDecodeBatch();
+            PlaybackEvents.endDecodeBatch(decodeBatch, sound, 64, 5000);
+            PlaybackEvents.paused(sound, 1500);
+            PlaybackEvents.resumed(sound, 1500);
+            PlaybackEvents.skipped(null, 1, 2);
+            PlaybackEvents.underrun(sound, 7);
+            PlaybackEvents.sessionStopped();
+            stopRecording(recording, file);
+        } finally {
+            recording.getClass().getMethod("close").invoke(recording);
+        }
+
+        try {
+            Map<String, List<Object>> events = readEvents(file);
+
+            assertEquals(EVENTS.length, events.size());
+            assertEquals(3, value(first(events, "SessionStart"), "tracks"));
+            Object opened = first(events, "TrackOpen");
+            assertEquals("track", value(opened, "track"));
+            assertEquals("/music/track.mp3", value(opened, "location"));
+            assertEquals(2, value(opened, "index"));
+            assertEquals("FILE", value(opened, "source"));
+            assertEquals(4096L, value(opened, "bytes"));
+            assertEquals(true, value(opened, "opened"));
+            // The meta data is read before the sound has an index
+            Object probed = first(events, "MetaDataProbe");
+            assertEquals("/music/track.mp3", value(probed, "location"));
+            assertEquals(-1, value(probed, "index"));
+            assertEquals(true, value(probed, "found"));
+            assertEquals(64, value(first(events, "DecodeBatch"), "frames"));
+            assertEquals(Duration.ofNanos(5000), duration(first(events, "DecodeBatch"), "decodeTime"));
+            assertEquals(2, value(first(events, "Pause"), "index"));
+            // The position is a timespan, so that it can be read back as a duration
+            assertEquals(Duration.ofMillis(1500), duration(first(events, "Pause"), "position"));
+            assertEquals(Duration.ofMillis(1500), duration(first(events, "Resume"), "position"));
+            assertNull(value(first(events, "Skip"), "track"));
+            assertEquals(-1, value(first(events, "Skip"), "index"));
+            assertEquals(1, value(first(events, "Skip"), "skips"));
+            assertEquals(7L, value(first(events, "Underrun"), "underruns"));
+            assertNotNull(first(events, "SessionStop"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void recordsEngineSession() throws Exception {
+        // The playback thread is held up before c starts, for longer than the output buffers last
+        StallingHost host = new StallingHost("c.mp3", 1500);
+        SoundEngine engine = new SoundEngine(new TestContext(folder.newFolder("resources")), host,
+                format -> new FakeLine());
+        engine.setRepeatPlaylist(new AtomicBoolean(false));
+        Playlist playlist = new Playlist(Arrays.asList(track("a.mp3", 120), track("b.mp3", 40), track("c.mp3", 40)));
+
+        Object recording = startRecording();
+        Path file = File.createTempFile("izousound", ".jfr").toPath();
+        try {
+            engine.run(playlist).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            Thread.sleep(300);
+            engine.pauseSound();
+            await(() -> engine.getState() == PlaybackState.PAUSED);
+            engine.resumeSound();
+            await(() -> engine.getState() == PlaybackState.PLAYING);
+            Thread.sleep(200);
+            engine.nextFile();
+            // b plays to its end, then c is started late and the line runs out of samples
+            await(() -> engine.getMetrics().getUnderrunCount() > 0);
+            await(() -> engine.getState() == PlaybackState.IDLE);
+            stopRecording(recording, file);
+        } finally {
+            recording.getClass().getMethod("close").invoke(recording);
+            engine.dispose();
+        }
+
+        try {
+            Map<String, List<Object>> events = readEvents(file);
+            for (String event : EVENTS) {
+                assertTrue(event + " was not recorded", events.containsKey(event));
+            }
+
+            assertEquals(3, value(first(events, "SessionStart"), "tracks"));
+            Object opened = first(events, "TrackOpen");
+            assertSound(opened, "a.mp3", 0);
+            assertEquals("FILE", value(opened, "source"));
+            assertEquals(0, value(opened, "startFrame"));
+            assertTrue((long) value(opened, "bytes") > 0);
+            assertEquals(true, value(opened, "opened"));
+            Object probed = first(events, "MetaDataProbe");
+            assertEquals("a.mp3", value(probed, "track"));
+            assertEquals(new File(folder.getRoot(), "a.mp3").getPath(), value(probed, "location"));
+            assertEquals(true, value(probed, "found"));
+            Object decoded = first(events, "DecodeBatch");
+            assertEquals("a.mp3", value(decoded, "track"));
+            assertTrue((int) value(decoded, "frames") > 0);
+            assertTrue(duration(decoded, "decodeTime").toNanos() > 0);
+
+            // a is resumed where it was paused, and opened again there
+            Object paused = first(events, "Pause");
+            Object resumed = first(events, "Resume");
+            assertSound(paused, "a.mp3", 0);
+            assertSound(resumed, "a.mp3", 0);
+            assertTrue(duration(paused, "position").toMillis() > 0);
+            assertEquals(duration(paused, "position"), duration(resumed, "position"));
+            boolean reopened = false;
+            for (Object event : events.get("TrackOpen")) {
+                reopened |= "a.mp3".equals(value(event, "track")) && (int) value(event, "startFrame") > 0;
+            }
+            assertTrue("a was not opened again at its pause position", reopened);
+
+            Object skipped = first(events, "Skip");
+            assertSound(skipped, "b.mp3", 1);
+            assertEquals(1, value(skipped, "skips"));
+            assertEquals(0, value(skipped, "fromIndex"));
+
+            Object underrun = null;
+            for (Object event : events.get("Underrun")) {
+                if ("c.mp3".equals(value(event, "track"))) {
+                    underrun = event;
+                }
+            }
+            assertNotNull("No underrun before c", underrun);
+            assertSound(underrun, "c.mp3", 2);
+            assertTrue((long) value(underrun, "underruns") > 0);
+            assertNotNull(first(events, "SessionStop"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void skipsEventsThatAreNotRecorded() {
+        assertNull(PlaybackEvents.beginTrackOpen());
+        assertNull(PlaybackEvents.beginDecodeBatch());
+        // Null events are ignored
+        PlaybackEvents.endTrackOpen(null, null, PlaybackMetrics.Source.FILE, 0, 0, false);
+        PlaybackEvents.endDecodeBatch(null, null, 0, 0);
+    }
+
+    // Starts a recording of all IzouSound events
+    private static Object startRecording() throws Exception {
+        Object recording = Class.forName("jdk.jfr.Recording").getConstructor().newInstance();
+        for (String event : EVENTS) {
+            recording.getClass().getMethod("enable", String.class).invoke(recording, JfrEvents.PREFIX + event);
+        }
+        recording.getClass().getMethod("start").invoke(recording);
+        return recording;
+    }
+
+    private static void stopRecording(Object recording, Path file) throws Exception {
+        recording.getClass().getMethod("stop").invoke(recording);
+        recording.getClass().getMethod("dump", Path.class).invoke(recording, file);
+    }
+
+    // Writes a sound file of frames frames, and gets its track info
+    private TrackInfo track(String name, int frames) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Mp3Frames.write(file, frames, 0);
+        return new TrackInfo(name, null, null, null, null,
+                TrackData.encode(PlaylistGenerator.FILE_TYPE, file.getPath(), -1, -1));
+    }
+
+    // Waits until condition is true, fails if it does not become true in time
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    // Reads the IzouSound events of the recording by their name without the prefix, in the order they were committed
+    private static Map<String, List<Object>> readEvents(Path file) throws Exception {
+        Map<String, List<Object>> events = new HashMap<>();
+        List<?> recorded = new ArrayList<>((List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                .getMethod("readAllEvents", Path.class).invoke(null, file));
+        Class<?> recordedEvent = Class.forName("jdk.jfr.consumer.RecordedEvent");
+        recorded.sort((a, b) -> {
+            try {
+                return ((Instant) recordedEvent.getMethod("getEndTime").invoke(a))
+                        .compareTo((Instant) recordedEvent.getMethod("getEndTime").invoke(b));
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        for (Object event : recorded) {
+            Object eventType = event.getClass().getMethod("getEventType").invoke(event);
+            String name = (String) eventType.getClass().getMethod("getName").invoke(eventType);
+            if (name.startsWith(JfrEvents.PREFIX)) {
+                events.computeIfAbsent(name.substring(JfrEvents.PREFIX.length()), key -> new ArrayList<>()).add(event);
+            }
+        }
+        return events;
+    }
+
+    private static Object first(Map<String, List<Object>> events, String name) {
+        List<Object> recorded = events.get(name);
+        return recorded != null ? recorded.get(0) : null;
+    }
+
+    private static void assertSound(Object event, String track, int index) throws Exception {
+        assertEquals(track, value(event, "track"));
+        assertEquals(index, value(event, "index"));
+    }
+
+    private static Object value(Object event, String field) throws Exception {
+        return Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getValue", String.class)
+                .invoke(event, field);
+    }
+
+    private static Duration duration(Object event, String field) throws Exception {
+        return (Duration) Class.forName("jdk.jfr.consumer.RecordedObject").getMethod("getDuration", String.class)
+                .invoke(event, field);
+    }
+
+    // Stands in for the AudioFilePlayer, and holds up the playback thread once a certain sound becomes current
+    private static class StallingHost implements SoundEngine.Host {
+        private final String stallOn;
+        private final long stallMillis;
+        private volatile SoundIdentity currentSound;
+
+        StallingHost(String stallOn, long stallMillis) {
+            this.stallOn = stallOn;
+            this.stallMillis = stallMillis;
+        }
+
+        @Override
+        public SoundIdentity getCurrentSound() {
+            return currentSound;
+        }
+
+        @Override
+        public void setCurrentSound(SoundIdentity currentSound) {
+            this.currentSound = currentSound;
+            if (currentSound != null && stallOn.equals(currentSound.getSoundInfo().getName())) {
+                try {
+                    Thread.sleep(stallMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        @Override
+        public void setCurrentPlaylist(Playlist playlist) {
+        }
+
+        @Override
+        public void stopMusicPlayback() {
+        }
+    }
+}
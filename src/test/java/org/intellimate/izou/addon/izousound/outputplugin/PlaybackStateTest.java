@@ -0,0 +1,194 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.intellimate.izou.addon.izousound.outputplugin.PlaybackState.IDLE;
+import static org.intellimate.izou.addon.izousound.outputplugin.PlaybackState.PAUSED;
+import static org.intellimate.izou.addon.izousound.outputplugin.PlaybackState.PLAYING;
+import static org.intellimate.izou.addon.izousound.outputplugin.PlaybackState.READY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class PlaybackStateTest {
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void allowsOnlyExplicitEdges() {
+        assertTransitions(IDLE, READY);
+        assertTransitions(READY, PLAYING, IDLE);
+        assertTransitions(PLAYING, PAUSED, READY, IDLE);
+        assertTransitions(PAUSED, PLAYING, READY, IDLE);
+    }
+
+    @Test
+    public void rejectsSelfTransitions() {
+        for (PlaybackState state : PlaybackState.values()) {
+            assertFalse(state + " to itself", state.canTransitionTo(state));
+        }
+    }
+
+    @Test
+    public void sessionLifecycle() {
+        // Start, next sound, pause, resume and stop, as the sound engine moves through them
+        PlaybackState[] lifecycle = {IDLE, READY, PLAYING, READY, PLAYING, PAUSED, READY, PLAYING, IDLE};
+        for (int i = 1; i < lifecycle.length; i++) {
+            assertTrue(lifecycle[i - 1] + " to " + lifecycle[i], lifecycle[i - 1].canTransitionTo(lifecycle[i]));
+        }
+    }
+
+    @Test
+    public void concurrentCommandsFollowAllowedEdges() throws Exception {
+        SoundEngine engine = new SoundEngine(new TestContext(folder.newFolder("resources")), new SoundEngine.Host() {
+            private volatile SoundIdentity currentSound;
+
+            @Override
+            public SoundIdentity getCurrentSound() {
+                return currentSound;
+            }
+
+            @Override
+            public void setCurrentSound(SoundIdentity currentSound) {
+                this.currentSound = currentSound;
+            }
+
+            @Override
+            public void setCurrentPlaylist(Playlist playlist) {
+            }
+
+            @Override
+            public void stopMusicPlayback() {
+            }
+        }, format -> new FakeLine(10));
+        engine.setRepeatPlaylist(new AtomicBoolean(true));
+
+        // Every transition has to start in the state the one before ended in, and has to be an allowed edge
+        List<String> violations = new ArrayList<>();
+        AtomicReference<PlaybackState> last = new AtomicReference<>(IDLE);
+        engine.onTransition((from, to) -> {
+            PlaybackState expected = last.getAndSet(to);
+            if (from != expected || !from.canTransitionTo(to)) {
+                synchronized (violations) {
+                    violations.add(expected + " then " + from + " to " + to);
+                }
+            }
+        });
+
+        List<TrackInfo> tracks = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            File file = new File(folder.getRoot(), i + ".mp3");
+            Mp3Frames.write(file, 20, 0);
+            tracks.add(new TrackInfo(file.getName(), null, null, null, null,
+                    TrackData.encode(PlaylistGenerator.FILE_TYPE, file.getPath(), -1, -1)));
+        }
+        Playlist playlist = new Playlist(tracks);
+
+        // Play, pause, resume, next and previous from several threads at once
+        int threads = 4;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> callers = new ArrayList<>();
+        List<Throwable> failures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            Random random = new Random(t);
+            Thread caller = new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < 200; i++) {
+                        switch (random.nextInt(5)) {
+                            case 0:
+                                engine.run(playlist);
+                                break;
+                            case 1:
+                                engine.pauseSound();
+                                break;
+                            case 2:
+                                try {
+                                    engine.resumeSound();
+                                } catch (IllegalStateException e) {
+                                    // The sound was not paused (anymore)
+                                }
+                                break;
+                            case 3:
+                                engine.nextFile();
+                                break;
+                            default:
+                                engine.previousFile();
+                        }
+                        Thread.sleep(random.nextInt(3));
+                    }
+                } catch (Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            caller.start();
+            callers.add(caller);
+        }
+        start.countDown();
+        for (Thread caller : callers) {
+            caller.join(TIMEOUT);
+        }
+
+        try {
+            assertTrue(failures.toString(), failures.isEmpty());
+            // The engine still takes commands, a new session starts playing and can be stopped
+            engine.run(playlist).get(TIMEOUT, TimeUnit.MILLISECONDS);
+            awaitState(engine, PLAYING);
+            // A pause is ignored while the next sound is prepared, so it is repeated until it was applied
+            long deadline = System.currentTimeMillis() + TIMEOUT;
+            while (engine.getState() != PAUSED) {
+                assertTrue("Stuck in " + engine.getState(), System.currentTimeMillis() < deadline);
+                engine.pauseSound();
+                Thread.sleep(5);
+            }
+            engine.resumeSound();
+            awaitState(engine, PLAYING);
+            engine.stopSession();
+            awaitState(engine, IDLE);
+            assertEquals(violations.toString(), 0, violations.size());
+        } finally {
+            engine.dispose();
+        }
+    }
+
+    // Waits until the engine is in state, fails if it gets stuck somewhere else
+    private static void awaitState(SoundEngine engine, PlaybackState state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (engine.getState() != state) {
+            assertTrue("Stuck in " + engine.getState() + " instead of " + state,
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void assertTransitions(PlaybackState from, PlaybackState... allowed) {
+        Set<PlaybackState> expected = EnumSet.noneOf(PlaybackState.class);
+        expected.addAll(Arrays.asList(allowed));
+        for (PlaybackState next : PlaybackState.values()) {
+            assertEquals(from + " to " + next, expected.contains(next), from.canTransitionTo(next));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReadAheadStreamTest {
+    private static final int START_THRESHOLD = 64 * 1024;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TestContext context;
+    private byte[] content;
+    private TestServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        context = new TestContext(folder.newFolder("resources"));
+        content = new byte[300 * 1024];
+        new Random(1).nextBytes(content);
+        server = new TestServer(content);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void creatingDoesNotWaitForConnection() throws IOException {
+        server.setDelay(1000);
+        long start = System.nanoTime();
+        try (ReadAheadStream stream = open(new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE))) {
+            assertTrue(System.nanoTime() - start < 500000000L);
+            assertFalse(stream.isReady());
+            assertArrayEquals(content, readAll(stream));
+            assertTrue(stream.isReady());
+        }
+    }
+
+    @Test
+    public void readyOnceStartThresholdIsBuffered() throws IOException, InterruptedException {
+        try (ReadAheadStream stream = open(new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE))) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (!stream.isReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(stream.isReady());
+            assertTrue(stream.getBuffered() >= START_THRESHOLD);
+        }
+    }
+
+    @Test
+    public void failureIsThrownOnRead() {
+        server.setStatus(404);
+        try (ReadAheadStream stream = open(new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE))) {
+            stream.read();
+            fail("The stream of a missing resource was read");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("404"));
+        }
+    }
+
+    @Test
+    public void reconnectsWithRange() throws IOException {
+        server.setDropAfter(100 * 1024);
+        try (ReadAheadStream stream = open(new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE))) {
+            assertArrayEquals(content, readAll(stream));
+        }
+        assertEquals(2, server.getRequests().size());
+        assertNull(server.getRequests().get(0).getFirst("Range"));
+        assertEquals("bytes=" + 100 * 1024 + "-", server.getRequests().get(1).getFirst("Range"));
+    }
+
+    @Test
+    public void reconnectSkipsWithoutRangeSupport() throws IOException {
+        server.setDropAfter(100 * 1024);
+        server.setRangeSupported(false);
+        try (ReadAheadStream stream = open(new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE))) {
+            assertArrayEquals(content, readAll(stream));
+        }
+        assertEquals(2, server.getRequests().size());
+    }
+
+    @Test
+    public void resumesWithIfRange() throws IOException {
+        try (ReadAheadStream stream = open(spill(100 * 1024, "\"1\""))) {
+            assertArrayEquals(content, readAll(stream));
+        }
+        assertEquals(1, server.getRequests().size());
+        assertEquals("bytes=" + 100 * 1024 + "-", server.getRequests().get(0).getFirst("Range"));
+        assertEquals("\"1\"", server.getRequests().get(0).getFirst("If-Range"));
+    }
+
+    @Test
+    public void restartsChangedResource() throws IOException {
+        SpillBuffer spill = spill(100 * 1024, "\"1\"");
+        byte[] changed = new byte[200 * 1024];
+        new Random(2).nextBytes(changed);
+        server.setContent(changed, "\"2\"");
+        byte[] read;
+        try (ReadAheadStream stream = open(spill)) {
+            read = readAll(stream);
+        }
+        // The If-Range does not match, so the server sends the new version as a whole
+        assertEquals(1, server.getRequests().size());
+        assertRestarted(read, changed, spill);
+    }
+
+    @Test
+    public void restartsResourceOfOtherSize() throws IOException {
+        SpillBuffer spill = spill(100 * 1024, "\"1\"");
+        byte[] changed = Arrays.copyOf(content, content.length + 1024);
+        server.setContent(changed, "\"1\"");
+        byte[] read;
+        try (ReadAheadStream stream = open(spill)) {
+            read = readAll(stream);
+        }
+        // The server answers the range with another total size, so the resource is requested again from the start
+        assertEquals(2, server.getRequests().size());
+        assertNull(server.getRequests().get(1).getFirst("Range"));
+        assertRestarted(read, changed, spill);
+    }
+
+    // Creates a spill buffer holding the first bytes of the content, as a detached stream leaves it
+    private SpillBuffer spill(int length, String etag) {
+        SpillBuffer spill = new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE);
+        spill.setWriter(this);
+        spill.append(this, content, 0, length);
+        spill.setContentLength(content.length);
+        spill.setValidators(etag, 0);
+        spill.setWriter(null);
+        return spill;
+    }
+
+    // The stream may have replayed some of the old bytes before it restarted, after them follows the new resource
+    private void assertRestarted(byte[] read, byte[] changed, SpillBuffer spill) {
+        int replayed = read.length - changed.length;
+        assertTrue(replayed >= 0 && replayed <= 100 * 1024);
+        assertArrayEquals(Arrays.copyOf(content, replayed), Arrays.copyOf(read, replayed));
+        assertArrayEquals(changed, Arrays.copyOfRange(read, replayed, read.length));
+        assertFalse(spill.isComplete());
+        try {
+            spill.read(0, new byte[1], 0, 1);
+            fail("The spill buffer of the old version was kept");
+        } catch (IOException e) {
+            assertEquals("Spill buffer was released", e.getMessage());
+        }
+    }
+
+    private ReadAheadStream open(SpillBuffer spill) {
+        return new ReadAheadStream(context, server.getURL(), 128 * 1024, 64 * 1024, START_THRESHOLD, spill, null);
+    }
+
+    static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] chunk = new byte[7000];
+        int read;
+        while ((read = inputStream.read(chunk)) >= 0) {
+            output.write(chunk, 0, read);
+        }
+        return output.toByteArray();
+    }
+}
@@ -0,0 +1,240 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.intellimate.izou.addon.izousound.PlaylistGenerator;
+import org.intellimate.izou.addon.izousound.TestContext;
+import org.intellimate.izou.addon.izousound.TrackData;
+import org.intellimate.izou.sdk.frameworks.music.player.Playlist;
+import org.intellimate.izou.sdk.frameworks.music.player.TrackInfo;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Plays whole sessions through a {@link SoundEngine} whose output lines are {@link FakeLine}s
+ */
+public class SoundEngineTest {
+    // The bytes a frame of 44.1 kHz stereo decodes to
+    private static final int FRAME_BYTES = OutputDevice.MAX_FRAME_SAMPLES * 2;
+    private static final long TIMEOUT = 10000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<FakeLine> lines = new ArrayList<>();
+    // Opening a line waits until the gate is opened
+    private final CountDownLatch lineGate = new CountDownLatch(1);
+    private final CountDownLatch lineRequested = new CountDownLatch(1);
+    private volatile boolean gateLines;
+    private RecordingHost host;
+    private SoundEngine engine;
+
+    @Before
+    public void setUp() throws IOException {
+        host = new RecordingHost();
+        engine = new SoundEngine(new TestContext(folder.newFolder("resources")), host, format -> openLine());
+        engine.setRepeatPlaylist(new AtomicBoolean(false));
+    }
+
+    @After
+    public void tearDown() {
+        engine.dispose();
+    }
+
+    @Test
+    public void consecutiveTracksPlayWithoutGap() throws Exception {
+        int framesA = 40;
+        int framesB = 30;
+        Playlist playlist = playlist(track("a.mp3", framesA), track("b.mp3", framesB));
+        engine.run(playlist).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        FakeLine line = awaitLine();
+        // The first frames are decoded by a cold decoder, only the gaps from the middle of a on are of interest
+        awaitWritten(line, (long) framesA / 2 * FRAME_BYTES);
+        line.resetLongestGap();
+        long expected = (long) (framesA + framesB) * FRAME_BYTES;
+        awaitWritten(line, expected);
+
+        // Every frame of both tracks reached the line, and no silence was inserted between them
+        assertEquals(expected, line.getWrittenBytes());
+        assertEquals(1, lines.size());
+        // The line never ran empty from a to b, a gap of a single frame (26 ms) would be audible
+        assertTrue("Gap of " + line.getLongestGap(TimeUnit.MILLISECONDS) + " ms",
+                line.getLongestGap(TimeUnit.MILLISECONDS) < 20);
+        assertEquals(0, engine.getMetrics().getUnderrunCount());
+        // b was opened in advance once, and handed over as it is
+        assertEquals(2, engine.getMetrics().getTrackOpenCount());
+    }
+
+    @Test
+    public void sessionIsReadyOnFirstWrite() throws Exception {
+        gateLines = true;
+        CompletableFuture<Void> ready = engine.run(playlist(track("a.mp3", 40)));
+        assertTrue(lineRequested.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // The line is not even open yet, so nothing can be heard
+        Thread.sleep(50);
+        assertFalse(ready.isDone());
+
+        lineGate.countDown();
+        ready.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        // The first samples reached the line, but the session is far from over
+        FakeLine line = awaitLine();
+        assertTrue(line.getWrittenBytes() > 0);
+        assertTrue(line.getWrittenBytes() < 40L * FRAME_BYTES);
+        assertEquals(PlaybackState.PLAYING, engine.getState());
+        assertEquals(0, host.stopCount.get());
+    }
+
+    @Test
+    public void replacedSessionIsNotReady() throws Exception {
+        gateLines = true;
+        CompletableFuture<Void> first = engine.run(playlist(track("a.mp3", 40)));
+        assertTrue(lineRequested.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        // The first session started, but no sound was played yet
+        assertNotEquals(PlaybackState.IDLE, engine.getState());
+
+        CompletableFuture<Void> second = engine.run(playlist(track("b.mp3", 40)));
+        try {
+            first.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("The replaced session must not be ready");
+        } catch (CancellationException e) {
+            // The replaced session is cancelled
+        }
+        // The end of the first session is reported once, although the stop is superseded by the second session
+        assertEquals(1, host.stopCount.get());
+
+        lineGate.countDown();
+        second.get(TIMEOUT, TimeUnit.MILLISECONDS);
+        assertEquals("b.mp3", host.getCurrentSound().getSoundInfo().getName());
+        assertEquals(1, host.stopCount.get());
+    }
+
+    @Test
+    public void soundWithNothingToPlayIsSkipped() throws Exception {
+        // a is shorter than a second, so its length rounds down to 0 seconds and not a single frame of it is played
+        engine.run(playlist(track("a.mp3", 20), track("b.mp3", 40))).get(TIMEOUT, TimeUnit.MILLISECONDS);
+
+        assertEquals("b.mp3", host.getCurrentSound().getSoundInfo().getName());
+        FakeLine line = awaitLine();
+        awaitWritten(line, 40L * FRAME_BYTES);
+        // The line was opened for b, only b was played on it
+        assertEquals(1, lines.size());
+        assertEquals(40L * FRAME_BYTES, line.getWrittenBytes());
+        assertEquals(0, host.stopCount.get());
+    }
+
+    @Test
+    public void sessionWithNothingToPlayIsNotReady() throws Exception {
+        CompletableFuture<Void> ready = engine.run(playlist(track("a.mp3", 20)));
+        try {
+            ready.get(TIMEOUT, TimeUnit.MILLISECONDS);
+            fail("A session without anything to play must not be ready");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+
+        // The session was stopped, without ever opening a line
+        assertTrue(lines.isEmpty());
+        assertEquals(PlaybackState.IDLE, engine.getState());
+        assertEquals(1, host.stopCount.get());
+    }
+
+    // Opens a new line for the engine, waits for the gate first if lines are gated
+    private FakeLine openLine() {
+        if (gateLines) {
+            lineRequested.countDown();
+            try {
+                lineGate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        FakeLine line = new FakeLine();
+        synchronized (lines) {
+            lines.add(line);
+        }
+        return line;
+    }
+
+    // Writes a sound file of frames frames of 44.1 kHz stereo, and gets its track info
+    private TrackInfo track(String name, int frames) throws IOException {
+        File file = new File(folder.getRoot(), name);
+        Mp3Frames.write(file, frames, 0);
+        return new TrackInfo(name, null, null, null, null,
+                TrackData.encode(PlaylistGenerator.FILE_TYPE, file.getPath(), -1, -1));
+    }
+
+    private static Playlist playlist(TrackInfo... tracks) {
+        List<TrackInfo> queue = new ArrayList<>();
+        for (TrackInfo track : tracks) {
+            queue.add(track);
+        }
+        return new Playlist(queue);
+    }
+
+    // Waits until the player opened its first line
+    private FakeLine awaitLine() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (lines) {
+                if (!lines.isEmpty()) {
+                    return lines.get(0);
+                }
+            }
+            Thread.sleep(10);
+        }
+        throw new AssertionError("No line was opened");
+    }
+
+    // Waits until at least bytes bytes were written to the line
+    private static void awaitWritten(FakeLine line, long bytes) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        while (line.getWrittenBytes() < bytes && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    // Stands in for the AudioFilePlayer, and remembers what the engine published
+    private static class RecordingHost implements SoundEngine.Host {
+        private volatile SoundIdentity currentSound;
+        private final AtomicInteger stopCount = new AtomicInteger();
+
+        @Override
+        public SoundIdentity getCurrentSound() {
+            return currentSound;
+        }
+
+        @Override
+        public void setCurrentSound(SoundIdentity currentSound) {
+            this.currentSound = currentSound;
+        }
+
+        @Override
+        public void setCurrentPlaylist(Playlist playlist) {
+        }
+
+        @Override
+        public void stopMusicPlayback() {
+            stopCount.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SpillBufferTest {
+    private final Object writer = new Object();
+
+    @Test
+    public void appendsAcrossMemoryLimit() throws IOException {
+        byte[] content = new byte[SpillBuffer.MEMORY_LIMIT + 1024 * 1024];
+        new Random(1).nextBytes(content);
+        SpillBuffer spill = new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE);
+        spill.setWriter(writer);
+        try {
+            // Chunks of an odd size, so that one of them is split between the memory and the file
+            for (int offset = 0; offset < content.length; offset += 100003) {
+                spill.append(writer, content, offset, Math.min(100003, content.length - offset));
+            }
+            assertTrue(spill.isComplete());
+            assertEquals(content.length, spill.getLength());
+            assertArrayEquals(content, readAll(spill, 0));
+
+            // Reading across the boundary stops at the end of the memory, the next read continues in the file
+            byte[] boundary = Arrays.copyOfRange(content, SpillBuffer.MEMORY_LIMIT - 10, content.length);
+            assertArrayEquals(boundary, readAll(spill, SpillBuffer.MEMORY_LIMIT - 10));
+            assertEquals(-1, spill.read(content.length, new byte[1], 0, 1));
+        } finally {
+            spill.release();
+        }
+    }
+
+    @Test
+    public void appendsOnlyFromWriter() throws IOException {
+        SpillBuffer spill = new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE);
+        spill.setWriter(writer);
+        spill.append(new Object(), new byte[]{1, 2, 3}, 0, 3);
+        spill.append(writer, new byte[]{4, 5}, 0, 2);
+        assertArrayEquals(new byte[]{4, 5}, readAll(spill, 0));
+        spill.release();
+    }
+
+    @Test
+    public void exceedingMaxSizeMakesIncomplete() throws IOException {
+        SpillBuffer spill = new SpillBuffer(10);
+        spill.setWriter(writer);
+        spill.append(writer, new byte[8], 0, 8);
+        spill.append(writer, new byte[8], 0, 8);
+        assertFalse(spill.isComplete());
+        // The bytes that fit are still there for the stream that replays them
+        assertEquals(8, spill.getLength());
+        assertEquals(8, readAll(spill, 0).length);
+        spill.release();
+    }
+
+    @Test
+    public void releasedCanNotBeRead() {
+        SpillBuffer spill = new SpillBuffer(SpillBuffer.DEFAULT_MAX_SIZE);
+        spill.setWriter(writer);
+        spill.append(writer, new byte[]{1, 2, 3}, 0, 3);
+        spill.release();
+        assertFalse(spill.isComplete());
+        try {
+            spill.read(0, new byte[3], 0, 3);
+            fail("A released spill buffer was read");
+        } catch (IOException e) {
+            assertEquals("Spill buffer was released", e.getMessage());
+        }
+    }
+
+    private static byte[] readAll(SpillBuffer spill, long position) throws IOException {
+        byte[] result = new byte[(int) (spill.getLength() - position)];
+        int offset = 0;
+        int read;
+        while ((read = spill.read(position + offset, result, offset, result.length - offset)) > 0) {
+            offset += read;
+        }
+        assertEquals(result.length, offset);
+        return result;
+    }
+}
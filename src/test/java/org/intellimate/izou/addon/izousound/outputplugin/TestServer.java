@@ -0,0 +1,185 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A local HTTP server for the tests of the URL streams. It serves a single resource, supports Range, If-Range and
+ * If-None-Match requests, and can be told to answer late or to drop the connection in the middle of the resource.
+ */
+class TestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final List<Headers> requests;
+    private volatile byte[] content;
+    private volatile String etag;
+    private volatile long delay;
+    private volatile long dropAfter;
+    private volatile boolean rangeSupported;
+    private volatile int status;
+
+    /**
+     * Creates and starts a new TestServer serving {@code content}
+     *
+     * @param content the content of the resource
+     * @throws IOException thrown if the server could not be started
+     */
+    TestServer(byte[] content) throws IOException {
+        this.content = content;
+        this.etag = "\"1\"";
+        this.dropAfter = -1;
+        this.rangeSupported = true;
+        this.requests = new CopyOnWriteArrayList<>();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "TestServer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.server.createContext("/", this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    /**
+     * Gets the URL of the resource
+     *
+     * @return the URL of the resource
+     */
+    URL getURL() {
+        try {
+            return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), "/track.mp3");
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Replaces the resource, it gets a new ETag
+     *
+     * @param content the new content of the resource
+     * @param etag the ETag of the new content
+     */
+    void setContent(byte[] content, String etag) {
+        this.content = content;
+        this.etag = etag;
+    }
+
+    /**
+     * Sets how long the server waits before it answers a request
+     *
+     * @param delay the delay in milliseconds
+     */
+    void setDelay(long delay) {
+        this.delay = delay;
+    }
+
+    /**
+     * Makes the server drop the connection of the next full response after {@code bytes} bytes
+     *
+     * @param bytes the amount of bytes sent before the connection is dropped, -1 to send everything
+     */
+    void setDropAfter(long bytes) {
+        this.dropAfter = bytes;
+    }
+
+    /**
+     * Sets whether the server answers Range requests, else it always sends the whole resource
+     *
+     * @param rangeSupported true if Range requests are answered
+     */
+    void setRangeSupported(boolean rangeSupported) {
+        this.rangeSupported = rangeSupported;
+    }
+
+    /**
+     * Makes the server answer every request with {@code status} and no content, 0 to answer normally
+     *
+     * @param status the status code to answer with
+     */
+    void setStatus(int status) {
+        this.status = status;
+    }
+
+    /**
+     * Gets the headers of all requests the server received
+     *
+     * @return the headers of the requests, in the order they were received
+     */
+    List<Headers> getRequests() {
+        return requests;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.add(exchange.getRequestHeaders());
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            respond(exchange);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void respond(HttpExchange exchange) throws IOException {
+        byte[] content = this.content;
+        String etag = this.etag;
+        Headers request = exchange.getRequestHeaders();
+        Headers response = exchange.getResponseHeaders();
+        response.set("ETag", etag);
+        if (status != 0) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        } else if (etag.equals(request.getFirst("If-None-Match"))) {
+            exchange.sendResponseHeaders(304, -1);
+            return;
+        }
+
+        String range = request.getFirst("Range");
+        String ifRange = request.getFirst("If-Range");
+        long start = 0;
+        if (range != null && rangeSupported && (ifRange == null || ifRange.equals(etag))) {
+            start = Long.parseLong(range.substring("bytes=".length(), range.length() - 1));
+            if (start >= content.length) {
+                response.set("Content-Range", "bytes */" + content.length);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            response.set("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+            exchange.sendResponseHeaders(206, content.length - start);
+        } else {
+            exchange.sendResponseHeaders(200, content.length);
+        }
+
+        long drop = start == 0 ? dropAfter : -1;
+        if (drop >= 0) {
+            dropAfter = -1;
+        }
+        OutputStream output = exchange.getResponseBody();
+        output.write(content, (int) start, (drop >= 0 ? (int) drop : content.length) - (int) start);
+        output.flush();
+        // Closing a response that is not complete drops the connection
+        output.close();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,91 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import javazoom.jl.decoder.Decoder;
+import javazoom.jl.decoder.JavaLayerException;
+import javazoom.jl.player.AudioDevice;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackPlayerTest {
+    @Test
+    public void prerollStopsAtEndFrame() throws JavaLayerException {
+        TrackPlayer trackPlayer = open(20);
+        trackPlayer.prepare(0, 3, SoundEngine.PREROLL_FRAMES);
+
+        assertEquals(0, trackPlayer.getFrame());
+        CountingDevice device = new CountingDevice();
+        while (trackPlayer.playFrame(device, 3)) {
+            assertTrue(device.writes <= 3);
+        }
+        assertEquals(3, device.writes);
+        assertEquals(3, trackPlayer.getFrame());
+    }
+
+    @Test
+    public void prerollOfBoundedSegment() throws JavaLayerException {
+        TrackPlayer trackPlayer = open(40);
+        trackPlayer.prepare(10, 15, SoundEngine.PREROLL_FRAMES);
+
+        assertEquals(10, trackPlayer.getFrame());
+        CountingDevice device = new CountingDevice();
+        while (trackPlayer.playFrame(device, 15)) {
+            assertTrue(device.writes <= 5);
+        }
+        assertEquals(5, device.writes);
+    }
+
+    @Test
+    public void prerollOfTrackShorterThanPreroll() throws JavaLayerException {
+        TrackPlayer trackPlayer = open(5);
+        trackPlayer.prepare(0, Integer.MAX_VALUE, SoundEngine.PREROLL_FRAMES);
+
+        CountingDevice device = new CountingDevice();
+        while (trackPlayer.playFrame(device, Integer.MAX_VALUE)) {
+            assertTrue(device.writes <= 5);
+        }
+        assertEquals(5, device.writes);
+        assertFalse(trackPlayer.isPrerolled());
+    }
+
+    private static TrackPlayer open(int frames) {
+        byte[] data = Mp3Frames.generate(frames, 44100, Mp3Frames.STEREO, frames);
+        return new TrackPlayer(null, new ByteArrayInputStream(data), 0);
+    }
+
+    // Counts the frames written to it
+    private static class CountingDevice implements AudioDevice {
+        private int writes;
+
+        @Override
+        public void open(Decoder decoder) {
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void write(short[] samples, int offset, int length) {
+            writes++;
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public int getPosition() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package org.intellimate.izou.addon.izousound.outputplugin;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VolumeControlTest {
+    private static final int FREQUENCY = 44100;
+    private static final int RAMP_FRAMES = FREQUENCY * VolumeControl.RAMP_MILLISECONDS / 1000;
+
+    @Test
+    public void fullVolumeLeavesSamples() {
+        VolumeControl volumeControl = new VolumeControl();
+        short[] samples = samples(1000, (short) 12345);
+        volumeControl.apply(samples, samples.length, 2, FREQUENCY);
+        assertArrayEquals(samples(1000, (short) 12345), samples);
+    }
+
+    @Test
+    public void volumeIsRamped() {
+        VolumeControl volumeControl = new VolumeControl();
+        volumeControl.setVolume(50);
+        short[] samples = samples(2 * RAMP_FRAMES, (short) 10000);
+        volumeControl.apply(samples, samples.length, 2, FREQUENCY);
+
+        assertTrue(samples[0] < 10000 && samples[0] > 9900);
+        for (int i = 0; i < samples.length; i += 2) {
+            assertEquals(samples[i], samples[i + 1]);
+            if (i > 0) {
+                assertTrue(samples[i] <= samples[i - 2]);
+            }
+        }
+        // The volume is mapped on a square curve, half the volume is a quarter of the gain
+        int rampEnd = RAMP_FRAMES * 2;
+        for (int i = rampEnd; i < samples.length; i++) {
+            assertEquals(2500, samples[i]);
+        }
+
+        // Once the ramp is over the gain is applied right away
+        short[] more = samples(10, (short) -10000);
+        volumeControl.apply(more, more.length, 2, FREQUENCY);
+        assertArrayEquals(samples(10, (short) -2500), more);
+    }
+
+    @Test
+    public void rampContinuesAcrossBuffers() {
+        VolumeControl volumeControl = new VolumeControl();
+        volumeControl.setVolume(0);
+        short[] first = samples(100, (short) 10000);
+        volumeControl.apply(first, first.length, 1, FREQUENCY);
+        short[] second = samples(100, (short) 10000);
+        volumeControl.apply(second, second.length, 1, FREQUENCY);
+
+        assertTrue(second[0] <= first[first.length - 1]);
+        assertTrue(second[0] > 0);
+    }
+
+    @Test
+    public void volumeIsClamped() {
+        VolumeControl volumeControl = new VolumeControl();
+        volumeControl.setVolume(-20);
+        short[] samples = samples(2 * RAMP_FRAMES, Short.MAX_VALUE);
+        volumeControl.apply(samples, samples.length, 1, FREQUENCY);
+        assertEquals(0, samples[samples.length - 1]);
+
+        volumeControl.setVolume(250);
+        samples = samples(2 * RAMP_FRAMES, Short.MIN_VALUE);
+        volumeControl.apply(samples, samples.length, 1, FREQUENCY);
+        assertEquals(Short.MIN_VALUE, samples[samples.length - 1]);
+        for (short sample : samples) {
+            assertTrue(sample <= 0);
+        }
+    }
+
+    private static short[] samples(int length, short value) {
+        short[] samples = new short[length];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+}